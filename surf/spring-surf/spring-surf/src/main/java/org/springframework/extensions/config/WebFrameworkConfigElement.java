@@ -142,6 +142,10 @@ public class WebFrameworkConfigElement extends ConfigElementAdapter implements W
     
     protected Boolean calculateWebScriptDependencies;
     
+    protected Boolean singlePassHeadRendering;
+    
+    protected Boolean fragmentCaching;
+    
     protected Boolean enableRemoteResourceHandling;
     
     protected Boolean enableExtensionModulesOnGuestPages;
@@ -356,6 +360,18 @@ public class WebFrameworkConfigElement extends ConfigElementAdapter implements W
             combinedElement.calculateWebScriptDependencies = configElement.calculateWebScriptDependencies;
         }
         
+        combinedElement.singlePassHeadRendering = this.singlePassHeadRendering;
+        if (configElement.singlePassHeadRendering != null)
+        {
+            combinedElement.singlePassHeadRendering = configElement.singlePassHeadRendering;
+        }
+        
+        combinedElement.fragmentCaching = this.fragmentCaching;
+        if (configElement.fragmentCaching != null)
+        {
+            combinedElement.fragmentCaching = configElement.fragmentCaching;
+        }
+        
         combinedElement.enableRemoteResourceHandling = this.enableRemoteResourceHandling;
         if (configElement.enableRemoteResourceHandling != null)
         {
@@ -608,6 +624,26 @@ public class WebFrameworkConfigElement extends ConfigElementAdapter implements W
         return (this.calculateWebScriptDependencies != null) ? this.calculateWebScriptDependencies.booleanValue() : Boolean.TRUE;
     }
     
+    public boolean isSinglePassHeadRenderingEnabled()
+    {
+        return (this.singlePassHeadRendering != null) ? this.singlePassHeadRendering.booleanValue() : Boolean.FALSE;
+    }
+    
+    /**
+     * <p>Updates whether the .head templates of components are rendered along with their bodies. This method
+     * has been provided so that both rendering modes can be compared against the same configuration.</p>
+     * @param singlePassHeadRendering boolean
+     */
+    public void setSinglePassHeadRendering(boolean singlePassHeadRendering)
+    {
+        this.singlePassHeadRendering = singlePassHeadRendering;
+    }
+    
+    public boolean isFragmentCachingEnabled()
+    {
+        return (this.fragmentCaching != null) ? this.fragmentCaching.booleanValue() : Boolean.TRUE;
+    }
+    
     public boolean isRemoteResourceResolvingEnabled()
     {
         return (this.enableRemoteResourceHandling != null) ? this.enableRemoteResourceHandling.booleanValue() : Boolean.FALSE; 
@@ -876,6 +912,7 @@ public class WebFrameworkConfigElement extends ConfigElementAdapter implements W
     {
         private static final String CACHE_ENABLED = "cache-enabled";
         private static final String CACHE_CHECK_DELAY = "cache-check-delay";
+        private static final String COMPACT_MODEL_OBJECTS = "compact-model-objects";
 
         PersisterConfigDescriptor(Element el)
         {
@@ -902,6 +939,16 @@ public class WebFrameworkConfigElement extends ConfigElementAdapter implements W
             }
             return value;
         }
+        public Boolean getCompactModelObjects()
+        {
+            Boolean enabled = null;
+            String value = getStringProperty(COMPACT_MODEL_OBJECTS);
+            if (value != null && value.length() != 0)
+            {
+                enabled = Boolean.parseBoolean(value);
+            }
+            return enabled;
+        }
 
         // Setters which are included for autowire support        
         
@@ -1275,6 +1322,18 @@ public class WebFrameworkConfigElement extends ConfigElementAdapter implements W
             configElement.calculateWebScriptDependencies = Boolean.valueOf(calculateWebScriptDependencies);
         }
         
+        String singlePassHeadRendering = elem.elementTextTrim("single-pass-head-rendering");
+        if (singlePassHeadRendering != null)
+        {
+            configElement.singlePassHeadRendering = Boolean.valueOf(singlePassHeadRendering);
+        }
+        
+        String fragmentCaching = elem.elementTextTrim("fragment-caching");
+        if (fragmentCaching != null)
+        {
+            configElement.fragmentCaching = Boolean.valueOf(fragmentCaching);
+        }
+        
         String enableRemoteResources = elem.elementTextTrim("enable-remote-resource-resolving");
         if (enableRemoteResources != null)
         {
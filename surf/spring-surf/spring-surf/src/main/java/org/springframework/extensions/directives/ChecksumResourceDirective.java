@@ -111,6 +111,7 @@ public class ChecksumResourceDirective extends AbstractDependencyExtensibilityDi
                                     // If we're generating CSS data images for CSS files then do it now...
                                     if (handler.getWebFrameworkConfigElement().isGenerateCssDataImagesEnabled() && handler.getCssDataImageHandler() != null)
                                     {
+                                        handler.removeDependencies(path);
                                         handler.getCssDataImageHandler().processCssImages(path, processedContents);                 // works on the StringBuilder directly
                                     }
                                     
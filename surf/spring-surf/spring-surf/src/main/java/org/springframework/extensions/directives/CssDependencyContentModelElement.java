@@ -41,4 +41,15 @@ public class CssDependencyContentModelElement extends DependencyDeferredContentS
     {
         return media;
     }
+
+    @Override
+    public DependencyDeferredContentSourceModelElement copy(DeferredContentTargetModelElement targetElement)
+    {
+        CssDependencyContentModelElement copy = new CssDependencyContentModelElement(getId(), getDirectiveName(), getDependency(), getGroup(), this.media, isAggregate(), targetElement);
+        if (hasBeenRemoved())
+        {
+            copy.markAsRemoved();
+        }
+        return copy;
+    }
 }
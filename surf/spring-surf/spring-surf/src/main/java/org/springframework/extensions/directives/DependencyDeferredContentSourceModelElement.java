@@ -158,6 +158,24 @@ public class DependencyDeferredContentSourceModelElement extends DefaultContentM
         }
     }
 
+    /**
+     * <p>Creates a copy of this element for the supplied {@link DeferredContentTargetModelElement}. The copy has
+     * the same <code>removed</code> state but any later change to it does not affect this element, which allows
+     * recorded elements to be registered with the targets of more than one request.</p>
+     * 
+     * @param targetElement The target that the copy will be registered with.
+     * @return A new {@link DependencyDeferredContentSourceModelElement}
+     */
+    public DependencyDeferredContentSourceModelElement copy(DeferredContentTargetModelElement targetElement)
+    {
+        DependencyDeferredContentSourceModelElement copy = new DependencyDeferredContentSourceModelElement(getId(), getDirectiveName(), this.dependency, this.group, this.aggregate, targetElement);
+        if (this.removed)
+        {
+            copy.markAsRemoved();
+        }
+        return copy;
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.directives;
+
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.extensibility.DeferredContentSourceModelElement;
+import org.springframework.extensions.surf.extensibility.DeferredContentTargetModelElement;
+import org.springframework.extensions.surf.render.RenderService;
+
+/**
+ * <p>The {@link DeferredContentTargetModelElement} that outputs the <code>${head}</code> of a template when single pass
+ * head rendering is enabled. The output of the .head templates of the components is registered with it as each
+ * component is rendered in the body of the template and it is flushed once the whole template has been rendered.
+ * It is followed by any additional head content of the template and the dependencies requested by extension modules.</p>
+ * 
+ * @since 6.12
+ */
+public class HeadContentModelElement extends DependencyDeferredContentTargetModelElement
+{
+    public static final String HEAD_CONTENT_ID = "templateHeadContent";
+    public static final String HEAD_CONTENT_NAME = "head";
+    
+    private static final String TYPE = "HeadContent";
+    
+    private RequestContext context;
+    private String additionalContent;
+    
+    public HeadContentModelElement(String id, String directiveName, RequestContext context, String additionalContent)
+    {
+        super(id, directiveName);
+        this.context = context;
+        this.additionalContent = additionalContent;
+    }
+
+    /**
+     * <p>Head content is output as it was rendered so no mapping is required.</p>
+     */
+    protected String getResourceControllerMapping()
+    {
+        return "";
+    }
+    
+    @Override
+    public String getType()
+    {
+        return TYPE;
+    }
+    
+    @Override
+    public String flushContent()
+    {
+        StringBuilder content = new StringBuilder(1024);
+        for (DeferredContentSourceModelElement sourceElement: getSourceElements())
+        {
+            if (sourceElement instanceof HeadContentSourceModelElement && !((HeadContentSourceModelElement) sourceElement).hasBeenRemoved())
+            {
+                content.append(((HeadContentSourceModelElement) sourceElement).getContent());
+                content.append(RenderService.NEWLINE);
+            }
+        }
+        if (this.additionalContent != null)
+        {
+            content.append(this.additionalContent);
+        }
+        content.append(this.context.getExtensionDependencies());
+        return content.toString();
+    }
+}
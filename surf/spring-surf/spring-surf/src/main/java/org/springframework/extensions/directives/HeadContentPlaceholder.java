@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.directives;
+
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+
+/**
+ * <p>The value of <code>${head}</code> when single pass head rendering is enabled. The head cannot be rendered
+ * when the template model is populated because the .head templates of the components are rendered along with their
+ * bodies, so when the value is first output it adds a {@link HeadContentModelElement} to the {@link ExtensibilityModel}
+ * at that point and outputs nothing itself. The head is then written when the model is flushed.</p>
+ * 
+ * @since 6.12
+ */
+public class HeadContentPlaceholder implements TemplateScalarModel
+{
+    private ExtensibilityModel model;
+    private RequestContext context;
+    private String additionalContent;
+    private boolean merged = false;
+    
+    /**
+     * @param model The {@link ExtensibilityModel} of the template.
+     * @param context The current {@link RequestContext}
+     * @param additionalContent Content to output after the .head templates of the components.
+     */
+    public HeadContentPlaceholder(ExtensibilityModel model, RequestContext context, String additionalContent)
+    {
+        this.model = model;
+        this.context = context;
+        this.additionalContent = additionalContent;
+    }
+    
+    public String getAsString() throws TemplateModelException
+    {
+        if (!this.merged)
+        {
+            this.merged = true;
+            try
+            {
+                this.model.merge(new HeadDirectiveData(HeadContentModelElement.HEAD_CONTENT_ID, 
+                                                       HeadContentModelElement.HEAD_CONTENT_NAME, 
+                                                       Environment.getCurrentEnvironment(), 
+                                                       this.context, 
+                                                       this.additionalContent));
+            }
+            catch (Exception e)
+            {
+                throw new TemplateModelException("Unable to add the head to the template", e);
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.directives;
+
+import org.springframework.extensions.surf.extensibility.DeferredContentSourceModelElement;
+import org.springframework.extensions.surf.extensibility.DeferredContentTargetModelElement;
+
+/**
+ * <p>A {@link DeferredContentSourceModelElement} holding the output of the .head template of a component that is
+ * registered with the {@link HeadContentModelElement} of the template.</p>
+ * 
+ * @since 6.12
+ */
+public class HeadContentSourceModelElement extends DependencyDeferredContentSourceModelElement
+{
+    public HeadContentSourceModelElement(String id,
+                                         String directiveName,
+                                         String content,
+                                         DeferredContentTargetModelElement targetElement)
+    {
+        super(id, directiveName, content, null, false, targetElement);
+    }
+    
+    /**
+     * @return The output of the .head template.
+     */
+    public String getContent()
+    {
+        return getDependency();
+    }
+    
+    @Override
+    public DependencyDeferredContentSourceModelElement copy(DeferredContentTargetModelElement targetElement)
+    {
+        HeadContentSourceModelElement copy = new HeadContentSourceModelElement(getId(), getDirectiveName(), getContent(), targetElement);
+        if (hasBeenRemoved())
+        {
+            copy.markAsRemoved();
+        }
+        return copy;
+    }
+}
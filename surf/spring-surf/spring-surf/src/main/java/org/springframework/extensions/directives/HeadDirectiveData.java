@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.directives;
+
+import java.io.IOException;
+
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.extensibility.ContentModelElement;
+import org.springframework.extensions.surf.extensibility.impl.DefaultExtensibilityDirectiveData;
+import org.springframework.extensions.surf.extensibility.impl.ModelWriter;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateException;
+
+/**
+ * <p>Adds a {@link HeadContentModelElement} to the model at the point where the <code>${head}</code> of a template
+ * is output.</p>
+ * 
+ * @since 6.12
+ */
+public class HeadDirectiveData extends DefaultExtensibilityDirectiveData
+{
+    private RequestContext context;
+    private String additionalContent;
+    
+    public HeadDirectiveData(String id, 
+                             String directiveName,
+                             Environment env,
+                             RequestContext context,
+                             String additionalContent)
+    {
+        super(id, null, null, directiveName, null, env);
+        this.context = context;
+        this.additionalContent = additionalContent;
+    }
+    
+    @Override
+    public ContentModelElement createContentModelElement()
+    {
+        return new HeadContentModelElement(getId(), getDirectiveName(), this.context, this.additionalContent);
+    }
+
+    @Override
+    public void render(ModelWriter writer) throws TemplateException, IOException
+    {
+        // The content is only generated when the model is flushed...
+    }
+}
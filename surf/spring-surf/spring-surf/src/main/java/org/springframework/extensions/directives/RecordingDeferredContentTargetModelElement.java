@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.directives;
+
+import org.springframework.extensions.surf.extensibility.DeferredContentSourceModelElement;
+import org.springframework.extensions.surf.extensibility.DeferredContentTargetModelElement;
+
+/**
+ * <p>A {@link DeferredContentTargetModelElement} that stands in for a target in another model. The
+ * {@link DeferredContentSourceModelElement} instances registered with it are only recorded and are passed on to the
+ * real target by {@link #replay()}. This allows dependencies to be requested whilst rendering a forked part of the
+ * page without touching the page model until the forked output is merged back into it.</p>
+ * 
+ * @since 6.12
+ */
+public class RecordingDeferredContentTargetModelElement extends DependencyDeferredContentTargetModelElement
+{
+    private static final String TYPE = "RecordingDependencyContent";
+    
+    /**
+     * <p>The target that the recorded elements are replayed into.</p>
+     */
+    private DeferredContentTargetModelElement target;
+    
+    public RecordingDeferredContentTargetModelElement(String id, String directiveName, DeferredContentTargetModelElement target)
+    {
+        super(id, directiveName);
+        this.target = target;
+    }
+
+    /**
+     * <p>Uses the mapping of the real target when it provides one.</p>
+     */
+    protected String getResourceControllerMapping()
+    {
+        String mapping = null;
+        if (this.target instanceof DependencyDeferredContentTargetModelElement)
+        {
+            mapping = ((DependencyDeferredContentTargetModelElement) this.target).getResourceControllerMapping();
+        }
+        return mapping;
+    }
+    
+    @Override
+    public String getType()
+    {
+        return TYPE;
+    }
+    
+    /**
+     * <p>Registers the recorded {@link DeferredContentSourceModelElement} instances with the real target in the order
+     * that they were recorded and then clears them. The real target is released as the recorded elements still
+     * reference this target and may be cached beyond the current request.</p>
+     */
+    public void replay()
+    {
+        if (this.target != null)
+        {
+            for (DeferredContentSourceModelElement sourceElement: getSourceElements())
+            {
+                this.target.registerDeferredSourceElement(sourceElement);
+            }
+            this.target = null;
+        }
+        getSourceElements().clear();
+    }
+}
@@ -48,7 +48,7 @@ import com.google.javascript.jscomp.VariableRenamingPolicy;
  * 
  * @author Kevin Roast
  */
-public class ClosureJavaScriptCompressionHandler implements JavaScriptCompressionHandler
+public class ClosureJavaScriptCompressionHandler implements JavaScriptCompressionHandler, CompressionSettingsProvider
 {
     private static final Log logger = LogFactory.getLog(ClosureJavaScriptCompressionHandler.class);
     
@@ -61,6 +61,12 @@ public class ClosureJavaScriptCompressionHandler implements JavaScriptCompressio
         this.whitespaceOnly = whitespaceOnly;
     }
     
+    @Override
+    public String getCompressionSettings()
+    {
+        return "whitespaceOnly=" + whitespaceOnly + ",version=" + Compiler.getReleaseVersion();
+    }
+    
     @Override
     public void compress(Reader reader, Writer writer) throws IOException
     {
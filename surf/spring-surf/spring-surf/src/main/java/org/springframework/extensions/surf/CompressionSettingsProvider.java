@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf;
+
+/**
+ * Optional contract for a {@link JavaScriptCompressionHandler} or {@link CSSCompressionHandler} whose output
+ * depends upon its configuration. The returned settings are included in the keys of the persistent resource
+ * cache so that compressed content is never reused after the compressor has been reconfigured.
+ * 
+ * @since 6.12
+ */
+public interface CompressionSettingsProvider
+{
+    /**
+     * @return A string that changes whenever a setting that affects the compressed output changes.
+     */
+    public String getCompressionSettings();
+}
@@ -21,20 +21,27 @@ package org.springframework.extensions.surf;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
+import org.springframework.extensions.surf.cache.RetainedSizeWeighers;
+import org.springframework.extensions.surf.cache.SizeBoundedCacheProvider;
 import org.springframework.extensions.surf.util.Base64;
 import org.springframework.extensions.surf.util.CacheReport;
 import org.springframework.extensions.surf.util.CacheReporter;
 
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
 /**
  * <p>This class provides the capability to search through CSS resources and convert all URL references to be Base64 encoded data. This
  * can have performance benefits since as CSS files that include data rather than links will reduce the number of HTTP requests that the
@@ -44,7 +51,7 @@ import org.springframework.extensions.surf.util.CacheReporter;
  * 
  * @author David Draper
  */
-public class CssImageDataHandler implements CacheReporter
+public class CssImageDataHandler implements CacheReporter, DependencyInvalidationListener, SizeBoundedCacheProvider
 {
     private static final Log logger = LogFactory.getLog(DependencyHandler.class);
     
@@ -291,8 +298,10 @@ public class CssImageDataHandler implements CacheReporter
                         }
                         sb.append(imageSrc);
                         
-                        // Get the encoded image...
-                        String encodedImage = getEncodedImage(sb.toString());
+                        // Get the encoded image (recording that the CSS file now depends upon it)...
+                        String imagePath = sb.toString();
+                        this.dependencyHandler.addDependency(imagePath, cssPath);
+                        String encodedImage = getEncodedImage(imagePath);
                         if (encodedImage != null)
                         {
                             // Update the CSS source to replace the URL with the encoded image data... 
@@ -337,15 +346,102 @@ public class CssImageDataHandler implements CacheReporter
     }
     
     /**
-     * <p>A lock for controlling access to the encoded image cache.</p>
+     * <p>The default maximum total size in bytes of the encoded images to cache.</p>
+     */
+    public static final int DEFAULT_ENCODED_IMAGE_CACHE_MAX_SIZE = 16 * 1024 * 1024;
+    
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    
+    /**
+     * <p>An encoded image held in the cache. The Base64 encoding is either held as a String or, when stored off-heap,
+     * as ASCII bytes in a direct {@link ByteBuffer} that is decoded each time the image is used.</p>
      */
-    private ReentrantReadWriteLock encodedImageCacheLock = new ReentrantReadWriteLock();
+    private static final class EncodedImage
+    {
+        private final String value;
+        private final ByteBuffer buffer;
+        
+        private EncodedImage(String value, boolean offHeap)
+        {
+            if (offHeap && value.length() != 0)
+            {
+                byte[] bytes = value.getBytes(ASCII);
+                this.buffer = ByteBuffer.allocateDirect(bytes.length);
+                this.buffer.put(bytes);
+                this.buffer.flip();
+                this.value = null;
+            }
+            else
+            {
+                this.buffer = null;
+                this.value = value;
+            }
+        }
+        
+        /**
+         * @return The size of the encoded image in bytes
+         */
+        private int size()
+        {
+            return this.value != null ? this.value.length() * 2 : this.buffer.capacity();
+        }
+        
+        @Override
+        public String toString()
+        {
+            String encodedImage = this.value;
+            if (encodedImage == null)
+            {
+                byte[] bytes = new byte[this.buffer.capacity()];
+                this.buffer.duplicate().get(bytes);
+                encodedImage = new String(bytes, ASCII);
+            }
+            return encodedImage;
+        }
+    }
     
     /**
      * <p>A cache of previously encoded images. A single image might be used multiple times within one or more
-     * CSS files so there is no point in repeatedly encoding it.</p>
+     * CSS files so there is no point in repeatedly encoding it. Encoded images can be large so the cache is
+     * bounded by the total size of the encoded images rather than the number of images.</p>
      */
-    private Map<String, String> encodedImageCache = new HashMap<String, String>(256);
+    private final ConcurrentLoadingCache<EncodedImage> encodedImageCache = new ConcurrentLoadingCache<EncodedImage>(
+            "encodedImageCache", DEFAULT_ENCODED_IMAGE_CACHE_MAX_SIZE, new Weigher<EncodedImage>()
+            {
+                @Override
+                public int weightOf(EncodedImage image)
+                {
+                    return RetainedSizeWeighers.ENTRY_OVERHEAD + image.size();
+                }
+            });
+    
+    /**
+     * <p>Sets the maximum total size in bytes of the encoded images to cache. This bounds the memory used by the
+     * encoded images wherever they are held, so when they are cached off-heap it bounds the direct memory used.</p>
+     * @param encodedImageCacheMaxSize int
+     */
+    public void setEncodedImageCacheMaxSize(int encodedImageCacheMaxSize)
+    {
+        this.encodedImageCache.setCapacity(encodedImageCacheMaxSize);
+    }
+    
+    /**
+     * <p>Indicates whether encoded images should be cached outside of the Java heap.</p>
+     */
+    private boolean encodedImageCacheOffHeap = false;
+    
+    /**
+     * <p>Sets whether encoded images should be cached outside of the Java heap (in direct buffers). This reduces
+     * the heap used by the cache at the cost of decoding the image each time it is used.</p>
+     * <p>An off-heap cache is not part of the heap budget shared out by the
+     * {@link org.springframework.extensions.surf.cache.CacheBudgetService}, it is only bounded by its own maximum
+     * size (see {@link #setEncodedImageCacheMaxSize(int)}).</p>
+     * @param encodedImageCacheOffHeap boolean
+     */
+    public void setEncodedImageCacheOffHeap(boolean encodedImageCacheOffHeap)
+    {
+        this.encodedImageCacheOffHeap = encodedImageCacheOffHeap;
+    }
     
     /**
      * <p>The empty String is used as the missing image sentinel. We cannot use null as this will indicate that
@@ -354,6 +450,37 @@ public class CssImageDataHandler implements CacheReporter
      */
     public static final String MISSING_IMAGE_SENTINENEL = "";
     
+    private static final EncodedImage MISSING_IMAGE = new EncodedImage(MISSING_IMAGE_SENTINENEL, false);
+    
+    /**
+     * <p>Loads and encodes images that are not in the encoded image cache. Only one thread will load any given image,
+     * other threads requesting the same image at the same time will wait for the result.</p>
+     */
+    private final ConcurrentLoadingCache.Loader<EncodedImage> encodedImageLoader = new ConcurrentLoadingCache.Loader<EncodedImage>()
+    {
+        @Override
+        public EncodedImage load(String path) throws IOException
+        {
+            EncodedImage encodedImage = null;
+            InputStream in = dependencyHandler.getResourceInputStream(path);
+            if (in != null)
+            {
+                String encoded = encodeImage(in);
+                if (encoded != null)
+                {
+                    encodedImage = new EncodedImage(encoded, encodedImageCacheOffHeap);
+                }
+            }
+            else
+            {
+                // If the image could not be loaded then store a sentinel in the cache
+                // so that we avoid trying to look it up again...
+                encodedImage = MISSING_IMAGE;
+            }
+            return encodedImage;
+        }
+    };
+    
     /**
      * <p>Gets the encoded image for the supplied path. This method will first check the private cache to see
      * if the image has previously been encoded and if it cannot be found then it will attempt to load the
@@ -365,61 +492,18 @@ public class CssImageDataHandler implements CacheReporter
     public String getEncodedImage(String path)
     {
         String encodedImage = null;
-        
-        // Check the cache to see if the image has previously been encoded...
-        this.encodedImageCacheLock.readLock().lock();
         try
         {
-            encodedImage = this.encodedImageCache.get(path);
-        }
-        finally
-        {
-            this.encodedImageCacheLock.readLock().unlock();
-        }
-        
-        if (encodedImage == null)
-        {
-            this.encodedImageCacheLock.writeLock().lock();
-            try
-            {
-                // check again as multiple threads could been waiting on the write lock
-                encodedImage = this.encodedImageCache.get(path);
-                if (encodedImage == null)
-                {
-                    // The image has not previously been encoded, load the image and encode it now...
-                    InputStream in = this.dependencyHandler.getResourceInputStream(path);
-                    if (in != null)
-                    {
-                        encodedImage = encodeImage(in);
-                    }
-                    
-                    if (encodedImage != null)
-                    {
-                        // Store the encoded image in the cache...
-                        this.encodedImageCache.put(path, encodedImage);
-                    }
-                    else if (in == null)
-                    {
-                        // If the image could not be loaded then store a sentinel in the cache
-                        // so that we avoid trying to look it up again...
-                        this.encodedImageCache.put(path, MISSING_IMAGE_SENTINENEL);
-                    }
-                }
-            }
-            catch (IOException e)
-            {
-                logger.error("The following error occurred attempting to Base64 encode \"" + path + "\": ", e);
-            }
-            finally
+            // If the cache returns the sentinel object the image could not be found...
+            EncodedImage image = this.encodedImageCache.get(path, this.encodedImageLoader);
+            if (image != null && image != MISSING_IMAGE)
             {
-                this.encodedImageCacheLock.writeLock().unlock();
+                encodedImage = image.toString();
             }
         }
-        else if (encodedImage == MISSING_IMAGE_SENTINENEL)
+        catch (IOException e)
         {
-            // If the cache returned the sentinel object the switch it back to be null to 
-            // indicate that the image could not be found...
-            encodedImage = null;
+            logger.error("The following error occurred attempting to Base64 encode \"" + path + "\": ", e);
         }
         return encodedImage;
     }
@@ -493,35 +577,40 @@ public class CssImageDataHandler implements CacheReporter
     @Override
     public void clearCaches()
     {
-        this.encodedImageCacheLock.writeLock().lock();
-        try
-        {
-            this.encodedImageCache.clear();
-        }
-        finally
+        this.encodedImageCache.clear();
+    }
+    
+    @Override
+    public void invalidateDependencies(Set<String> paths)
+    {
+        for (String path: paths)
         {
-            this.encodedImageCacheLock.writeLock().unlock();
+            this.encodedImageCache.remove(path);
         }
     }
     
+    @Override
+    public List<ConcurrentLoadingCache<?>> getSizeBoundedCaches()
+    {
+        // the encoded images of an off-heap cache do not use the heap so must not be sized against the heap budget
+        return this.encodedImageCacheOffHeap ? Collections.<ConcurrentLoadingCache<?>>emptyList() :
+                    Collections.<ConcurrentLoadingCache<?>>singletonList(this.encodedImageCache);
+    }
+    
     @Override
     public List<CacheReport> report()
     {
         List<CacheReport> reports = new ArrayList<>(1);
         
-        long size = 0;
-        this.encodedImageCacheLock.writeLock().lock();
-        try
+        // the weighted size of the cache is the total size of the encoded images, which is only on the heap when
+        // the images are not cached off-heap...
+        if (this.encodedImageCacheOffHeap)
         {
-            for (String v : this.encodedImageCache.values())
-            {
-                size += v.length()*2 + 128;
-            }
-            reports.add(new CacheReport("encodedImageCache", this.encodedImageCache.size(), size));
+            reports.add(this.encodedImageCache.report((long)this.encodedImageCache.size() * RetainedSizeWeighers.ENTRY_OVERHEAD));
         }
-        finally
+        else
         {
-            this.encodedImageCacheLock.writeLock().unlock();
+            reports.add(this.encodedImageCache.report());
         }
         
         return reports;
@@ -22,15 +22,30 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,19 +55,22 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.extensions.config.ConfigElement;
 import org.springframework.extensions.config.element.GenericConfigElement;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
+import org.springframework.extensions.surf.cache.PersistentResourceCache;
+import org.springframework.extensions.surf.cache.RetainedSizeWeighers;
+import org.springframework.extensions.surf.cache.SizeBoundedCacheProvider;
 import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
 import org.springframework.extensions.surf.util.CacheReport;
 import org.springframework.extensions.surf.util.CacheReporter;
 import org.springframework.extensions.webscripts.ScriptConfigModel;
 import org.springframework.web.context.WebApplicationContext;
 
-import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
-import com.googlecode.concurrentlinkedhashmap.EvictionListener;
-import com.googlecode.concurrentlinkedhashmap.Weighers;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
 
 /**
  * Bean providing aggregating, compression and caching services for groups of Surf file resource dependencies.
@@ -60,7 +78,8 @@ import com.googlecode.concurrentlinkedhashmap.Weighers;
  * @author David Draper
  * @author Kevin Roast
  */
-public class DependencyAggregator implements ApplicationContextAware, CacheReporter
+public class DependencyAggregator implements ApplicationContextAware, CacheReporter, DependencyInvalidationListener, DisposableBean,
+                                             SizeBoundedCacheProvider
 {
     private static final Log logger = LogFactory.getLog(DependencyAggregator.class);
     
@@ -75,13 +94,42 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
     // is in fact inline JavaScript or CSS to insert into the aggregated results..
     public static final String INLINE_AGGREGATION_MARKER = ">>>";
     
-    /** Set the size of the file cache for MD5 checksums */
+    /**
+     * The maximum number of entries in the caches of the {@link DojoDependencyHandler}. The file set and aggregated
+     * resource caches of this class are sized in bytes through the
+     * {@link org.springframework.extensions.surf.cache.CacheBudgetService}.
+     */
     public int cacheSize = 256;
     public void setCacheSize(int cacheSize)
     {
         this.cacheSize = cacheSize;
     }
     
+    /**
+     * The number of threads used to compress the uncached files of an aggregated JavaScript resource in parallel.
+     * The default of zero compresses the files one after another on the requesting thread.
+     */
+    private int compressionThreadPoolSize = 0;
+    public void setCompressionThreadPoolSize(int compressionThreadPoolSize)
+    {
+        this.compressionThreadPoolSize = compressionThreadPoolSize;
+    }
+    
+    public int getCompressionThreadPoolSize()
+    {
+        return this.compressionThreadPoolSize;
+    }
+    
+    /**
+     * The maximum number of compression tasks that can be queued for the thread pool. When the queue is full
+     * the requesting thread will perform the compression itself.
+     */
+    private int compressionQueueSize = 1024;
+    public void setCompressionQueueSize(int compressionQueueSize)
+    {
+        this.compressionQueueSize = compressionQueueSize;
+    }
+    
     /**
      * The {@link CssImageDataHandler} provides the capability to search through CSS resources and
      * convert all URL references to be Base64 encoded data. 
@@ -137,6 +185,22 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
         this.cssCompressionHandler = cssCompressionHandler;
     }
     
+    /**
+     * The optional {@link PersistentResourceCache} provides a tier beneath the in-memory caches that survives
+     * server restarts. When set, compressed files and aggregated resources are written back to it and will be
+     * read from it before any compression is performed.
+     */
+    private PersistentResourceCache persistentCache;
+    public void setPersistentCache(PersistentResourceCache persistentCache)
+    {
+        this.persistentCache = persistentCache;
+    }
+    
+    public PersistentResourceCache getPersistentCache()
+    {
+        return persistentCache;
+    }
+    
     private List<String> compressionExclusions;
     
     private List<Pattern> compressionExclusionPatterns = new ArrayList<Pattern>();
@@ -187,7 +251,7 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
     private Boolean getDebugFlag(String element, Boolean defaultValue)
     {
         Boolean debugValue = defaultValue;
-        Map<String, ConfigElement> global = scriptConfigModel.getGlobal();
+        Map<String, ConfigElement> global = (scriptConfigModel != null ? scriptConfigModel.getGlobal() : null);
         if (global != null)
         {
             Object flags = global.get(FLAGS);
@@ -314,10 +378,19 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
         if (checksum != null)
         {
             // Re-use the checksum previously generated for this file set...
+            this.aggregatedResourceHits.incrementAndGet();
         }
         else
         {
             boolean cacheByFileSet = true;
+            long start = System.nanoTime();
+            
+            // Compress all the uncached files in parallel (if configured) before aggregating them in order...
+            Map<String, String> compressedFiles = null;
+            if (compressionType == CompressionType.JAVASCRIPT && this.compressionThreadPoolSize > 0 && this.isDebugMode() == false)
+            {
+                compressedFiles = compressFilesInParallel(paths, compressionType);
+            }
 
             // Iterate over the requested paths and aggregate all the content into a single resource (this
             // will be compressed or uncompressed depending upon the debug mode of the application)...
@@ -355,6 +428,8 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
                             {
                                 // For CSS files it's important to adjust URLs to ensure that relative paths are processed
                                 // for un-imported CSS file URLs
+                                // The dependencies of the CSS file are rebuilt as it is processed...
+                                this.dependencyHandler.removeDependencies(path);
                                 StringBuilder sb = new StringBuilder(fileContents);
                                 this.cssImageDataHandler.processCssImages(path, sb);
                                 fileContents = processCssImports(path, sb.toString(), new HashSet<String>()).toString();
@@ -370,7 +445,11 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
                     else
                     {
                         // Retrieve and compress the requested JS file...
-                        fileContents = getCompressedFile(path, compressionType);
+                        fileContents = (compressedFiles != null ? compressedFiles.get(path) : null);
+                        if (fileContents == null)
+                        {
+                            fileContents = getCompressedFile(path, compressionType);
+                        }
                         if (fileContents == null)
                         {
                             // The file could not be found, generate an error but don't fail the process.
@@ -422,139 +501,333 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
             {
                 cacheChecksumForFileSet(paths, checksum);
             }
+            
+            long time = System.nanoTime() - start;
+            this.aggregatedResourceCount.incrementAndGet();
+            this.aggregationTime.addAndGet(time);
+            if (logger.isDebugEnabled())
+                logger.debug("Aggregated " + paths.size() + " resources in " + TimeUnit.NANOSECONDS.toMillis(time) + "ms" +
+                        (compressedFiles != null ? " (" + compressedFiles.size() + " compressed in parallel)" : ""));
         }
         return checksum;
     }
     
     /**
-     * <p>This is a map of String Sets to MD5 checksums. It is maintained in memory for the life cycle of the server.
-     * It is used to cache requests for paths against MD5 checksums to prevent those checksums being repeatedly 
-     * generated. This works on the assumption that file contents cannot be changed while the server is running. 
-     * During development and/or migration the server should be shutdown before updating files.</p> 
+     * The pool used to compress files in parallel - created on first use.
      */
-    private Map<Set<String>, String> fileSetToMD5Map = null;
-    private Map<String, String> compressedJSResources = new HashMap<>(1024);
-    private Map<String, String> compressedCSSResources = new HashMap<>(32);
-    // NOTE: cache eviction from this map is managed by the fileSetToMD5Map implementation EvictionListener - see getFileSetChecksumCache()
-    private Map<String, DependencyResource> combinedDependencyMap = new HashMap<>(256);
-    
-    // Locks for accessing caches...
-    private ReentrantReadWriteLock fileSetToMD5MapLock = new ReentrantReadWriteLock();
-    private ReentrantReadWriteLock compressedJSResourcesLock = new ReentrantReadWriteLock();
-    private ReentrantReadWriteLock compressedCSSResourcesLock = new ReentrantReadWriteLock();
-    private ReentrantReadWriteLock combinedDependencyMapLock = new ReentrantReadWriteLock();
+    private volatile ExecutorService compressionExecutor = null;
     
     /**
-     * This checks the cache to see if the requested set of files has previously been used to generate
-     * an aggregated resource. The supplied fileset is updated to include the current theme id to ensure
-     * that theme specific resources are returned (the theme id is removed after the cache is checked).
-     * 
-     * @param fileSet Set<String>
-     * @return String
+     * Statistics on the generation of aggregated resources and the compression of their files in parallel (times are
+     * recorded in nanoseconds).
      */
-    public String getCachedChecksumForFileSet(Set<String> fileSet)
+    private final AtomicLong aggregatedResourceHits = new AtomicLong();
+    private final AtomicLong aggregatedResourceCount = new AtomicLong();
+    private final AtomicLong aggregationTime = new AtomicLong();
+    private final AtomicLong parallelCompressionCount = new AtomicLong();
+    private final AtomicLong parallelCompressionPoolCount = new AtomicLong();
+    private final AtomicLong parallelCompressionTime = new AtomicLong();
+    
+    /**
+     * @return The number of aggregated resources that have been generated.
+     */
+    public long getAggregatedResourceCount()
     {
-        String themeId = ThreadLocalRequestContext.getRequestContext().getThemeId();
-        fileSet.add(themeId);
-        String checksum = this.getFileSetChecksumCache().get(fileSet);
-        fileSet.remove(themeId);
-        return checksum;
+        return this.aggregatedResourceCount.get();
     }
     
     /**
-     * Caches a generated aggregated resource checksum against the fileset that it was
-     * generated against. The current theme id is added to the fileset to ensure that
-     * resources are cached per theme.
-     * 
-     * @param fileSet Set<String>
-     * @param checksum String
+     * @return The total time in milliseconds spent generating aggregated resources.
      */
-    protected void cacheChecksumForFileSet(Set<String> fileSet, String checksum)
+    public long getAggregationTime()
     {
-        String themeId = ThreadLocalRequestContext.getRequestContext().getThemeId();
-        fileSet.add(themeId);
-        this.getFileSetChecksumCache().put(fileSet, checksum);
+        return TimeUnit.NANOSECONDS.toMillis(this.aggregationTime.get());
     }
     
     /**
-     * Construct the File Set MD5 Checksum Cache
-     * Currently this cache is based on a ConcurrentLinkedHashMap impl - to maintain a maximum size and insert order
-     * allowing old items to be ejected in a deterministic pattern.
+     * @return The number of files that have been compressed by the compression thread pool.
+     */
+    public long getParallelCompressionCount()
+    {
+        return this.parallelCompressionCount.get();
+    }
+    
+    /**
+     * Gets the thread pool for compressing files, creating it if necessary.
      * 
-     * @return cache Map
+     * @return ExecutorService
      */
-    protected Map<Set<String>, String> getFileSetChecksumCache()
+    private ExecutorService getCompressionExecutor()
     {
-        if (this.fileSetToMD5Map == null)
+        ExecutorService executor = this.compressionExecutor;
+        if (executor == null)
         {
-            this.fileSetToMD5MapLock.writeLock().lock();
-            try
+            synchronized (this)
             {
-                // check again as multiple threads could have been waiting on the write lock
-                if (this.fileSetToMD5Map == null)
+                executor = this.compressionExecutor;
+                if (executor == null)
                 {
-                    this.fileSetToMD5Map = new ConcurrentLinkedHashMap.Builder<Set<String>, String>()
-                             .maximumWeightedCapacity(this.cacheSize)
-                             .concurrencyLevel(16)
-                             .weigher(Weighers.singleton())
-                             .listener(new EvictionListener<Set<String>, String>() {
-                                    /**
-                                     * Listener called when a key/value pair is evicted from the cache - we use this to ensure the validity
-                                     * of the combinedDependencyMap cache in which data must exist when a user attempts to view a page with
-                                     * a previously cached value - as it will have been written to the page as a resource checksum link.
-                                     */
-                                    @Override
-                                    public void onEviction(Set<String> key, String value)
-                                    {
-                                        // the value in this cache is the 'checksum' which is used as the key in the dependency Map cache
-                                        combinedDependencyMapLock.writeLock().lock();
-                                        try
-                                        {
-                                            combinedDependencyMap.remove(value);
-                                        }
-                                        finally
-                                        {
-                                            combinedDependencyMapLock.writeLock().unlock();
-                                        }
-                                    }
-                                })
-                             .build();
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                            this.compressionThreadPoolSize, this.compressionThreadPoolSize, 60L, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(this.compressionQueueSize),
+                            new ThreadFactory()
+                            {
+                                private final AtomicInteger count = new AtomicInteger();
+                                
+                                @Override
+                                public Thread newThread(Runnable r)
+                                {
+                                    Thread thread = new Thread(r, "DependencyAggregator-" + count.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            },
+                            new ThreadPoolExecutor.CallerRunsPolicy());
+                    pool.allowCoreThreadTimeOut(true);
+                    this.compressionExecutor = executor = pool;
                 }
             }
-            finally
+        }
+        return executor;
+    }
+    
+    /**
+     * <p>Compresses all the files in the supplied set that have not previously been compressed using the compression
+     * thread pool and waits for them to complete. Files that could not be compressed will not be included in the returned
+     * map and should be processed individually to report the error.</p>
+     * 
+     * @param paths The paths of the files to compress.
+     * @param compressionType CompressionType
+     * @return A map of path to compressed file contents.
+     */
+    private Map<String, String> compressFilesInParallel(final Set<String> paths, final CompressionType compressionType)
+    {
+        // Resolve the debug flags on the request thread...
+        isCollationDebugMode();
+        
+        List<String> uncompressedPaths = new ArrayList<>();
+        for (String path: paths)
+        {
+            if (!path.startsWith(INLINE_AGGREGATION_MARKER) && getCachedCompressedJSResource(path) == null)
             {
-                this.fileSetToMD5MapLock.writeLock().unlock();
+                uncompressedPaths.add(path);
             }
         }
-        return this.fileSetToMD5Map;
+        
+        Map<String, String> compressedFiles = new HashMap<>(uncompressedPaths.size());
+        if (uncompressedPaths.size() > 1)
+        {
+            ExecutorService executor = getCompressionExecutor();
+            final Thread requestThread = Thread.currentThread();
+            Map<String, Future<String>> tasks = new HashMap<>(uncompressedPaths.size());
+            this.parallelCompressionCount.addAndGet(uncompressedPaths.size());
+            for (final String path: uncompressedPaths)
+            {
+                tasks.put(path, executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        // Tasks are run on the requesting thread when the queue is full...
+                        if (Thread.currentThread() != requestThread)
+                        {
+                            parallelCompressionPoolCount.incrementAndGet();
+                        }
+                        long start = System.nanoTime();
+                        try
+                        {
+                            return getCompressedFile(path, compressionType);
+                        }
+                        finally
+                        {
+                            parallelCompressionTime.addAndGet(System.nanoTime() - start);
+                        }
+                    }
+                }));
+            }
+            
+            for (Entry<String, Future<String>> task: tasks.entrySet())
+            {
+                try
+                {
+                    String compressedFile = task.getValue().get();
+                    if (compressedFile != null)
+                    {
+                        compressedFiles.put(task.getKey(), compressedFile);
+                    }
+                }
+                catch (ExecutionException e)
+                {
+                    // No action required - the file will be processed again individually to report the error
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return compressedFiles;
     }
     
-    public String getCachedCompressedJSResource(String path)
+    /**
+     * Shuts down the compression thread pool.
+     */
+    @Override
+    public void destroy()
     {
-        String checksum = null;
-        this.compressedJSResourcesLock.readLock().lock();
-        try
+        ExecutorService executor = this.compressionExecutor;
+        if (executor != null)
         {
-            checksum = this.compressedJSResources.get(path);
+            executor.shutdownNow();
         }
-        finally
+    }
+    
+    /**
+     * <p>The default maximum size in bytes of the compressed JavaScript resources to cache.</p>
+     */
+    public static final int DEFAULT_COMPRESSED_JS_CACHE_MAX_SIZE = 32 * 1024 * 1024;
+    
+    /**
+     * <p>The default maximum size in bytes of the compressed CSS resources to cache.</p>
+     */
+    public static final int DEFAULT_COMPRESSED_CSS_CACHE_MAX_SIZE = 8 * 1024 * 1024;
+    
+    private final ConcurrentLoadingCache<String> compressedJSResources = new ConcurrentLoadingCache<String>("compressedJSResources", DEFAULT_COMPRESSED_JS_CACHE_MAX_SIZE, RetainedSizeWeighers.strings());
+    private final ConcurrentLoadingCache<String> compressedCSSResources = new ConcurrentLoadingCache<String>("compressedCSSResources", DEFAULT_COMPRESSED_CSS_CACHE_MAX_SIZE, RetainedSizeWeighers.strings());
+    
+    /**
+     * <p>The names of the file set and aggregated resource caches (as used to size them through the
+     * {@link org.springframework.extensions.surf.cache.CacheBudgetService}).</p>
+     */
+    public static final String FILE_SET_CACHE_NAME = "fileSetToMD5Map";
+    public static final String AGGREGATED_RESOURCE_CACHE_NAME = "combinedDependencyMap";
+    
+    /**
+     * <p>The default maximum size in bytes of the file set checksums to cache.</p>
+     */
+    public static final int DEFAULT_FILE_SET_CACHE_MAX_SIZE = 2 * 1024 * 1024;
+    
+    /**
+     * <p>The default maximum size in bytes of the aggregated resources to cache.</p>
+     */
+    public static final int DEFAULT_AGGREGATED_RESOURCE_CACHE_MAX_SIZE = 32 * 1024 * 1024;
+    
+    /**
+     * <p>The checksum of the aggregated resource generated from a set of files for a theme.</p>
+     */
+    private static final class FileSetChecksum
+    {
+        private final String key;
+        private final Set<String> fileSet;
+        private final String checksum;
+        
+        private FileSetChecksum(String key, Set<String> fileSet, String checksum)
         {
-            this.compressedJSResourcesLock.readLock().unlock();
+            this.key = key;
+            this.fileSet = fileSet;
+            this.checksum = checksum;
         }
-        return checksum;
     }
     
-    protected void cacheCompressedJSResource(String path, String content)
+    /**
+     * <p>The checksums of the aggregated resources generated from each set of files (for each theme). This is used to
+     * prevent the aggregated resources being repeatedly generated. Each entry is weighed by the size of its key, the
+     * paths of its file set and its checksum.</p>
+     */
+    private final ConcurrentLoadingCache<FileSetChecksum> fileSetToMD5Map = new ConcurrentLoadingCache<FileSetChecksum>(FILE_SET_CACHE_NAME, DEFAULT_FILE_SET_CACHE_MAX_SIZE, new Weigher<FileSetChecksum>()
     {
-        this.compressedJSResourcesLock.writeLock().lock();
-        try
+        @Override
+        public int weightOf(FileSetChecksum fileSetChecksum)
+        {
+            long size = RetainedSizeWeighers.ENTRY_OVERHEAD + RetainedSizeWeighers.sizeOf(fileSetChecksum.key) +
+                    RetainedSizeWeighers.sizeOf(fileSetChecksum.checksum);
+            for (String path: fileSetChecksum.fileSet)
+            {
+                size += RetainedSizeWeighers.ENTRY_OVERHEAD + RetainedSizeWeighers.sizeOf(path);
+            }
+            return (int)Math.min(Integer.MAX_VALUE, size);
+        }
+    });
+    
+    /**
+     * <p>The aggregated resources mapped against their checksums. Each entry is weighed by the stored size of the
+     * resource (along with the checksum and the resource itself).</p>
+     */
+    private final ConcurrentLoadingCache<DependencyResource> combinedDependencyMap = new ConcurrentLoadingCache<DependencyResource>(AGGREGATED_RESOURCE_CACHE_NAME, DEFAULT_AGGREGATED_RESOURCE_CACHE_MAX_SIZE, new Weigher<DependencyResource>()
+    {
+        @Override
+        public int weightOf(DependencyResource resource)
         {
-            this.compressedJSResources.put(path, content);
+            return (int)Math.min(Integer.MAX_VALUE, RetainedSizeWeighers.ENTRY_OVERHEAD + 128L + resource.getStoredSize());
         }
-        finally
+    });
+    
+    /**
+     * Generates the key of a file set for the current theme. The order of the files is significant as it determines
+     * the order in which they are aggregated.
+     */
+    private static String getFileSetKey(Set<String> fileSet)
+    {
+        StringBuilder key = new StringBuilder(fileSet.size() * 48);
+        key.append(ThreadLocalRequestContext.getRequestContext().getThemeId());
+        for (String path: fileSet)
         {
-            this.compressedJSResourcesLock.writeLock().unlock();
+            key.append('\u0000').append(path);
         }
+        return key.toString();
+    }
+    
+    /**
+     * This checks the cache to see if the requested set of files has previously been used to generate
+     * an aggregated resource for the current theme (to ensure that theme specific resources are returned).
+     * The file set is only found while the aggregated resource generated from it is cached as the checksum
+     * will be written into the page as a link to the resource.
+     * 
+     * @param fileSet Set<String>
+     * @return String
+     */
+    public String getCachedChecksumForFileSet(Set<String> fileSet)
+    {
+        String checksum = null;
+        String key = getFileSetKey(fileSet);
+        FileSetChecksum fileSetChecksum = this.fileSetToMD5Map.get(key);
+        if (fileSetChecksum != null)
+        {
+            if (this.combinedDependencyMap.keySet().contains(fileSetChecksum.checksum))
+            {
+                checksum = fileSetChecksum.checksum;
+            }
+            else
+            {
+                // The aggregated resource has been evicted so must be generated again...
+                this.fileSetToMD5Map.remove(key, fileSetChecksum);
+            }
+        }
+        return checksum;
+    }
+    
+    /**
+     * Caches a generated aggregated resource checksum against the fileset that it was
+     * generated against for the current theme.
+     * 
+     * @param fileSet Set<String>
+     * @param checksum String
+     */
+    protected void cacheChecksumForFileSet(Set<String> fileSet, String checksum)
+    {
+        String key = getFileSetKey(fileSet);
+        this.fileSetToMD5Map.put(key, new FileSetChecksum(key, new HashSet<String>(fileSet), checksum));
+    }
+    
+    public String getCachedCompressedJSResource(String path)
+    {
+        return this.compressedJSResources.get(path);
+    }
+    
+    protected void cacheCompressedJSResource(String path, String content)
+    {
+        this.compressedJSResources.put(path, content);
     }
     
     /**
@@ -567,18 +840,8 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
      */
     public String getCachedCompressedCssResource(String path)
     {
-        String content = null;
         String prefix = ThreadLocalRequestContext.getRequestContext().getThemeId();
-        this.compressedCSSResourcesLock.readLock().lock();
-        try
-        {
-            content = this.compressedCSSResources.get(prefix + path);
-        }
-        finally
-        {
-            this.compressedCSSResourcesLock.readLock().unlock();
-        }
-        return content;
+        return this.compressedCSSResources.get(prefix + path);
     }
     
     /**
@@ -590,15 +853,7 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
     protected void cacheCompressedCssResource(String path, String content)
     {
         String prefix = ThreadLocalRequestContext.getRequestContext().getThemeId();
-        this.compressedCSSResourcesLock.writeLock().lock();
-        try
-        {
-            this.compressedCSSResources.put(prefix + path, content);
-        }
-        finally
-        {
-            this.compressedCSSResourcesLock.writeLock().unlock();
-        }
+        this.compressedCSSResources.put(prefix + path, content);
     }
     
     /**
@@ -610,140 +865,246 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
      */
     public DependencyResource getCachedDependencyResource(String checksum)
     {
-        this.combinedDependencyMapLock.readLock().lock();
-        try
-        {
-            return this.combinedDependencyMap.get(checksum);
-        }
-        finally
+        DependencyResource resource = this.combinedDependencyMap.get(checksum);
+        
+        // Aggregated resources are requested by their checksum so a resource generated before the last restart
+        // can be served from the persistent cache. It is deliberately not promoted into the in-memory cache as 
+        // the next page render will re-cache it (along with the file set it was generated from)...
+        if (resource == null && this.persistentCache != null)
         {
-            this.combinedDependencyMapLock.readLock().unlock();
+            // Only aggregated resource paths (i.e. a checksum and file extension) are looked up...
+            String pathChecksum = DependencyHandler.getChecksumFromPath(checksum);
+            if (pathChecksum != null && checksum.startsWith(pathChecksum))
+            {
+                resource = getPersistentDependencyResource(PERSISTENT_KEY_AGGREGATED + checksum);
+            }
         }
+        return resource;
     }
     
     protected void cacheDependencyResource(String checksum, DependencyResource content)
     {
-        this.combinedDependencyMapLock.writeLock().lock();
-        try
+        this.combinedDependencyMap.put(checksum, content);
+        if (this.persistentCache != null && this.isDebugMode() == false)
         {
-            this.combinedDependencyMap.put(checksum, content);
+            this.persistentCache.put(PERSISTENT_KEY_AGGREGATED + checksum, content.toBytes());
         }
-        finally
+    }
+    
+    /**
+     * Prefix for the persistent cache keys of aggregated resources.
+     */
+    private static final String PERSISTENT_KEY_AGGREGATED = "aggregated:";
+    
+    /**
+     * Attempts to restore a {@link DependencyResource} from the {@link PersistentResourceCache}.
+     * 
+     * @param key The persistent cache key
+     * @return The restored {@link DependencyResource} or <code>null</code> if it was not available.
+     */
+    DependencyResource getPersistentDependencyResource(String key)
+    {
+        DependencyResource resource = null;
+        if (this.persistentCache != null)
         {
-            this.combinedDependencyMapLock.writeLock().unlock();
+            byte[] bytes = this.persistentCache.get(key);
+            if (bytes != null)
+            {
+                try
+                {
+                    resource = DependencyResource.fromBytes(bytes);
+                }
+                catch (IOException e)
+                {
+                    if (logger.isWarnEnabled())
+                        logger.warn("Ignoring invalid persistent cache entry: " + key);
+                }
+            }
         }
+        return resource;
     }
     
-    @Override
-    public void clearCaches()
+    /**
+     * Generates the persistent cache key for a compressed file. The key combines the compression type, the
+     * compression handler implementation, its configuration (when it is a {@link CompressionSettingsProvider})
+     * and a checksum of the uncompressed source so that a change to any of them results in a different key.
+     * 
+     * @param source The uncompressed source
+     * @param type The compression type
+     * @return The persistent cache key
+     */
+    protected String getPersistentCacheKey(String source, CompressionType type)
     {
-        this.fileSetToMD5MapLock.writeLock().lock();
-        try
+        Object handler = (type == CompressionType.JAVASCRIPT ? this.javaScriptCompressionHandler : this.cssCompressionHandler);
+        StringBuilder key = new StringBuilder(128);
+        key.append(type.name()).append(':');
+        key.append(handler.getClass().getName()).append(':');
+        if (handler instanceof CompressionSettingsProvider)
         {
-            // clear the reference for this cache will force a rebuild
-            this.fileSetToMD5Map = null;
+            key.append(((CompressionSettingsProvider) handler).getCompressionSettings()).append(':');
         }
-        finally
+        if (this.isCollationDebugMode())
         {
-            this.fileSetToMD5MapLock.writeLock().unlock();
+            key.append(CLIENT_COLLATION_DEBUG).append(':');
         }
-        this.compressedJSResourcesLock.writeLock().lock();
-        try
+        key.append(this.dependencyHandler.generateCheckSum(source));
+        return key.toString();
+    }
+    
+    /**
+     * Compresses the supplied source and writes the result to the {@link PersistentResourceCache} using the same key
+     * that {@link #getCompressedFile(String, CompressionType)} will look up. This allows the persistent cache to be
+     * populated in advance (e.g. by the {@link DependencyManifestGenerator} as part of a build).
+     * 
+     * @param source The uncompressed source
+     * @param type The compression type
+     * @return <code>true</code> if the source was compressed and cached and <code>false</code> otherwise.
+     * @throws IOException
+     */
+    public boolean warmPersistentCache(String source, CompressionType type) throws IOException
+    {
+        boolean cached = false;
+        if (this.persistentCache != null)
         {
-            this.compressedJSResources.clear();
+            String persistentKey = getPersistentCacheKey(source, type);
+            if (this.persistentCache.get(persistentKey) == null)
+            {
+                String compressedFile = (type == CompressionType.JAVASCRIPT ? compressJavaScript(new StringReader(source)) : compressCSS(new StringReader(source)));
+                putPersistentCompressedFile(persistentKey, compressedFile);
+            }
+            cached = true;
         }
-        finally
+        return cached;
+    }
+    
+    /**
+     * Attempts to retrieve compressed content from the {@link PersistentResourceCache}.
+     * 
+     * @param key The persistent cache key
+     * @return The compressed content or <code>null</code> if it was not available.
+     */
+    private String getPersistentCompressedFile(String key)
+    {
+        String content = null;
+        byte[] bytes = this.persistentCache.get(key);
+        if (bytes != null)
         {
-            this.compressedJSResourcesLock.writeLock().unlock();
+            try
+            {
+                content = new String(bytes, "UTF-8");
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new RuntimeException(e);
+            }
         }
-        this.compressedCSSResourcesLock.writeLock().lock();
+        return content;
+    }
+    
+    /**
+     * Writes compressed content back to the {@link PersistentResourceCache}.
+     * 
+     * @param key The persistent cache key
+     * @param content The compressed content
+     */
+    private void putPersistentCompressedFile(String key, String content)
+    {
         try
         {
-            this.compressedCSSResources.clear();
+            this.persistentCache.put(key, content.getBytes("UTF-8"));
         }
-        finally
-        {
-            this.compressedCSSResourcesLock.writeLock().unlock();
-        }
-        this.combinedDependencyMapLock.writeLock().lock();
-        try
+        catch (UnsupportedEncodingException e)
         {
-            this.combinedDependencyMap.clear();
+            throw new RuntimeException(e);
         }
-        finally
+    }
+    
+    @Override
+    public void clearCaches()
+    {
+        this.fileSetToMD5Map.clear();
+        this.compressedJSResources.clear();
+        this.compressedCSSResources.clear();
+        this.combinedDependencyMap.clear();
+    }
+    
+    /**
+     * Removes all content from the {@link PersistentResourceCache} (if one is configured). This is deliberately
+     * separate from {@link #clearCaches()} as the persistent entries are keyed by content and remain valid when the
+     * in-memory caches are cleared - discarding them would force every resource to be compressed again.
+     */
+    public void clearPersistentCache()
+    {
+        if (this.persistentCache != null)
         {
-            this.combinedDependencyMapLock.writeLock().unlock();
+            this.persistentCache.clear();
         }
     }
     
+    /**
+     * Evicts the compressed resources for the supplied paths along with every aggregated resource that included them.
+     */
     @Override
-    public List<CacheReport> report()
+    public void invalidateDependencies(Set<String> paths)
     {
-        List<CacheReport> reports = new ArrayList<>(4);
+        for (String path: paths)
+        {
+            this.compressedJSResources.remove(path);
+        }
         
-        long size = 0;
-        if (this.fileSetToMD5Map != null)
+        // CSS resources are cached against the theme id followed by the path...
+        for (Iterator<String> i = this.compressedCSSResources.keySet().iterator(); i.hasNext(); )
         {
-            this.fileSetToMD5MapLock.writeLock().lock();
-            try
+            String key = i.next();
+            for (String path: paths)
             {
-                for (Set<String> v : this.fileSetToMD5Map.keySet()) // oddly for this cache, the key is the weight
+                if (key.endsWith(path) && key.lastIndexOf('/', key.length() - path.length() - 1) == -1)
                 {
-                    for (String p: v) size += p.length()*2;
-                    size += 64;
+                    i.remove();
+                    break;
                 }
-                reports.add(new CacheReport("fileSetToMD5Map", this.fileSetToMD5Map.size(), size));
-            }
-            finally
-            {
-                this.fileSetToMD5MapLock.writeLock().unlock();
             }
         }
         
-        size = 0;
-        this.compressedJSResourcesLock.writeLock().lock();
-        try
+        for (FileSetChecksum fileSetChecksum: this.fileSetToMD5Map.values())
         {
-            for (String v : this.compressedJSResources.values())
+            if (!Collections.disjoint(fileSetChecksum.fileSet, paths))
             {
-                size += v.length()*2 + 64;
+                this.fileSetToMD5Map.remove(fileSetChecksum.key, fileSetChecksum);
+                this.combinedDependencyMap.remove(fileSetChecksum.checksum);
             }
-            reports.add(new CacheReport("compressedJSResources", this.compressedJSResources.size(), size));
-        }
-        finally
-        {
-            this.compressedJSResourcesLock.writeLock().unlock();
         }
+    }
+    
+    @Override
+    public List<ConcurrentLoadingCache<?>> getSizeBoundedCaches()
+    {
+        return Arrays.<ConcurrentLoadingCache<?>>asList(this.compressedJSResources, this.compressedCSSResources,
+                this.fileSetToMD5Map, this.combinedDependencyMap);
+    }
+    
+    @Override
+    public List<CacheReport> report()
+    {
+        List<CacheReport> reports = new ArrayList<>(6);
         
-        size = 0;
-        this.compressedCSSResourcesLock.writeLock().lock();
-        try
-        {
-            for (String v : this.compressedCSSResources.values())
-            {
-                size += v.length()*2;
-            }
-            reports.add(new CacheReport("compressedCSSResources", this.compressedCSSResources.size(), size));
-        }
-        finally
-        {
-            this.compressedCSSResourcesLock.writeLock().unlock();
-        }
+        reports.add(this.fileSetToMD5Map.report());
+        reports.add(this.compressedJSResources.report());
+        reports.add(this.compressedCSSResources.report());
+        reports.add(this.combinedDependencyMap.report());
         
-        size = 0;
-        this.combinedDependencyMapLock.writeLock().lock();
-        try
-        {
-            for (DependencyResource d : this.combinedDependencyMap.values())
-            {
-                size += d.getStoredSize();
-            }
-            reports.add(new CacheReport("combinedDependencyMap", this.combinedDependencyMap.size(), size));
-        }
-        finally
-        {
-            this.combinedDependencyMapLock.writeLock().unlock();
-        }
+        // The aggregated resources generated (loads) and the average time to generate each one, hits are the requests
+        // for a file set that had already been aggregated...
+        long builds = this.aggregatedResourceCount.get();
+        reports.add(new CacheReport("aggregatedResources", 0, 0L,
+                this.aggregatedResourceHits.get(), builds, builds, this.aggregationTime.get()));
+        
+        // The size of the compression thread pool and the files compressed in parallel (loads) along with the average
+        // time to compress each one, hits were compressed by the pool and misses on the requesting thread...
+        long tasks = this.parallelCompressionCount.get();
+        long pooled = this.parallelCompressionPoolCount.get();
+        reports.add(new CacheReport("compressionThreadPool", this.compressionThreadPoolSize, 0L,
+                pooled, tasks - pooled, tasks, this.parallelCompressionTime.get()));
         
         return reports;
     }
@@ -906,6 +1267,7 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
                     {
                         // Process the CSS import - CSS is no longer compressed but it is LESS compiled etc.
                         String importPath = this.dependencyHandler.getRelativePath(cssPath, path.toString());
+                        this.dependencyHandler.addDependency(importPath, cssPath);
                         importContents = this.getCompressedFile(importPath, CompressionType.CSS);
                         importContents = processCssImport(importContents, cssPath, importPath, processedPaths);
                     }
@@ -971,95 +1333,159 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
      * @return String
      * @throws IOException
      */
-    String getCompressedFile(String path, CompressionType type) throws IOException
+    String getCompressedFile(String path, final CompressionType type) throws IOException
     {
-        if (logger.isDebugEnabled())
-            logger.debug("Compressing " + path + " as " + type);
         String compressedFile = null;
-        if (type == CompressionType.JAVASCRIPT)
+        if (type == CompressionType.JAVASCRIPT && isDebugMode() == false)
         {
-            compressedFile = getCachedCompressedJSResource(path);
+            // Concurrent requests for the same uncompressed file will only compress it once...
+            compressedFile = this.compressedJSResources.get(path, new ConcurrentLoadingCache.Loader<String>()
+            {
+                @Override
+                public String load(String key) throws IOException
+                {
+                    return compressFile(key, type);
+                }
+            });
         }
-        else if (type == CompressionType.CSS)
+        else
         {
-            compressedFile = getCachedCompressedCssResource(path);
+            if (type == CompressionType.CSS)
+            {
+                compressedFile = getCachedCompressedCssResource(path);
+            }
+            if (compressedFile == null || isDebugMode() == true)
+            {
+                compressedFile = compressFile(path, type);
+            }
         }
-        if (compressedFile == null || isDebugMode() == true)
+        return compressedFile;
+    }
+    
+    /**
+     * Loads and compresses the file at the given path using the supplied compression type and caches the result.
+     * 
+     * @param path String
+     * @param type CompressionType
+     * @return The compressed file or <code>null</code> if the file could not be found.
+     * @throws IOException
+     */
+    private String compressFile(String path, CompressionType type) throws IOException
+    {
+        if (logger.isDebugEnabled())
+            logger.debug("Compressing " + path + " as " + type);
+        String compressedFile = null;
+        // Check the compression exclusions to ensure that we really want to compress the file...
+        // NOTE: we cannot test for  "isDebugMode() == true"  here as DojoDependencyHandler with fail to correctly regex out
+        //       the dojo dependences from files containing comments and line breaks etc.
+        if (excludeFileFromCompression(path))
         {
-            // Check the compression exclusions to ensure that we really want to compress the file...
-            // NOTE: we cannot test for  "isDebugMode() == true"  here as DojoDependencyHandler with fail to correctly regex out
-            //       the dojo dependences from files containing comments and line breaks etc.
-            if (excludeFileFromCompression(path))
+            InputStream in = this.dependencyHandler.getResourceInputStream(path);
+            if (in != null)
             {
-                InputStream in = this.dependencyHandler.getResourceInputStream(path);
-                if (in != null)
+                compressedFile = this.dependencyHandler.convertResourceToString(in);
+                if (type == CompressionType.JAVASCRIPT)
                 {
-                    compressedFile = this.dependencyHandler.convertResourceToString(in);
-                    if (type == CompressionType.JAVASCRIPT)
-                    {
-                        cacheCompressedJSResource(path, compressedFile);
-                    }
-                    else if (type == CompressionType.CSS)
-                    {
-                        cacheCompressedCssResource(path, compressedFile);
-                    }
+                    cacheCompressedJSResource(path, compressedFile);
+                }
+                else if (type == CompressionType.CSS)
+                {
+                    cacheCompressedCssResource(path, compressedFile);
                 }
             }
-            else
+        }
+        else
+        {
+            // The file hasn't previously been compressed and isn't excluded from compression, let's compress it now...
+            InputStream in = this.dependencyHandler.getResourceInputStream(path);
+            if (in == null)
             {
-                // The file hasn't previously been compressed and isn't excluded from compression, let's compress it now...
-                InputStream in = this.dependencyHandler.getResourceInputStream(path);
-                if (in == null)
+                boolean outputError = true;
+                for (String pathToSuppress: this.missingFileWarningSuppressionList)
                 {
-                    boolean outputError = true;
-                    for (String pathToSuppress: this.missingFileWarningSuppressionList)
-                    {
-                        if (path.matches(pathToSuppress))
-                        {
-                            outputError = false;
-                            break;
-                        }
-                    }
-                    
-                    // We couldn't find the resource - generate an error...
-                    if (outputError && logger.isErrorEnabled())
+                    if (path.matches(pathToSuppress))
                     {
-                        logger.error("Could not find compressed file: " + path);
+                        outputError = false;
+                        break;
                     }
                 }
-                else 
+                
+                // We couldn't find the resource - generate an error...
+                if (outputError && logger.isErrorEnabled())
+                {
+                    logger.error("Could not find compressed file: " + path);
+                }
+            }
+            else if (this.persistentCache != null && isDebugMode() == false)
+            {
+                // Check the persistent cache for the output of a previous compression of the same source...
+                String source = IOUtils.toString(in, "UTF-8");
+                String persistentKey = getPersistentCacheKey(source, type);
+                compressedFile = getPersistentCompressedFile(persistentKey);
+                if (compressedFile == null)
                 {
                     try
                     {
                         // Compress the file based on the requested compression type...
                         if (type == CompressionType.JAVASCRIPT)
                         {
-                            Reader reader = new InputStreamReader(in, "UTF-8");
-                            compressedFile = compressJavaScript(reader);
-                            cacheCompressedJSResource(path, compressedFile);
+                            compressedFile = compressJavaScript(new StringReader(source));
                         }
                         else if (type == CompressionType.CSS)
                         {
-                            compressedFile = compressCSSFile(in);
-                            cacheCompressedCssResource(path, compressedFile);
+                            compressedFile = compressCSS(new StringReader(source));
                         }
+                        putPersistentCompressedFile(persistentKey, compressedFile);
                     }
                     catch (IOException e)
                     {
-                        // An exception occurred compressing the file. 
+                        // An exception occurred compressing the file - use the uncompressed file... 
                         if (logger.isWarnEnabled())
                             logger.warn("The file: \"" + path + "\" could not be compressed due to the following error: ", e);
-                        
-                        // Generate a String of the uncompressed file...
-                        compressedFile = IOUtils.toString(in, "UTF-8");
-                        if (type == CompressionType.JAVASCRIPT)
-                        {
-                            cacheCompressedJSResource(path, compressedFile);
-                        }
-                        else if (type == CompressionType.CSS)
-                        {
-                            cacheCompressedCssResource(path, compressedFile);
-                        }
+                        compressedFile = source;
+                    }
+                }
+                if (type == CompressionType.JAVASCRIPT)
+                {
+                    cacheCompressedJSResource(path, compressedFile);
+                }
+                else if (type == CompressionType.CSS)
+                {
+                    cacheCompressedCssResource(path, compressedFile);
+                }
+            }
+            else 
+            {
+                try
+                {
+                    // Compress the file based on the requested compression type...
+                    if (type == CompressionType.JAVASCRIPT)
+                    {
+                        Reader reader = new InputStreamReader(in, "UTF-8");
+                        compressedFile = compressJavaScript(reader);
+                        cacheCompressedJSResource(path, compressedFile);
+                    }
+                    else if (type == CompressionType.CSS)
+                    {
+                        compressedFile = compressCSSFile(in);
+                        cacheCompressedCssResource(path, compressedFile);
+                    }
+                }
+                catch (IOException e)
+                {
+                    // An exception occurred compressing the file. 
+                    if (logger.isWarnEnabled())
+                        logger.warn("The file: \"" + path + "\" could not be compressed due to the following error: ", e);
+                    
+                    // Generate a String of the uncompressed file...
+                    compressedFile = IOUtils.toString(in, "UTF-8");
+                    if (type == CompressionType.JAVASCRIPT)
+                    {
+                        cacheCompressedJSResource(path, compressedFile);
+                    }
+                    else if (type == CompressionType.CSS)
+                    {
+                        cacheCompressedCssResource(path, compressedFile);
                     }
                 }
             }
@@ -1121,7 +1547,18 @@ public class DependencyAggregator implements ApplicationContextAware, CacheRepor
      */
     public String compressCSSFile(InputStream in) throws IOException
     {
-        Reader reader = new InputStreamReader(in, "UTF-8");
+        return compressCSS(new InputStreamReader(in, "UTF-8"));
+    }
+    
+    /**
+     * <p>Compresses the CSS provided by the supplied {@link Reader} using the {@link CSSCompressionHandler}.</p>
+     * 
+     * @param reader Reader
+     * @return A String representation of the compressed CSS
+     * @throws IOException
+     */
+    protected String compressCSS(Reader reader) throws IOException
+    {
         StringWriter out = new StringWriter();
         this.cssCompressionHandler.compress(reader, out);
         String compressedFile = out.toString();
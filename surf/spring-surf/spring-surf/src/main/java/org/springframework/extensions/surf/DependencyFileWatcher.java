@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.webscripts.LocalFileSystemStore;
+import org.springframework.util.ClassUtils;
+
+/**
+ * <p>Watches directories containing dependency resources and invalidates the cached information for each resource
+ * (and every resource derived from it) through the {@link DependencyHandler} as soon as it changes. This allows
+ * development and hot-patched environments to pick up changes without clearing all of the dependency caches.</p>
+ * <p>The path of a changed resource is taken relative to the watched directory that contains it (ignoring any leading
+ * META-INF directory) as this is how resources are requested from the {@link DependencyHandler}.</p>
+ * 
+ * @since 6.12
+ */
+public class DependencyFileWatcher
+{
+    private static final Log logger = LogFactory.getLog(DependencyFileWatcher.class);
+    
+    private static final String META_INF = "META-INF/";
+    
+    private DependencyHandler dependencyHandler;
+    private List<String> directories = new ArrayList<String>();
+    private List<LocalFileSystemStore> stores = new ArrayList<LocalFileSystemStore>();
+    private boolean watchClasspath = false;
+    
+    private WatchService watchService;
+    private Thread watchThread;
+    
+    /**
+     * Map of each registered watch key to the directory being watched and the root directory containing it.
+     */
+    private final Map<WatchKey, Path[]> watchedDirectories = new ConcurrentHashMap<WatchKey, Path[]>();
+    
+    public void setDependencyHandler(DependencyHandler dependencyHandler)
+    {
+        this.dependencyHandler = dependencyHandler;
+    }
+    
+    /**
+     * @param directories The file system directories to watch.
+     */
+    public void setDirectories(List<String> directories)
+    {
+        this.directories = directories;
+    }
+    
+    /**
+     * @param stores The {@link LocalFileSystemStore} instances whose directories should be watched.
+     */
+    public void setStores(List<LocalFileSystemStore> stores)
+    {
+        this.stores = stores;
+    }
+    
+    /**
+     * @param watchClasspath Whether the directories (but not the JAR files) on the classpath should be watched.
+     */
+    public void setWatchClasspath(boolean watchClasspath)
+    {
+        this.watchClasspath = watchClasspath;
+    }
+    
+    /**
+     * Registers the configured directories and starts watching them for changes.
+     * 
+     * @throws IOException
+     */
+    public void init() throws IOException
+    {
+        List<File> roots = new ArrayList<File>();
+        for (String directory: this.directories)
+        {
+            roots.add(new File(directory));
+        }
+        for (LocalFileSystemStore store: this.stores)
+        {
+            roots.add(new File(store.getBasePath()));
+        }
+        if (this.watchClasspath)
+        {
+            Enumeration<URL> urls = ClassUtils.getDefaultClassLoader().getResources("");
+            while (urls.hasMoreElements())
+            {
+                URL url = urls.nextElement();
+                if ("file".equals(url.getProtocol()))
+                {
+                    try
+                    {
+                        roots.add(new File(url.toURI()));
+                    }
+                    catch (Exception e)
+                    {
+                        logger.warn("Unable to watch classpath directory: " + url);
+                    }
+                }
+            }
+        }
+        
+        this.watchService = FileSystems.getDefault().newWatchService();
+        for (File root: roots)
+        {
+            if (root.isDirectory())
+            {
+                Path rootPath = root.toPath().toAbsolutePath().normalize();
+                register(rootPath, rootPath);
+            }
+            else if (logger.isWarnEnabled())
+            {
+                logger.warn("Unable to watch directory that does not exist: " + root);
+            }
+        }
+        
+        this.watchThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                processEvents();
+            }
+        }, "DependencyFileWatcher");
+        this.watchThread.setDaemon(true);
+        this.watchThread.start();
+        this.dependencyHandler.setWatchingForChanges(true);
+        
+        if (logger.isInfoEnabled())
+            logger.info("Watching " + this.watchedDirectories.size() + " directories for dependency changes");
+    }
+    
+    /**
+     * Stops watching for changes.
+     * 
+     * @throws IOException
+     */
+    public void destroy() throws IOException
+    {
+        if (this.watchService != null)
+        {
+            this.dependencyHandler.setWatchingForChanges(false);
+            this.watchService.close();
+            this.watchService = null;
+        }
+    }
+    
+    /**
+     * Registers the supplied directory and all of its sub-directories with the watch service.
+     */
+    private void register(final Path root, Path directory) throws IOException
+    {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                watchedDirectories.put(key, new Path[] {dir, root});
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    /**
+     * Invalidates the dependency at the supplied path relative to the root directory containing it.
+     */
+    private void invalidate(Path root, Path changed)
+    {
+        String path = root.relativize(changed).toString().replace(File.separatorChar, '/');
+        if (path.startsWith(META_INF))
+        {
+            path = path.substring(META_INF.length());
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Dependency changed: " + path);
+        this.dependencyHandler.invalidate(path);
+    }
+    
+    /**
+     * Invalidates every file in the supplied directory and all of its sub-directories.
+     */
+    private void invalidateFiles(final Path root, Path directory) throws IOException
+    {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                invalidate(root, file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    /**
+     * Processes file system events until the watch service is closed.
+     */
+    private void processEvents()
+    {
+        WatchService watcher = this.watchService;
+        while (watcher != null)
+        {
+            WatchKey key;
+            try
+            {
+                key = watcher.take();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (ClosedWatchServiceException e)
+            {
+                return;
+            }
+            
+            Path[] dirs = this.watchedDirectories.get(key);
+            if (dirs != null)
+            {
+                for (WatchEvent<?> event: key.pollEvents())
+                {
+                    if (event.kind() == OVERFLOW)
+                    {
+                        // It is not known which resources have changed so every cached resource is discarded...
+                        if (logger.isWarnEnabled())
+                            logger.warn("Dependency file changes have been missed - clearing the dependency caches");
+                        this.dependencyHandler.invalidateAll();
+                        continue;
+                    }
+                    Path changed = dirs[0].resolve((Path) event.context());
+                    try
+                    {
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed))
+                        {
+                            register(dirs[1], changed);
+                            
+                            // Files may have been written to the new directory before it was registered...
+                            invalidateFiles(dirs[1], changed);
+                        }
+                        else
+                        {
+                            invalidate(dirs[1], changed);
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        logger.error("Unable to process change to: " + changed, e);
+                    }
+                }
+            }
+            if (!key.reset())
+            {
+                this.watchedDirectories.remove(key);
+            }
+        }
+    }
+}
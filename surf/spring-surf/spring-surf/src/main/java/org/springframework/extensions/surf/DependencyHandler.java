@@ -30,12 +30,14 @@ import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletContext;
 
@@ -49,6 +51,10 @@ import org.springframework.extensions.config.ConfigElement;
 import org.springframework.extensions.config.WebFrameworkConfigElement;
 import org.springframework.extensions.config.element.GenericConfigElement;
 import org.springframework.extensions.directives.DirectiveConstants;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
+import org.springframework.extensions.surf.cache.DependencyGraph;
+import org.springframework.extensions.surf.cache.RetainedSizeWeighers;
+import org.springframework.extensions.surf.cache.SizeBoundedCacheProvider;
 import org.springframework.extensions.surf.util.CacheReport;
 import org.springframework.extensions.surf.util.CacheReporter;
 import org.springframework.extensions.surf.util.StringBuilderWriter;
@@ -59,6 +65,8 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.ServletContextResource;
 
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
 /**
  * <p>This class should be instantiated as a Spring bean that provides a service for locating dependency resources and
  * generating checksums against their contents. It caches the location of the resources (which can be loaded from 
@@ -71,7 +79,7 @@ import org.springframework.web.context.support.ServletContextResource;
  * @author David Draper
  * @author Kevin Roast
  */
-public class DependencyHandler implements ApplicationContextAware, CacheReporter
+public class DependencyHandler implements ApplicationContextAware, CacheReporter, SizeBoundedCacheProvider
 {
     public static final String CSS = ".css";
 
@@ -134,6 +142,72 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
         {
             this.servletContext =  ((WebApplicationContext) applicationContext).getServletContext();
         }
+        if (this.manifest != null)
+        {
+            loadManifest(applicationContext.getResource(this.manifest));
+        }
+    }
+    
+    /**
+     * <p>The location of an optional dependency manifest generated by the {@link DependencyManifestGenerator}. This
+     * should be set through the Spring application context (e.g. "/WEB-INF/dependency-manifest.properties").</p>
+     */
+    private String manifest;
+    
+    /**
+     * <p>Sets the location of the dependency manifest to load on startup.</p>
+     * @param manifest The resource location of the manifest.
+     */
+    public void setManifest(String manifest)
+    {
+        this.manifest = manifest;
+    }
+    
+    /**
+     * <p>The checksums of web application resources loaded from the dependency manifest mapped against the path
+     * of the resource. Entries are removed if the resource is changed.</p>
+     */
+    private final Map<String, String> manifestChecksums = new ConcurrentHashMap<String, String>(1024);
+    
+    /**
+     * <p>Loads the checksums from the supplied dependency manifest. Checksums in the manifest are only used for resources
+     * that are resolved from the {@link ServletContext} because that is the only location that the manifest could have
+     * been generated from.</p>
+     * 
+     * @param manifestResource The manifest {@link Resource}
+     */
+    protected void loadManifest(Resource manifestResource)
+    {
+        if (manifestResource != null && manifestResource.exists())
+        {
+            try
+            {
+                Properties properties = new Properties();
+                InputStream in = manifestResource.getInputStream();
+                try
+                {
+                    properties.load(in);
+                }
+                finally
+                {
+                    in.close();
+                }
+                for (String path: properties.stringPropertyNames())
+                {
+                    this.manifestChecksums.put(path, properties.getProperty(path));
+                }
+                if (logger.isInfoEnabled())
+                    logger.info("Loaded " + this.manifestChecksums.size() + " checksums from dependency manifest: " + this.manifest);
+            }
+            catch (IOException e)
+            {
+                logger.error("Unable to load the dependency manifest: " + this.manifest, e);
+            }
+        }
+        else if (logger.isWarnEnabled())
+        {
+            logger.warn("The dependency manifest could not be found: " + this.manifest);
+        }
     }
 
     /**
@@ -246,19 +320,10 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
     }
 
     /**
-     * <p>A map of the requested resources to the checksum generated from their contents. This cache works on
-     * the assumption that dynamic updating of resources (whilst the server is running) is not supported, i.e.
-     * the cache will only get refreshed on server restart.</p>
-     */
-    private final Map<String, String> cachedChecksumPaths = new HashMap<String, String>(1024);
-    private final Map<String, String> cachedChecksums = new HashMap<String, String>(1024);
-    
-    /**
-     * <p>This lock allows optimum performance when reading from and writing to the cache.</p>
+     * <p>The default maximum size in bytes of the resource cache.</p>
      */
-    private final ReadWriteLock checksumPathsLock = new ReentrantReadWriteLock();
-    private final ReadWriteLock checksumsLock = new ReentrantReadWriteLock();
-    
+    public static final int DEFAULT_CACHE_MAX_SIZE = 16 * 1024 * 1024;
+
     private Boolean isDebugMode = null;
     
     public static final String FLAGS = "flags";
@@ -385,16 +450,60 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
     }
     
     /**
-     * <p>A map of the requested resources to the checksum generated from their contents. This cache works on
-     * the assumption that dynamic updating of resources (whilst the server is running) is not supported, i.e.
-     * the cache will only get refreshed on server restart.</p>
+     * <p>The cached information about a requested resource: where it was found, the checksum generated from its contents
+     * and the checksum path generated from that. They are held in a single cache entry so that they are always evicted
+     * together.</p>
      */
-    private final Map<String, ResourceInfo> cachedResourceInfoMap = new HashMap<String, ResourceInfo>(2048);
+    private final class CachedResource
+    {
+        private final ResourceInfo resourceInfo;
+        private final String checksum;
+        private final String checksumPath;
+        
+        private CachedResource(ResourceInfo resourceInfo, String checksum, String checksumPath)
+        {
+            this.resourceInfo = resourceInfo;
+            this.checksum = checksum;
+            this.checksumPath = checksumPath;
+        }
+        
+        private boolean exists()
+        {
+            return this.resourceInfo != getResourceInfoSentinel();
+        }
+    }
+    
+    /**
+     * <p>A map of the requested resources to their {@link CachedResource}. Checksum paths are not cached against their
+     * own keys but are resolved from the path they were generated from, so a checksum path that has been written into a
+     * page can always be resolved for as long as its resource is unchanged. Concurrent requests for the same uncached path
+     * will only search for (and generate the checksum of) the resource once.</p>
+     */
+    private final ConcurrentLoadingCache<CachedResource> cachedResources = new ConcurrentLoadingCache<CachedResource>("cachedResources", DEFAULT_CACHE_MAX_SIZE, new Weigher<CachedResource>()
+    {
+        @Override
+        public int weightOf(CachedResource cachedResource)
+        {
+            // The contents are only retained when they were modified by a callback...
+            ResourceInfo resourceInfo = cachedResource.resourceInfo;
+            long size = RetainedSizeWeighers.ENTRY_OVERHEAD + 32 +
+                    RetainedSizeWeighers.sizeOf(cachedResource.checksum) + RetainedSizeWeighers.sizeOf(cachedResource.checksumPath);
+            if (resourceInfo.path != null)
+            {
+                size += 16 + RetainedSizeWeighers.sizeOf(resourceInfo.path) + RetainedSizeWeighers.sizeOf(resourceInfo.getContents());
+            }
+            return (int)Math.min(Integer.MAX_VALUE, size);
+        }
+    });
     
     /**
-     * <p>This lock allows optimum performance when reading from and writing to the cache.</p>
+     * <p>Sets the maximum size in bytes of the resource cache.</p>
+     * @param resourceCacheMaxSize The maximum size in bytes.
      */
-    private final ReadWriteLock resourceInfoLock = new ReentrantReadWriteLock();
+    public void setResourceCacheMaxSize(int resourceCacheMaxSize)
+    {
+        this.cachedResources.setCapacity(resourceCacheMaxSize);
+    }
     
     /**
      * <p>Checks the cache to see if a {@link ResourceInfo} object has been previously generated for the 
@@ -405,17 +514,8 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
      */
     protected ResourceInfo getCachedResourceInfo(String path)
     {
-        ResourceInfo resource = null;
-        this.resourceInfoLock.readLock().lock();
-        try
-        {
-            resource = this.cachedResourceInfoMap.get(path);
-        }
-        finally
-        {
-            this.resourceInfoLock.readLock().unlock();
-        }
-        return resource;
+        CachedResource cachedResource = lookupCachedResource(path);
+        return (cachedResource != null ? cachedResource.resourceInfo : null);
     }
     
     /**
@@ -426,8 +526,8 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
      */
     public boolean resourceInCache(final String path)
     {
-        final ResourceInfo resource = getCachedResourceInfo(path);
-        return !(resource == null || resource == getResourceInfoSentinel());
+        final CachedResource cachedResource = lookupCachedResource(path);
+        return cachedResource != null && cachedResource.exists();
     }
     
     /**
@@ -453,106 +553,220 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
      * resource could not be found.
      * @throws IOException Thrown when an error occurs attempting to generate an {@link InputStream}
      */
-    public InputStream getResourceInputStream(String path, DependencyHandlerProcessingCallback callback) throws IOException
+    public InputStream getResourceInputStream(String path, final DependencyHandlerProcessingCallback callback) throws IOException
     {
         InputStream in = null;
-        
-        // Check the sentinel isn't returned...
-        ResourceInfo resourceInfo = getCachedResourceInfo(path);
-        if (resourceInfo == getResourceInfoSentinel())
+        CachedResource cachedResource = getCachedResource(path, callback);
+        if (cachedResource.exists())
         {
-            // No action required - the ResourceInfoSentinel indicates that we've previously searched
-            // for this path and the resource couldn't be found.
+            in = cachedResource.resourceInfo.getInputStream();
         }
-        else if (resourceInfo != null && (!this.isDebugMode() || callback == null))
+        return in;
+    }
+    
+    /**
+     * <p>Gets the cached information for the supplied path without searching for the resource. A checksum path is
+     * looked up against the path it was generated from and is only found if its checksum is still current.</p>
+     * 
+     * @param path The path to look up.
+     * @return The {@link CachedResource} or <code>null</code> if the path is not cached.
+     */
+    private CachedResource lookupCachedResource(String path)
+    {
+        CachedResource cachedResource = this.cachedResources.get(path);
+        if (cachedResource == null)
         {
-            in = resourceInfo.getInputStream();
+            String checksum = getChecksumFromPath(path);
+            String sourcePath = getSourcePath(path, checksum);
+            if (sourcePath != null)
+            {
+                CachedResource source = this.cachedResources.get(sourcePath);
+                if (source != null && source.exists() && checksum.equals(source.checksum))
+                {
+                    cachedResource = source;
+                }
+            }
+        }
+        return cachedResource;
+    }
+    
+    /**
+     * <p>Gets the cached information for the supplied path, searching for the resource (and generating its checksum)
+     * if it is not cached.</p>
+     * 
+     * @param path The path of the resource.
+     * @param callback An optional callback for processing the resource contents.
+     * @return The {@link CachedResource} (which will not exist if the resource could not be found).
+     * @throws IOException Thrown when an error occurs reading the resource
+     */
+    private CachedResource getCachedResource(String path, final DependencyHandlerProcessingCallback callback) throws IOException
+    {
+        CachedResource cachedResource;
+        if (this.isDebugMode() && callback != null)
+        {
+            // The callback is always applied to the current contents of the resource in debug mode...
+            cachedResource = resolveResource(path, callback);
+            if (cachedResource.exists())
+            {
+                this.cachedResources.put(path, cachedResource);
+            }
         }
         else
         {
-            // Generate a list of paths that should be checked for the current mode...
-            List<String> pathsToCheck = generatePathsForClientMode(path);
-            Iterator<String> paths;
-            if (this.webFrameworkConfigElement.isRemoteResourceResolvingEnabled())
+            cachedResource = lookupCachedResource(path);
+            if (cachedResource == null)
             {
-                paths = pathsToCheck.iterator();
-                while (in == null && paths.hasNext())
+                // A checksum path is resolved from the path it was generated from, which is cached (or evicted) along
+                // with its checksum...
+                final String checksum = getChecksumFromPath(path);
+                final String sourcePath = getSourcePath(path, checksum);
+                if (sourcePath != null)
                 {
-                    String currPath = paths.next();
-                    in = this.remoteResourcesHandler.getRemoteResource(currPath);
-                    if (in != null)
+                    CachedResource source = getCachedResource(sourcePath, callback);
+                    if (source.exists() && checksum.equals(source.checksum))
                     {
-                        if (logger.isDebugEnabled())
-                            logger.debug("Found REMOTE resource: " + currPath);
-                        addResourceInfoToCache(path, new RemoteResource(currPath), callback);
-                        in = this.getCachedResourceInfo(path).getInputStream();
+                        cachedResource = source;
                     }
                 }
-            }
-            
-            paths = pathsToCheck.iterator();
-            while (in == null && paths.hasNext())
-            {
-                String currPath = paths.next();
-                Resource r = applicationContext.getResource("classpath*:" + currPath);
-                if (r != null && r.exists())
+                
+                if (cachedResource == null)
                 {
-                    if (logger.isDebugEnabled())
-                            logger.debug("Found CLASSPATH resource: " + currPath);
-                    addResourceInfoToCache(path, new ApplicationContextResource(currPath), callback);
-                    in = this.getCachedResourceInfo(path).getInputStream();
+                    // Only one thread needs to search for the resource and generate its checksum, any other threads
+                    // requesting the same path in the meantime will wait for the result. A checksum path that could not
+                    // be found is not cached, it may be found once the resource it was generated from has been restored...
+                    cachedResource = this.cachedResources.get(path, new ConcurrentLoadingCache.Loader<CachedResource>()
+                    {
+                        @Override
+                        public CachedResource load(String key) throws IOException
+                        {
+                            CachedResource resolved = resolveResource(key, callback);
+                            return (resolved.exists() || sourcePath == null ? resolved : null);
+                        }
+                    });
+                    if (cachedResource == null)
+                    {
+                        cachedResource = new CachedResource(getResourceInfoSentinel(), "", path);
+                    }
                 }
             }
-            
+        }
+        return cachedResource;
+    }
+    
+    /**
+     * <p>Performs the inverse of {@link #generateCheckSumPath(String, String)} to get the path that a checksum path was
+     * generated from.</p>
+     * 
+     * @param checksumPath The checksum path.
+     * @param checksum The checksum in the path (as returned by {@link #getChecksumFromPath(String)}).
+     * @return The path the checksum path was generated from or <code>null</code> if it is not a checksum path.
+     */
+    private static String getSourcePath(String checksumPath, String checksum)
+    {
+        String sourcePath = null;
+        if (checksum != null)
+        {
+            int index = checksumPath.lastIndexOf("_" + checksum);
+            if (index != -1)
+            {
+                sourcePath = checksumPath.substring(0, index) + checksumPath.substring(index + checksum.length() + 1);
+            }
+        }
+        return sourcePath;
+    }
+    
+    /**
+     * <p>Searches the remote resources, classpath, JAR files and servlet context (in that order) for the requested
+     * path and generates the checksum of the first match found.</p>
+     * 
+     * @param path The path to search for.
+     * @param callback An optional callback for processing the resource contents.
+     * @return The {@link CachedResource} for the resource (which will not exist if it could not be found).
+     * @throws IOException Thrown when an error occurs reading the resource
+     */
+    private CachedResource resolveResource(String path, DependencyHandlerProcessingCallback callback) throws IOException
+    {
+        ResourceInfo resourceInfo = null;
+        
+        // Generate a list of paths that should be checked for the current mode...
+        List<String> pathsToCheck = generatePathsForClientMode(path);
+        Iterator<String> paths;
+        if (this.webFrameworkConfigElement.isRemoteResourceResolvingEnabled())
+        {
             paths = pathsToCheck.iterator();
-            while (in == null && paths.hasNext())
+            while (resourceInfo == null && paths.hasNext())
             {
                 String currPath = paths.next();
-                if (currPath.startsWith("/"))
-                {
-                    currPath = currPath.substring(1);
-                }
-                URL resourceUrl = ClassUtils.getDefaultClassLoader().getResource("META-INF/" + currPath);
-                if (resourceUrl != null)
+                InputStream in = this.remoteResourcesHandler.getRemoteResource(currPath);
+                if (in != null)
                 {
+                    in.close();
                     if (logger.isDebugEnabled())
-                            logger.debug("Found JAR resource: " + currPath);
-                    addResourceInfoToCache(path, new ClassLoaderResource(currPath), callback);
-                    in = this.getCachedResourceInfo(path).getInputStream();
+                        logger.debug("Found REMOTE resource: " + currPath);
+                    resourceInfo = new RemoteResource(currPath);
                 }
             }
-            
-            paths = pathsToCheck.iterator();
-            while (this.servletContext != null && in == null && paths.hasNext())
+        }
+        
+        paths = pathsToCheck.iterator();
+        while (resourceInfo == null && paths.hasNext())
+        {
+            String currPath = paths.next();
+            Resource r = applicationContext.getResource("classpath*:" + currPath);
+            if (r != null && r.exists())
             {
-                final String p = paths.next();
-                // servlet resource paths cannot start with a relative operator - they should always begin
-                // at the root - note that ServletContextResource() will prepend "/" automatically to all paths
-                // and "/../something" is invalid for most modern containers
-                if (!StringUtils.cleanPath(p).startsWith(".."))
+                if (logger.isDebugEnabled())
+                        logger.debug("Found CLASSPATH resource: " + currPath);
+                resourceInfo = new ApplicationContextResource(currPath);
+            }
+        }
+        
+        paths = pathsToCheck.iterator();
+        while (resourceInfo == null && paths.hasNext())
+        {
+            String currPath = paths.next();
+            if (currPath.startsWith("/"))
+            {
+                currPath = currPath.substring(1);
+            }
+            URL resourceUrl = ClassUtils.getDefaultClassLoader().getResource("META-INF/" + currPath);
+            if (resourceUrl != null)
+            {
+                if (logger.isDebugEnabled())
+                        logger.debug("Found JAR resource: " + currPath);
+                resourceInfo = new ClassLoaderResource(currPath);
+            }
+        }
+        
+        paths = pathsToCheck.iterator();
+        while (this.servletContext != null && resourceInfo == null && paths.hasNext())
+        {
+            final String p = paths.next();
+            // servlet resource paths cannot start with a relative operator - they should always begin
+            // at the root - note that ServletContextResource() will prepend "/" automatically to all paths
+            // and "/../something" is invalid for most modern containers
+            if (!StringUtils.cleanPath(p).startsWith(".."))
+            {
+                ServletContextResource resource = new ServletContextResource(this.servletContext, p);
                 {
-                    ServletContextResource resource = new ServletContextResource(this.servletContext, p);
+                    if (resource.exists())
                     {
-                        if (resource.exists())
-                        {
-                            if (logger.isDebugEnabled())
-                                logger.debug("Found SERVLET resource: " + p);
-                            addResourceInfoToCache(path, new ServletContextRes(p), callback);
-                            in = this.getCachedResourceInfo(path).getInputStream();
-                        }
+                        if (logger.isDebugEnabled())
+                            logger.debug("Found SERVLET resource: " + p);
+                        resourceInfo = new ServletContextRes(p);
                     }
                 }
             }
         }
         
-        // If the input stream is still null, add a sentinel...
-        if (in == null)
+        // If the resource still hasn't been found, add a sentinel...
+        if (resourceInfo == null)
         {
             if (logger.isDebugEnabled())
                 logger.debug("FAILED to find resource: " + path);
-            addResourceInfoToCache(path, getResourceInfoSentinel(), callback);
+            resourceInfo = getResourceInfoSentinel();
         }
-        return in;
+        return createCachedResource(path, resourceInfo, callback);
     }
     
     /**
@@ -587,16 +801,64 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
     }
     
     /**
-     * <p>Adds a new {@link ResourceInfo} object into the local cache. The {@link ResourceInfo} is added against two 
-     * different keys - the basic path AND the checksum path. This is so that it can be retrieved by both directives
-     * generating new requests to output to HTML and from the {@link ResourceController} attempting to retrieve 
+     * The minimum length of a hex encoded checksum that will be recognised by {@link #getChecksumFromPath(String)}. This
+     * matches the shortest supported digest (MD5) so that ordinary file names are not mistaken for checksum paths.
+     */
+    public static final int MIN_CHECKSUM_LENGTH = 32;
+    
+    /**
+     * <p>Performs the inverse of {@link #generateCheckSumPath(String, String)} by extracting the checksum from the supplied path
+     * without consulting any cache. The checksum is expected to be the final file name (with any extension removed) either in its
+     * entirety (as for aggregated resources) or following the last underscore (as for individual resources). Because such paths
+     * are content addressed the returned value can be used as a strong entity tag for the resource.</p>
+     * 
+     * @param path The path to extract the checksum from.
+     * @return The checksum or <code>null</code> if the path does not contain a checksum.
+     */
+    public static String getChecksumFromPath(final String path)
+    {
+        String checksum = null;
+        if (path != null)
+        {
+            int start = path.lastIndexOf('/') + 1;
+            int end = path.lastIndexOf('.');
+            if (end < start)
+            {
+                end = path.length();
+            }
+            int underscore = path.lastIndexOf('_', end);
+            if (underscore >= start)
+            {
+                start = underscore + 1;
+            }
+            if (end - start >= MIN_CHECKSUM_LENGTH)
+            {
+                checksum = path.substring(start, end);
+                for (int i=0; i<checksum.length(); i++)
+                {
+                    if (Character.digit(checksum.charAt(i), 16) == -1)
+                    {
+                        checksum = null;
+                        break;
+                    }
+                }
+            }
+        }
+        return checksum;
+    }
+    
+    /**
+     * <p>Generates the checksum and checksum path of a resource. The checksum path can be retrieved both by directives
+     * generating new requests to output to HTML and by the {@link ResourceController} attempting to retrieve 
      * the resources specified from the generated requests.</p>
      * 
      * @param path The path of the resource.
      * @param resourceInfo A {@link ResourceInfo} object specifying where to obtain the resource.
+     * @param callback An optional callback for processing the resource contents.
+     * @return The {@link CachedResource} for the resource.
      * @throws IOException 
      */
-    private void addResourceInfoToCache(String path, ResourceInfo resourceInfo, DependencyHandlerProcessingCallback callback)
+    private CachedResource createCachedResource(String path, ResourceInfo resourceInfo, DependencyHandlerProcessingCallback callback)
             throws IOException
     {
         String checksum = "";
@@ -607,13 +869,17 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
         else
         {
             // Get the InputStream from the ResourceInfo, use it to get the contents of the file from
-            // which the checksum can be generated. Generate a new path for resource using the checksum
-            // and then add the ResourceInfo object to the cache under both the basic path and the
-            // checksum based path...
-            checksum = this.lookupChecksumInCache(path);
-            if (checksum == null || this.isDebugMode() == true)
+            // which the checksum can be generated. A new path for resource is then generated using the checksum...
+            checksum = null;
+            if (callback == null && resourceInfo instanceof ServletContextRes && this.isDebugMode() == false)
+            {
+                // Use the checksum generated at build time (if available) rather than reading the resource... 
+                String servletPath = resourceInfo.path.startsWith("/") ? resourceInfo.path.substring(1) : resourceInfo.path;
+                checksum = this.manifestChecksums.get(servletPath);
+            }
+            if (checksum == null)
             {
-                // The checksum hasn't previously been cached, get it now...
+                // The checksum isn't available from the manifest, generate it now...
                 final InputStream in = resourceInfo.getInputStream();
                 if (in != null)
                 {
@@ -634,24 +900,10 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
                 
                 if (logger.isDebugEnabled())
                     logger.debug("Calculating resource checksum and adding to cache: " + path + " = " + checksum);
-                
-                this.addChecksumToCache(path, checksum);
             }
         }
         
-        // Generate the path and cache the result...
-        final String checksumPath = generateCheckSumPath(path, checksum);
-        addChecksumPathToCache(path, checksumPath);
-        this.resourceInfoLock.writeLock().lock();
-        try
-        {
-            this.cachedResourceInfoMap.put(path, resourceInfo);
-            this.cachedResourceInfoMap.put(checksumPath, resourceInfo);
-        }
-        finally
-        {
-            this.resourceInfoLock.writeLock().unlock();
-        }
+        return new CachedResource(resourceInfo, checksum, generateCheckSumPath(path, checksum));
     }
     
     /**
@@ -690,7 +942,7 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
     /**
      * <p>Obtains a checksum path for the supplied path by first checking a cache for previously generated 
      * values and failing that will attempt to actually retrieve the resource which will in turn actually
-     * generate a checksum path and place it in the cache which is then rechecked.</p>
+     * generate a checksum path and place it in the cache.</p>
      * 
      * @param path The path of the resource to attempt to generate a checksum path for
      * @return If the requested resource could be found then this will return a checksum generated against
@@ -699,51 +951,43 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
      */
     public String getChecksumPath(String path)
     {
-        String checksumPath = lookupChecksumPathInCache(path);
-        
-        // If we've not previously generated the checksum then generate one now...
-        if (checksumPath == null)
+        String checksumPath = null;
+        try
         {
-            try
-            {
-                this.getResourceInputStream(path);
-                checksumPath = lookupChecksumPathInCache(path); 
-            }
-            catch (IOException e)
-            {
-                logger.error("The following error occurred attempting to obtain a checksum path", e);
-            }
+            checksumPath = getCachedResource(path, null).checksumPath;
+        }
+        catch (IOException e)
+        {
+            logger.error("The following error occurred attempting to obtain a checksum path", e);
         }
         return checksumPath;
     }
     
     /**
-     * <p>Obtains a checksum path for the supplied path by first checking a cache for previously generated 
+     * <p>Obtains a checksum for the supplied path by first checking a cache for previously generated 
      * values and failing that will attempt to actually retrieve the resource which will in turn actually
-     * generate a checksum path and place it in the cache which is then rechecked.</p>
+     * generate a checksum and place it in the cache.</p>
      * 
-     * @param path The path of the resource to attempt to generate a checksum path for
+     * @param path The path of the resource to attempt to generate a checksum for
      * @return If the requested resource could be found then this will return a checksum generated against
      * the contents of the file. If the resource could not be found (or an error occurred attempted to read 
      * the resource contents into memory) then this will return <code>null</code>
      */
     public String getChecksum(String path, DependencyHandlerProcessingCallback callback)
     {
-        String checksum = lookupChecksumInCache(path);
-        
-        // If we've not previously generated the checksum then generate one now...
-        if (checksum == null || this.isDebugMode() == true)
+        String checksum = null;
+        try
         {
-            try
+            CachedResource cachedResource = getCachedResource(path, callback);
+            if (cachedResource.exists())
             {
-                this.getResourceInputStream(path, callback);
-                checksum = lookupChecksumInCache(path); 
-            }
-            catch (IOException e)
-            {
-                logger.error("The following error occurred attempting to obtain a checksum path", e);
+                checksum = cachedResource.checksum;
             }
         }
+        catch (IOException e)
+        {
+            logger.error("The following error occurred attempting to obtain a checksum path", e);
+        }
         return checksum;
     }
     
@@ -757,17 +1001,8 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
     protected String lookupChecksumPathInCache(String path)
     {
         // Get a previously generated checksum path...
-        String checksumPath = null;
-        this.checksumPathsLock.readLock().lock();
-        try
-        {
-            checksumPath = this.cachedChecksumPaths.get(path);
-        }
-        finally
-        {
-            this.checksumPathsLock.readLock().unlock();
-        }
-        return checksumPath;
+        CachedResource cachedResource = lookupCachedResource(path);
+        return (cachedResource != null ? cachedResource.checksumPath : null);
     }
     
     /**
@@ -779,156 +1014,189 @@ public class DependencyHandler implements ApplicationContextAware, CacheReporter
      */
     protected String lookupChecksumInCache(String path)
     {
-        // Get a previously generated checksum path...
-        String checksumPath = null;
-        this.checksumsLock.readLock().lock();
-        try
-        {
-            checksumPath = this.cachedChecksums.get(path);
-        }
-        finally
-        {
-            this.checksumsLock.readLock().unlock();
-        }
-        return checksumPath;
+        // Get a previously generated checksum...
+        CachedResource cachedResource = lookupCachedResource(path);
+        return (cachedResource != null && cachedResource.exists() ? cachedResource.checksum : null);
     }
     
     /**
-     * <p>Adds a new generated checksum path to the cache. This method is called when new
-     * {@link ResourceInfo} objects are added to their respective cache because in order to
-     * do that the checksum path needs to be generated.</p>
+     * Clears the resource cache (which holds the location, checksum and checksum path of each requested
+     * resource). This method has been provided to allow a WebScript to clear the caches of running systems.
+     */
+    @Override
+    public void clearCaches()
+    {
+        this.cachedResources.clear();
+        this.dependencyGraph.clear();
+    }
+    
+    /**
+     * <p>Records which cached resources are derived from which source paths so that only the affected resources
+     * are evicted when a source path changes.</p>
+     */
+    private final DependencyGraph dependencyGraph = new DependencyGraph();
+    
+    /**
+     * <p>Indicates whether changes to resources are being watched for (e.g. by a {@link DependencyFileWatcher}).</p>
+     */
+    private volatile boolean watchingForChanges = false;
+    
+    public boolean isWatchingForChanges()
+    {
+        return this.watchingForChanges;
+    }
+    
+    public void setWatchingForChanges(boolean watchingForChanges)
+    {
+        this.watchingForChanges = watchingForChanges;
+    }
+    
+    /**
+     * <p>Records that a cached resource is derived from the supplied source path, e.g. an aggregated CSS file that
+     * imports another CSS file or embeds an image. When the source path is invalidated the dependent resource will
+     * also be invalidated.</p>
      * 
-     * @param path The original path requested.
-     * @param checksumPath The generated checksum path.
+     * @param source The path of the source resource.
+     * @param dependent The path (or cache key) of the resource derived from the source.
      */
-    protected void addChecksumPathToCache(String path, String checksumPath)
+    public void addDependency(String source, String dependent)
     {
-        this.checksumPathsLock.writeLock().lock();
-        try
-        {
-            this.cachedChecksumPaths.put(path, checksumPath);
-        }
-        finally
-        {
-            this.checksumPathsLock.writeLock().unlock();
-        }
+        this.dependencyGraph.addDependency(normalisePath(source), normalisePath(dependent));
     }
     
     /**
-     * <p>Adds a new generated checksum to the cache.</p>
+     * <p>Removes the recorded dependencies of a derived resource. This should be called before the resource is
+     * processed again so that the dependencies it no longer has are not retained.</p>
      * 
-     * @param path The original path requested.
-     * @param checksum The generated checksum.
+     * @param dependent The path (or cache key) of the derived resource.
      */
-    protected void addChecksumToCache(String path, String checksum)
+    public void removeDependencies(String dependent)
     {
-        this.checksumsLock.writeLock().lock();
-        try
-        {
-            this.cachedChecksums.put(path, checksum);
-        }
-        finally
-        {
-            this.checksumsLock.writeLock().unlock();
-        }
+        this.dependencyGraph.removeDependencies(normalisePath(dependent));
     }
     
     /**
-     * Clears the caches stored in the <code>cachedChecksums</code>, <code>cachedResourceInfoMap</code>
-     * and <code>cachedChecksumPaths</code> maps. This method has been provided to allow a WebScript
-     * to clear the caches of running systems.
+     * <p>Evicts the cached information for the supplied path and for all the resources that are derived from it. All
+     * beans implementing {@link DependencyInvalidationListener} are notified so that they can evict their own entries.
+     * This should be called whenever a resource is changed, added or removed.</p>
+     * 
+     * @param path The path of the changed resource.
+     * @return The set of affected paths.
      */
-    @Override
-    public void clearCaches()
+    public Set<String> invalidate(String path)
     {
-        this.checksumsLock.writeLock().lock();
-        try
-        {
-            this.cachedChecksums.clear();
-        }
-        finally
-        {
-            this.checksumsLock.writeLock().unlock();
-        }
-        this.resourceInfoLock.writeLock().lock();
-        try
+        // A request for "foo.js" may have been resolved to "foo-min.js" (or vice versa) so every suffix variant
+        // of the changed path is invalidated...
+        Set<String> dependents = new HashSet<String>();
+        for (String variant: getSuffixVariants(normalisePath(path)))
         {
-            this.cachedResourceInfoMap.clear();
+            dependents.addAll(this.dependencyGraph.getDependents(variant));
         }
-        finally
-        {
-            this.resourceInfoLock.writeLock().unlock();
-        }
-        this.checksumPathsLock.writeLock().lock();
-        try
+        Set<String> paths = new HashSet<String>(dependents.size() * 4);
+        for (String dependent: dependents)
         {
-            this.cachedChecksumPaths.clear();
+            paths.add(dependent);
+            paths.add("/" + dependent);
         }
-        finally
+        for (String p: paths)
         {
-            this.checksumPathsLock.writeLock().unlock();
+            // Checksum paths are resolved from the cached resource so are invalidated with it...
+            this.cachedResources.remove(p);
+            this.manifestChecksums.remove(p);
         }
-    }
-    
-    @Override
-    public List<CacheReport> report()
-    {
-        List<CacheReport> reports = new ArrayList<>(3);
         
-        long size = 0;
-        this.checksumsLock.writeLock().lock();
-        try
+        if (this.applicationContext != null)
         {
-            for (String v : this.cachedChecksums.keySet())
+            for (DependencyInvalidationListener listener: this.applicationContext.getBeansOfType(DependencyInvalidationListener.class).values())
             {
-                size += v.length()*2 + 64;
+                listener.invalidateDependencies(paths);
             }
-            reports.add(new CacheReport("cachedChecksums", this.cachedChecksums.size(), size));
-        }
-        finally
-        {
-            this.checksumsLock.writeLock().unlock();
         }
         
-        size = 0;
-        this.resourceInfoLock.writeLock().lock();
-        try
+        if (logger.isDebugEnabled())
+            logger.debug("Invalidated " + path + " and " + (dependents.size() - 1) + " dependent resources");
+        return paths;
+    }
+    
+    /**
+     * <p>Clears the resource cache along with the caches of all the beans implementing
+     * {@link DependencyInvalidationListener}. This should be called when changes to resources may have been missed
+     * (so it is not possible to determine which entries should be evicted).</p>
+     */
+    public void invalidateAll()
+    {
+        clearCaches();
+        if (this.applicationContext != null)
         {
-            for (ResourceInfo v : this.cachedResourceInfoMap.values())
+            for (DependencyInvalidationListener listener: this.applicationContext.getBeansOfType(DependencyInvalidationListener.class).values())
             {
-                if (v.path != null)
-                {
-                    size += v.path.length()*2;
-                    size += v.getContents() != null ? v.getContents().length()*2 : 32;
-                }
-                else
+                if (listener instanceof CacheReporter)
                 {
-                    size += 16;         // sentinel cache marker reference
+                    ((CacheReporter) listener).clearCaches();
                 }
             }
-            reports.add(new CacheReport("cachedResourceInfoMap", this.cachedResourceInfoMap.size(), size));
         }
-        finally
+        
+        if (logger.isDebugEnabled())
+            logger.debug("Invalidated all dependency caches");
+    }
+    
+    /**
+     * <p>Gets the supplied path along with every path that could have been resolved to, or resolved from, it
+     * using the configured debug and production suffices. For example, given the suffices <code>["-min", ""]</code>
+     * the path "test-min.js" will return <code>["test-min.js", "test.js"]</code>.</p>
+     * 
+     * @param path The path to get the variants of
+     * @return The set of variant paths (always including the supplied path)
+     */
+    protected Set<String> getSuffixVariants(String path)
+    {
+        Set<String> variants = new HashSet<String>(8);
+        variants.add(path);
+        List<String> suffices = new ArrayList<String>();
+        if (this.debugSuffices != null)
         {
-            this.resourceInfoLock.writeLock().unlock();
+            suffices.addAll(this.debugSuffices);
         }
-        
-        size = 0;
-        this.checksumPathsLock.writeLock().lock();
-        try
+        if (this.productionSuffices != null)
         {
-            for (String v : this.cachedChecksumPaths.values())
-            {
-                size += v.length()*2;
-            }
-            reports.add(new CacheReport("cachedChecksumPaths", this.cachedChecksumPaths.size(), size));
+            suffices.addAll(this.productionSuffices);
         }
-        finally
+        int lastDotIndex = path.lastIndexOf('.');
+        if (!suffices.isEmpty() && lastDotIndex > path.lastIndexOf('/'))
         {
-            this.checksumPathsLock.writeLock().unlock();
+            // Remove the longest matching suffix to find the path that would have been requested...
+            String name = path.substring(0, lastDotIndex);
+            String base = name;
+            for (String suffix: suffices)
+            {
+                if (suffix.length() != 0 && name.endsWith(suffix) && name.length() - suffix.length() < base.length())
+                {
+                    base = name.substring(0, name.length() - suffix.length());
+                }
+            }
+            variants.add(base + path.substring(lastDotIndex));
+            variants.addAll(generatePathForSuffices(base + path.substring(lastDotIndex), suffices));
         }
-        
-        return reports;
+        return variants;
+    }
+    
+    private static String normalisePath(String path)
+    {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+    
+    @Override
+    public List<ConcurrentLoadingCache<?>> getSizeBoundedCaches()
+    {
+        return Collections.<ConcurrentLoadingCache<?>>singletonList(this.cachedResources);
+    }
+    
+    @Override
+    public List<CacheReport> report()
+    {
+        // the cache is weighted by its estimated retained size...
+        return Collections.singletonList(this.cachedResources.report());
     }
 
     private final static String[] hex = {
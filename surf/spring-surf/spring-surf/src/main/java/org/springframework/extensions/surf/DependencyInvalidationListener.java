@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf;
+
+import java.util.Set;
+
+/**
+ * Implemented by beans that cache resources derived from dependency resources so that the {@link DependencyHandler} can
+ * evict only the affected entries when a resource changes (rather than clearing all caches).
+ * 
+ * @since 6.12
+ */
+public interface DependencyInvalidationListener
+{
+    /**
+     * Removes any cached entries for, or derived from, the supplied paths. The paths are supplied both with and
+     * without a leading forward slash.
+     * 
+     * @param paths The changed paths and the paths of all the resources derived from them.
+     */
+    public void invalidateDependencies(Set<String> paths);
+}
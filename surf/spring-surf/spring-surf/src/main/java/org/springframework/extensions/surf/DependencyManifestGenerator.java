@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.DependencyAggregator.CompressionType;
+import org.springframework.extensions.surf.cache.FileSystemResourceCache;
+
+/**
+ * <p>A build time tool that pre-computes the most expensive dependency processing for the resources of a web application
+ * so that it does not need to be performed lazily (and under lock) by each server on first use. It produces:
+ * <ul>
+ * <li>a dependency manifest of the content checksum of every resource, which can be loaded by the {@link DependencyHandler}
+ * (via its "manifest" property) to avoid reading and digesting each resource when generating checksum paths</li>
+ * <li>a {@link FileSystemResourceCache} populated with the compressed output of every JavaScript and CSS file, which can be
+ * configured as the "persistentCache" of the {@link DependencyAggregator} to avoid compressing files at runtime</li>
+ * </ul>
+ * </p>
+ * <p>The tool can be run as a standalone application (e.g. from the Maven exec plugin) with the arguments:
+ * <pre>
+ *    &lt;web-application-directory&gt; &lt;output-directory&gt; [&lt;JavaScriptCompressionHandler class&gt;] [&lt;CSSCompressionHandler class&gt;]
+ * </pre>
+ * The compression handlers default to the YUI compressor handlers (with their default settings) which are also the default
+ * handlers configured for Surf. The charset and digest default to "UTF-8" and "MD5" and can be overridden with the
+ * "surf.dependency.charset" and "surf.dependency.digest" system properties.</p>
+ * <p>Aggregated resources, Dojo layers and theme processed CSS are not generated as they depend upon the pages, themes
+ * and configuration of each request - however they are built from the pre-compressed files and so are cheap to generate.</p>
+ * 
+ * @since 6.12
+ */
+public class DependencyManifestGenerator
+{
+    private static final Log logger = LogFactory.getLog(DependencyManifestGenerator.class);
+    
+    public static final String MANIFEST_FILE_NAME = "dependency-manifest.properties";
+    public static final String CACHE_DIRECTORY_NAME = "resource-cache";
+    
+    private static final String WEB_INF = "WEB-INF";
+    private static final String META_INF = "META-INF";
+    
+    private final DependencyHandler dependencyHandler;
+    private final DependencyAggregator dependencyAggregator;
+    private final Properties manifest = new Properties();
+    
+    private int resources = 0;
+    private int compressed = 0;
+    private int failed = 0;
+    
+    public DependencyManifestGenerator(DependencyHandler dependencyHandler, DependencyAggregator dependencyAggregator)
+    {
+        this.dependencyHandler = dependencyHandler;
+        this.dependencyAggregator = dependencyAggregator;
+    }
+    
+    /**
+     * Processes every resource beneath the supplied web application directory (excluding WEB-INF and META-INF).
+     * 
+     * @param webappDirectory The root of the web application
+     * @throws IOException
+     */
+    public void process(File webappDirectory) throws IOException
+    {
+        process(webappDirectory, "");
+    }
+    
+    private void process(File directory, String pathPrefix) throws IOException
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file: files)
+            {
+                if (file.isDirectory())
+                {
+                    if (pathPrefix.length() != 0 || !(file.getName().equals(WEB_INF) || file.getName().equals(META_INF)))
+                    {
+                        process(file, pathPrefix + file.getName() + "/");
+                    }
+                }
+                else
+                {
+                    processFile(file, pathPrefix + file.getName());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Generates the checksum for a single resource and, for JavaScript and CSS resources, compresses it into the
+     * persistent cache.
+     * 
+     * @param file The resource file
+     * @param path The path of the resource relative to the web application root
+     * @throws IOException
+     */
+    protected void processFile(File file, String path) throws IOException
+    {
+        // The checksum must be generated in exactly the same way as the DependencyHandler does at runtime...
+        String contents = this.dependencyHandler.convertResourceToString(new FileInputStream(file));
+        this.manifest.setProperty(path, this.dependencyHandler.generateCheckSum(contents));
+        this.resources++;
+        
+        CompressionType type = null;
+        if (path.endsWith(".js"))
+        {
+            type = CompressionType.JAVASCRIPT;
+        }
+        else if (path.endsWith(DependencyHandler.CSS))
+        {
+            type = CompressionType.CSS;
+        }
+        if (type != null && !this.dependencyAggregator.excludeFileFromCompression(path))
+        {
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                // ...and the source read in exactly the same way as the DependencyAggregator does...
+                this.dependencyAggregator.warmPersistentCache(IOUtils.toString(in, "UTF-8"), type);
+                this.compressed++;
+            }
+            catch (Exception e)
+            {
+                // The file will be compressed (or fail to be compressed) at runtime instead...
+                if (logger.isWarnEnabled())
+                    logger.warn("The file: \"" + path + "\" could not be compressed due to the following error: " + e.getMessage());
+                this.failed++;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+    
+    /**
+     * Writes the dependency manifest to the supplied file.
+     * 
+     * @param manifestFile The file to write
+     * @throws IOException
+     */
+    public void writeManifest(File manifestFile) throws IOException
+    {
+        OutputStream out = new FileOutputStream(manifestFile);
+        try
+        {
+            this.manifest.store(out, "Surf dependency manifest - resource path to content checksum");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+    
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: DependencyManifestGenerator <web-application-directory> <output-directory> " +
+                               "[<JavaScriptCompressionHandler class>] [<CSSCompressionHandler class>]");
+            System.exit(1);
+        }
+        File webappDirectory = new File(args[0]);
+        File outputDirectory = new File(args[1]);
+        if (!webappDirectory.isDirectory())
+        {
+            throw new IllegalArgumentException("Not a directory: " + webappDirectory.getAbsolutePath());
+        }
+        outputDirectory.mkdirs();
+        
+        DependencyHandler dependencyHandler = new DependencyHandler();
+        dependencyHandler.setCharset(System.getProperty("surf.dependency.charset", "UTF-8"));
+        dependencyHandler.setDigest(System.getProperty("surf.dependency.digest", "MD5"));
+        
+        FileSystemResourceCache persistentCache = new FileSystemResourceCache();
+        persistentCache.setDirectory(new File(outputDirectory, CACHE_DIRECTORY_NAME).getAbsolutePath());
+        persistentCache.init();
+        
+        DependencyAggregator dependencyAggregator = new DependencyAggregator();
+        dependencyAggregator.setDependencyHandler(dependencyHandler);
+        dependencyAggregator.setPersistentCache(persistentCache);
+        dependencyAggregator.setJavaScriptCompressionHandler(args.length > 2 ?
+                (JavaScriptCompressionHandler) Class.forName(args[2]).newInstance() : new YUIJavaScriptCompressorHandler());
+        dependencyAggregator.setCssCompressionHandler(args.length > 3 ?
+                (CSSCompressionHandler) Class.forName(args[3]).newInstance() : new YUICSSCompressorHandler());
+        
+        long start = System.currentTimeMillis();
+        DependencyManifestGenerator generator = new DependencyManifestGenerator(dependencyHandler, dependencyAggregator);
+        generator.process(webappDirectory);
+        generator.writeManifest(new File(outputDirectory, MANIFEST_FILE_NAME));
+        
+        System.out.println("Processed " + generator.resources + " resources (" + generator.compressed + " compressed, " +
+                           generator.failed + " failed) in " + (System.currentTimeMillis() - start) + "ms");
+    }
+}
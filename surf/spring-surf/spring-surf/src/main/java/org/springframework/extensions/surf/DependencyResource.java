@@ -20,18 +20,28 @@ package org.springframework.extensions.surf;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
- * <p>Defines key information required for handling dependency resources.</p> 
+ * <p>Defines key information required for handling dependency resources.</p>
+ * <p>The content is held GZIP compressed - the compressed bytes are exposed via {@link #getCompressedContent()}
+ * so that they can be streamed directly to clients that accept the "gzip" content encoding without any
+ * per-request compression or decompression.</p>
  * 
  * @author David Draper
  * @author Kevin Roast
  */
 public final class DependencyResource
 {
+    /**
+     * The HTTP content encoding of the bytes returned by {@link #getCompressedContent()}.
+     */
+    public static final String CONTENT_ENCODING = "gzip";
+    
     private final String mimetype;
     private final byte[] content;
     private final String charset;
@@ -44,13 +54,14 @@ public final class DependencyResource
     {
         this.mimetype = mimetype;
         this.charset = charset;
-        this.length = content.length();
         try
         {
             // GZIP the content string into an array of compressed bytes
+            byte[] bytes = content.getBytes(charset);
+            this.length = bytes.length;
             ByteArrayOutputStream bao = new ByteArrayOutputStream(this.length >> 2 > 32 ? this.length >> 2 : 32);
             GZIPOutputStream gzos = new GZIPOutputStream(bao);
-            gzos.write(content.getBytes(charset));
+            gzos.write(bytes);
             gzos.close();
             this.content = bao.toByteArray();
         }
@@ -60,6 +71,66 @@ public final class DependencyResource
         }
     }
 
+    /**
+     * Create a Dependency Resource from previously compressed content.
+     */
+    private DependencyResource(String mimetype, byte[] compressedContent, int length, String charset)
+    {
+        this.mimetype = mimetype;
+        this.charset = charset;
+        this.length = length;
+        this.content = compressedContent;
+    }
+    
+    /**
+     * Serializes the resource (including its compressed content) so that it can be stored in a
+     * persistent cache and later restored via {@link #fromBytes(byte[])}.
+     * 
+     * @return The serialized resource.
+     */
+    public byte[] toBytes()
+    {
+        try
+        {
+            ByteArrayOutputStream bao = new ByteArrayOutputStream(this.content.length + 64);
+            DataOutputStream out = new DataOutputStream(bao);
+            out.writeUTF(this.mimetype != null ? this.mimetype : "");
+            out.writeUTF(this.charset);
+            out.writeInt(this.length);
+            out.writeInt(this.content.length);
+            out.write(this.content);
+            out.close();
+            return bao.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Restores a resource previously serialized via {@link #toBytes()}.
+     * 
+     * @param bytes The serialized resource.
+     * @return The restored {@link DependencyResource}.
+     * @throws IOException If the supplied bytes are not a valid serialized resource.
+     */
+    public static DependencyResource fromBytes(byte[] bytes) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String mimetype = in.readUTF();
+        String charset = in.readUTF();
+        int length = in.readInt();
+        int compressedLength = in.readInt();
+        if (length < 0 || compressedLength < 0 || compressedLength > in.available())
+        {
+            throw new IOException("Invalid content length: " + length + "/" + compressedLength);
+        }
+        byte[] compressedContent = new byte[compressedLength];
+        in.readFully(compressedContent);
+        return new DependencyResource(mimetype.length() != 0 ? mimetype : null, compressedContent, length, charset);
+    }
+    
     public String getMimetype()
     {
         return mimetype;
@@ -88,6 +159,26 @@ public final class DependencyResource
         }
     }
     
+    /**
+     * Returns the GZIP compressed content exactly as stored. The returned array is shared and must
+     * not be modified by the caller - it is intended to be written directly to a response that has
+     * the {@link #CONTENT_ENCODING} content encoding applied.
+     * 
+     * @return The GZIP compressed bytes of the resource.
+     */
+    public byte[] getCompressedContent()
+    {
+        return this.content;
+    }
+    
+    /**
+     * @return The length in bytes of the uncompressed content.
+     */
+    public int getContentLength()
+    {
+        return this.length;
+    }
+    
     /*package*/ int getStoredSize()
     {
         return this.content.length;
@@ -54,7 +54,7 @@ import com.googlecode.concurrentlinkedhashmap.Weighers;
  * 
  * @author David Draper
  */
-public class DojoDependencyHandler implements CacheReporter
+public class DojoDependencyHandler implements CacheReporter, DependencyInvalidationListener
 {
     private static final Log logger = LogFactory.getLog(DojoDependencyHandler.class);
     
@@ -210,6 +210,48 @@ public class DojoDependencyHandler implements CacheReporter
         }
     }
     
+    /**
+     * The prefix used to record the dependency of a cached Dojo layer on each of the modules it includes.
+     */
+    private static final String LAYER_DEPENDENCY_PREFIX = "dojo-layer:";
+    
+    /**
+     * Evicts the analysed dependencies of the supplied paths and every generated Dojo layer that includes them.
+     */
+    @Override
+    public void invalidateDependencies(Set<String> paths)
+    {
+        this.cachedDepsLock.writeLock().lock();
+        try
+        {
+            this.cachedDeps.keySet().removeAll(paths);
+        }
+        finally
+        {
+            this.cachedDepsLock.writeLock().unlock();
+        }
+        Map<String, String> checksums = this.dependenciesChecksumCache;
+        if (checksums != null)
+        {
+            for (String path: paths)
+            {
+                if (path.startsWith(LAYER_DEPENDENCY_PREFIX))
+                {
+                    checksums.remove(path.substring(LAYER_DEPENDENCY_PREFIX.length()));
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return <code>true</code> if changed resources are being invalidated as they change (in which case there is no need
+     * to clear the caches when resource caching is disabled).
+     */
+    public boolean isWatchingForChanges()
+    {
+        return this.dependencyHandler.isWatchingForChanges();
+    }
+    
     @Override
     public List<CacheReport> report()
     {
@@ -404,7 +446,7 @@ public class DojoDependencyHandler implements CacheReporter
         String resource = null;
         try
         {
-            DependencyResource res = getGeneratedResourceCache().get(path);
+            DependencyResource res = getCachedDependencyResource(path);
             if (res != null)
             {
                 resource = new String(res.getContent(), "UTF-8");
@@ -417,6 +459,34 @@ public class DojoDependencyHandler implements CacheReporter
         return resource;
     }
     
+    /**
+     * Attempts to retrieve a generated JavaScript resource that has been previously cached as a {@link DependencyResource}.
+     * This allows the {@link ResourceController} to stream the stored compressed content directly to the client rather than
+     * decoding it to a String first.
+     * 
+     * @param path The path to look up in the cache.
+     * @return The cached {@link DependencyResource} or <code>null</code> if it couldn't be found.
+     */
+    public DependencyResource getCachedDependencyResource(String path)
+    {
+        DependencyResource resource = getGeneratedResourceCache().get(path);
+        if (resource == null && this.dependencyAggregator.getPersistentCache() != null && DependencyHandler.getChecksumFromPath(path) != null)
+        {
+            // The generated resource may have been persisted before the last restart...
+            resource = this.dependencyAggregator.getPersistentDependencyResource(PERSISTENT_KEY_GENERATED + path);
+            if (resource != null)
+            {
+                getGeneratedResourceCache().put(path, resource);
+            }
+        }
+        return resource;
+    }
+    
+    /**
+     * Prefix for the persistent cache keys of generated resources.
+     */
+    private static final String PERSISTENT_KEY_GENERATED = "dojo:";
+    
     /**
      * Caches a generated JavaScript resource (the resource should be a generated Dojo layer) against the supplied
      * checksum path. This path will be requested by the {@link ResourceController} from the output generated by the
@@ -427,7 +497,12 @@ public class DojoDependencyHandler implements CacheReporter
      */
     private void cacheResource(String checksum, String resource)
     {
-        getGeneratedResourceCache().put(checksum, new DependencyResource(null, resource, "UTF-8"));
+        DependencyResource dependencyResource = new DependencyResource(null, resource, "UTF-8");
+        getGeneratedResourceCache().put(checksum, dependencyResource);
+        if (this.dependencyAggregator.getPersistentCache() != null && this.dependencyAggregator.isDebugMode() == false)
+        {
+            this.dependencyAggregator.getPersistentCache().put(PERSISTENT_KEY_GENERATED + checksum, dependencyResource.toBytes());
+        }
     }
     
     /**
@@ -514,6 +589,24 @@ public class DojoDependencyHandler implements CacheReporter
             }
             checksum = this.getChecksumPathForDependencies(aggregatedOutput.toString());
             getDependenciesChecksumCache().put(key, checksum);
+            
+            // Record that the layer depends upon each of the modules it includes...
+            this.dependencyHandler.removeDependencies(LAYER_DEPENDENCY_PREFIX + key);
+            for (Entry<String, DojoDependencies> dependency: dependencies.entrySet())
+            {
+                this.dependencyHandler.addDependency(dependency.getKey(), LAYER_DEPENDENCY_PREFIX + key);
+                if (dependency.getValue() != null)
+                {
+                    for (String textDep: dependency.getValue().getTextDeps())
+                    {
+                        this.dependencyHandler.addDependency(textDep, LAYER_DEPENDENCY_PREFIX + key);
+                    }
+                }
+            }
+            if (pagePath != null)
+            {
+                this.dependencyHandler.addDependency(pagePath, LAYER_DEPENDENCY_PREFIX + key);
+            }
         }
         
         return checksum;
@@ -29,11 +29,18 @@ import java.io.Writer;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
+ * JavaScript compressor driven by an external process.
+ * <p>
+ * By default a new process is started to compress each file using the configured <code>cmd</code>. Alternatively a
+ * <code>workerCmd</code> can be configured to keep a pool of long running processes that compress multiple files using
+ * the framed protocol described by {@link ExternalProcessPool}.
+ * 
  * @author Kevin Roast
  */
-public class ExternalJavaScriptCompressionHandler implements JavaScriptCompressionHandler
+public class ExternalJavaScriptCompressionHandler implements JavaScriptCompressionHandler, CompressionSettingsProvider, DisposableBean
 {
     private static final Log logger = LogFactory.getLog(ExternalJavaScriptCompressionHandler.class);
     
@@ -48,9 +55,127 @@ public class ExternalJavaScriptCompressionHandler implements JavaScriptCompressi
         this.cmd = cmd;
     }
     
+    private String workerCmd;
+    private int poolSize = 2;
+    private long timeout = 60000L;
+    private long healthCheckInterval = 30000L;
+    private int maxResponseLength = ExternalProcessPool.DEFAULT_MAX_RESPONSE_LENGTH;
+    private volatile ExternalProcessPool processPool;
+    private boolean destroyed = false;
+    
+    /**
+     * @param workerCmd The external worker cmd to execute. When set this is used in preference to the 'cmd' and
+     *                  must implement the protocol described by {@link ExternalProcessPool}.
+     */
+    public void setWorkerCmd(String workerCmd)
+    {
+        this.workerCmd = workerCmd;
+    }
+    
+    /**
+     * @param poolSize  The maximum number of worker processes
+     */
+    public void setPoolSize(int poolSize)
+    {
+        this.poolSize = poolSize;
+    }
+    
+    /**
+     * @param timeout   The maximum time in milliseconds a worker process can take to compress a file
+     */
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+    
+    /**
+     * @param healthCheckInterval   The time in milliseconds a worker process can be idle before it is checked
+     */
+    public void setHealthCheckInterval(long healthCheckInterval)
+    {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+    
+    /**
+     * @param maxResponseLength The maximum length in bytes of the output of a worker process, a worker process that
+     *                          exceeds it is restarted
+     */
+    public void setMaxResponseLength(int maxResponseLength)
+    {
+        this.maxResponseLength = maxResponseLength;
+    }
+    
+    /**
+     * @return The worker process pool or <code>null</code> if a worker cmd has not been configured
+     * @throws IOException if the pool has been shut down
+     */
+    protected ExternalProcessPool getProcessPool() throws IOException
+    {
+        ExternalProcessPool pool = this.processPool;
+        if (pool == null && this.workerCmd != null && this.workerCmd.length() != 0)
+        {
+            synchronized (this)
+            {
+                if (this.destroyed)
+                {
+                    throw new IOException("External process pool has been shut down: " + this.workerCmd);
+                }
+                pool = this.processPool;
+                if (pool == null)
+                {
+                    pool = new ExternalProcessPool(this.workerCmd, this.poolSize, this.timeout, this.healthCheckInterval, this.maxResponseLength);
+                    this.processPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+    
+    @Override
+    public void destroy()
+    {
+        ExternalProcessPool pool;
+        synchronized (this)
+        {
+            // the pool is never re-created once destroyed, requests already holding it will fail as it is shut down
+            this.destroyed = true;
+            pool = this.processPool;
+            this.processPool = null;
+        }
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
+    }
+    
+    @Override
+    public String getCompressionSettings()
+    {
+        // The worker cmd is used in preference to the cmd when it is set...
+        return (this.workerCmd != null && this.workerCmd.length() != 0 ? "workerCmd=" + this.workerCmd : "cmd=" + this.cmd);
+    }
+    
     @Override
     public void compress(Reader reader, Writer writer) throws IOException
     {
+        ExternalProcessPool pool = getProcessPool();
+        if (pool != null)
+        {
+            try
+            {
+                writer.write(pool.process(IOUtils.toString(reader)));
+            }
+            catch (IOException e)
+            {
+                throw new IOException("Error during external JavaScript compilation:\r\n" + e.getMessage(), e);
+            }
+            finally
+            {
+                reader.close();
+            }
+            return;
+        }
+        
         if (this.cmd == null || cmd.length() == 0)
         {
             throw new IllegalArgumentException("External compressor 'cmd' not set correctly in bean config.");
@@ -71,13 +196,11 @@ public class ExternalJavaScriptCompressionHandler implements JavaScriptCompressi
             stdIn.close();
             
             // read the output from the command
-            String s;
-            while ((s = stdOut.readLine()) != null) {
-                writer.append(s);
-            }
+            IOUtils.copy(stdOut, writer);
             stdOut.close();
             
             // read any errors from the attempted command
+            String s;
             if ((s = stdError.readLine()) != null)
             {
                 // error occured, collect information and throw exception with the message
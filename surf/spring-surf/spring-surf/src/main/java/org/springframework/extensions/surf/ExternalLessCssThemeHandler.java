@@ -24,8 +24,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * This is a LESS CSS handler driven by a pre-configured external LESS process.
@@ -33,12 +35,16 @@ import org.apache.commons.logging.LogFactory;
  * Typically uses a Node "lessc" module preinstalled via NPM or similar. This is not
  * expected to be used in production environments where adding additional 3rd party
  * modules to the web-tier is not desired or permitted. 
+ * <p>
+ * By default a new process is started for each request using the configured <code>cmd</code>. Alternatively a
+ * <code>workerCmd</code> can be configured to keep a pool of long running processes that use the framed protocol
+ * described by {@link ExternalProcessPool}.
  * @see <a href="http://lesscss.org/#using-less-installation">http://lesscss.org/</a>
  * 
  * @author Kevin Roast
  * @since 6.0
  */
-public class ExternalLessCssThemeHandler extends LessCssThemeHandler
+public class ExternalLessCssThemeHandler extends LessCssThemeHandler implements DisposableBean
 {
     private static final Log logger = LogFactory.getLog(ExternalLessCssThemeHandler.class);
     
@@ -52,6 +58,99 @@ public class ExternalLessCssThemeHandler extends LessCssThemeHandler
     {
         this.cmd = cmd;
     }
+    
+    private String workerCmd;
+    private int poolSize = 2;
+    private long timeout = 60000L;
+    private long healthCheckInterval = 30000L;
+    private int maxResponseLength = ExternalProcessPool.DEFAULT_MAX_RESPONSE_LENGTH;
+    private volatile ExternalProcessPool processPool;
+    private boolean destroyed = false;
+    
+    /**
+     * @param workerCmd The external worker cmd to execute. When set this is used in preference to the 'cmd' and
+     *                  must implement the protocol described by {@link ExternalProcessPool}.
+     */
+    public void setWorkerCmd(String workerCmd)
+    {
+        this.workerCmd = workerCmd;
+    }
+    
+    /**
+     * @param poolSize  The maximum number of worker processes
+     */
+    public void setPoolSize(int poolSize)
+    {
+        this.poolSize = poolSize;
+    }
+    
+    /**
+     * @param timeout   The maximum time in milliseconds a worker process can take to compile the CSS
+     */
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+    
+    /**
+     * @param healthCheckInterval   The time in milliseconds a worker process can be idle before it is checked
+     */
+    public void setHealthCheckInterval(long healthCheckInterval)
+    {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+    
+    /**
+     * @param maxResponseLength The maximum length in bytes of the output of a worker process, a worker process that
+     *                          exceeds it is restarted
+     */
+    public void setMaxResponseLength(int maxResponseLength)
+    {
+        this.maxResponseLength = maxResponseLength;
+    }
+    
+    /**
+     * @return The worker process pool or <code>null</code> if a worker cmd has not been configured
+     * @throws IOException if the pool has been shut down
+     */
+    protected ExternalProcessPool getProcessPool() throws IOException
+    {
+        ExternalProcessPool pool = this.processPool;
+        if (pool == null && this.workerCmd != null && this.workerCmd.length() != 0)
+        {
+            synchronized (this)
+            {
+                if (this.destroyed)
+                {
+                    throw new IOException("External process pool has been shut down: " + this.workerCmd);
+                }
+                pool = this.processPool;
+                if (pool == null)
+                {
+                    pool = new ExternalProcessPool(this.workerCmd, this.poolSize, this.timeout, this.healthCheckInterval, this.maxResponseLength);
+                    this.processPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+    
+    @Override
+    public void destroy()
+    {
+        ExternalProcessPool pool;
+        synchronized (this)
+        {
+            // the pool is never re-created once destroyed, requests already holding it will fail as it is shut down
+            this.destroyed = true;
+            pool = this.processPool;
+            this.processPool = null;
+        }
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
+    }
 
     /**
      * Sets up a new instance.
@@ -70,6 +169,19 @@ public class ExternalLessCssThemeHandler extends LessCssThemeHandler
     @Override
     public String processCssThemes(String path, StringBuilder cssContents) throws IOException
     {
+        ExternalProcessPool pool = getProcessPool();
+        if (pool != null)
+        {
+            try
+            {
+                return pool.process(this.getLessVariables() + cssContents.toString());
+            }
+            catch (IOException e)
+            {
+                throw new IOException("Error during external LESS compilation for path: " + path + "\r\n" + e.getMessage(), e);
+            }
+        }
+        
         if (this.cmd == null || cmd.length() == 0)
         {
             throw new IllegalArgumentException("External LESS 'cmd' not set correctly in bean config.");
@@ -91,14 +203,11 @@ public class ExternalLessCssThemeHandler extends LessCssThemeHandler
             stdIn.close();
             
             // read the output from the command
-            StringBuilder buf = new StringBuilder(1024);
-            String s;
-            while ((s = stdOut.readLine()) != null) {
-                buf.append(s);
-            }
+            StringBuilder buf = new StringBuilder(IOUtils.toString(stdOut));
             stdOut.close();
             
             // read any errors from the attempted command
+            String s;
             if ((s = stdError.readLine()) != null)
             {
                 // error occured, collect information and throw exception with the message
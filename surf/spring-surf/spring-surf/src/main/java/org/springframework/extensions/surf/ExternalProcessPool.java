@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A pool of long running external worker processes that each process one request at a time over their standard
+ * input and output streams. This avoids the cost of starting a new process for every file processed by the
+ * {@link ExternalJavaScriptCompressionHandler} and {@link ExternalLessCssThemeHandler}.
+ * <p>
+ * Requests and responses are framed so that multiple requests can be made to the same process:
+ * <pre>
+ * request:  &lt;length&gt;\n&lt;content&gt;
+ * response: OK &lt;length&gt;\n&lt;content&gt;  or  ERROR &lt;length&gt;\n&lt;message&gt;
+ * </pre>
+ * where the length is the decimal number of UTF-8 encoded bytes of content that follow the newline. A request with
+ * no content is a health check and must be answered with <code>OK 0</code>.
+ * <p>
+ * Workers are started on demand. A worker that has exited, fails to answer a health check, breaks the protocol,
+ * announces a response longer than the maximum response length or exceeds the timeout for a request is destroyed and
+ * replaced by a new process when next required. Anything written to the standard error stream of a worker is logged.
+ * 
+ * @since 6.12
+ */
+public class ExternalProcessPool
+{
+    private static final Log logger = LogFactory.getLog(ExternalProcessPool.class);
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String STATUS_OK = "OK";
+    private static final String STATUS_ERROR = "ERROR";
+    
+    /**
+     * The default maximum length in bytes of the content of a response.
+     */
+    public static final int DEFAULT_MAX_RESPONSE_LENGTH = 32 * 1024 * 1024;
+    
+    /**
+     * The maximum length in bytes of the header line of a response, which is far longer than any valid header.
+     */
+    private static final int MAX_HEADER_LENGTH = 64;
+    
+    private final String cmd;
+    private final int size;
+    private final long timeout;
+    private final long healthCheckInterval;
+    private final int maxResponseLength;
+    
+    private final LinkedBlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<Worker>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService watchdog;
+    private volatile boolean shutdown = false;
+    
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    
+    /**
+     * @param cmd                   The command used to start each worker process
+     * @param size                  The maximum number of worker processes
+     * @param timeout               The maximum time in milliseconds to wait for the response to a request
+     * @param healthCheckInterval   Workers that have been idle for longer than this time in milliseconds are health
+     *                              checked before being used
+     */
+    public ExternalProcessPool(String cmd, int size, long timeout, long healthCheckInterval)
+    {
+        this(cmd, size, timeout, healthCheckInterval, DEFAULT_MAX_RESPONSE_LENGTH);
+    }
+    
+    /**
+     * @param cmd                   The command used to start each worker process
+     * @param size                  The maximum number of worker processes
+     * @param timeout               The maximum time in milliseconds to wait for the response to a request
+     * @param healthCheckInterval   Workers that have been idle for longer than this time in milliseconds are health
+     *                              checked before being used
+     * @param maxResponseLength     The maximum length in bytes of the content of a response. A worker announcing a
+     *                              longer response is destroyed without reading it.
+     */
+    public ExternalProcessPool(String cmd, int size, long timeout, long healthCheckInterval, int maxResponseLength)
+    {
+        if (cmd == null || cmd.length() == 0)
+        {
+            throw new IllegalArgumentException("External process 'cmd' is mandatory.");
+        }
+        if (size < 1)
+        {
+            throw new IllegalArgumentException("External process pool size must be at least 1.");
+        }
+        if (maxResponseLength < 0)
+        {
+            throw new IllegalArgumentException("External process maximum response length cannot be negative.");
+        }
+        this.cmd = cmd;
+        this.size = size;
+        this.timeout = timeout;
+        this.healthCheckInterval = healthCheckInterval;
+        this.maxResponseLength = maxResponseLength;
+        this.permits = new Semaphore(size, true);
+        this.watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "ExternalProcessPool-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Sends the supplied content to a worker process and returns the response.
+     * 
+     * @param content The content to process
+     * @return The processed content
+     * @throws IOException if the worker reports an error, fails or times out
+     */
+    public String process(String content) throws IOException
+    {
+        if (this.shutdown)
+        {
+            throw new IOException("External process pool has been shut down: " + this.cmd);
+        }
+        try
+        {
+            this.permits.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for an external process: " + this.cmd);
+        }
+        Worker worker = null;
+        boolean healthy = false;
+        try
+        {
+            worker = borrowWorker();
+            this.requests.incrementAndGet();
+            String response = worker.exchange(content.getBytes(UTF8), this.timeout);
+            healthy = true;
+            return response;
+        }
+        catch (WorkerException e)
+        {
+            // The worker reported an error processing the content but is still usable
+            healthy = true;
+            throw new IOException(e.getMessage());
+        }
+        finally
+        {
+            if (worker != null)
+            {
+                releaseWorker(worker, healthy);
+            }
+            this.permits.release();
+        }
+    }
+    
+    /**
+     * Gets an idle worker, replacing any that are no longer usable, or starts a new one.
+     */
+    private Worker borrowWorker() throws IOException
+    {
+        Worker worker;
+        while ((worker = this.idleWorkers.poll()) != null)
+        {
+            if (worker.isHealthy(this.healthCheckInterval, this.timeout))
+            {
+                return worker;
+            }
+            if (logger.isWarnEnabled())
+                logger.warn("Replacing unhealthy external process: " + this.cmd);
+            this.restarts.incrementAndGet();
+            worker.destroy();
+        }
+        return new Worker();
+    }
+    
+    private void releaseWorker(Worker worker, boolean healthy)
+    {
+        if (healthy && !this.shutdown)
+        {
+            worker.lastUsed = System.currentTimeMillis();
+            this.idleWorkers.offer(worker);
+        }
+        else
+        {
+            if (!healthy)
+            {
+                this.restarts.incrementAndGet();
+            }
+            worker.destroy();
+        }
+    }
+    
+    /**
+     * Destroys all the worker processes. The pool cannot be used once it has been shut down.
+     */
+    public void shutdown()
+    {
+        this.shutdown = true;
+        Worker worker;
+        while ((worker = this.idleWorkers.poll()) != null)
+        {
+            worker.destroy();
+        }
+        this.watchdog.shutdownNow();
+    }
+    
+    /**
+     * @return The maximum number of worker processes
+     */
+    public int getSize()
+    {
+        return this.size;
+    }
+    
+    /**
+     * @return The maximum length in bytes of the content of a response
+     */
+    public int getMaxResponseLength()
+    {
+        return this.maxResponseLength;
+    }
+    
+    /**
+     * @return The number of running worker processes
+     */
+    public int getWorkerCount()
+    {
+        return this.workerCount.get();
+    }
+    
+    /**
+     * @return The number of requests processed
+     */
+    public long getRequestCount()
+    {
+        return this.requests.get();
+    }
+    
+    /**
+     * @return The number of worker processes that have been replaced
+     */
+    public long getRestartCount()
+    {
+        return this.restarts.get();
+    }
+    
+    /**
+     * Indicates that a worker reported an error for a request rather than failing.
+     */
+    private static class WorkerException extends IOException
+    {
+        private static final long serialVersionUID = -1862946018429262946L;
+        
+        private WorkerException(String message)
+        {
+            super(message);
+        }
+    }
+    
+    /**
+     * A single external worker process.
+     */
+    private class Worker
+    {
+        private final Process process;
+        private final OutputStream stdIn;
+        private final InputStream stdOut;
+        private final AtomicBoolean destroyed = new AtomicBoolean();
+        private volatile long lastUsed = System.currentTimeMillis();
+        
+        private Worker() throws IOException
+        {
+            this.process = Runtime.getRuntime().exec(cmd);
+            this.stdIn = new BufferedOutputStream(this.process.getOutputStream());
+            this.stdOut = new BufferedInputStream(this.process.getInputStream());
+            workerCount.incrementAndGet();
+            
+            // drain the error stream so that the process cannot block writing to it
+            final BufferedReader stdError = new BufferedReader(new InputStreamReader(this.process.getErrorStream(), UTF8));
+            Thread errorReader = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        String s;
+                        while ((s = stdError.readLine()) != null)
+                        {
+                            if (logger.isWarnEnabled())
+                                logger.warn(cmd + ": " + s);
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        // the process has exited
+                    }
+                }
+            }, "ExternalProcessPool-stderr");
+            errorReader.setDaemon(true);
+            errorReader.start();
+            
+            if (logger.isDebugEnabled())
+                logger.debug("Started external process: " + cmd);
+        }
+        
+        /**
+         * Checks that the process is still running and, if it has been idle for longer than the supplied interval,
+         * that it responds to a health check.
+         */
+        private boolean isHealthy(long interval, long timeout)
+        {
+            boolean healthy = false;
+            if (!this.destroyed.get())
+            {
+                try
+                {
+                    this.process.exitValue();
+                }
+                catch (IllegalThreadStateException e)
+                {
+                    // the process is still running
+                    healthy = true;
+                }
+            }
+            if (healthy && System.currentTimeMillis() - this.lastUsed > interval)
+            {
+                try
+                {
+                    exchange(new byte[0], timeout);
+                }
+                catch (IOException e)
+                {
+                    healthy = false;
+                }
+            }
+            return healthy;
+        }
+        
+        /**
+         * Writes a request frame and reads the response frame. The process is destroyed by the watchdog if the
+         * response is not received within the timeout, causing the read to fail.
+         */
+        private String exchange(byte[] request, long timeout) throws IOException
+        {
+            ScheduledFuture<?> kill = null;
+            if (timeout > 0)
+            {
+                kill = watchdog.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (logger.isWarnEnabled())
+                            logger.warn("External process timed out: " + cmd);
+                        destroy();
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+            }
+            try
+            {
+                this.stdIn.write(Integer.toString(request.length).getBytes(UTF8));
+                this.stdIn.write('\n');
+                this.stdIn.write(request);
+                this.stdIn.flush();
+                
+                String header = readLine();
+                int separator = header.indexOf(' ');
+                if (separator == -1)
+                {
+                    throw new IOException("Invalid response from external process " + cmd + ": " + header);
+                }
+                String status = header.substring(0, separator);
+                int length;
+                try
+                {
+                    length = Integer.parseInt(header.substring(separator + 1).trim());
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new IOException("Invalid response from external process " + cmd + ": " + header);
+                }
+                if (length < 0)
+                {
+                    throw new IOException("Invalid response length from external process " + cmd + ": " + header);
+                }
+                if (length > maxResponseLength)
+                {
+                    // The worker is destroyed rather than reading a response that may not fit in memory...
+                    throw new IOException("Response of " + length + " bytes from external process " + cmd + 
+                                          " exceeds the maximum of " + maxResponseLength + " bytes");
+                }
+                byte[] response = new byte[length];
+                int offset = 0;
+                while (offset < length)
+                {
+                    int read = this.stdOut.read(response, offset, length - offset);
+                    if (read == -1)
+                    {
+                        throw new EOFException("External process exited: " + cmd);
+                    }
+                    offset += read;
+                }
+                
+                String content = new String(response, UTF8);
+                if (STATUS_ERROR.equals(status))
+                {
+                    throw new WorkerException(content);
+                }
+                else if (!STATUS_OK.equals(status))
+                {
+                    throw new IOException("Invalid response from external process " + cmd + ": " + header);
+                }
+                return content;
+            }
+            finally
+            {
+                if (kill != null)
+                {
+                    kill.cancel(false);
+                }
+            }
+        }
+        
+        private String readLine() throws IOException
+        {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+            int b;
+            while ((b = this.stdOut.read()) != '\n')
+            {
+                if (b == -1)
+                {
+                    throw new EOFException("External process exited: " + cmd);
+                }
+                if (b != '\r')
+                {
+                    if (line.size() == MAX_HEADER_LENGTH)
+                    {
+                        throw new IOException("Invalid response from external process " + cmd + ": header too long");
+                    }
+                    line.write(b);
+                }
+            }
+            return new String(line.toByteArray(), UTF8);
+        }
+        
+        private void destroy()
+        {
+            if (this.destroyed.compareAndSet(false, true))
+            {
+                workerCount.decrementAndGet();
+                this.process.destroy();
+            }
+        }
+    }
+}
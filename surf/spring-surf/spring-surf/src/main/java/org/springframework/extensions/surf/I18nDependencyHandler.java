@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -31,10 +32,12 @@ import java.util.Map.Entry;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.springframework.extensions.config.WebFrameworkConfigElement;
 import org.springframework.extensions.surf.DojoDependencies.I18nDependency;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
+import org.springframework.extensions.surf.cache.RetainedSizeWeighers;
+import org.springframework.extensions.surf.cache.SizeBoundedCacheProvider;
 import org.springframework.extensions.surf.util.CacheReport;
 import org.springframework.extensions.surf.util.CacheReporter;
 import org.springframework.extensions.surf.util.I18NUtil;
@@ -42,7 +45,7 @@ import org.springframework.extensions.surf.util.StringBuilderWriter;
 import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.extensions.webscripts.json.JSONWriter;
 
-public class I18nDependencyHandler implements CacheReporter
+public class I18nDependencyHandler implements CacheReporter, DependencyInvalidationListener, SizeBoundedCacheProvider
 {
     /**
      * A {@link DependencyHandler} is required for retrieving the properties file contents.
@@ -196,54 +199,83 @@ public class I18nDependencyHandler implements CacheReporter
      * @param path String
      * @return Map
      */
-    public Map<String, Object> getLocaleMergedBundle(String path)
+    public Map<String, Object> getLocaleMergedBundle(final String path)
     {
         final Locale locale = I18NUtil.getLocale();
-        Map<String, Object> mergedBundles = getCachedBundle(path, locale);
-        if (mergedBundles == null)
+        try
         {
-            // Work out all possible bundle paths...
-            String languagePath = null;
-            String countryPath = null;
-            String variantPath = null;
-            if (path != null)
+            // Concurrent requests for the same bundle will only result in a single merge...
+            return this.bundleCache.get(getBundleCacheKey(path, locale), new ConcurrentLoadingCache.Loader<Map<String, Object>>()
             {
-                int lastFullStop = path.lastIndexOf(CssImageDataHandler.FULL_STOP);
-                if (lastFullStop != -1)
+                @Override
+                public Map<String, Object> load(String key)
                 {
-                    String prefix = path.substring(0, lastFullStop);
-                    String suffix = path.substring(lastFullStop);
-                    if (!locale.getLanguage().equals(""))
+                    return mergeLocaleBundles(path, locale);
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            throw new WebScriptException("Unable to load the bundle: " + path, e);
+        }
+    }
+    
+    /**
+     * Merges the {@link ResourceBundle} instances available for the supplied path and {@link Locale}.
+     * 
+     * @param path String
+     * @param locale Locale
+     * @return Map
+     */
+    protected Map<String, Object> mergeLocaleBundles(String path, Locale locale)
+    {
+        // Work out all possible bundle paths...
+        String languagePath = null;
+        String countryPath = null;
+        String variantPath = null;
+        if (path != null)
+        {
+            int lastFullStop = path.lastIndexOf(CssImageDataHandler.FULL_STOP);
+            if (lastFullStop != -1)
+            {
+                String prefix = path.substring(0, lastFullStop);
+                String suffix = path.substring(lastFullStop);
+                if (!locale.getLanguage().equals(""))
+                {
+                    languagePath = prefix + "_" + locale.getLanguage() + suffix;
+                    if (!locale.getCountry().equals(""))
                     {
-                        languagePath = prefix + "_" + locale.getLanguage() + suffix;
-                        if (!locale.getCountry().equals(""))
+                        countryPath = prefix + "_" + locale.getLanguage() + "_" + locale.getCountry() + suffix;
+                        if (!locale.getVariant().equals(""))
                         {
-                            countryPath = prefix + "_" + locale.getLanguage() + "_" + locale.getCountry() + suffix;
-                            if (!locale.getVariant().equals(""))
-                            {
-                                variantPath = prefix + "_" + locale.getLanguage() + "_" + locale.getCountry() + "_" + locale.getVariant() + suffix;
-                            }
+                            variantPath = prefix + "_" + locale.getLanguage() + "_" + locale.getCountry() + "_" + locale.getVariant() + suffix;
                         }
                     }
                 }
             }
-            
-            // Get the available bundles...
-            ResourceBundle defaultBundle = getBundle(path);
-            ResourceBundle languageBundle = getBundle(languagePath);
-            ResourceBundle countryBundle = getBundle(countryPath);
-            ResourceBundle variantBundle = getBundle(variantPath);
-
-            // Merge the bundles so that the most specific bundle "wins"...
-            mergedBundles = new HashMap<String, Object>();
-            mergeBundle(mergedBundles, defaultBundle);
-            mergeBundle(mergedBundles, languageBundle);
-            mergeBundle(mergedBundles, countryBundle);
-            mergeBundle(mergedBundles, variantBundle);
-
-            // Cache the result for future access...
-            cacheBundle(path, locale, mergedBundles);
         }
+        
+        // Record that the merged bundle depends upon each of the locale specific bundles...
+        for (String localePath: new String[] {languagePath, countryPath, variantPath})
+        {
+            if (localePath != null)
+            {
+                this.dependencyHandler.addDependency(localePath, path);
+            }
+        }
+        
+        // Get the available bundles...
+        ResourceBundle defaultBundle = getBundle(path);
+        ResourceBundle languageBundle = getBundle(languagePath);
+        ResourceBundle countryBundle = getBundle(countryPath);
+        ResourceBundle variantBundle = getBundle(variantPath);
+        
+        // Merge the bundles so that the most specific bundle "wins"...
+        Map<String, Object> mergedBundles = new HashMap<String, Object>();
+        mergeBundle(mergedBundles, defaultBundle);
+        mergeBundle(mergedBundles, languageBundle);
+        mergeBundle(mergedBundles, countryBundle);
+        mergeBundle(mergedBundles, variantBundle);
         return mergedBundles;
     }
     
@@ -292,14 +324,33 @@ public class I18nDependencyHandler implements CacheReporter
     }
     
     /**
-     * Lock for protecting access to the bundle cache.
+     * The default maximum size in bytes of the merged bundles to cache.
      */
-    private ReentrantReadWriteLock bundleCacheLock = new ReentrantReadWriteLock();
+    public static final int DEFAULT_BUNDLE_CACHE_MAX_SIZE = 16 * 1024 * 1024;
     
     /**
-     * Cache of path to map of locale to JSON string
+     * Cache of path and locale to merged bundle
      */
-    private Map<String, Map<Locale, Map<String, Object>>> bundleCache = new HashMap<String, Map<Locale, Map<String, Object>>>();
+    private final ConcurrentLoadingCache<Map<String, Object>> bundleCache = new ConcurrentLoadingCache<Map<String, Object>>("bundleCache", DEFAULT_BUNDLE_CACHE_MAX_SIZE, RetainedSizeWeighers.stringMaps());
+    
+    /**
+     * Sets the maximum size in bytes of the merged bundles to cache (each path and locale combination is a separate entry).
+     * @param bundleCacheMaxSize int
+     */
+    public void setBundleCacheMaxSize(int bundleCacheMaxSize)
+    {
+        this.bundleCache.setCapacity(bundleCacheMaxSize);
+    }
+    
+    /**
+     * @param path String
+     * @param locale Locale
+     * @return The key to cache the merged bundle for the path and locale against.
+     */
+    private String getBundleCacheKey(String path, Locale locale)
+    {
+        return locale.toString() + ":" + path;
+    }
     
     /**
      * Checks the cache for previously generated JSON strings.
@@ -309,21 +360,7 @@ public class I18nDependencyHandler implements CacheReporter
      */
     public Map<String, Object> getCachedBundle(String path, Locale locale)
     {
-        Map<String, Object> b = null;
-        this.bundleCacheLock.readLock().lock();
-        try
-        {
-            Map<Locale, Map<String, Object>> m = this.bundleCache.get(path);
-            if (m != null)
-            {
-                b = m.get(locale);
-            }
-        }
-        finally
-        {
-            this.bundleCacheLock.readLock().unlock();
-        }
-        return b;
+        return this.bundleCache.get(getBundleCacheKey(path, locale));
     }
     
     /**
@@ -334,21 +371,7 @@ public class I18nDependencyHandler implements CacheReporter
      */
     public void cacheBundle(String path, Locale locale, Map<String, Object> s)
     {
-        this.bundleCacheLock.writeLock().lock();
-        try
-        {
-            Map<Locale, Map<String, Object>> m = this.bundleCache.get(path);
-            if (m == null)
-            {
-                m = new HashMap<Locale, Map<String, Object>>();
-                this.bundleCache.put(path, m);
-            }
-            m.put(locale,s);
-        }
-        finally
-        {
-            this.bundleCacheLock.writeLock().unlock();
-        }
+        this.bundleCache.put(getBundleCacheKey(path, locale), s);
     }
     
     /**
@@ -357,42 +380,36 @@ public class I18nDependencyHandler implements CacheReporter
     @Override
     public void clearCaches()
     {
-        this.bundleCacheLock.writeLock().lock();
-        try
-        {
-           this.bundleCache.clear();
-        }
-        finally
+        this.bundleCache.clear();
+    }
+    
+    /**
+     * Evicts the merged bundles (for all locales) of the supplied paths.
+     */
+    @Override
+    public void invalidateDependencies(Set<String> paths)
+    {
+        for (String key: this.bundleCache.keySet())
         {
-            this.bundleCacheLock.writeLock().unlock();
+            if (paths.contains(key.substring(key.indexOf(':') + 1)))
+            {
+                this.bundleCache.remove(key);
+            }
         }
     }
     
+    @Override
+    public List<ConcurrentLoadingCache<?>> getSizeBoundedCaches()
+    {
+        return Collections.<ConcurrentLoadingCache<?>>singletonList(this.bundleCache);
+    }
+    
     @Override
     public List<CacheReport> report()
     {
         List<CacheReport> reports = new ArrayList<>(3);
         
-        long size = 0;
-        this.bundleCacheLock.writeLock().lock();
-        try
-        {
-            for (Map<Locale, Map<String, Object>> m : this.bundleCache.values())
-            {
-                for (Map<String, Object> b : m.values())
-                {
-                    for (Object o : b.values())
-                    {
-                        size += ((String)o).length()*2 + 64;
-                    }
-                }
-            }
-            reports.add(new CacheReport("bundleCache", this.bundleCache.size(), size));
-        }
-        finally
-        {
-            this.bundleCacheLock.writeLock().unlock();
-        }
+        reports.add(this.bundleCache.report());
         
         return reports;
     }
@@ -20,14 +20,19 @@
 package org.springframework.extensions.surf;
 
 import java.lang.reflect.Field;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.springframework.extensions.surf.exception.ModelObjectPersisterException;
 import org.springframework.extensions.surf.exception.PlatformRuntimeException;
+import org.springframework.extensions.surf.persister.BatchObjectPersister;
+import org.springframework.extensions.surf.persister.IndexedObjectPersister;
 import org.springframework.extensions.surf.types.AbstractModelObject;
 import org.springframework.extensions.webscripts.GUID;
 
@@ -167,6 +172,125 @@ public final class ModelHelper
         return GUID.generate();
     }   
     
+    /**
+     * Determines whether the given object satisfies all of the supplied property constraints. String
+     * constraints must equal the property value and Boolean constraints must equal the boolean value
+     * of the property. Null constraint values are ignored.
+     * 
+     * @param object the object
+     * @param propertyConstraintMap the property constraint map (may be <code>null</code>)
+     * 
+     * @return true, if the object satisfies every constraint
+     */
+    public static boolean matchesPropertyConstraints(ModelObject object, Map<String, Object> propertyConstraintMap)
+    {
+        if (propertyConstraintMap != null)
+        {
+            for (Map.Entry<String, Object> constraint : propertyConstraintMap.entrySet())
+            {
+                Object propertyValue = constraint.getValue();
+                if (propertyValue instanceof String)
+                {
+                    if (!propertyValue.equals(object.getProperty(constraint.getKey())))
+                    {
+                        return false;
+                    }
+                }
+                else if (propertyValue instanceof Boolean)
+                {
+                    if (object.getBooleanProperty(constraint.getKey()) != ((Boolean) propertyValue).booleanValue())
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Merges the objects of a persister that satisfy the supplied property constraints into the objects found
+     * in the preceding persisters. An object in the persister overrides an object with the same id found in an
+     * earlier persister, whether or not it satisfies the constraints. Persisters that implement
+     * {@link IndexedObjectPersister} are asked to find the matching objects, the objects of any other persister
+     * are retrieved and checked individually.
+     * 
+     * @param objects the objects found so far (keyed by object id) - updated in place
+     * @param persister the persister
+     * @param context the context
+     * @param objectTypeId the object type id
+     * @param propertyConstraintMap the property constraint map (may be <code>null</code>)
+     * 
+     * @throws ModelObjectPersisterException
+     */
+    public static void mergeMatchingObjects(Map<String, ModelObject> objects, ModelObjectPersister persister,
+            ModelPersistenceContext context, String objectTypeId, Map<String, Object> propertyConstraintMap)
+        throws ModelObjectPersisterException
+    {
+        if (persister instanceof IndexedObjectPersister)
+        {
+            Map<String, ModelObject> map = ((IndexedObjectPersister)persister).findObjects(context, objectTypeId, propertyConstraintMap);
+            for (Iterator<String> i = objects.keySet().iterator(); i.hasNext(); )
+            {
+                String objectId = i.next();
+                if (!map.containsKey(objectId) && persister.hasObject(context, objectTypeId, objectId))
+                {
+                    i.remove();
+                }
+            }
+            objects.putAll(map);
+        }
+        else
+        {
+            for (Map.Entry<String, ModelObject> entry: persister.getAllObjects(context, objectTypeId).entrySet())
+            {
+                if (matchesPropertyConstraints(entry.getValue(), propertyConstraintMap))
+                {
+                    objects.put(entry.getKey(), entry.getValue());
+                }
+                else
+                {
+                    objects.remove(entry.getKey());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Gets a number of objects of the same type from a persister. Persisters that implement
+     * {@link BatchObjectPersister} are asked for all of the objects at once, the objects of any
+     * other persister are retrieved in turn.
+     * 
+     * @param persister the persister
+     * @param context the context
+     * @param objectTypeId the object type id
+     * @param objectIds the object ids
+     * 
+     * @return a map of object ids to model objects - objects that could not be found are not included
+     * 
+     * @throws ModelObjectPersisterException
+     */
+    public static Map<String, ModelObject> getObjects(ModelObjectPersister persister, ModelPersistenceContext context,
+            String objectTypeId, Collection<String> objectIds)
+        throws ModelObjectPersisterException
+    {
+        if (persister instanceof BatchObjectPersister)
+        {
+            return ((BatchObjectPersister)persister).getObjects(context, objectTypeId, objectIds);
+        }
+        
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>(objectIds.size() * 2);
+        for (String objectId : objectIds)
+        {
+            ModelObject object = persister.getObject(context, objectTypeId, objectId);
+            if (object != null)
+            {
+                objects.put(objectId, object);
+            }
+        }
+        return objects;
+    }
+    
     /**
      * Allows model object ids to be set manually
      * 
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf;
+
+/**
+ * Receives notification when a property of a {@link ModelObject} is changed in place. Caches that index
+ * objects by their property values register a listener so that their indexes are kept up to date.
+ * 
+ * @since 6.12
+ */
+public interface ModelObjectPropertyListener
+{
+    /**
+     * Called after a property of the object has been set or removed.
+     * 
+     * @param object        the changed object
+     * @param propertyName  the name of the changed property
+     */
+    public void propertyChanged(ModelObject object, String propertyName);
+}
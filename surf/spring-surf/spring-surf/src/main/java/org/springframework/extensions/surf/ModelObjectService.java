@@ -20,7 +20,7 @@
 package org.springframework.extensions.surf;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -554,6 +554,28 @@ public class ModelObjectService
         return object;
     }
 
+    /**
+     * Gets a number of object instances of the given type with a single batched lookup.
+     * 
+     * @param objectTypeId the object type id
+     * @param objectIds the object ids
+     * 
+     * @return map of object ids to the objects that were found
+     */
+    public Map<String, ModelObject> getObjects(String objectTypeId, Collection<String> objectIds)
+    {
+        if (objectTypeId == null)
+        {
+            throw new IllegalArgumentException("ObjectTypeId is mandatory.");
+        }
+        if (objectIds == null)
+        {
+            throw new IllegalArgumentException("ObjectIds are mandatory.");
+        }
+        ObjectPersistenceService ops = getObjectPersistenceService();
+        return ops.getObjects(objectTypeId, objectIds);
+    }
+
     /**
      * Removes the given object.
      *
@@ -1339,7 +1361,8 @@ public class ModelObjectService
 
     /**
      * Filtering function that looks up objects of a given type id
-     * and then applies the provided property constraint map.
+     * that satisfy the provided property constraint map. Persisters
+     * that maintain property indexes answer this without a full scan.
      *
      * @param propertyConstraintMap the property constraint map
      * @param objectTypeId the object type id
@@ -1348,60 +1371,7 @@ public class ModelObjectService
      */
     protected Map<String, ModelObject> findObjects(String objectTypeId, Map<String, Object> propertyConstraintMap)
     {
-        Map<String, ModelObject> objectsMap = getAllObjects(objectTypeId);
-
-        List<String> toRemove = new ArrayList<String>(objectsMap.size());
-
-        for (String objectKey : objectsMap.keySet())
-        {
-            boolean found = true;
-
-            ModelObject object = objectsMap.get(objectKey);
-
-            // walk the property map and make sure all matches are satisfied
-            if (propertyConstraintMap != null)
-            {
-                for (String propertyName : propertyConstraintMap.keySet())
-                {
-                    Object propertyValue = propertyConstraintMap.get(propertyName);
-                    if (propertyValue != null)
-                    {
-                        // constraints
-                        if (propertyValue instanceof String)
-                        {
-                            String currentValue = object.getProperty(propertyName);
-                            if (!propertyValue.equals(currentValue))
-                            {
-                                found = false;
-                                break;
-                            }
-                        }
-                        else if (propertyValue instanceof Boolean)
-                        {
-                            boolean currentValue = object.getBooleanProperty(propertyName);
-                            if (currentValue != ((Boolean) propertyValue).booleanValue())
-                            {
-                                found = false;
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
-
-            if (!found)
-            {
-                toRemove.add(objectKey);
-            }
-        }
-
-        // remove anything we no longer want to keep
-        for (int i = 0; i < toRemove.size(); i++)
-        {
-            objectsMap.remove(toRemove.get(i));
-        }
-
-        return objectsMap;
+        return getObjectPersistenceService().findObjects(objectTypeId, propertyConstraintMap);
     }
     
     /**
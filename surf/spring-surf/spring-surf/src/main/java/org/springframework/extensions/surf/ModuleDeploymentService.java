@@ -88,9 +88,9 @@ public class ModuleDeploymentService implements ClusterMessageAware
      * <p>Keeps track of the last time the module deployments were updated. This is kept so that the
      * module handlers can check that cached module deployment data is not stale.</p>
      */
-    private Date lastConfigurationUpdate = new Date();
+    private volatile Date lastConfigurationUpdate = new Date();
     
-    public synchronized Date getLastConfigurationUpdate()
+    public Date getLastConfigurationUpdate()
     {
         return lastConfigurationUpdate;
     }
@@ -125,6 +125,13 @@ public class ModuleDeploymentService implements ClusterMessageAware
     private List<ExtensionModule> undeployedModules = null;
     private List<ModuleDeployment> deployedModules = null;
     
+    /**
+     * <p>An immutable copy of the <code>deployedModules</code> list that is returned by {@link #getDeployedModules()}. The list
+     * is requested for every page render so it is published through a volatile reference that readers never need to lock
+     * against. It is replaced whenever the deployed modules change and cleared when they are invalidated.</p>
+     */
+    private volatile List<ModuleDeployment> deployedModulesSnapshot = null;
+    
     // An ID to use for the default the persisted extension when no specific id is provided.
     public final static String DEFAULT_PERSISTED_EXTENSION = "default-persisted-extension";
     
@@ -334,7 +341,7 @@ public class ModuleDeploymentService implements ClusterMessageAware
     {
         if (undeployedModules == null)
         {
-            getDeployedModules(); // Calling this method ensures that the undeployed list is populated.
+            loadDeployedModules(); // Calling this method ensures that the undeployed list is populated.
         }
         return undeployedModules;
     }
@@ -461,10 +468,32 @@ public class ModuleDeploymentService implements ClusterMessageAware
     /**
      * <p>Returns the list of configured ModuleDeployments. This is the configured ordered list referencing
      * modules that contain configured overrides (rather than their defaults).</p>
+     * <p>The list returned is an unmodifiable snapshot so this method does not need to lock once the
+     * deployed modules have been loaded.</p>
      * 
      * @return List<ModuleDeployment>
      */
-    public synchronized List<ModuleDeployment> getDeployedModules()
+    public List<ModuleDeployment> getDeployedModules()
+    {
+        List<ModuleDeployment> snapshot = this.deployedModulesSnapshot;
+        if (snapshot == null)
+        {
+            synchronized (this)
+            {
+                loadDeployedModules();
+                snapshot = this.deployedModulesSnapshot;
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * <p>Builds the list of configured ModuleDeployments if it has not already been built. This must only be called
+     * whilst holding the lock on the service.</p>
+     * 
+     * @return The modifiable List<ModuleDeployment> maintained by the service
+     */
+    private List<ModuleDeployment> loadDeployedModules()
     {
         if (deployedModules == null)
         {
@@ -558,13 +587,24 @@ public class ModuleDeploymentService implements ClusterMessageAware
             // Save (this also sets the cached timestamp)...
             this.saveDeployedModuleConfigurations();
         }
-        else
+        else if (this.deployedModulesSnapshot == null)
         {
-            // Deployed module list has already been constructed no action required.
+            // Deployed module list has already been constructed but the snapshot has not been published...
+            publishDeployedModules();
         }
         
         return this.deployedModules;
     }
+    
+    /**
+     * <p>Replaces the snapshot returned by {@link #getDeployedModules()} with a copy of the current deployed modules. This
+     * must be called whilst holding the lock on the service whenever the <code>deployedModules</code> list is changed.</p>
+     */
+    private void publishDeployedModules()
+    {
+        this.deployedModulesSnapshot = (this.deployedModules != null ?
+                Collections.unmodifiableList(new ArrayList<ModuleDeployment>(this.deployedModules)) : null);
+    }
 
     /**
      * Private {@link Comparator} for sorting deployed modules. 
@@ -638,6 +678,9 @@ public class ModuleDeploymentService implements ClusterMessageAware
                 logger.debug("Unable to saving module deployment configuration as user does not have required authentication.");
             }
         }
+        
+        // The deployed modules are saved after every change so publish the (now sorted) list for readers...
+        publishDeployedModules();
     }
     
     /**
@@ -652,7 +695,7 @@ public class ModuleDeploymentService implements ClusterMessageAware
     public synchronized void setDeployedModules(List<JSONObject> modulesToDeploy) throws JSONException
     {
         getAllConfiguredExtensionModules(); // Make sure we've got the list of configured modules...
-        getDeployedModules();
+        loadDeployedModules();
         getUndeployedModules();
         
         // Clear the current list of deployed modules...
@@ -765,12 +808,13 @@ public class ModuleDeploymentService implements ClusterMessageAware
     {
         boolean deleted = false;
         List<ExtensionModule> undeployedModules = getUndeployedModules();
-        List<ModuleDeployment> deployedModules = getDeployedModules();
-        if (deployedModules.contains(moduleDeploymentToDelete))
+        List<ModuleDeployment> deployedModules = loadDeployedModules();
+        if (deployedModules.remove(moduleDeploymentToDelete))
         {
             undeployedModules.add(this.configuredModules.get(moduleDeploymentToDelete.getExtensionModuleId()));
             this.modelObjectService.removeObject(moduleDeploymentToDelete);
             this.lastConfigurationUpdate = new Date();
+            publishDeployedModules();
             deleted = true;
         }
         return deleted;
@@ -807,6 +851,7 @@ public class ModuleDeploymentService implements ClusterMessageAware
         this.configuredModules = null;
         this.undeployedModules = null;
         this.deployedModules = null;
+        this.deployedModulesSnapshot = null;
     }
     
     private void updateClusterCache()
@@ -19,6 +19,8 @@
 
 package org.springframework.extensions.surf;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -31,6 +33,7 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.extensions.surf.exception.ModelObjectPersisterException;
 import org.springframework.extensions.surf.exception.PlatformRuntimeException;
 import org.springframework.extensions.surf.persister.CachedPersister;
+import org.springframework.extensions.surf.persister.IndexedObjectPersister;
 import org.springframework.extensions.surf.persister.PersisterService;
 
 /**
@@ -145,6 +148,62 @@ public final class ObjectPersistenceService
         return obj;
     }
 
+    /**
+     * Retrieves a number of objects of the same type from the persister that manages the given
+     * object type - and then from the other persisters for any objects that were not found - with
+     * one call to each persister so that the lookups can be batched.
+     * <p>
+     * If the objects are not available in cache, they are loaded from storage.
+     * 
+     * @param objectTypeId  the object type id
+     * @param objectIds     the object ids
+     * 
+     * @return map of object ids to the ModelObjects that were found
+     */
+    public Map<String, ModelObject> getObjects(String objectTypeId, Collection<String> objectIds)
+    {
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>(objectIds.size() * 2);
+        
+        ModelPersistenceContext context = getPersistenceContext();
+        ModelObjectPersister preferredPersister = this.persisterService.getTypeToPersisterMap().get(objectTypeId);
+        
+        try
+        {
+            // Try the preferred persister first...
+            objects.putAll(ModelHelper.getObjects(preferredPersister, context, objectTypeId, objectIds));
+        }
+        catch (ModelObjectPersisterException e)
+        {
+            // Ignore this exception. We'll just try the remaining persisters.
+        }
+        
+        List<String> remaining = new ArrayList<String>(objectIds);
+        remaining.removeAll(objects.keySet());
+        Iterator<ModelObjectPersister> persisters = this.persisterService.getPersisters().iterator();
+        while (!remaining.isEmpty() && persisters.hasNext())
+        {
+            ModelObjectPersister currentPersister = persisters.next();
+            if (currentPersister == preferredPersister)
+            {
+                // Don't check the preferred persister a second time.
+            }
+            else
+            {
+                try
+                {
+                    Map<String, ModelObject> found = ModelHelper.getObjects(currentPersister, context, objectTypeId, remaining);
+                    objects.putAll(found);
+                    remaining.removeAll(found.keySet());
+                }
+                catch (ModelObjectPersisterException mope)
+                {
+                    throw new PlatformRuntimeException("Unable to retrieve objects of type: " + objectTypeId, mope);
+                }
+            }
+        }
+        return objects;
+    }
+
     /**
      * Create a new object.
      *
@@ -460,6 +519,37 @@ public final class ObjectPersistenceService
         return objects;
     }
 
+    /**
+     * Retrieves all objects of a given type id that satisfy the supplied property constraints. Persisters
+     * that implement {@link IndexedObjectPersister} are asked to find the matching objects, the objects of
+     * any other persister are retrieved and checked individually - see
+     * {@link ModelHelper#mergeMatchingObjects(Map, ModelObjectPersister, ModelPersistenceContext, String, Map)}.
+     * 
+     * @param objectTypeId              Type ID
+     * @param propertyConstraintMap     the property constraint map (may be <code>null</code>)
+     * 
+     * @return a map of model objects (keyed by object id)
+     */
+    public Map<String, ModelObject> findObjects(String objectTypeId, Map<String, Object> propertyConstraintMap)
+    {
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>();
+        ModelPersistenceContext context = getPersistenceContext();
+        for (ModelObjectPersister persister: this.persisterService.getPersisters())
+        {
+            try
+            {
+                // an object in a later persister overrides an object with the same id in an earlier persister
+                ModelHelper.mergeMatchingObjects(objects, persister, context, objectTypeId, propertyConstraintMap);
+            }
+            catch (ModelObjectPersisterException mope)
+            {
+                if (logger.isInfoEnabled())
+                    logger.info("ModelObjectManager unable to find objects", mope);
+            }
+        }
+        return objects;
+    }
+    
     /**
      * Retrieves all objects of a given type id with the given object ID filter
      *
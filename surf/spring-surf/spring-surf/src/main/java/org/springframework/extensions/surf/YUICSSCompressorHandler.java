@@ -33,7 +33,7 @@ import com.yahoo.platform.yui.compressor.CssCompressor;
  * @since 6.7
  * @author Kevin Roast
  */
-public class YUICSSCompressorHandler implements CSSCompressionHandler
+public class YUICSSCompressorHandler implements CSSCompressionHandler, CompressionSettingsProvider
 {
     private int linebreak = -1;
     
@@ -45,6 +45,12 @@ public class YUICSSCompressorHandler implements CSSCompressionHandler
         cssc.compress(writer, linebreak);
     }
     
+    @Override
+    public String getCompressionSettings()
+    {
+        return "linebreak=" + linebreak + ",version=" + CssCompressor.class.getPackage().getImplementationVersion();
+    }
+    
     public void setLinebreak(int linebreak)
     {
         this.linebreak = linebreak;
@@ -40,7 +40,7 @@ import com.yahoo.platform.yui.javascript.EvaluatorException;
  * @since 6.7
  * @author Kevin Roast
  */
-public class YUIJavaScriptCompressorHandler implements JavaScriptCompressionHandler
+public class YUIJavaScriptCompressorHandler implements JavaScriptCompressionHandler, CompressionSettingsProvider
 {
     private static final Log logger = LogFactory.getLog(YUIJavaScriptCompressorHandler.class);
     
@@ -59,6 +59,13 @@ public class YUIJavaScriptCompressorHandler implements JavaScriptCompressionHand
         jsc.compress(writer, linebreak, munge, verbose, preserveAllSemiColons, disableOptimizations);
     }
     
+    @Override
+    public String getCompressionSettings()
+    {
+        return "linebreak=" + linebreak + ",munge=" + munge + ",preserveAllSemiColons=" + preserveAllSemiColons +
+               ",disableOptimizations=" + disableOptimizations + ",version=" + JavaScriptCompressor.class.getPackage().getImplementationVersion();
+    }
+    
     /* ****************************************************
      *                                                    *
      * SPRING BEAN SETTERS FOR CONFIGURING YUI COMPRESSOR *
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Sizes the memory bounded caches of every {@link SizeBoundedCacheProvider} bean in the application context.
+ * <p>
+ * Individual caches can be given an explicit size (in MB) by their name. If a global budget is configured (either
+ * in MB or as a percentage of the maximum heap) then whatever remains of the budget after the explicitly sized caches
+ * have been allocated is split across the other caches in proportion to their default sizes. If no global budget is
+ * configured then only the explicit sizes are applied.
+ * 
+ * @since 6.12
+ */
+public class CacheBudgetService implements ApplicationContextAware, ApplicationListener
+{
+    private static final Log logger = LogFactory.getLog(CacheBudgetService.class);
+    
+    private static final long MB = 1024L * 1024L;
+    
+    private ApplicationContext applicationContext;
+    
+    private int heapBudget = 0;
+    
+    private int heapBudgetPercent = 0;
+    
+    private Map<String, Integer> cacheSizes = Collections.emptyMap();
+    
+    /**
+     * The allocated size in bytes of each cache when the budget was last applied.
+     */
+    private volatile Map<String, Long> allocations = Collections.emptyMap();
+    
+    /**
+     * The configured size in bytes of each cache before any budget was applied. The budget is always split in
+     * proportion to these sizes so that applying it repeatedly gives the same result.
+     */
+    private final ConcurrentMap<String, Integer> defaultCapacities = new ConcurrentHashMap<String, Integer>();
+    
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException
+    {
+        this.applicationContext = applicationContext;
+    }
+    
+    /**
+     * @param heapBudget the total size in MB of all the memory bounded caches (0 for no global budget)
+     */
+    public void setHeapBudget(int heapBudget)
+    {
+        this.heapBudget = heapBudget;
+    }
+    
+    /**
+     * @param heapBudgetPercent the total size of all the memory bounded caches as a percentage of the maximum heap
+     *        size. This is only used if no heap budget is set in MB (0 for no global budget)
+     */
+    public void setHeapBudgetPercent(int heapBudgetPercent)
+    {
+        this.heapBudgetPercent = heapBudgetPercent;
+    }
+    
+    /**
+     * @param cacheSizes the size in MB of individual caches keyed by cache name
+     */
+    public void setCacheSizes(Map<String, Integer> cacheSizes)
+    {
+        this.cacheSizes = cacheSizes;
+    }
+    
+    /**
+     * @return the allocated size in bytes of each cache keyed by cache name
+     */
+    public Map<String, Long> getAllocations()
+    {
+        return this.allocations;
+    }
+    
+    /**
+     * @return the global budget in bytes or 0 if there is no global budget
+     */
+    public long getBudget()
+    {
+        long budget = 0;
+        if (this.heapBudget > 0)
+        {
+            budget = this.heapBudget * MB;
+        }
+        else if (this.heapBudgetPercent > 0)
+        {
+            budget = Runtime.getRuntime().maxMemory() / 100 * this.heapBudgetPercent;
+        }
+        return budget;
+    }
+    
+    @Override
+    public void onApplicationEvent(ApplicationEvent event)
+    {
+        if (event instanceof ContextRefreshedEvent)
+        {
+            ApplicationContext refreshContext = ((ContextRefreshedEvent)event).getApplicationContext();
+            if (refreshContext != null && refreshContext.equals(this.applicationContext))
+            {
+                applyBudget();
+            }
+        }
+    }
+    
+    /**
+     * Sizes the caches of every {@link SizeBoundedCacheProvider} bean against the configured budget.
+     */
+    public void applyBudget()
+    {
+        List<ConcurrentLoadingCache<?>> caches = new ArrayList<ConcurrentLoadingCache<?>>();
+        for (SizeBoundedCacheProvider provider: this.applicationContext.getBeansOfType(SizeBoundedCacheProvider.class).values())
+        {
+            caches.addAll(provider.getSizeBoundedCaches());
+        }
+        
+        Map<String, Long> allocations = new HashMap<String, Long>(caches.size() * 2);
+        long remaining = getBudget();
+        long unallocatedWeight = 0;
+        for (ConcurrentLoadingCache<?> cache: caches)
+        {
+            Integer size = this.cacheSizes.get(cache.getName());
+            if (size != null)
+            {
+                long bytes = size * MB;
+                allocate(cache, bytes, allocations);
+                remaining -= bytes;
+            }
+            else
+            {
+                unallocatedWeight += getDefaultCapacity(cache);
+            }
+        }
+        
+        if (getBudget() > 0)
+        {
+            if (remaining <= 0)
+            {
+                logger.warn("The explicitly sized caches exceed the cache budget of " + getBudget() / MB + "MB");
+                remaining = 0;
+            }
+            
+            // split the remaining budget across the other caches in proportion to their default sizes...
+            for (ConcurrentLoadingCache<?> cache: caches)
+            {
+                if (!this.cacheSizes.containsKey(cache.getName()) && unallocatedWeight > 0)
+                {
+                    allocate(cache, (long)((double)remaining * getDefaultCapacity(cache) / unallocatedWeight), allocations);
+                }
+            }
+        }
+        this.allocations = Collections.unmodifiableMap(allocations);
+    }
+    
+    /**
+     * Gets the capacity the supplied cache was configured with, recording it the first time the cache is seen.
+     */
+    private int getDefaultCapacity(ConcurrentLoadingCache<?> cache)
+    {
+        Integer capacity = this.defaultCapacities.get(cache.getName());
+        if (capacity == null)
+        {
+            capacity = cache.capacity();
+            Integer existing = this.defaultCapacities.putIfAbsent(cache.getName(), capacity);
+            if (existing != null)
+            {
+                capacity = existing;
+            }
+        }
+        return capacity;
+    }
+    
+    private void allocate(ConcurrentLoadingCache<?> cache, long bytes, Map<String, Long> allocations)
+    {
+        int capacity = (int)Math.max(1L, Math.min(Integer.MAX_VALUE, bytes));
+        cache.setCapacity(capacity);
+        allocations.put(cache.getName(), (long)capacity);
+        
+        if (logger.isDebugEnabled())
+            logger.debug("Sized cache '" + cache.getName() + "' to " + capacity + " bytes");
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.cache;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.extensions.surf.util.CacheReport;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import com.googlecode.concurrentlinkedhashmap.Weighers;
+
+/**
+ * A bounded, concurrent, String keyed cache that loads missing values on demand.
+ * <p>
+ * Reads never block. Values are evicted in LRU order once the total weight of the cached values (as determined
+ * by the supplied {@link Weigher}) exceeds the configured maximum. When multiple threads request the same missing
+ * key concurrently only one of them performs the load - the others wait for and share its result ("single flight").
+ * A {@link #remove(String)} or {@link #clear()} that happens while a load is in progress invalidates that load so
+ * that its (potentially stale) value is never left in the cache, and subsequent requests start a new load.
+ * <p>
+ * Hit, miss and load counts and the total load time are recorded for reporting.
+ * 
+ * @since 6.12
+ */
+public class ConcurrentLoadingCache<V>
+{
+    /**
+     * Loads the value for a key that is missing from the cache.
+     */
+    public interface Loader<V>
+    {
+        /**
+         * Loads the value for the supplied key.
+         * 
+         * @param key the key
+         * @return the value or <code>null</code> if there is no value (in which case nothing will be cached)
+         * @throws IOException
+         */
+        public V load(String key) throws IOException;
+    }
+    
+    private final String name;
+    private final ConcurrentLinkedHashMap<String, V> cache;
+    private final ConcurrentMap<String, Load> loading = new ConcurrentHashMap<String, Load>(16, 0.75f, 16);
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadTime = new AtomicLong();
+    
+    /**
+     * Instantiates a new cache where each value has a weight of one (i.e. the maximum weight is an entry count).
+     * 
+     * @param name              the name of the cache (used for reporting)
+     * @param maximumEntries    the maximum number of entries
+     */
+    public ConcurrentLoadingCache(String name, int maximumEntries)
+    {
+        this(name, maximumEntries, Weighers.<V>singleton());
+    }
+    
+    /**
+     * Instantiates a new cache.
+     * 
+     * @param name              the name of the cache (used for reporting)
+     * @param maximumWeight     the maximum total weight of the cached values
+     * @param weigher           the weigher used to determine the weight of each value
+     */
+    public ConcurrentLoadingCache(String name, int maximumWeight, Weigher<V> weigher)
+    {
+        this.name = name;
+        this.cache = new ConcurrentLinkedHashMap.Builder<String, V>()
+                .maximumWeightedCapacity(maximumWeight)
+                .concurrencyLevel(16)
+                .weigher(weigher)
+                .build();
+    }
+    
+    /**
+     * Gets a value from the cache without loading it.
+     * 
+     * @param key the key
+     * @return the cached value or <code>null</code> if it is not cached
+     */
+    public V get(String key)
+    {
+        V value = this.cache.get(key);
+        if (value != null)
+        {
+            this.hits.incrementAndGet();
+        }
+        else
+        {
+            this.misses.incrementAndGet();
+        }
+        return value;
+    }
+    
+    /**
+     * Gets a value from the cache, using the supplied {@link Loader} to load and cache it if it is missing.
+     * Concurrent requests for the same missing key will result in a single load.
+     * 
+     * @param key       the key
+     * @param loader    the loader to use if the key is not cached
+     * @return the value or <code>null</code> if the loader did not provide a value
+     * @throws IOException if thrown by the loader
+     */
+    public V get(final String key, final Loader<V> loader) throws IOException
+    {
+        V value = get(key);
+        if (value == null)
+        {
+            Load load = new Load(key, loader);
+            Load existing = this.loading.putIfAbsent(key, load);
+            if (existing == null)
+            {
+                // This thread is responsible for the load...
+                try
+                {
+                    load.task.run();
+                }
+                finally
+                {
+                    this.loading.remove(key, load);
+                }
+                existing = load;
+            }
+            value = waitFor(existing.task);
+        }
+        return value;
+    }
+    
+    /**
+     * A single load of a missing key. The load is invalidated if the key is removed while it is in progress.
+     */
+    private class Load implements Callable<V>
+    {
+        private final String key;
+        private final Loader<V> loader;
+        private final FutureTask<V> task = new FutureTask<V>(this);
+        private volatile boolean invalidated = false;
+        
+        private Load(String key, Loader<V> loader)
+        {
+            this.key = key;
+            this.loader = loader;
+        }
+        
+        @Override
+        public V call() throws Exception
+        {
+            // Another thread may have completed a load of the same key between the cache miss and this load
+            // being registered - there is no need to load it again...
+            V loaded = cache.get(this.key);
+            if (loaded == null)
+            {
+                long start = System.nanoTime();
+                try
+                {
+                    loaded = this.loader.load(this.key);
+                    if (loaded != null)
+                    {
+                        cache.put(this.key, loaded);
+                        
+                        // The flag is set before the removal of the key, so a removal that was not seen by the put above
+                        // is always seen here...
+                        if (this.invalidated)
+                        {
+                            cache.remove(this.key, loaded);
+                        }
+                    }
+                }
+                finally
+                {
+                    loads.incrementAndGet();
+                    loadTime.addAndGet(System.nanoTime() - start);
+                }
+            }
+            return loaded;
+        }
+    }
+    
+    /**
+     * Invalidates the load in progress (if any) for the supplied key and detaches it so that subsequent requests
+     * for the key start a new load.
+     */
+    private void invalidateLoad(String key)
+    {
+        Load load = this.loading.remove(key);
+        if (load != null)
+        {
+            load.invalidated = true;
+        }
+    }
+    
+    /**
+     * Waits for the result of a load, unwrapping any exception thrown by the {@link Loader}.
+     */
+    private V waitFor(FutureTask<V> task) throws IOException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return task.get();
+                }
+                catch (InterruptedException e)
+                {
+                    // The load is already in progress on another thread - keep waiting for it...
+                    interrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                    {
+                        throw (IOException)cause;
+                    }
+                    if (cause instanceof RuntimeException)
+                    {
+                        throw (RuntimeException)cause;
+                    }
+                    if (cause instanceof Error)
+                    {
+                        throw (Error)cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        }
+        finally
+        {
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Places a value into the cache.
+     * 
+     * @param key   the key
+     * @param value the value
+     */
+    public void put(String key, V value)
+    {
+        this.cache.put(key, value);
+    }
+    
+    /**
+     * Places a value into the cache if it is not already present.
+     * 
+     * @param key   the key
+     * @param value the value
+     * @return the existing value or <code>null</code> if the value was added
+     */
+    public V putIfAbsent(String key, V value)
+    {
+        return this.cache.putIfAbsent(key, value);
+    }
+    
+    /**
+     * Removes a value from the cache.
+     * 
+     * @param key the key
+     */
+    public void remove(String key)
+    {
+        invalidateLoad(key);
+        this.cache.remove(key);
+    }
+    
+    /**
+     * Removes a value from the cache only if it is still mapped to the supplied key. Unlike {@link #remove(String)}
+     * this does not invalidate a load in progress as that load is expected to replace the value.
+     * 
+     * @param key   the key
+     * @param value the value to remove
+     * @return <code>true</code> if the value was removed
+     */
+    public boolean remove(String key, V value)
+    {
+        return this.cache.remove(key, value);
+    }
+    
+    /**
+     * Removes all values from the cache.
+     */
+    public void clear()
+    {
+        for (String key: this.loading.keySet())
+        {
+            invalidateLoad(key);
+        }
+        this.cache.clear();
+    }
+    
+    /**
+     * @return a weakly consistent view of the cached keys
+     */
+    public Set<String> keySet()
+    {
+        return this.cache.keySet();
+    }
+    
+    /**
+     * @return a weakly consistent view of the cached values
+     */
+    public Collection<V> values()
+    {
+        return this.cache.values();
+    }
+    
+    /**
+     * @return the number of cached entries
+     */
+    public int size()
+    {
+        return this.cache.size();
+    }
+    
+    /**
+     * @return the total weight of the cached values
+     */
+    public int weightedSize()
+    {
+        return this.cache.weightedSize();
+    }
+    
+    /**
+     * @return the maximum total weight of the cached values
+     */
+    public int capacity()
+    {
+        return this.cache.capacity();
+    }
+    
+    /**
+     * Changes the maximum total weight of the cached values - evicting values if necessary.
+     * 
+     * @param maximumWeight the maximum weight
+     */
+    public void setCapacity(int maximumWeight)
+    {
+        this.cache.setCapacity(maximumWeight);
+    }
+    
+    public String getName()
+    {
+        return this.name;
+    }
+    
+    public long getHitCount()
+    {
+        return this.hits.get();
+    }
+    
+    public long getMissCount()
+    {
+        return this.misses.get();
+    }
+    
+    public long getLoadCount()
+    {
+        return this.loads.get();
+    }
+    
+    /**
+     * @return the total time spent loading values in nanoseconds
+     */
+    public long getTotalLoadTime()
+    {
+        return this.loadTime.get();
+    }
+    
+    /**
+     * Generates a {@link CacheReport} for this cache. The size estimate is the weighted size of the cache and so is
+     * only meaningful for caches using a byte based {@link Weigher}.
+     * 
+     * @param sizeEstimate the estimated size of the cached values in bytes
+     * @return the report
+     */
+    public CacheReport report(long sizeEstimate)
+    {
+        return new CacheReport(this.name, size(), sizeEstimate, getHitCount(), getMissCount(), getLoadCount(), getTotalLoadTime());
+    }
+    
+    /**
+     * Generates a {@link CacheReport} for this cache using the weighted size as the size estimate.
+     * 
+     * @return the report
+     */
+    public CacheReport report()
+    {
+        return report(weightedSize());
+    }
+}
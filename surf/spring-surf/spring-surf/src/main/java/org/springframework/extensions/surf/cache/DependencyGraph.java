@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.cache;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent record of which cached resources are derived from which source paths, e.g. the CSS files that import
+ * another CSS file or embed an image. This is used to determine every cached resource that must be invalidated when
+ * a source path changes.
+ * <p>
+ * The dependencies of a resource should be removed (via {@link #removeDependencies(String)}) before it is processed
+ * again so that sources it no longer uses are forgotten. Any stale dependencies that remain can only result in
+ * additional invalidation.
+ * 
+ * @since 6.12
+ */
+public class DependencyGraph
+{
+    /**
+     * Map of source path to the resources directly derived from it.
+     */
+    private final ConcurrentMap<String, Set<String>> dependents = new ConcurrentHashMap<String, Set<String>>(256);
+    
+    /**
+     * Map of derived resource to the source paths it is directly derived from.
+     */
+    private final ConcurrentMap<String, Set<String>> sources = new ConcurrentHashMap<String, Set<String>>(256);
+    
+    /**
+     * Records that the dependent resource is derived from the source path.
+     * 
+     * @param source    the source path
+     * @param dependent the path (or key) of the derived resource
+     */
+    public void addDependency(String source, String dependent)
+    {
+        if (!source.equals(dependent))
+        {
+            getSet(this.sources, dependent).add(source);
+            getSet(this.dependents, source).add(dependent);
+        }
+    }
+    
+    /**
+     * Removes all the recorded dependencies of the supplied derived resource. This should be called before the
+     * resource is processed again.
+     * 
+     * @param dependent the path (or key) of the derived resource
+     */
+    public void removeDependencies(String dependent)
+    {
+        Set<String> set = this.sources.remove(dependent);
+        if (set != null)
+        {
+            for (String source: set)
+            {
+                Set<String> dependentSet = this.dependents.get(source);
+                if (dependentSet != null)
+                {
+                    dependentSet.remove(dependent);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Gets the set for the supplied key, creating it if necessary.
+     */
+    private static Set<String> getSet(ConcurrentMap<String, Set<String>> map, String key)
+    {
+        Set<String> set = map.get(key);
+        if (set == null)
+        {
+            set = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(8));
+            Set<String> existing = map.putIfAbsent(key, set);
+            if (existing != null)
+            {
+                set = existing;
+            }
+        }
+        return set;
+    }
+    
+    /**
+     * Gets the source path and all the resources derived from it - directly or indirectly.
+     * 
+     * @param source the source path
+     * @return the set of affected paths (always including the source path)
+     */
+    public Set<String> getDependents(String source)
+    {
+        Set<String> result = new HashSet<String>();
+        Deque<String> queue = new ArrayDeque<String>();
+        queue.add(source);
+        while (!queue.isEmpty())
+        {
+            String path = queue.poll();
+            if (result.add(path))
+            {
+                Set<String> set = this.dependents.get(path);
+                if (set != null)
+                {
+                    queue.addAll(set);
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * @return the number of source paths with dependents
+     */
+    public int size()
+    {
+        return this.dependents.size();
+    }
+    
+    /**
+     * Removes all dependencies.
+     */
+    public void clear()
+    {
+        this.dependents.clear();
+        this.sources.clear();
+    }
+}
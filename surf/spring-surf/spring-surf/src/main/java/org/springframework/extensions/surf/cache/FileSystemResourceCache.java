@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link PersistentResourceCache} implementation that stores each entry as a file beneath a configured
+ * directory. The directory can be shared between restarts (and between nodes of a cluster if required).
+ * <p>
+ * Each key is hashed to produce the file name and the files are spread across sub-directories to avoid
+ * very large directory listings. Entries are written to a temporary file and then atomically moved into
+ * place so that concurrent readers (in this or another process) never see a partially written entry.
+ * <p>
+ * The total size of the entries is bounded by {@link #setMaxSize(long)}. When a write takes the cache over
+ * the bound the least recently used entries (by file modification time, which is updated on each read) are
+ * deleted until the cache is back below three quarters of the bound. The size is tracked in memory and is
+ * recounted from the directory on each eviction so that it remains accurate when the directory is shared.
+ * <p>
+ * Only the files that the cache writes (named by a 40 character hex hash, in sub-directories named by the first
+ * two characters of the hash) are ever counted or deleted, so any other files in the directory are left alone.
+ * 
+ * @since 6.12
+ */
+public class FileSystemResourceCache implements PersistentResourceCache
+{
+    private static final Log logger = LogFactory.getLog(FileSystemResourceCache.class);
+    
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    private static final Pattern SHARD_NAME = Pattern.compile("[0-9a-f]{2}");
+    private static final Pattern ENTRY_NAME = Pattern.compile("[0-9a-f]{40}");
+    
+    private File directory;
+    
+    private long maxSize = 256L * 1024L * 1024L;
+    
+    private final AtomicLong size = new AtomicLong();
+    
+    /**
+     * Sets the directory in which the cache entries are stored. It will be created if it does not exist.
+     * 
+     * @param directory the directory path
+     */
+    public void setDirectory(String directory)
+    {
+        this.directory = new File(directory);
+    }
+    
+    /**
+     * Sets the maximum total size in bytes of the cache entries. The default is 256MB.
+     * 
+     * @param maxSize the maximum size in bytes
+     */
+    public void setMaxSize(long maxSize)
+    {
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException("The maximum size of the FileSystemResourceCache must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * @return the current total size in bytes of the cache entries
+     */
+    public long getSize()
+    {
+        return this.size.get();
+    }
+    
+    /**
+     * Creates the cache directory if required - this should be configured as the Spring bean init method.
+     */
+    public void init()
+    {
+        if (this.directory == null)
+        {
+            throw new IllegalArgumentException("A directory must be provided for the FileSystemResourceCache");
+        }
+        if (!this.directory.exists() && !this.directory.mkdirs())
+        {
+            logger.error("Unable to create persistent resource cache directory: " + this.directory.getAbsolutePath());
+        }
+        long total = 0L;
+        for (File file: listEntries())
+        {
+            total += file.length();
+        }
+        this.size.set(total);
+        if (total > this.maxSize)
+        {
+            evict();
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.surf.cache.PersistentResourceCache#get(java.lang.String)
+     */
+    public byte[] get(String key)
+    {
+        byte[] content = null;
+        File file = getFile(key);
+        if (file.exists())
+        {
+            try
+            {
+                content = Files.readAllBytes(file.toPath());
+                
+                // Record the access for the least recently used eviction...
+                file.setLastModified(System.currentTimeMillis());
+            }
+            catch (IOException e)
+            {
+                if (logger.isWarnEnabled())
+                    logger.warn("Unable to read persistent resource cache entry: " + file.getAbsolutePath(), e);
+            }
+        }
+        return content;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.surf.cache.PersistentResourceCache#put(java.lang.String, byte[])
+     */
+    public void put(String key, byte[] content)
+    {
+        File file = getFile(key);
+        try
+        {
+            File parent = file.getParentFile();
+            if (!parent.exists())
+            {
+                parent.mkdirs();
+            }
+            Path temp = Files.createTempFile(parent.toPath(), file.getName(), TEMP_SUFFIX);
+            try
+            {
+                Files.write(temp, content);
+                long replaced = file.length();
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (this.size.addAndGet(content.length - replaced) > this.maxSize)
+                {
+                    evict();
+                }
+            }
+            finally
+            {
+                Files.deleteIfExists(temp);
+            }
+        }
+        catch (IOException e)
+        {
+            if (logger.isWarnEnabled())
+                logger.warn("Unable to write persistent resource cache entry: " + file.getAbsolutePath(), e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.surf.cache.PersistentResourceCache#clear()
+     */
+    public void clear()
+    {
+        for (File file: listEntries())
+        {
+            file.delete();
+        }
+        this.size.set(0L);
+    }
+    
+    /**
+     * Deletes the least recently used entries until the total size is below three quarters of the maximum size.
+     */
+    protected synchronized void evict()
+    {
+        // Capture the modification time and length of each entry up front as they can change during the sort...
+        List<Entry> entries = new ArrayList<Entry>();
+        long total = 0L;
+        for (File file: listEntries())
+        {
+            Entry entry = new Entry(file);
+            entries.add(entry);
+            total += entry.length;
+        }
+        if (total > this.maxSize)
+        {
+            Collections.sort(entries, new Comparator<Entry>()
+            {
+                public int compare(Entry e1, Entry e2)
+                {
+                    return Long.compare(e1.lastModified, e2.lastModified);
+                }
+            });
+            long target = this.maxSize - (this.maxSize / 4);
+            int evicted = 0;
+            for (Entry entry: entries)
+            {
+                if (total <= target)
+                {
+                    break;
+                }
+                if (entry.file.delete())
+                {
+                    total -= entry.length;
+                    evicted++;
+                }
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("Evicted " + evicted + " persistent resource cache entries, size is now " + total + " bytes");
+        }
+        this.size.set(total);
+    }
+    
+    /**
+     * The file of a cache entry along with its length and modification time at the time of an eviction.
+     */
+    private static final class Entry
+    {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        
+        private Entry(File file)
+        {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+    }
+    
+    /**
+     * @return the files of all the cache entries (excluding any temporary files being written and any files that
+     *         were not written by the cache)
+     */
+    private List<File> listEntries()
+    {
+        List<File> entries = new ArrayList<File>();
+        File[] dirs = this.directory.listFiles();
+        if (dirs != null)
+        {
+            for (File dir: dirs)
+            {
+                String shard = dir.getName();
+                if (dir.isDirectory() && SHARD_NAME.matcher(shard).matches())
+                {
+                    File[] files = dir.listFiles();
+                    if (files != null)
+                    {
+                        for (File file: files)
+                        {
+                            String name = file.getName();
+                            if (ENTRY_NAME.matcher(name).matches() && name.startsWith(shard) && file.isFile())
+                            {
+                                entries.add(file);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+    
+    /**
+     * Gets the file used to store the entry for the supplied key.
+     * 
+     * @param key the key
+     * @return the file
+     */
+    protected File getFile(String key)
+    {
+        String name = hash(key);
+        return new File(new File(this.directory, name.substring(0, 2)), name);
+    }
+    
+    /**
+     * Hashes the supplied key to a file system safe name.
+     * 
+     * @param key the key
+     * @return a hex encoded SHA-1 hash of the key
+     */
+    private static String hash(String key)
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b: digest)
+            {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException | UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.extensions.surf.ModelHelper;
+import org.springframework.extensions.surf.ModelObject;
+import org.springframework.extensions.surf.ModelObjectPropertyListener;
+import org.springframework.extensions.surf.types.AbstractModelObject;
+import org.springframework.extensions.webscripts.Store;
+
+/**
+ * A {@link ModelObjectCache} that maintains secondary indexes of property values to object ids so that
+ * property constraint queries (see {@link #find(Map)}) become hash lookups rather than scans of every
+ * cached object.
+ * <p>
+ * An index for a property is built the first time the property is queried and is then kept up to date
+ * as objects are put into, removed from and evicted from the cache. Objects are re-indexed each time they
+ * are put into the cache (which is how a saved object is returned to the cache) and each time one of their
+ * properties is changed in place. The objects found through an index are always checked against every
+ * constraint before they are returned.
+ * 
+ * @since 6.12
+ */
+public class IndexedModelObjectCache extends ModelObjectCache
+{
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    
+    /**
+     * The indexes of property name to property value to the ids of the objects with that value.
+     */
+    private final Map<String, Map<String, Set<String>>> indexes = new HashMap<String, Map<String, Set<String>>>();
+    
+    /**
+     * The indexed property values of each object, required to remove an object from the indexes.
+     */
+    private final Map<String, Map<String, String>> indexedValues = new HashMap<String, Map<String, String>>(1024);
+    
+    /**
+     * Instantiates a new indexed model object cache.
+     * 
+     * @param store     the store
+     * @param maxSize   the maxSize
+     * @param delay     the delay to check modified dates for items in the cache
+     */
+    public IndexedModelObjectCache(Store store, int maxSize, long delay)
+    {
+        super(store, maxSize, delay);
+    }
+    
+    @Override
+    public void put(String key, ModelObject obj, long timeout)
+    {
+        super.put(key, obj, timeout);
+        this.indexLock.writeLock().lock();
+        try
+        {
+            // the object may have already been replaced by a concurrent put (which will index the new object) or
+            // removed from the cache, only the object currently held under the key is indexed
+            CacheItem<ModelObject> item = this.cache.get(key);
+            if (item == null)
+            {
+                unindex(key);
+            }
+            else if (item.object == obj)
+            {
+                unindex(key);
+                index(key, obj);
+            }
+        }
+        finally
+        {
+            this.indexLock.writeLock().unlock();
+        }
+        if (obj instanceof AbstractModelObject && obj != ModelObjectSentinel.getInstance())
+        {
+            ((AbstractModelObject)obj).setPropertyListener(new IndexUpdater(key));
+        }
+    }
+    
+    @Override
+    public void remove(String key)
+    {
+        super.remove(key);
+        if (key != null)
+        {
+            this.indexLock.writeLock().lock();
+            try
+            {
+                unindex(key);
+            }
+            finally
+            {
+                this.indexLock.writeLock().unlock();
+            }
+        }
+    }
+    
+    @Override
+    public void invalidate()
+    {
+        super.invalidate();
+        this.indexLock.writeLock().lock();
+        try
+        {
+            this.indexes.clear();
+            this.indexedValues.clear();
+        }
+        finally
+        {
+            this.indexLock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    protected void evicted(String key, CacheItem<ModelObject> item)
+    {
+        this.indexLock.writeLock().lock();
+        try
+        {
+            // the key may have already been replaced with a new object...
+            if (this.cache.get(key) == null)
+            {
+                unindex(key);
+            }
+        }
+        finally
+        {
+            this.indexLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds the cached objects that satisfy all of the supplied property constraints.
+     * 
+     * @param propertyConstraintMap the property constraint map (may be <code>null</code>)
+     * 
+     * @return the map of IDs to ModelObjects
+     */
+    public Map<String, ModelObject> find(Map<String, Object> propertyConstraintMap)
+    {
+        // only String constraints can be looked up in an index - any others are just checked
+        List<String> indexedProperties = new ArrayList<String>(4);
+        if (propertyConstraintMap != null)
+        {
+            for (Map.Entry<String, Object> constraint : propertyConstraintMap.entrySet())
+            {
+                if (constraint.getValue() instanceof String)
+                {
+                    indexedProperties.add(constraint.getKey());
+                }
+            }
+        }
+        
+        Set<String> candidates;
+        if (indexedProperties.isEmpty())
+        {
+            candidates = keys();
+        }
+        else
+        {
+            buildIndexes(indexedProperties);
+            
+            // use the smallest set of candidates from the indexes...
+            this.indexLock.readLock().lock();
+            try
+            {
+                candidates = null;
+                for (String propertyName : indexedProperties)
+                {
+                    Set<String> ids = this.indexes.get(propertyName).get(propertyConstraintMap.get(propertyName));
+                    if (ids == null)
+                    {
+                        candidates = new HashSet<String>(0);
+                        break;
+                    }
+                    if (candidates == null || ids.size() < candidates.size())
+                    {
+                        candidates = ids;
+                    }
+                }
+                candidates = new HashSet<String>(candidates);
+            }
+            finally
+            {
+                this.indexLock.readLock().unlock();
+            }
+        }
+        
+        // check the candidates outside of the lock - getting a stale object will remove it from the cache
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>(candidates.size() * 2);
+        for (String id : candidates)
+        {
+            ModelObject obj = get(id);
+            if (obj != null && obj != ModelObjectSentinel.getInstance() && ModelHelper.matchesPropertyConstraints(obj, propertyConstraintMap))
+            {
+                objects.put(id, obj);
+            }
+        }
+        return objects;
+    }
+    
+    /**
+     * Builds the indexes for any of the supplied properties that have not already been indexed.
+     */
+    private void buildIndexes(List<String> propertyNames)
+    {
+        this.indexLock.readLock().lock();
+        try
+        {
+            if (this.indexes.keySet().containsAll(propertyNames))
+            {
+                return;
+            }
+        }
+        finally
+        {
+            this.indexLock.readLock().unlock();
+        }
+        
+        this.indexLock.writeLock().lock();
+        try
+        {
+            for (String propertyName : propertyNames)
+            {
+                if (!this.indexes.containsKey(propertyName))
+                {
+                    this.indexes.put(propertyName, new HashMap<String, Set<String>>(256));
+                    for (Map.Entry<String, CacheItem<ModelObject>> entry : this.cache.entrySet())
+                    {
+                        ModelObject obj = entry.getValue().object;
+                        if (obj != ModelObjectSentinel.getInstance())
+                        {
+                            addToIndex(propertyName, entry.getKey(), obj.getProperty(propertyName));
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            this.indexLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds an object to every index. The write lock must be held.
+     */
+    private void index(String key, ModelObject obj)
+    {
+        if (obj != ModelObjectSentinel.getInstance())
+        {
+            for (String propertyName : this.indexes.keySet())
+            {
+                addToIndex(propertyName, key, obj.getProperty(propertyName));
+            }
+        }
+    }
+    
+    /**
+     * Adds a property value of an object to the index for the property. The write lock must be held.
+     */
+    private void addToIndex(String propertyName, String key, String value)
+    {
+        if (value != null)
+        {
+            Map<String, Set<String>> index = this.indexes.get(propertyName);
+            Set<String> ids = index.get(value);
+            if (ids == null)
+            {
+                ids = new HashSet<String>(4);
+                index.put(value, ids);
+            }
+            ids.add(key);
+            
+            Map<String, String> values = this.indexedValues.get(key);
+            if (values == null)
+            {
+                values = new HashMap<String, String>(4);
+                this.indexedValues.put(key, values);
+            }
+            values.put(propertyName, value);
+        }
+    }
+    
+    /**
+     * Re-indexes an object after one of its indexed properties has been changed in place.
+     */
+    private void reindex(String key, ModelObject obj, String propertyName)
+    {
+        this.indexLock.writeLock().lock();
+        try
+        {
+            // ignore objects that are no longer held in the cache under the key
+            CacheItem<ModelObject> item = this.cache.get(key);
+            if (this.indexes.containsKey(propertyName) && item != null && item.object == obj)
+            {
+                unindex(key);
+                index(key, obj);
+            }
+        }
+        finally
+        {
+            this.indexLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Removes an object from every index. The write lock must be held.
+     */
+    private void unindex(String key)
+    {
+        Map<String, String> values = this.indexedValues.remove(key);
+        if (values != null)
+        {
+            for (Map.Entry<String, String> value : values.entrySet())
+            {
+                Map<String, Set<String>> index = this.indexes.get(value.getKey());
+                Set<String> ids = index.get(value.getValue());
+                if (ids != null)
+                {
+                    ids.remove(key);
+                    if (ids.isEmpty())
+                    {
+                        index.remove(value.getValue());
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Listener registered with each cached object to re-index it when its properties are changed.
+     */
+    private class IndexUpdater implements ModelObjectPropertyListener
+    {
+        private final String key;
+        
+        IndexUpdater(String key)
+        {
+            this.key = key;
+        }
+        
+        public void propertyChanged(ModelObject object, String propertyName)
+        {
+            reindex(this.key, object, propertyName);
+        }
+    }
+}
@@ -104,6 +104,7 @@ public class ModelObjectCache implements ContentCache<ModelObject>, CacheReporte
                                 Component c = ((Component)value.object);
                                 c.onEviction();
                             }
+                            evicted(key, value);
                         }
                     })
                  .build();
@@ -115,6 +116,17 @@ public class ModelObjectCache implements ContentCache<ModelObject>, CacheReporte
         }
     }
     
+    /**
+     * Called when an item has been evicted from a cache with a maximum size. Subclasses that maintain
+     * additional state about the cached items should override this.
+     * 
+     * @param key   the key of the evicted item
+     * @param item  the evicted item
+     */
+    protected void evicted(String key, CacheItem<ModelObject> item)
+    {
+    }
+    
     /* (non-Javadoc)
      * @see org.springframework.extensions.surf.cache.ContentCache#get()
      */
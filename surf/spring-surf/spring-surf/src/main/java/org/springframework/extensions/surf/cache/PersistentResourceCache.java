@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.cache;
+
+/**
+ * Interface that describes a persistent (i.e. surviving server restarts) tier for caching
+ * generated resource content such as compressed JavaScript and CSS files and aggregated
+ * resources.
+ * <p>
+ * Keys are expected to be derived from the content that was used to generate the value
+ * (e.g. a checksum of the source file combined with the compression configuration) so that
+ * entries never need to be invalidated because the source has changed - a changed source
+ * will simply produce a different key.
+ * <p>
+ * Implementations must be thread safe and should never throw exceptions for failed reads
+ * or writes - a failure should be treated as a cache miss.
+ * 
+ * @since 6.12
+ */
+public interface PersistentResourceCache
+{
+    /**
+     * Gets content stored in the cache
+     * 
+     * @param key the key
+     * 
+     * @return the content or <code>null</code> if it is not cached
+     */
+    public byte[] get(String key);
+    
+    /**
+     * Places content into the cache
+     * 
+     * @param key the key
+     * @param content the content
+     */
+    public void put(String key, byte[] content);
+    
+    /**
+     * Removes all content from the cache
+     */
+    public void clear();
+}
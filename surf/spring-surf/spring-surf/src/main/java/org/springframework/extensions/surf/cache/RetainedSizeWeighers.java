@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.cache;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+/**
+ * {@link Weigher} implementations that estimate the retained heap size (in bytes) of commonly cached values so that
+ * a {@link ConcurrentLoadingCache} can be bounded by memory rather than by entry count.
+ * <p>
+ * The estimates assume a 64-bit JVM with compressed references and include the cache entry overhead so that caches
+ * of many small values are not under-weighted.
+ * 
+ * @since 6.12
+ */
+public final class RetainedSizeWeighers
+{
+    /**
+     * The estimated overhead in bytes of each cache entry (the entry, its node and the key reference).
+     */
+    public static final int ENTRY_OVERHEAD = 64;
+    
+    /**
+     * The estimated overhead in bytes of a String (the object header, its fields and the character array header).
+     */
+    public static final int STRING_OVERHEAD = 40;
+    
+    private RetainedSizeWeighers()
+    {
+    }
+    
+    /**
+     * Estimates the retained size of a String.
+     * 
+     * @param s the String (may be <code>null</code>)
+     * @return the size in bytes
+     */
+    public static long sizeOf(String s)
+    {
+        return s != null ? STRING_OVERHEAD + s.length() * 2L : 0L;
+    }
+    
+    /**
+     * Converts a size estimate to a weight that can be used by the cache.
+     */
+    private static int toWeight(long size)
+    {
+        return (int)Math.max(1L, Math.min(Integer.MAX_VALUE, size));
+    }
+    
+    /**
+     * @return a weigher for String values
+     */
+    public static Weigher<String> strings()
+    {
+        return StringWeigher.INSTANCE;
+    }
+    
+    /**
+     * @return a weigher for maps of String keys to (typically String) values
+     */
+    public static Weigher<Map<String, Object>> stringMaps()
+    {
+        return StringMapWeigher.INSTANCE;
+    }
+    
+    private static final class StringWeigher implements Weigher<String>
+    {
+        private static final StringWeigher INSTANCE = new StringWeigher();
+        
+        @Override
+        public int weightOf(String value)
+        {
+            return toWeight(ENTRY_OVERHEAD + sizeOf(value));
+        }
+    }
+    
+    private static final class StringMapWeigher implements Weigher<Map<String, Object>>
+    {
+        private static final StringMapWeigher INSTANCE = new StringMapWeigher();
+        
+        @Override
+        public int weightOf(Map<String, Object> value)
+        {
+            // the map itself plus its table...
+            long size = ENTRY_OVERHEAD + 64L + value.size() * 8L;
+            for (Entry<String, Object> entry: value.entrySet())
+            {
+                size += 32 + sizeOf(entry.getKey());
+                Object v = entry.getValue();
+                size += (v instanceof String ? sizeOf((String)v) : 16);
+            }
+            return toWeight(size);
+        }
+    }
+}
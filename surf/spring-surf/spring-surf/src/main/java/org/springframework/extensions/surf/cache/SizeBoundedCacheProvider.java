@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.cache;
+
+import java.util.List;
+
+/**
+ * Implemented by Spring Beans that own {@link ConcurrentLoadingCache} instances that are weighted by their retained
+ * size in bytes (see {@link RetainedSizeWeighers}). The {@link CacheBudgetService} uses this to size those caches
+ * against a shared memory budget.
+ * 
+ * @since 6.12
+ */
+public interface SizeBoundedCacheProvider
+{
+    /**
+     * @return the caches (weighted in bytes) owned by this bean
+     */
+    public List<ConcurrentLoadingCache<?>> getSizeBoundedCaches();
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.extensibility;
+
+import java.util.Map;
+
+import org.springframework.extensions.surf.RequestContext;
+
+/**
+ * <p>An {@link ExtensionModuleEvaluator} that declares which inputs of the request its evaluation depends on so that
+ * the result of evaluating the deployed modules can be reused for other requests that have the same inputs rather
+ * than evaluating every module on every request.</p>
+ * 
+ * @since 6.12
+ */
+public interface CacheableExtensionModuleEvaluator extends ExtensionModuleEvaluator
+{
+    /**
+     * <p>Returns a key built from the request inputs (for example the user, site, URI or request parameters) that the
+     * result of {@link #applyModule(RequestContext, Map)} depends on. Two requests that produce the same key must always
+     * produce the same evaluation result. An evaluator whose result does not depend on the request at all should return
+     * an empty String.</p>
+     * 
+     * @param context The current {@link RequestContext}
+     * @param evaluationProperties The evaluation properties defined in the module.
+     * @return The evaluation key or <code>null</code> if the evaluation cannot be cached for the current request.
+     */
+    public String getEvaluationKey(RequestContext context,
+                                   Map<String, String> evaluationProperties);
+}
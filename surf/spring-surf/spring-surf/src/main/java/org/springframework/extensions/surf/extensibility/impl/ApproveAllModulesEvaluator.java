@@ -21,7 +21,7 @@ package org.springframework.extensions.surf.extensibility.impl;
 import java.util.Map;
 
 import org.springframework.extensions.surf.RequestContext;
-import org.springframework.extensions.surf.extensibility.ExtensionModuleEvaluator;
+import org.springframework.extensions.surf.extensibility.CacheableExtensionModuleEvaluator;
 
 /**
  * <p>This <code>ExtensionModuleEvaluator</code> will always approve each module request. It is designed to be the default
@@ -30,7 +30,7 @@ import org.springframework.extensions.surf.extensibility.ExtensionModuleEvaluato
  * 
  * @author David Draper
  */
-public class ApproveAllModulesEvaluator implements ExtensionModuleEvaluator
+public class ApproveAllModulesEvaluator implements CacheableExtensionModuleEvaluator
 {
     public boolean applyModule(RequestContext context, 
                                Map<String, String> evaluationProperties)
@@ -43,4 +43,11 @@ public class ApproveAllModulesEvaluator implements ExtensionModuleEvaluator
         return new String[] {};
     }
     
+    public String getEvaluationKey(RequestContext context,
+                                   Map<String, String> evaluationProperties)
+    {
+        // The result does not depend on the request...
+        return "";
+    }
+    
 }
@@ -34,6 +34,7 @@ import org.springframework.context.ApplicationContextAware;
 import org.springframework.extensions.surf.ModelObjectService;
 import org.springframework.extensions.surf.ModuleDeploymentService;
 import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.extensibility.CacheableExtensionModuleEvaluator;
 import org.springframework.extensions.surf.extensibility.Customization;
 import org.springframework.extensions.surf.extensibility.ExtensibilityModuleHandler;
 import org.springframework.extensions.surf.extensibility.ExtensionModuleEvaluator;
@@ -41,6 +42,9 @@ import org.springframework.extensions.surf.extensibility.WebScriptExtensibilityM
 import org.springframework.extensions.surf.types.ExtensionModule;
 import org.springframework.extensions.surf.types.ModuleDeployment;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weighers;
+
 /**
  * <p>This is the default {@link ExtensibilityModuleHandler} provided for Spring Surf and is configured as a Spring
  * bean.</p>
@@ -165,6 +169,22 @@ public class BasicExtensibilityModuleHandler extends WebScriptExtensibilityModul
         return cssDeps;
     }
     
+    /**
+     * <p>The maximum number of evaluation results that are cached for the deployed modules. Results are only cached
+     * when every deployed module uses a {@link CacheableExtensionModuleEvaluator}. Setting this to 0 disables the cache.</p>
+     */
+    private int evaluationCacheMaxSize = 1024;
+    
+    public void setEvaluationCacheMaxSize(int evaluationCacheMaxSize)
+    {
+        this.evaluationCacheMaxSize = evaluationCacheMaxSize;
+    }
+    
+    /**
+     * <p>The {@link EvaluationPlan} compiled for the current list of deployed modules.</p>
+     */
+    private volatile EvaluationPlan evaluationPlan = null;
+    
     /**
      * <p>Retrieves a list of modules that can be applied to the file defined by the supplied path. The path
      * supplied could be to a FreeMarker template, JavaScript controller or NLS properties file. Modules will
@@ -180,7 +200,7 @@ public class BasicExtensibilityModuleHandler extends WebScriptExtensibilityModul
             logger.debug("Evaluating modules for request: " + context.getUri());
         }
         
-        List<ExtensionModule> modules = new ArrayList<ExtensionModule>();
+        List<ExtensionModule> modules = null;
 
         // Get all the Extensions that have been configured for the application and construct module template
         // based on the information configured for each one. It doesn't matter if the templatePath does not
@@ -188,17 +208,7 @@ public class BasicExtensibilityModuleHandler extends WebScriptExtensibilityModul
         // "suggestion" for which paths to try...
         if (this.moduleDeploymentService != null)
         {
-            for (ModuleDeployment module: this.moduleDeploymentService.getDeployedModules())
-            {
-                if (logger.isDebugEnabled())
-                {
-                   logger.debug("Evaluating module: " + module.getId());
-                }
-                if (applyModule(module, context))
-                {
-                    modules.add(module.getExtensionModule());
-                }
-            }
+            modules = getEvaluationPlan(this.moduleDeploymentService.getDeployedModules()).evaluate(context);
         }
         else
         {
@@ -206,10 +216,35 @@ public class BasicExtensibilityModuleHandler extends WebScriptExtensibilityModul
             {
                 logger.warn("No module deployment service has been configured in the application context, applicable modules cannot be discovered");
             }
+            modules = new ArrayList<ExtensionModule>();
         }
         return modules;
     }
     
+    /**
+     * <p>Returns the {@link EvaluationPlan} for the supplied list of deployed modules, compiling a new plan if the list
+     * is not the one that the current plan was compiled from. The {@link ModuleDeploymentService} publishes a new list
+     * whenever module deployment changes so the identity of the list is enough to detect a stale plan.</p>
+     * 
+     * @param deployedModules The current list of deployed modules
+     * @return The {@link EvaluationPlan} for the deployed modules
+     */
+    private EvaluationPlan getEvaluationPlan(List<ModuleDeployment> deployedModules)
+    {
+        EvaluationPlan plan = this.evaluationPlan;
+        if (plan == null || plan.deployedModules != deployedModules)
+        {
+            List<PlannedModule> plannedModules = new ArrayList<PlannedModule>(deployedModules.size());
+            for (ModuleDeployment module: deployedModules)
+            {
+                plannedModules.add(new PlannedModule(module, getModuleEvaluator(module)));
+            }
+            plan = new EvaluationPlan(deployedModules, plannedModules);
+            this.evaluationPlan = plan;
+        }
+        return plan;
+    }
+    
     /**
      * <p>Determines whether or not to apply the supplied {@link ModuleDeployment} based on the supplied {@link RequestContext}.</p>
      * @param module The {@link ModuleDeployment} to test
@@ -218,9 +253,46 @@ public class BasicExtensibilityModuleHandler extends WebScriptExtensibilityModul
      */
     protected boolean applyModule(ModuleDeployment module, 
                                   RequestContext context)
+    {
+        return applyModule(module, getModuleEvaluator(module), context);
+    }
+    
+    /**
+     * <p>Determines whether or not to apply the supplied {@link ModuleDeployment} using an {@link ExtensionModuleEvaluator}
+     * that has already been resolved for it.</p>
+     * @param module The {@link ModuleDeployment} to test
+     * @param moduleEvaluator The {@link ExtensionModuleEvaluator} for the module (may be <code>null</code>)
+     * @param context The current {@link RequestContext}
+     * @return <code>true</code> if the module should be applied and <code>false</code> otherwise.
+     */
+    protected boolean applyModule(ModuleDeployment module,
+                                  ExtensionModuleEvaluator moduleEvaluator,
+                                  RequestContext context)
     {
         boolean apply = false;
+        if (moduleEvaluator != null)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Evaluating module : '" + (module != null ? module.getId() : null) + "' using evaluator '" + moduleEvaluator.getClass() + "'");
+            }
+            apply = moduleEvaluator.applyModule(context, module.getEvaluatorProperties());
+        }
+        else
+        {
+            // No evaluator provided.
+        }
+        return apply;
+    }
         
+    /**
+     * <p>Resolves the {@link ExtensionModuleEvaluator} for the supplied {@link ModuleDeployment}. This will either be the
+     * evaluator bean configured for the module or the default evaluator.</p>
+     * @param module The {@link ModuleDeployment} to get the evaluator for
+     * @return The {@link ExtensionModuleEvaluator} or <code>null</code> if one could not be found.
+     */
+    protected ExtensionModuleEvaluator getModuleEvaluator(ModuleDeployment module)
+    {
         // Get the evaluator for the the module and check that it applies to the current request...
         ExtensionModuleEvaluator moduleEvaluator = null;
         if (module.getEvaluator() != null)
@@ -253,19 +325,120 @@ public class BasicExtensibilityModuleHandler extends WebScriptExtensibilityModul
                 logger.warn("No evaluator defined for module: '" + (module != null ? module.getId() : null) + "' and no default configured - module will not be applied");
             }
         }
+        return moduleEvaluator;
+    }
             
-        if (moduleEvaluator != null)
+    /**
+     * <p>A {@link ModuleDeployment} paired with its resolved {@link ExtensionModuleEvaluator}.</p>
+     */
+    private static final class PlannedModule
+    {
+        private final ModuleDeployment module;
+        private final ExtensionModuleEvaluator evaluator;
+        
+        private PlannedModule(ModuleDeployment module, ExtensionModuleEvaluator evaluator)
         {
-            if (logger.isDebugEnabled())
+            this.module = module;
+            this.evaluator = evaluator;
+        }
+    }
+    
+    /**
+     * <p>The deployed modules compiled with their resolved evaluators so that the evaluator beans are not looked up in
+     * the application context for every request. If every evaluator is a {@link CacheableExtensionModuleEvaluator} then
+     * the modules that apply are cached against the combined evaluation keys of the request.</p>
+     */
+    private final class EvaluationPlan
+    {
+        private final List<ModuleDeployment> deployedModules;
+        private final List<PlannedModule> plannedModules;
+        private final Map<String, List<ExtensionModule>> results;
+        
+        private EvaluationPlan(List<ModuleDeployment> deployedModules, List<PlannedModule> plannedModules)
+        {
+            this.deployedModules = deployedModules;
+            this.plannedModules = plannedModules;
+            
+            boolean cacheable = (evaluationCacheMaxSize > 0);
+            for (PlannedModule plannedModule: plannedModules)
             {
-                logger.debug("Evaluating module : '" + (module != null ? module.getId() : null) + "' using evaluator '" + moduleEvaluator.getClass() + "'");
+                if (plannedModule.evaluator != null && !(plannedModule.evaluator instanceof CacheableExtensionModuleEvaluator))
+                {
+                    cacheable = false;
+                }
             }
-            apply = moduleEvaluator.applyModule(context, module.getEvaluatorProperties());
+            this.results = (cacheable ? new ConcurrentLinkedHashMap.Builder<String, List<ExtensionModule>>()
+                                                .maximumWeightedCapacity(evaluationCacheMaxSize)
+                                                .weigher(Weighers.singleton())
+                                                .build() : null);
         }
-        else
+        
+        /**
+         * <p>Evaluates the deployed modules for the supplied request.</p>
+         * @param context The current {@link RequestContext}
+         * @return A new list of the {@link ExtensionModule} instances that apply to the request.
+         */
+        private List<ExtensionModule> evaluate(RequestContext context)
         {
-            // No evaluator provided.
+            String key = getEvaluationKey(context);
+            List<ExtensionModule> modules = (key != null ? this.results.get(key) : null);
+            if (modules == null)
+            {
+                modules = new ArrayList<ExtensionModule>();
+                for (PlannedModule plannedModule: this.plannedModules)
+                {
+                    if (logger.isDebugEnabled())
+                    {
+                       logger.debug("Evaluating module: " + plannedModule.module.getId());
+                    }
+                    if (applyModule(plannedModule.module, plannedModule.evaluator, context))
+                    {
+                        modules.add(plannedModule.module.getExtensionModule());
+                    }
+                }
+                if (key != null)
+                {
+                    this.results.put(key, modules);
+                }
+            }
+            else if (logger.isDebugEnabled())
+            {
+                logger.debug("Using cached module evaluation for key: " + key);
+            }
+            return new ArrayList<ExtensionModule>(modules);
+        }
+        
+        /**
+         * <p>Combines the evaluation keys of each module for the supplied request.</p>
+         * @param context The current {@link RequestContext}
+         * @return The combined key or <code>null</code> if the evaluation cannot be cached.
+         */
+        private String getEvaluationKey(RequestContext context)
+        {
+            String key = null;
+            if (this.results != null)
+            {
+                boolean cacheable = true;
+                StringBuilder sb = new StringBuilder(64);
+                for (int i = 0; cacheable && i < this.plannedModules.size(); i++)
+                {
+                    PlannedModule plannedModule = this.plannedModules.get(i);
+                    if (plannedModule.evaluator != null)
+                    {
+                        String moduleKey = ((CacheableExtensionModuleEvaluator) plannedModule.evaluator).getEvaluationKey(context, plannedModule.module.getEvaluatorProperties());
+                        if (moduleKey != null)
+                        {
+                            sb.append(moduleKey).append('\u0000');
+                        }
+                        else
+                        {
+                            cacheable = false;
+                        }
+                    }
+                }
+                key = (cacheable ? sb.toString() : null);
+            }
+            return key;
         }
-        return apply;
     }
 }
@@ -21,12 +21,12 @@ package org.springframework.extensions.surf.extensibility.impl;
 import java.util.Map;
 
 import org.springframework.extensions.surf.RequestContext;
-import org.springframework.extensions.surf.extensibility.ExtensionModuleEvaluator;
+import org.springframework.extensions.surf.extensibility.CacheableExtensionModuleEvaluator;
 
 /**
  * @author David Draper
  */
-public class ConfigApprovalEvaluator implements ExtensionModuleEvaluator
+public class ConfigApprovalEvaluator implements CacheableExtensionModuleEvaluator
 {
     public static final String APPLY = "apply";
     
@@ -45,4 +45,11 @@ public class ConfigApprovalEvaluator implements ExtensionModuleEvaluator
     {
         return new String[] { APPLY };
     }
+    
+    public String getEvaluationKey(RequestContext context,
+                                   Map<String, String> evaluationProperties)
+    {
+        // The result only depends on the module configuration...
+        return "";
+    }
 }
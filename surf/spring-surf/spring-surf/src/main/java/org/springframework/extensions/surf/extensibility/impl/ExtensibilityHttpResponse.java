@@ -27,10 +27,18 @@ import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
 
+/**
+ * <p>Wraps a response so that all output is written into the {@link ExtensibilityModel}. The same {@link PrintWriter}
+ * and {@link ServletOutputStream} are returned for each request for them, and bytes written to the stream are decoded
+ * using the character encoding of the response.</p>
+ */
 public class ExtensibilityHttpResponse extends HttpServletResponseWrapper
 {
     private ExtensibilityModel model = null;
     
+    private PrintWriter writer = null;
+    private ExtensibilityServletOutputStream outputStream = null;
+    
     public ExtensibilityHttpResponse(HttpServletResponse response, ExtensibilityModel model)
     {
         super(response);
@@ -40,14 +48,21 @@ public class ExtensibilityHttpResponse extends HttpServletResponseWrapper
     @Override
     public PrintWriter getWriter() throws IOException
     {
-        return new PrintWriter(model.getWriter());
+        if (this.writer == null)
+        {
+            this.writer = new PrintWriter(model.getWriter());
+        }
+        return this.writer;
     }
 
     @Override
     public ServletOutputStream getOutputStream() throws IOException
     {
-        ExtensibilityServletOutputStream os = new ExtensibilityServletOutputStream(model.getWriter());
-        return os;
+        if (this.outputStream == null)
+        {
+            this.outputStream = new ExtensibilityServletOutputStream(model.getWriter(), getCharacterEncoding());
+        }
+        return this.outputStream;
     }
 
     @Override
@@ -20,23 +20,110 @@ package org.springframework.extensions.surf.extensibility.impl;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 import javax.servlet.ServletOutputStream;
 
+/**
+ * <p>A {@link ServletOutputStream} that decodes the bytes written to it into the {@link Writer} of an 
+ * {@link org.springframework.extensions.surf.extensibility.ExtensibilityModel}. Bytes are decoded in bulk so that
+ * servlet includes writing arrays of bytes do not result in a call to the {@link Writer} for every byte. Any
+ * incomplete multi-byte character at the end of a write is held until the remaining bytes are written.</p>
+ */
 public class ExtensibilityServletOutputStream extends ServletOutputStream
 {
+    /**
+     * <p>The encoding used when none is provided. This matches the previous behaviour of writing each byte as a 
+     * character.</p>
+     */
+    private static final String DEFAULT_ENCODING = "ISO-8859-1";
+    
+    private static final int BUFFER_SIZE = 2048;
+    
     private Writer modelWriter = null;
     
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    
     public ExtensibilityServletOutputStream(Writer modelWriter)
+    {
+        this(modelWriter, null);
+    }
+    
+    /**
+     * @param modelWriter The {@link Writer} to decode the bytes into.
+     * @param characterEncoding The encoding of the bytes, defaults to ISO-8859-1 if <code>null</code>.
+     */
+    public ExtensibilityServletOutputStream(Writer modelWriter, String characterEncoding)
     {
         super();
         this.modelWriter = modelWriter;
+        this.decoder = Charset.forName(characterEncoding != null ? characterEncoding : DEFAULT_ENCODING).newDecoder()
+                              .onMalformedInput(CodingErrorAction.REPLACE)
+                              .onUnmappableCharacter(CodingErrorAction.REPLACE);
     }
 
     @Override
     public void write(int b) throws IOException
     {
-        this.modelWriter.write(b);
+        this.bytes.put((byte) b);
+        decode(false);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            int n = Math.min(len, this.bytes.remaining());
+            this.bytes.put(b, off, n);
+            off += n;
+            len -= n;
+            decode(false);
+        }
+    }
+    
+    /**
+     * <p>Decodes the buffered bytes and writes the resulting characters to the model {@link Writer}.</p>
+     * 
+     * @param endOfInput Whether or not any further bytes will be written.
+     * @throws IOException
+     */
+    private void decode(boolean endOfInput) throws IOException
+    {
+        this.bytes.flip();
+        CoderResult result;
+        do
+        {
+            result = this.decoder.decode(this.bytes, this.chars, endOfInput);
+            writeChars();
+        }
+        while (result.isOverflow());
+        this.bytes.compact();
+        
+        if (endOfInput)
+        {
+            while (this.decoder.flush(this.chars).isOverflow())
+            {
+                writeChars();
+            }
+            writeChars();
+        }
+    }
+    
+    private void writeChars() throws IOException
+    {
+        if (this.chars.position() != 0)
+        {
+            this.modelWriter.write(this.chars.array(), 0, this.chars.position());
+            this.chars.clear();
+        }
     }
 
     @Override
@@ -60,6 +147,7 @@ public class ExtensibilityServletOutputStream extends ServletOutputStream
     @Override
     public void close() throws IOException
     {
+        decode(true);
         this.modelWriter.close();
     }
 
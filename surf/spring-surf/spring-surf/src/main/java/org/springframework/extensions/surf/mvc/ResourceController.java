@@ -18,9 +18,9 @@
  */
 package org.springframework.extensions.surf.mvc;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,6 +44,12 @@ public class ResourceController extends org.springframework.extensions.webscript
 {
     public static final String HTTP_HEADER_EXPIRES = "Expires";
     public static final String HTTP_HEADER_FAR_FUTURE_EXPIRES_VALUE = "Sun, 17-Jan-2038 19:14:07 GMT";
+    public static final String HTTP_HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HTTP_HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String HTTP_HEADER_VARY = "Vary";
+    public static final String HTTP_HEADER_ETAG = "ETag";
+    public static final String HTTP_HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HTTP_HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
     
     /**
      * <p>A {@link DependencyHandler} is used to lookup resource dependencies including those that are 
@@ -104,29 +110,47 @@ public class ResourceController extends org.springframework.extensions.webscript
             return true;
         }
         
+        // Paths that contain a checksum are content addressed so a conditional request for a resource that
+        // exists can be answered without writing (or generating) its content. A checksum that is not known
+        // is never answered with a 304 as the resource it claims to address may not exist...
+        String checksum = DependencyHandler.getChecksumFromPath(path);
+        boolean notModified = checksum != null && isNotModified(checksum, request);
+        
         // ...check the DependencyAggregator...
         DependencyResource resource = this.dependencyAggregator.getCachedDependencyResource(path);
-        if (resource != null)
+        if (resource != null && notModified)
         {
-            byte[] bytes = resource.getContent();
-            applyHeaders(path, response, bytes.length, 0L);
-            ByteArrayInputStream in = new ByteArrayInputStream(bytes);
-            copyStream(in, response.getOutputStream());
+            writeNotModified(checksum, request, response);
+            resolved = true;
+        }
+        else if (resource != null)
+        {
+            writeDependencyResource(path, request, response, resource);
             resolved = true;
         }
         
         if (!resolved && this.webframeworkConfigElement.isDojoEnabled())
         {
             // ...check the Dojo Dependency handler (if enabled in the Surf configuration)...
-            String aggregatedDojoResource = this.dojoDependencyHandler.getCachedResource(path);
-            if (aggregatedDojoResource != null)
+            DependencyResource aggregatedDojoResource = this.dojoDependencyHandler.getCachedDependencyResource(path);
+            if (aggregatedDojoResource != null && notModified)
             {
-                byte[] bytes = aggregatedDojoResource.getBytes(this.dependencyHandler.getCharset());
-                applyHeaders(path, response, bytes.length, 0L);
-                ByteArrayInputStream in = new ByteArrayInputStream(bytes);
-                copyStream(in, response.getOutputStream());
+                writeNotModified(checksum, request, response);
                 resolved = true;
             }
+            else if (aggregatedDojoResource != null)
+            {
+                writeDependencyResource(path, request, response, aggregatedDojoResource);
+                resolved = true;
+            }
+        }
+        
+        // ...the DependencyHandler caches the checksum along with the location of each resource so a resource that
+        // exists does not need to be opened to answer a 304...
+        if (!resolved && notModified && this.dependencyHandler.getChecksum(path, null) != null)
+        {
+            writeNotModified(checksum, request, response);
+            resolved = true;
         }
         
         // ...now check the DependencyHandler...
@@ -136,6 +160,10 @@ public class ResourceController extends org.springframework.extensions.webscript
             if (in != null)
             {
                 applyHeaders(path, response, in.available(), 0L);
+                if (checksum != null)
+                {
+                    response.setHeader(HTTP_HEADER_ETAG, generateETag(checksum, null));
+                }
                 copyStream(in, response.getOutputStream());
                 resolved = true;
             }
@@ -149,6 +177,240 @@ public class ResourceController extends org.springframework.extensions.webscript
         return resolved;
     }
     
+    /**
+     * <p>Answers a conditional request for a content addressed resource that is known to exist with a "304 Not Modified"
+     * response. The response carries the same validator and variance as the 200 response for the representation held by
+     * the client so that caches keep the compressed and uncompressed variants apart.</p>
+     * 
+     * @param checksum The checksum taken from the requested path
+     * @param request The current {@link HttpServletRequest}
+     * @param response The current {@link HttpServletResponse}
+     */
+    protected void writeNotModified(String checksum, HttpServletRequest request, HttpServletResponse response)
+    {
+        response.setHeader(HTTP_HEADER_VARY, HTTP_HEADER_ACCEPT_ENCODING);
+        String etag = getMatchingETag(checksum, request);
+        if (etag != null)
+        {
+            response.setHeader(HTTP_HEADER_ETAG, etag);
+        }
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+    
+    /**
+     * <p>Writes the supplied {@link DependencyResource} to the response. When the client accepts GZIP content encoding the
+     * compressed bytes held by the resource are written directly (with the appropriate content length and encoding headers)
+     * so that no compression or decompression is performed on the request thread. Otherwise the uncompressed content is
+     * written.</p>
+     * 
+     * @param path The requested path
+     * @param request The current {@link HttpServletRequest}
+     * @param response The current {@link HttpServletResponse}
+     * @param resource The {@link DependencyResource} to write
+     * @throws IOException
+     */
+    protected void writeDependencyResource(String path,
+                                           HttpServletRequest request,
+                                           HttpServletResponse response,
+                                           DependencyResource resource) throws IOException
+    {
+        byte[] bytes;
+        String checksum = DependencyHandler.getChecksumFromPath(path);
+        response.setHeader(HTTP_HEADER_VARY, HTTP_HEADER_ACCEPT_ENCODING);
+        if (acceptsEncoding(request, DependencyResource.CONTENT_ENCODING))
+        {
+            bytes = resource.getCompressedContent();
+            applyHeaders(path, response, bytes.length, 0L);
+            response.setHeader(HTTP_HEADER_CONTENT_ENCODING, DependencyResource.CONTENT_ENCODING);
+            if (checksum != null)
+            {
+                response.setHeader(HTTP_HEADER_ETAG, generateETag(checksum, DependencyResource.CONTENT_ENCODING));
+            }
+        }
+        else
+        {
+            bytes = resource.getContent();
+            applyHeaders(path, response, bytes.length, 0L);
+            if (checksum != null)
+            {
+                response.setHeader(HTTP_HEADER_ETAG, generateETag(checksum, null));
+            }
+        }
+        OutputStream out = response.getOutputStream();
+        out.write(bytes);
+        out.flush();
+    }
+    
+    /**
+     * <p>Generates a strong entity tag from the supplied checksum. A distinct tag is generated for each content encoding
+     * so that caches never confuse the compressed and uncompressed representations of the same resource.</p>
+     * 
+     * @param checksum The checksum of the resource content
+     * @param contentEncoding The content encoding of the representation or <code>null</code> for the identity encoding
+     * @return A quoted entity tag
+     */
+    public static String generateETag(String checksum, String contentEncoding)
+    {
+        StringBuilder etag = new StringBuilder(checksum.length() + 8);
+        etag.append(DOUBLE_QUOTES).append(checksum);
+        if (contentEncoding != null)
+        {
+            etag.append("-").append(contentEncoding);
+        }
+        etag.append(DOUBLE_QUOTES);
+        return etag.toString();
+    }
+    
+    /**
+     * <p>Determines whether or not a conditional request for a content addressed resource can be answered with a
+     * "304 Not Modified" response. The "If-None-Match" header is compared (using the weak comparison function and
+     * ignoring any content encoding suffix) against the checksum.</p>
+     * <p>This is deliberately lenient for "If-Modified-Since": the checksum is derived from the content so the content
+     * served for a checksum path can never change, and any date the client sends (however old or malformed) refers to a
+     * copy that is still current. The header is only evaluated when "If-None-Match" is absent, as per RFC 7232.</p>
+     * 
+     * @param checksum The checksum taken from the requested path
+     * @param request The current {@link HttpServletRequest}
+     * @return <code>true</code> if the client copy of the resource is current and <code>false</code> otherwise.
+     */
+    protected boolean isNotModified(String checksum, HttpServletRequest request)
+    {
+        boolean notModified = false;
+        String ifNoneMatch = request.getHeader(HTTP_HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null)
+        {
+            for (String tag: ifNoneMatch.split(","))
+            {
+                tag = tag.trim();
+                if (tag.equals("*") || getChecksumETag(checksum, tag) != null)
+                {
+                    notModified = true;
+                    break;
+                }
+            }
+        }
+        else
+        {
+            notModified = request.getHeader(HTTP_HEADER_IF_MODIFIED_SINCE) != null;
+        }
+        return notModified;
+    }
+    
+    /**
+     * <p>Returns the entity tag of the representation that the client holds for a content addressed resource. This is the
+     * first tag in the "If-None-Match" header that matches the checksum, regenerated with its content encoding suffix so
+     * that it is identical to the tag sent with the original 200 response for that variant.</p>
+     * 
+     * @param checksum The checksum taken from the requested path
+     * @param request The current {@link HttpServletRequest}
+     * @return The entity tag of the matched variant or <code>null</code> if no specific variant was matched (for example
+     * when the request was conditional on "*" or on "If-Modified-Since" alone).
+     */
+    protected String getMatchingETag(String checksum, HttpServletRequest request)
+    {
+        String etag = null;
+        String ifNoneMatch = request.getHeader(HTTP_HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null)
+        {
+            for (String tag: ifNoneMatch.split(","))
+            {
+                etag = getChecksumETag(checksum, tag.trim());
+                if (etag != null)
+                {
+                    break;
+                }
+            }
+        }
+        return etag;
+    }
+    
+    /**
+     * <p>Compares a single entity tag from an "If-None-Match" header against the supplied checksum using the weak
+     * comparison function.</p>
+     * 
+     * @param checksum The checksum taken from the requested path
+     * @param tag A single (trimmed) entity tag
+     * @return The strong entity tag for the matched variant or <code>null</code> if the tag does not match.
+     */
+    private String getChecksumETag(String checksum, String tag)
+    {
+        String etag = null;
+        if (tag.startsWith("W/"))
+        {
+            tag = tag.substring(2);
+        }
+        if (tag.startsWith(DOUBLE_QUOTES) && tag.endsWith(DOUBLE_QUOTES) && tag.length() > 1)
+        {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        String contentEncoding = null;
+        int suffix = tag.indexOf('-');
+        if (suffix != -1)
+        {
+            // Only the encodings actually served are echoed back, anything else is treated as the identity encoding...
+            if (tag.substring(suffix + 1).equalsIgnoreCase(DependencyResource.CONTENT_ENCODING))
+            {
+                contentEncoding = DependencyResource.CONTENT_ENCODING;
+            }
+            tag = tag.substring(0, suffix);
+        }
+        if (tag.equalsIgnoreCase(checksum))
+        {
+            etag = generateETag(checksum, contentEncoding);
+        }
+        return etag;
+    }
+    
+    /**
+     * <p>Determines whether or not the "Accept-Encoding" header of the supplied request allows the requested
+     * content encoding. An encoding explicitly given a quality value of zero is treated as not accepted.</p>
+     * 
+     * @param request The current {@link HttpServletRequest}
+     * @param encoding The content encoding to check for (e.g. "gzip")
+     * @return <code>true</code> if the encoding is accepted and <code>false</code> otherwise.
+     */
+    public static boolean acceptsEncoding(HttpServletRequest request, String encoding)
+    {
+        boolean accepted = false;
+        String acceptEncoding = request.getHeader(HTTP_HEADER_ACCEPT_ENCODING);
+        if (acceptEncoding != null)
+        {
+            for (String token: acceptEncoding.split(","))
+            {
+                String coding = token;
+                String quality = null;
+                int semiColon = token.indexOf(';');
+                if (semiColon != -1)
+                {
+                    coding = token.substring(0, semiColon);
+                    quality = token.substring(semiColon + 1).trim();
+                }
+                coding = coding.trim();
+                if (coding.equalsIgnoreCase(encoding) || coding.equals("*"))
+                {
+                    accepted = true;
+                    if (quality != null && quality.startsWith("q="))
+                    {
+                        try
+                        {
+                            accepted = Float.parseFloat(quality.substring(2).trim()) > 0f;
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            // Ignore malformed quality values and accept the encoding...
+                        }
+                    }
+                    if (coding.equalsIgnoreCase(encoding))
+                    {
+                        // An explicit entry for the encoding always takes precedence over the wildcard...
+                        break;
+                    }
+                }
+            }
+        }
+        return accepted;
+    }
+    
     public String getPath(String sourcePath, String dependencyPath)
     {
         String pathPrefix = sourcePath.substring(0, sourcePath.lastIndexOf(FORWARD_SLASH));
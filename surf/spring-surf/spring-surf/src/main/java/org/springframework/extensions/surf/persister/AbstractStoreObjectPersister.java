@@ -22,12 +22,14 @@ package org.springframework.extensions.surf.persister;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
+import org.springframework.extensions.surf.ModelHelper;
 import org.springframework.extensions.surf.ModelObject;
 import org.springframework.extensions.surf.ModelPersistenceContext;
 import org.springframework.extensions.surf.ModelPersisterInfo;
@@ -311,6 +313,25 @@ public abstract class AbstractStoreObjectPersister extends ReadOnlyStoreObjectPe
         return getObjectsFromPaths(context, objectTypeId, docPaths);
     }
     
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.surf.persister.ReadOnlyStoreObjectPersister#findObjects(org.springframework.extensions.surf.ModelPersistenceContext, java.lang.String, java.util.Map)
+     */
+    @Override
+    public Map<String, ModelObject> findObjects(ModelPersistenceContext context, String objectTypeId, Map<String, Object> propertyConstraintMap)
+        throws ModelObjectPersisterException
+    {
+        // the caches of this persister do not hold every object - so check all the objects from the store
+        Map<String, ModelObject> objects = getAllObjects(context, objectTypeId);
+        for (Iterator<ModelObject> i = objects.values().iterator(); i.hasNext(); )
+        {
+            if (!ModelHelper.matchesPropertyConstraints(i.next(), propertyConstraintMap))
+            {
+                i.remove();
+            }
+        }
+        return objects;
+    }
+    
     /* (non-Javadoc)
      * @see org.alfresco.web.framework.ModelObjectPersister#getAllObjectsByFilter(org.alfresco.web.framework.ModelPersistenceContext, java.lang.String, java.lang.String)
      */
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.persister;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.springframework.extensions.surf.ModelObject;
+import org.springframework.extensions.surf.ModelPersistenceContext;
+import org.springframework.extensions.surf.exception.ModelObjectPersisterException;
+
+/**
+ * Indicates that the persister implementation can retrieve a number of objects in fewer round-trips to its
+ * store than retrieving each object in turn. The objects of any other persister are retrieved one at a time
+ * (see {@link org.springframework.extensions.surf.ModelHelper#getObjects(org.springframework.extensions.surf.ModelObjectPersister, ModelPersistenceContext, String, Collection)}).
+ * 
+ * @since 6.12
+ */
+public interface BatchObjectPersister
+{
+    /**
+     * Gets a number of objects of the same type from persisted storage by id.
+     * 
+     * @param context the context
+     * @param objectTypeId the object type id
+     * @param objectIds the object ids
+     * 
+     * @return a map of object ids to model objects - objects that could not be found are not included
+     * 
+     * @throws ModelObjectPersisterException
+     */
+    public Map<String, ModelObject> getObjects(ModelPersistenceContext context, String objectTypeId, Collection<String> objectIds)
+        throws ModelObjectPersisterException;
+}
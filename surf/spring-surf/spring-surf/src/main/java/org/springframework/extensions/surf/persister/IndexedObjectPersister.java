@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.persister;
+
+import java.util.Map;
+
+import org.springframework.extensions.surf.ModelObject;
+import org.springframework.extensions.surf.ModelPersistenceContext;
+import org.springframework.extensions.surf.exception.ModelObjectPersisterException;
+
+/**
+ * Indicates that the persister implementation can find the objects that satisfy a set of property
+ * constraints without the caller having to retrieve and check every object of the type.
+ * 
+ * @since 6.12
+ */
+public interface IndexedObjectPersister
+{
+    /**
+     * Finds the objects of the given type that satisfy all of the supplied property constraints. String
+     * constraints must equal the property value and Boolean constraints must equal the boolean value of
+     * the property.
+     * 
+     * @param context the context
+     * @param objectTypeId the object type id
+     * @param propertyConstraintMap the property constraint map (may be <code>null</code>)
+     * 
+     * @return a map of model objects (keyed by object id)
+     * 
+     * @throws ModelObjectPersisterException
+     */
+    public Map<String, ModelObject> findObjects(ModelPersistenceContext context, String objectTypeId, Map<String, Object> propertyConstraintMap)
+        throws ModelObjectPersisterException;
+}
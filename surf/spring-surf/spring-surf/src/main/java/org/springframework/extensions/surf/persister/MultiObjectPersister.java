@@ -19,31 +19,48 @@
 
 package org.springframework.extensions.surf.persister;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.ClusterMessageAware;
+import org.springframework.extensions.surf.ClusterService;
+import org.springframework.extensions.surf.ModelHelper;
 import org.springframework.extensions.surf.ModelObject;
 import org.springframework.extensions.surf.ModelObjectPersister;
 import org.springframework.extensions.surf.ModelPersistenceContext;
 import org.springframework.extensions.surf.exception.ModelObjectPersisterException;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weighers;
+
 /**
  * <p><code>MultiModelObjectPersister</code> class maintains the ModelObjectPersister contract
  * but redirects the retrieval of objects to a number of delegates. The delegate persisters can 
  * be of any persister implementation and are called in order of the supplied map of persisters 
  * during construction.</p>  
+ * <p>A routing index remembers which delegate persister owns each object that has been retrieved so that
+ * subsequent retrievals go straight to that persister. Objects that could not be found in any persister are
+ * remembered for a short time (see <code>negativeLookupTimeout</code>) so that repeated lookups of optional
+ * objects do not pay a miss on every persister. The index is invalidated when objects are saved or removed
+ * through this persister, including on the other nodes of a cluster.</p>
  * 
  * @author muzquiano
  * @author kevinr
  * @author David Draper
  * 
  */
-public class MultiObjectPersister extends AbstractObjectPersister implements CachedPersister
+public class MultiObjectPersister extends AbstractObjectPersister implements CachedPersister, IndexedObjectPersister, BatchObjectPersister, ClusterMessageAware
 {
     private final static Log logger = LogFactory.getLog(MultiObjectPersister.class);
 
@@ -63,6 +80,18 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
      */
     private ModelObjectPersister defaultPersister;
     
+    /** The maximum number of routes held by the routing index - zero disables the index */
+    private int routeCacheMaxSize = 10240;
+    
+    /** The time in milliseconds that an object that could not be found is remembered for */
+    private long negativeLookupTimeout = 30000L;
+    
+    /** The routing index of object key to the persister that owns the object */
+    private volatile Map<String, Route> routes = null;
+    
+    /** Incremented each time routes are invalidated so that lookups racing with an update are not recorded */
+    private final AtomicLong routeGeneration = new AtomicLong();
+    
     /**
      * Sets the persisters.
      * 
@@ -93,6 +122,28 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
         this.defaultPersister = defaultPersister;
     }
             
+    /**
+     * Sets the maximum number of object routes held by the routing index. The least recently used routes
+     * are discarded when the index is full. A value of zero disables the routing index.
+     * 
+     * @param routeCacheMaxSize the maximum number of routes
+     */
+    public void setRouteCacheMaxSize(int routeCacheMaxSize)
+    {
+        this.routeCacheMaxSize = routeCacheMaxSize;
+    }
+    
+    /**
+     * Sets the time in seconds that an object that could not be found in any persister is remembered for.
+     * A value of zero disables the caching of negative lookups.
+     * 
+     * @param negativeLookupTimeout the timeout in seconds
+     */
+    public void setNegativeLookupTimeout(int negativeLookupTimeout)
+    {
+        this.negativeLookupTimeout = negativeLookupTimeout * 1000L;
+    }
+            
     /**
      * <p>Iterates over the <code>persisters</code> list attempting to find a <code>ModelObject</code> of
      * the supplied type with the supplied id. The first match will be returned.</p>
@@ -110,30 +161,49 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
         final boolean debug = logger.isDebugEnabled();
         ModelObject modelObject = null;
         
-        // for each persister, see if we can load the object from its underlying storage
-        for (ModelObjectPersister persister: this.persisters)
+        // consult the routing index first - it either knows the owning persister or that there is no such object
+        final Map<String, Route> routes = this.routes;
+        final long generation = this.routeGeneration.get();
+        String routeKey = null;
+        if (routes != null)
         {
-            String persisterId = persister.getId();
-            
-            // try to load the object
-            try
+            routeKey = getRouteKey(context, objectTypeId, objectId);
+            Route route = routes.get(routeKey);
+            if (route != null)
             {
-                if (debug)
-                    logger.debug("getObject attempting to load '" + objectId + "' of type '" + objectTypeId + "' from persister: " + persisterId); 
+                if (route.persister == null)
+                {
+                    if (route.expires > System.currentTimeMillis())
+                    {
+                        if (debug)
+                            logger.debug("getObject found negative lookup for '" + objectId + "' of type '" + objectTypeId + "'");
+                        
+                        return null;
+                    }
+                }
+                else
+                {
+                    modelObject = loadObject(route.persister, context, objectTypeId, objectId);
+                    if (modelObject != null)
+                    {
+                        return modelObject;
+                    }
+                }
                 
-                modelObject = persister.getObject(context, objectTypeId, objectId);
-            }
-            catch (ModelObjectPersisterException mope)
-            {
-                throw new ModelObjectPersisterException("Error loading object id: " + objectId + " from persister id: " + persisterId, mope);
+                // the route is out of date - search all of the persisters again
+                routes.remove(routeKey);
             }
-            
+        }
+        
+        // for each persister, see if we can load the object from its underlying storage
+        ModelObjectPersister owner = null;
+        for (ModelObjectPersister persister: this.persisters)
+        {
+            modelObject = loadObject(persister, context, objectTypeId, objectId);
             if (modelObject != null)
             {
-                if (debug)
-                    logger.debug("getObject loaded '" + objectId + "' from persister: " + persisterId); 
-                
                 // if we have the object, jump out
+                owner = persister;
                 break;
             }
         }
@@ -143,9 +213,217 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
             logger.debug("getObject() unable to get object from any persisters");
         }
         
+        // record the route unless the object has been saved or removed while it was being looked up
+        if (routes != null && this.routeGeneration.get() == generation)
+        {
+            if (owner != null)
+            {
+                routes.put(routeKey, new Route(owner, Long.MAX_VALUE));
+            }
+            else if (this.negativeLookupTimeout > 0L)
+            {
+                routes.put(routeKey, new Route(null, System.currentTimeMillis() + this.negativeLookupTimeout));
+            }
+        }
+        
         return modelObject;
     }
     
+    /**
+     * <p>Retrieves a number of objects of the supplied type. Objects with a known route are retrieved from
+     * their owning persisters, and the remaining objects are retrieved from each persister in turn with a
+     * single call to <code>getObjects</code> - so that each persister can batch the lookups.</p>
+     * 
+     * @param context The current persistence context
+     * @param objectTypeId The type of object to retrieve
+     * @param objectIds The ids of the objects to retrieve
+     * @return A map of the object ids to the <code>ModelObject</code>s that were found
+     * @throws ModelObjectPersisterException
+     */
+    @Override
+    public Map<String, ModelObject> getObjects(ModelPersistenceContext context, String objectTypeId, Collection<String> objectIds)
+        throws ModelObjectPersisterException
+    {
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>(objectIds.size() * 2);
+        List<String> remaining = new ArrayList<String>(objectIds.size());
+        
+        // group the objects with a known route by owning persister
+        final Map<String, Route> routes = this.routes;
+        final long generation = this.routeGeneration.get();
+        if (routes != null)
+        {
+            final long now = System.currentTimeMillis();
+            Map<ModelObjectPersister, List<String>> routed = new LinkedHashMap<ModelObjectPersister, List<String>>();
+            for (String objectId : objectIds)
+            {
+                Route route = routes.get(getRouteKey(context, objectTypeId, objectId));
+                if (route == null || (route.persister == null && route.expires <= now))
+                {
+                    remaining.add(objectId);
+                }
+                else if (route.persister != null)
+                {
+                    List<String> ids = routed.get(route.persister);
+                    if (ids == null)
+                    {
+                        ids = new ArrayList<String>();
+                        routed.put(route.persister, ids);
+                    }
+                    ids.add(objectId);
+                }
+            }
+            for (Map.Entry<ModelObjectPersister, List<String>> entry : routed.entrySet())
+            {
+                Map<String, ModelObject> found = loadObjects(entry.getKey(), context, objectTypeId, entry.getValue());
+                objects.putAll(found);
+                for (String objectId : entry.getValue())
+                {
+                    if (!found.containsKey(objectId))
+                    {
+                        // the route is out of date - search all of the persisters again
+                        routes.remove(getRouteKey(context, objectTypeId, objectId));
+                        remaining.add(objectId);
+                    }
+                }
+            }
+        }
+        else
+        {
+            remaining.addAll(objectIds);
+        }
+        
+        // for each persister, load whichever objects have not been found yet
+        for (ModelObjectPersister persister: this.persisters)
+        {
+            if (remaining.isEmpty())
+            {
+                break;
+            }
+            Map<String, ModelObject> found = loadObjects(persister, context, objectTypeId, remaining);
+            if (!found.isEmpty())
+            {
+                objects.putAll(found);
+                remaining.removeAll(found.keySet());
+                if (routes != null && this.routeGeneration.get() == generation)
+                {
+                    for (String objectId : found.keySet())
+                    {
+                        routes.put(getRouteKey(context, objectTypeId, objectId), new Route(persister, Long.MAX_VALUE));
+                    }
+                }
+            }
+        }
+        
+        // remember the objects that could not be found
+        if (routes != null && this.negativeLookupTimeout > 0L && this.routeGeneration.get() == generation)
+        {
+            final long expires = System.currentTimeMillis() + this.negativeLookupTimeout;
+            for (String objectId : remaining)
+            {
+                routes.put(getRouteKey(context, objectTypeId, objectId), new Route(null, expires));
+            }
+        }
+        
+        if (logger.isDebugEnabled())
+            logger.debug("getObjects found " + objects.size() + " of " + objectIds.size() + " objects of type '" + objectTypeId + "'");
+        
+        return objects;
+    }
+    
+    /**
+     * Attempts to load a number of objects from a single persister.
+     */
+    private Map<String, ModelObject> loadObjects(ModelObjectPersister persister, ModelPersistenceContext context, String objectTypeId, List<String> objectIds)
+        throws ModelObjectPersisterException
+    {
+        try
+        {
+            return ModelHelper.getObjects(persister, context, objectTypeId, objectIds);
+        }
+        catch (ModelObjectPersisterException mope)
+        {
+            throw new ModelObjectPersisterException("Error loading objects of type: " + objectTypeId + " from persister id: " + persister.getId(), mope);
+        }
+    }
+    
+    /**
+     * Attempts to load an object from a single persister.
+     */
+    private ModelObject loadObject(ModelObjectPersister persister, ModelPersistenceContext context, String objectTypeId, String objectId)
+        throws ModelObjectPersisterException
+    {
+        final boolean debug = logger.isDebugEnabled();
+        String persisterId = persister.getId();
+        
+        ModelObject modelObject;
+        try
+        {
+            if (debug)
+                logger.debug("getObject attempting to load '" + objectId + "' of type '" + objectTypeId + "' from persister: " + persisterId); 
+            
+            modelObject = persister.getObject(context, objectTypeId, objectId);
+        }
+        catch (ModelObjectPersisterException mope)
+        {
+            throw new ModelObjectPersisterException("Error loading object id: " + objectId + " from persister id: " + persisterId, mope);
+        }
+        
+        if (modelObject != null && debug)
+        {
+            logger.debug("getObject loaded '" + objectId + "' from persister: " + persisterId); 
+        }
+        
+        return modelObject;
+    }
+    
+    /**
+     * Builds the routing index key for an object. Objects are partitioned by store (or tenant) in the same
+     * way as the store persister caches as the owning persister can differ between stores.
+     */
+    private static String getRouteKey(ModelPersistenceContext context, String objectTypeId, String objectId)
+    {
+        String storeId = context.getStoreId();
+        if (storeId == null)
+        {
+            String userId = context.getUserId();
+            if (userId != null)
+            {
+                int idx = userId.indexOf('@');
+                if (idx != -1)
+                {
+                    // assume MT so partition by user domain
+                    storeId = userId.substring(idx);
+                }
+            }
+        }
+        return new StringBuilder(100).append(objectTypeId).append(':').append(objectId).append(':')
+                .append(storeId != null ? storeId : "").toString();
+    }
+    
+    /**
+     * Removes the route for an object from the routing index on this node and the other nodes in the cluster.
+     * This must be called whenever an object may have moved between persisters - i.e. when it is saved or removed.
+     */
+    private void invalidateRoute(ModelPersistenceContext context, String objectTypeId, String objectId)
+    {
+        final Map<String, Route> routes = this.routes;
+        if (routes != null)
+        {
+            this.routeGeneration.incrementAndGet();
+            String routeKey = getRouteKey(context, objectTypeId, objectId);
+            routes.remove(routeKey);
+            
+            if (this.clusterService != null)
+            {
+                ArrayList<String> keys = new ArrayList<String>(1);
+                keys.add(routeKey);
+                this.clusterService.publishClusterMessage(
+                        RouteInvalidationMessage.TYPE,
+                        Collections.<String, Serializable>singletonMap(RouteInvalidationMessage.PAYLOAD_KEYS, keys));
+            }
+        }
+    }
+    
     /**
      * <p>Saves the supplied <code>ModelObject</code> using the default <code>ModelObjectPersister</code> (<b>Please 
      * note:</b> saving does <b>not</b> iterate over the <code>persisters</code> list - it only used the <code>default</code>
@@ -168,6 +446,7 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
             if (targetPersister != null)
             {
                 saved = targetPersister.saveObject(context, object);
+                invalidateRoute(context, object.getTypeId(), object.getId());
             }
         }
         else
@@ -259,6 +538,11 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
                 logger.debug("saveObjects save to persister '" + persister.getId() + "' returned: " + saved);
         }
         
+        for (ModelObject object : objects)
+        {
+            invalidateRoute(context, object.getTypeId(), object.getId());
+        }
+        
         return saved;
     }
     
@@ -313,6 +597,8 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
             }
         }
         
+        invalidateRoute(context, objectTypeId, objectId);
+        
         return removed;
     }
     
@@ -406,6 +692,27 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
         return objects;
     }
     
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.surf.persister.IndexedObjectPersister#findObjects(org.springframework.extensions.surf.ModelPersistenceContext, java.lang.String, java.util.Map)
+     */
+    public Map<String, ModelObject> findObjects(ModelPersistenceContext context, String objectTypeId, Map<String, Object> propertyConstraintMap)
+        throws ModelObjectPersisterException
+    {
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>(64, 1.0f);
+        
+        // for each persister, find the matching objects - an object in a later persister overrides
+        // an object with the same id in an earlier persister (whether or not it matches)
+        for (ModelObjectPersister persister: this.persisters)
+        {
+            ModelHelper.mergeMatchingObjects(objects, persister, context, objectTypeId, propertyConstraintMap);
+        }
+        
+        if (logger.isDebugEnabled())
+            logger.debug("findObjects returned set of size: " + objects.size());
+        
+        return objects;
+    }
+    
     /* (non-Javadoc)
      * @see org.alfresco.web.framework.ModelObjectPersister#getAllObjectsByFilter(org.alfresco.web.framework.ModelPersistenceContext, java.lang.String, java.lang.String)
      */
@@ -477,6 +784,15 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
             this.defaultPersister.init(context);
             this.persisters.add(this.defaultPersister);
         }
+        
+        // A single persister has nothing to route between
+        if (this.routeCacheMaxSize > 0 && this.persisters.size() > 1)
+        {
+            this.routes = new ConcurrentLinkedHashMap.Builder<String, Route>()
+                    .maximumWeightedCapacity(this.routeCacheMaxSize)
+                    .weigher(Weighers.singleton())
+                    .build();
+        }
     }
     
     /**
@@ -491,6 +807,13 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
                 ((CachedPersister)persister).invalidateCache();
             }
         }
+        
+        final Map<String, Route> routes = this.routes;
+        if (routes != null)
+        {
+            this.routeGeneration.incrementAndGet();
+            routes.clear();
+        }
     }
     
     /**
@@ -535,6 +858,63 @@ public class MultiObjectPersister extends AbstractObjectPersister implements Cac
         }
     }
     
+    /**
+     * Cluster message indicating that routes in the routing index should be invalidated.
+     * The payload for this message is a list of route keys.
+     */
+    static interface RouteInvalidationMessage
+    {
+        static final String TYPE = "multi-persister-route-invalidation";
+        static final String PAYLOAD_KEYS = "keys";
+    }
+    
+    protected ClusterService clusterService;
+    
+    @Override
+    public void setClusterService(ClusterService service)
+    {
+        this.clusterService = service;
+    }
+    
+    @Override
+    public String getClusterMessageType()
+    {
+        return RouteInvalidationMessage.TYPE;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public void onClusterMessage(Map<String, Serializable> payload)
+    {
+        final List<String> keys = (List<String>)payload.get(RouteInvalidationMessage.PAYLOAD_KEYS);
+        final Map<String, Route> routes = this.routes;
+        if (keys != null && routes != null)
+        {
+            this.routeGeneration.incrementAndGet();
+            for (final String key: keys)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("...invalidating route for: " + key);
+                routes.remove(key);
+            }
+        }
+    }
+    
+    /**
+     * The persister that owns an object - or a <code>null</code> persister for an object that could not be found.
+     */
+    private static final class Route
+    {
+        final ModelObjectPersister persister;
+        final long expires;
+        
+        Route(ModelObjectPersister persister, long expires)
+        {
+            this.persister = persister;
+            this.expires = expires;
+        }
+    }
+    
     @Override
     public String toString()
     {
@@ -22,8 +22,11 @@ package org.springframework.extensions.surf.persister;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -76,7 +79,7 @@ import org.springframework.extensions.surf.util.XMLUtil;
  * 
  * @author Kevin Roast
  */
-public class PathStoreObjectPersister extends AbstractStoreObjectPersister implements ClusterMessageAware, CacheReporter
+public class PathStoreObjectPersister extends AbstractStoreObjectPersister implements BatchObjectPersister, ClusterMessageAware, CacheReporter
 {
     private static Log logger = LogFactory.getLog(PathStoreObjectPersister.class);
     
@@ -339,48 +342,7 @@ public class PathStoreObjectPersister extends AbstractStoreObjectPersister imple
                 // check to see if the requested object is present in the store
                 if (this.store.hasDocument(path))
                 {
-                    // parse XML to a Document DOM
-                    Document document = null;
-                    try
-                    {
-                        document = XMLUtil.parse(this.store.getDocument(path));
-                    }
-                    catch (Exception err)
-                    {
-                        // if this occurs, it means the XML couldn't parse - log this
-                        logger.warn("Failure to load model object for path: " + path, err);
-                        
-                        // Document does not exist - add sentinel object, this will timeout like other cached values,
-                        // this is to avoid multiple store.hasDocument() calls on missing objects.
-                        if (useCacheForType(objectTypeId))
-                        {
-                            getCache(context, null).put(path, ModelObjectSentinel.getInstance());
-                        }
-                    }
-                    
-                    if (document != null)
-                    {
-                        // instantiate object
-                        ModelPersisterInfo info = new ModelPersisterInfo(getId(), path, true);
-                        String implClassName = getWebFrameworkConfiguration().getTypeDescriptor(objectTypeId).getImplementationClass();
-                        obj = (ModelObject) ReflectionHelper.newObject(
-                                implClassName,
-                                MODELOBJECT_CLASSES,
-                                new Object[] { objectId, info, (Document)document }
-                        );
-                        
-                        // if found, place the object into the cache
-                        if (obj != null)
-                        {
-                            obj.touch();
-                            
-                            cachePut(context, path, obj);
-                        }
-                        else
-                        {
-                            throw new ModelObjectPersisterException("Unable to construct object of class: " + implClassName);
-                        }
-                    }
+                    obj = loadObject(context, objectTypeId, objectId, path);
                 }
                 else    
                 {
@@ -414,6 +376,231 @@ public class PathStoreObjectPersister extends AbstractStoreObjectPersister imple
         return obj;
     }
     
+    /**
+     * Loads an object from a document known to be present in the store and places it into the cache.
+     * 
+     * @param context the context
+     * @param objectTypeId the object type id
+     * @param objectId the object id
+     * @param path the path of the document
+     * 
+     * @return the object or null if the document could not be parsed
+     * 
+     * @throws ModelObjectPersisterException if the object could not be constructed
+     */
+    protected ModelObject loadObject(ModelPersistenceContext context, String objectTypeId, String objectId, String path)
+        throws ModelObjectPersisterException
+    {
+        ModelObject obj = null;
+        
+        // parse XML to a Document DOM
+        Document document = null;
+        try
+        {
+            document = XMLUtil.parse(this.store.getDocument(path));
+        }
+        catch (Exception err)
+        {
+            // if this occurs, it means the XML couldn't parse - log this
+            logger.warn("Failure to load model object for path: " + path, err);
+            
+            // Document does not exist - add sentinel object, this will timeout like other cached values,
+            // this is to avoid multiple store.hasDocument() calls on missing objects.
+            if (useCacheForType(objectTypeId))
+            {
+                getCache(context, null).put(path, ModelObjectSentinel.getInstance());
+            }
+        }
+        
+        if (document != null)
+        {
+            // instantiate object
+            ModelPersisterInfo info = new ModelPersisterInfo(getId(), path, true);
+            String implClassName = getWebFrameworkConfiguration().getTypeDescriptor(objectTypeId).getImplementationClass();
+            obj = (ModelObject) ReflectionHelper.newObject(
+                    implClassName,
+                    MODELOBJECT_CLASSES,
+                    new Object[] { objectId, info, (Document)document }
+            );
+            
+            // if found, place the object into the cache
+            if (obj != null)
+            {
+                obj.touch();
+                
+                cachePut(context, path, obj);
+            }
+            else
+            {
+                throw new ModelObjectPersisterException("Unable to construct object of class: " + implClassName);
+            }
+        }
+        
+        return obj;
+    }
+    
+    /**
+     * Gets a number of objects of the same type. Objects that are not in the cache are found with a single
+     * wildcard query of the store (see {@link #findDocumentNames(String, Collection)}) rather than testing
+     * for each document in turn, and the missing objects are cached as such.
+     * 
+     * @see org.springframework.extensions.surf.persister.BatchObjectPersister#getObjects(org.springframework.extensions.surf.ModelPersistenceContext, java.lang.String, java.util.Collection)
+     */
+    public Map<String, ModelObject> getObjects(ModelPersistenceContext context, String objectTypeId, Collection<String> objectIds)
+        throws ModelObjectPersisterException
+    {
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>(objectIds.size() * 2);
+        
+        // do not process if the persister is disabled
+        if (!isEnabled())
+        {
+            return objects;
+        }
+        
+        // get the objects from the cache if possible
+        Map<String, String> uncachedPaths = new LinkedHashMap<String, String>();
+        for (String objectId : objectIds)
+        {
+            final String path = generatePath(objectTypeId, objectId);
+            ModelObject obj = cacheGet(context, path);
+            if (obj == null)
+            {
+                uncachedPaths.put(objectId, path);
+            }
+            else if (obj != ModelObjectSentinel.getInstance())
+            {
+                objects.put(objectId, obj);
+            }
+        }
+        
+        Set<String> documentNames = null;
+        if (uncachedPaths.size() > 1)
+        {
+            documentNames = findDocumentNames(objectTypeId, uncachedPaths.keySet());
+        }
+        
+        for (Map.Entry<String, String> entry : uncachedPaths.entrySet())
+        {
+            final String objectId = entry.getKey();
+            final String path = entry.getValue();
+            ModelObject obj = null;
+            if (documentNames == null)
+            {
+                obj = getObject(context, objectTypeId, objectId);
+            }
+            else if (documentNames.contains(getDocumentName(path)))
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Loading object for path: " + path);
+                
+                try
+                {
+                    obj = loadObject(context, objectTypeId, objectId, path);
+                }
+                catch (RuntimeException ex)
+                {
+                    throw new ModelObjectPersisterException("Failure to load model object for path: " + path, ex);
+                }
+            }
+            else if (useCacheForType(objectTypeId))
+            {
+                // Document does not exist - add sentinel object as getObject() would have done
+                getCache(context, null).put(path, ModelObjectSentinel.getInstance());
+            }
+            
+            if (obj != null)
+            {
+                objects.put(objectId, obj);
+            }
+        }
+        
+        return objects;
+    }
+    
+    /**
+     * Finds which of the documents for the given objects are present in the store with a single wildcard
+     * query. The wildcard is built from the prefix and suffix that the object ids have in common - for example
+     * the components bound to the regions of a page share the scope prefix and the page id suffix.
+     * 
+     * @param objectTypeId the object type id
+     * @param objectIds the object ids
+     * 
+     * @return the names of the documents that are present, or null if the ids have too little in common to
+     *         be queried efficiently or the store could not be queried
+     */
+    protected Set<String> findDocumentNames(String objectTypeId, Collection<String> objectIds)
+    {
+        String prefix = null;
+        String suffix = null;
+        int shortest = Integer.MAX_VALUE;
+        for (String objectId : objectIds)
+        {
+            if (prefix == null)
+            {
+                prefix = suffix = objectId;
+            }
+            else
+            {
+                int p = 0;
+                while (p < prefix.length() && p < objectId.length() && prefix.charAt(p) == objectId.charAt(p))
+                {
+                    p++;
+                }
+                prefix = prefix.substring(0, p);
+                
+                int s = 0;
+                while (s < suffix.length() && s < objectId.length() &&
+                       suffix.charAt(suffix.length() - 1 - s) == objectId.charAt(objectId.length() - 1 - s))
+                {
+                    s++;
+                }
+                suffix = suffix.substring(suffix.length() - s);
+            }
+            shortest = Math.min(shortest, objectId.length());
+        }
+        if (prefix == null)
+        {
+            return null;
+        }
+        
+        // the prefix and suffix must not overlap, and must make up most of the ids so that the
+        // query does not match many documents that were not asked for
+        if (prefix.length() + suffix.length() > shortest)
+        {
+            suffix = suffix.substring(prefix.length() + suffix.length() - shortest);
+        }
+        if ((prefix.length() + suffix.length()) * 2 < shortest)
+        {
+            return null;
+        }
+        
+        final String pattern = generatePath(objectTypeId, prefix + "*" + suffix);
+        try
+        {
+            String[] docPaths = this.store.getDocumentPaths("", true, pattern);
+            Set<String> names = new HashSet<String>(docPaths.length * 2);
+            for (String docPath : docPaths)
+            {
+                names.add(getDocumentName(docPath));
+            }
+            return names;
+        }
+        catch (IOException err)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("IO Error: during findDocumentNames() for pattern: " + pattern + " " + err.getMessage(), err);
+            return null;
+        }
+    }
+    
+    /**
+     * @return the name of the document at the given path
+     */
+    private static String getDocumentName(String path)
+    {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+    
     @Override
     public boolean removeObject(ModelPersistenceContext context, String objectTypeId, String objectId)
             throws ModelObjectPersisterException
@@ -31,6 +31,7 @@ import org.springframework.extensions.config.WebFrameworkConfigElement.TypeDescr
 import org.springframework.extensions.surf.AutowireService;
 import org.springframework.extensions.surf.ModelObjectPersister;
 import org.springframework.extensions.surf.exception.ModelObjectPersisterException;
+import org.springframework.extensions.surf.types.AbstractModelObject;
 
 /**
  * Persistence Service
@@ -146,6 +147,10 @@ public class PersisterService
         
         // Initialise the persisters...
         PersisterConfigDescriptor config =  this.webFrameworkConfig.getPersisterConfigDescriptor();
+        if (config != null && config.getCompactModelObjects() != null)
+        {
+            AbstractModelObject.setCompactStorageEnabled(config.getCompactModelObjects());
+        }
         for (ModelObjectPersister persister: this.persisters)
         {
             this.persisterIdToPersisterMap.put(persister.getId(), persister);
@@ -20,11 +20,16 @@
 package org.springframework.extensions.surf.persister;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
@@ -40,11 +45,13 @@ import org.springframework.extensions.surf.ModelPersistenceContext;
 import org.springframework.extensions.surf.ModelPersisterInfo;
 import org.springframework.extensions.surf.PersisterCallbackHandler;
 import org.springframework.extensions.surf.cache.ContentCache;
+import org.springframework.extensions.surf.cache.IndexedModelObjectCache;
 import org.springframework.extensions.surf.cache.ModelObjectCache;
 import org.springframework.extensions.surf.exception.ModelObjectPersisterException;
 import org.springframework.extensions.surf.types.AdvancedComponent;
 import org.springframework.extensions.surf.types.Component;
 import org.springframework.extensions.surf.types.PageAssociation;
+import org.springframework.extensions.surf.util.DataUtil;
 import org.springframework.extensions.surf.util.ReflectionHelper;
 import org.springframework.extensions.surf.util.XMLUtil;
 import org.springframework.extensions.webscripts.ClassPathStore;
@@ -82,14 +89,20 @@ import org.springframework.extensions.webscripts.WebApplicationStore;
  * @author muzquiano
  * @author kevinr
  */
-public class ReadOnlyStoreObjectPersister extends AbstractCachedObjectPersister
+public class ReadOnlyStoreObjectPersister extends AbstractCachedObjectPersister implements IndexedObjectPersister
 {
     private static Log logger = LogFactory.getLog(ReadOnlyStoreObjectPersister.class);
     
+    /** The number of paths preloaded by each task when preloading in parallel */
+    private static final int PRELOAD_BATCH_SIZE = 32;
+    
     protected Store store;
     protected String pathPrefix = null;
     final private ReadWriteLock cacheLock = new ReentrantReadWriteLock();
     
+    private int preloadThreadCount = 0;
+    private volatile PreloadStatistics preloadStatistics = null;
+    
     
     /**
      * Sets the store.
@@ -111,6 +124,27 @@ public class ReadOnlyStoreObjectPersister extends AbstractCachedObjectPersister
         return this.store.isReadOnly();
     }
     
+    /**
+     * Sets the number of threads used to preload the model objects from the store when the persister is
+     * initialised. The default of zero loads the objects one after another on the initialising thread.
+     * 
+     * @param preloadThreadCount the number of threads
+     */
+    public void setPreloadThreadCount(int preloadThreadCount)
+    {
+        this.preloadThreadCount = preloadThreadCount;
+    }
+    
+    /**
+     * Gets the statistics gathered when the model objects were last preloaded from the store.
+     * 
+     * @return the statistics or null if the objects have not been preloaded
+     */
+    public PreloadStatistics getPreloadStatistics()
+    {
+        return this.preloadStatistics;
+    }
+    
     /**
      * Sets a path prefix to be applied to generated paths
      * 
@@ -351,6 +385,50 @@ public class ReadOnlyStoreObjectPersister extends AbstractCachedObjectPersister
         return objects;
     }
 
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.surf.persister.IndexedObjectPersister#findObjects(org.springframework.extensions.surf.ModelPersistenceContext, java.lang.String, java.util.Map)
+     */
+    public Map<String, ModelObject> findObjects(ModelPersistenceContext context, String objectTypeId, Map<String, Object> propertyConstraintMap)
+        throws ModelObjectPersisterException
+    {
+        // do not process if persister is disabled
+        if (!isEnabled())
+        {
+            // empty map
+            return new HashMap<String, ModelObject>();
+        }
+        
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>(64);
+        
+        // walk through all of our caches and use their indexes to find the objects of this type
+        String prefix = objectTypeId + ":";
+        for (Map.Entry<String, ContentCache<ModelObject>> entry : this.caches.entrySet())
+        {
+            if (entry.getKey().startsWith(prefix))
+            {
+                ContentCache<ModelObject> cache = entry.getValue();
+                if (cache instanceof IndexedModelObjectCache)
+                {
+                    objects.putAll(((IndexedModelObjectCache) cache).find(propertyConstraintMap));
+                }
+                else
+                {
+                    ModelObjectCache objectCache = (ModelObjectCache) cache;
+                    for (String key : objectCache.keys())
+                    {
+                        ModelObject obj = objectCache.get(key);
+                        if (obj != null && ModelHelper.matchesPropertyConstraints(obj, propertyConstraintMap))
+                        {
+                            objects.put(key, obj);
+                        }
+                    }
+                }
+            }
+        }
+        
+        return objects;
+    }
+    
     /* (non-Javadoc)
      * @see org.springframework.extensions.surf.ModelObjectPersister#init(org.alfresco.web.framework.ModelPersistenceContext)
      */
@@ -377,68 +455,213 @@ public class ReadOnlyStoreObjectPersister extends AbstractCachedObjectPersister
         }
         
         // walk through all documents
-        int count = 0;
-        
-        List<String> failedPaths = new ArrayList<String>();
+        long start = System.currentTimeMillis();
+        PreloadStatistics stats = new PreloadStatistics();
         String[] paths = this.store.getAllDocumentPaths();
-        for (int i = 0; i < paths.length; i++)
+        if (this.preloadThreadCount > 1 && paths.length > PRELOAD_BATCH_SIZE)
+        {
+            preloadInParallel(context, paths, stats);
+        }
+        else
+        {
+            preload(context, paths, 0, paths.length, stats);
+        }
+        stats.elapsedTime = System.currentTimeMillis() - start;
+        this.preloadStatistics = stats;
+        
+        // output debugging information
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Store Persister '" + getId() + "' preload scanned: " + stats.getScanned() + " loaded: " + stats.getLoaded() +
+                    " rejected: " + stats.getRejected() + " failed: " + stats.getFailed() + " in " + stats.getElapsedTime() + "ms");
+            if (stats.failedPaths.size() != 0)
+            {
+                logger.debug("Store Persister '" + getId() + "' failed to load the following paths:");
+                for (String p : stats.failedPaths)
+                {
+                    logger.debug("   " + p);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Loads the model objects from a range of the supplied paths into the cache.
+     * 
+     * @param context   the context
+     * @param paths     the document paths
+     * @param from      the index of the first path to load
+     * @param to        the index after the last path to load
+     * @param stats     the statistics to update
+     */
+    protected void preload(ModelPersistenceContext context, String[] paths, int from, int to, PreloadStatistics stats)
+    {
+        for (int i = from; i < to; i++)
         {
-            boolean candidate = true;
-            
             String path = paths[i];
             
             String lowerCasePath = path.toLowerCase();
             // if this is a web script descriptor, don't deal with it
-            if (lowerCasePath.endsWith(DeclarativeRegistry.WEBSCRIPT_DESC_XML))
-            {
-                candidate = false;
-            }
-            else if (!lowerCasePath.endsWith(".xml"))
+            if (lowerCasePath.endsWith(DeclarativeRegistry.WEBSCRIPT_DESC_XML) || !lowerCasePath.endsWith(".xml"))
             {
-                candidate = false;
+                continue;
             }
             
-            // if this document has the potential to be a Surf model object
-            // descriptor file, then try to load it into the cache
-            if (candidate)
+            // this document has the potential to be a Surf model object
+            // descriptor file, so try to load it into the cache
+            stats.scanned.incrementAndGet();
+            try
             {
-                try
+                ModelObject obj = this.getObjectByPath(context, path);
+                if (obj != null)
                 {
-                    ModelObject obj = this.getObjectByPath(context, path);
-                    if (obj != null)
-                    {
-                        count++;
-                    }
+                    stats.loaded.incrementAndGet();
                 }
-                catch (ModelObjectPersisterException mope)
+                else
                 {
-                    // this is not a valid SURF object
-                    if (logger.isDebugEnabled())
-                    {
-                        failedPaths.add(path);
-                    }
+                    stats.rejected.incrementAndGet();
+                }
+            }
+            catch (ModelObjectPersisterException mope)
+            {
+                // this is not a valid SURF object
+                stats.failed.incrementAndGet();
+                if (logger.isDebugEnabled())
+                {
+                    stats.failedPaths.add(path);
                 }
             }
         }
+    }
+    
+    /**
+     * Loads the model objects from the supplied paths into the cache using a fork-join pool. The paths are
+     * split into batches and the objects are published into the (concurrent) caches as they are loaded.
+     * 
+     * @param context   the context
+     * @param paths     the document paths
+     * @param stats     the statistics to update
+     */
+    protected void preloadInParallel(final ModelPersistenceContext context, final String[] paths, final PreloadStatistics stats)
+    {
+        // the worker threads must be able to load the model object implementation classes
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        ForkJoinPool pool = new ForkJoinPool(this.preloadThreadCount, new ForkJoinPool.ForkJoinWorkerThreadFactory()
+        {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+            {
+                ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool)
+                {
+                };
+                thread.setName("ReadOnlyStoreObjectPersister-" + getId() + "-" + threadNumber.getAndIncrement());
+                thread.setContextClassLoader(classLoader);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, false);
+        try
+        {
+            pool.invoke(new PreloadTask(context, paths, 0, paths.length, stats));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Recursively splits a range of paths into batches that are preloaded in parallel.
+     */
+    private class PreloadTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
         
-        // output debugging information
-        if (logger.isDebugEnabled())
+        private final ModelPersistenceContext context;
+        private final String[] paths;
+        private final int from;
+        private final int to;
+        private final PreloadStatistics stats;
+        
+        private PreloadTask(ModelPersistenceContext context, String[] paths, int from, int to, PreloadStatistics stats)
         {
-            if (count > 0)
+            this.context = context;
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+            this.stats = stats;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if (this.to - this.from <= PRELOAD_BATCH_SIZE)
             {
-                logger.debug("Store Persister '" + getId() + "' preload count: " + count);
+                preload(this.context, this.paths, this.from, this.to, this.stats);
             }
-            if (failedPaths.size() != 0)
+            else
             {
-                logger.debug("Store Persister '" + getId() + "' failed to load the following paths:");
-                for (String p : failedPaths)
-                {
-                    logger.debug("   " + p);
-                }
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new PreloadTask(this.context, this.paths, this.from, middle, this.stats),
+                          new PreloadTask(this.context, this.paths, middle, this.to, this.stats));
             }
         }
     }
     
+    /**
+     * The statistics gathered while preloading the model objects from the store.
+     */
+    public static class PreloadStatistics
+    {
+        private final AtomicInteger scanned = new AtomicInteger();
+        private final AtomicInteger loaded = new AtomicInteger();
+        private final AtomicInteger rejected = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final List<String> failedPaths = Collections.synchronizedList(new ArrayList<String>());
+        private volatile long elapsedTime;
+        
+        /**
+         * @return the number of documents that could have been model objects
+         */
+        public int getScanned()
+        {
+            return this.scanned.get();
+        }
+        
+        /**
+         * @return the number of documents that were loaded as model objects
+         */
+        public int getLoaded()
+        {
+            return this.loaded.get();
+        }
+        
+        /**
+         * @return the number of documents that were not model objects
+         */
+        public int getRejected()
+        {
+            return this.rejected.get();
+        }
+        
+        /**
+         * @return the number of documents that could not be loaded
+         */
+        public int getFailed()
+        {
+            return this.failed.get();
+        }
+        
+        /**
+         * @return the time taken to preload in milliseconds
+         */
+        public long getElapsedTime()
+        {
+            return this.elapsedTime;
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.springframework.extensions.surf.ModelObjectPersister#reset()
      */
@@ -523,7 +746,8 @@ public class ReadOnlyStoreObjectPersister extends AbstractCachedObjectPersister
     @Override
     protected ContentCache<ModelObject> createCache()
     {
-        return new ModelObjectCache(this.store, -1, -1L);
+        // the cache holds every object from the store so maintain indexes for property queries
+        return new IndexedModelObjectCache(this.store, -1, -1L);
     }
     
     /**
@@ -598,8 +822,17 @@ public class ReadOnlyStoreObjectPersister extends AbstractCachedObjectPersister
                 // Now make our best effort to parse this into a model object
                 // We have to allow for the possibility that the XML is not an Surf Model Object
                 
+                String xml = DataUtil.copyToString(this.store.getDocument(path), "UTF-8", true);
+                
+                // check the root element is a model object type before the (expensive) full parse
+                String rootElementName = getRootElementName(xml);
+                if (rootElementName != null && getWebFrameworkConfiguration().getTypeDescriptor(rootElementName) == null)
+                {
+                    return null;
+                }
+                
                 // parse XML to a Document DOM
-                Document document = XMLUtil.parse(this.store.getDocument(path));
+                Document document = XMLUtil.parse(xml);
                 
                 // get the object type id described by this document (if possible)
                 String objectTypeId = this.getObjectTypeId(document, path);
@@ -768,6 +1001,77 @@ public class ReadOnlyStoreObjectPersister extends AbstractCachedObjectPersister
         return map;
     }
     
+    /**
+     * Finds the (local) name of the root element of an XML document without parsing the document. The
+     * XML declaration, processing instructions, comments and the document type declaration are skipped.
+     * 
+     * @param xml the XML document
+     * 
+     * @return the name of the root element or null if it could not be determined
+     */
+    protected static String getRootElementName(String xml)
+    {
+        int length = xml.length();
+        int i = 0;
+        while (i < length)
+        {
+            char c = xml.charAt(i);
+            if (Character.isWhitespace(c) || c == '\uFEFF')
+            {
+                i++;
+            }
+            else if (c != '<' || i + 1 == length)
+            {
+                return null;
+            }
+            else if (xml.startsWith("<?", i))
+            {
+                i = xml.indexOf("?>", i);
+                if (i == -1) return null;
+                i += 2;
+            }
+            else if (xml.startsWith("<!--", i))
+            {
+                i = xml.indexOf("-->", i);
+                if (i == -1) return null;
+                i += 3;
+            }
+            else if (xml.startsWith("<!", i))
+            {
+                // document type declaration - which may include an internal subset
+                int end = xml.indexOf('>', i);
+                int subset = xml.indexOf('[', i);
+                if (subset != -1 && (end == -1 || subset < end))
+                {
+                    end = xml.indexOf("]", subset);
+                    end = (end == -1 ? -1 : xml.indexOf('>', end));
+                }
+                if (end == -1) return null;
+                i = end + 1;
+            }
+            else
+            {
+                int nameStart = ++i;
+                while (i < length)
+                {
+                    c = xml.charAt(i);
+                    if (Character.isWhitespace(c) || c == '>' || c == '/')
+                    {
+                        break;
+                    }
+                    if (c == ':')
+                    {
+                        // a namespace prefix - the model object type is the local name
+                        nameStart = i + 1;
+                    }
+                    i++;
+                }
+                return (i < length && i > nameStart ? xml.substring(nameStart, i) : null);
+            }
+        }
+        return null;
+    }
+    
     protected ModelObject createObject(Document document, String objectTypeId, String objectId, String path)
     {
         // To create a ModelObject we will associate the supplied Document with some generated
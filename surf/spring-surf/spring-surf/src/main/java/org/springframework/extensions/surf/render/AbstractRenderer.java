@@ -28,7 +28,6 @@ import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.WebFrameworkConstants;
 import org.springframework.extensions.surf.exception.RendererExecutionException;
 import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
-import org.springframework.extensions.surf.extensibility.impl.ExtensibilityHttpResponse;
 
 /**
  * <p>An abstract implementation of the Renderer interface that can be
@@ -162,18 +161,16 @@ public abstract class AbstractRenderer implements Renderer
     {
         try
         {
-            HttpServletResponse response = null;
             ExtensibilityModel extModel = context.getCurrentExtensibilityModel();
             if (extModel == null)
             {
-                response = context.getResponse();
+                context.getResponse().getWriter().print(str);
             }
             else
             {
-                // TODO: Could probably improve this by not spinning off a new instance each time...
-                response = new ExtensibilityHttpResponse(context.getResponse(), extModel);
+                // write straight into the model rather than wrapping the response for each string...
+                extModel.getWriter().write(String.valueOf(str));
             }
-            response.getWriter().print(str);
         }
         catch (IOException ex)
         {
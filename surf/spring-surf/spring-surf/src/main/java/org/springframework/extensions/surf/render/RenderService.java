@@ -29,11 +29,18 @@ import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -52,10 +59,12 @@ import org.springframework.extensions.surf.ModelObject;
 import org.springframework.extensions.surf.ModelObjectService;
 import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.WebFrameworkConstants;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
 import org.springframework.extensions.surf.exception.PageRendererExecutionException;
 import org.springframework.extensions.surf.exception.RendererExecutionException;
 import org.springframework.extensions.surf.exception.RequestDispatchException;
 import org.springframework.extensions.surf.exception.ResourceLoaderException;
+import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
 import org.springframework.extensions.surf.render.ProcessorContext.ProcessorDescriptor;
 import org.springframework.extensions.surf.render.bean.ChromeRenderer;
 import org.springframework.extensions.surf.render.bean.ComponentRenderer;
@@ -65,6 +74,10 @@ import org.springframework.extensions.surf.render.bean.TemplateInstanceRenderer;
 import org.springframework.extensions.surf.resource.Resource;
 import org.springframework.extensions.surf.resource.ResourceProvider;
 import org.springframework.extensions.surf.resource.ResourceService;
+import org.springframework.extensions.surf.support.AbstractRequestContext;
+import org.springframework.extensions.surf.support.ForkedRequestContext;
+import org.springframework.extensions.surf.support.ForkedTasks;
+import org.springframework.extensions.surf.support.RenderedFragment;
 import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
 import org.springframework.extensions.surf.types.AdvancedComponent;
 import org.springframework.extensions.surf.types.Chrome;
@@ -79,6 +92,11 @@ import org.springframework.extensions.surf.types.SurfBug;
 import org.springframework.extensions.surf.types.TemplateInstance;
 import org.springframework.extensions.surf.types.TemplateType;
 import org.springframework.extensions.surf.uri.UriUtils;
+import org.springframework.extensions.surf.util.I18NUtil;
+import org.springframework.extensions.webscripts.WebTemplateProcessor;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weighers;
 
 /**
  * Web Framework Render Service.
@@ -105,6 +123,7 @@ public class RenderService implements ApplicationContextAware
     private static final String PREFIX_WEBFRAMEWORK_RENDITION_PROCESSOR = "webframework.rendition.processor.";
     private static final String COMPONENT_TYPE_WEBSCRIPT = "webscript";
     private static final String TEMPLATE_TYPE_WEBTEMPLATE = "webtemplate";
+    private static final String CONTEXT_VALUE_REGION_FORKS = "region-forks";
 
     public static final String NEWLINE = "\r\n";
 
@@ -119,6 +138,40 @@ public class RenderService implements ApplicationContextAware
 
     private ApplicationContext applicationContext;
 
+    /**
+     * The regions that have been rendered for each template. Regions are only declared within the template itself
+     * so they are learnt on the first render and used to prefetch the bound components (and to find the regions that
+     * can be rendered in parallel) for subsequent renders of the same template.
+     */
+    private final ConcurrentMap<String, Set<TemplateRegion>> templateRegions = new ConcurrentHashMap<String, Set<TemplateRegion>>();
+    
+    /**
+     * The executor used to render the regions of a template in parallel, or <code>null</code> (the default) to render
+     * every region on the request thread.
+     */
+    private ExecutorService regionRenderingExecutor;
+    
+    /**
+     * Enables parallel region rendering. When the first region of a template is rendered, the other regions recorded for
+     * that template by earlier renders are submitted to the executor, each rendering into a {@link ForkedRequestContext}.
+     * When the template reaches one of those regions its output is written and its dependency requests are merged, so the
+     * page is assembled in document order. A region is rendered on the request thread when the executor rejects it, so
+     * a bounded executor limits the parallelism of a request. The forks of regions that the template does not reach are
+     * cancelled when the template has been rendered, so no fork outlives the request that started it.
+     * <p>
+     * Forking is opt-in per region: a region is only forked when a component is bound to it for the current page and
+     * that component sets {@link Component#PROP_RENDER_IN_PARALLEL} to <code>true</code>. A forked region is rendered
+     * before the template decides whether to reach it, so the property should only be set on components whose region
+     * the template always renders (i.e. not behind a role check or a page property) and whose rendering has no side
+     * effects beyond its output.
+     * 
+     * @param regionRenderingExecutor ExecutorService
+     */
+    public void setRegionRenderingExecutor(ExecutorService regionRenderingExecutor)
+    {
+        this.regionRenderingExecutor = regionRenderingExecutor;
+    }
+
     /**
      * Returns a rendition processor for the given id (i.e. jsp, webscript, etc)
      *
@@ -284,115 +337,310 @@ public class RenderService implements ApplicationContextAware
         }
     }
     
+    /**
+     * <p>The maximum number of merged {@link SubComponent} lists to cache. Setting this to 0 disables the cache.</p>
+     */
+    private int subComponentCacheMaxSize = 1024;
+    
+    /**
+     * <p>The merged and sorted {@link SubComponent} lists keyed by the id of the {@link AdvancedComponent} and the
+     * ids of the modules that extend it.</p>
+     */
+    private volatile Map<String, MergedSubComponents> subComponentCache = createSubComponentCache(1024);
+    
+    public void setSubComponentCacheMaxSize(int subComponentCacheMaxSize)
+    {
+        this.subComponentCacheMaxSize = subComponentCacheMaxSize;
+        this.subComponentCache = createSubComponentCache(subComponentCacheMaxSize);
+    }
+    
+    private static Map<String, MergedSubComponents> createSubComponentCache(int maxSize)
+    {
+        return (maxSize > 0 ? new ConcurrentLinkedHashMap.Builder<String, MergedSubComponents>()
+                                      .maximumWeightedCapacity(maxSize)
+                                      .weigher(Weighers.singleton())
+                                      .build() : null);
+    }
+    
     /**
      * <p>Retrieves all the {@link SubComponent} instances defined for the supplied {@link AdvancedComponent}. The 
      * list returned is populated from both the {@link AdvancedComponent} configuration and the {@link ModuleDeployment}
      * configurations.</p>
+     * <p>The merged list only depends on the component and the extensions provided by the evaluated modules so it is
+     * cached against them and shared between requests. It is only rebuilt for each request when the ids of the
+     * {@link SubComponent} instances contain tokens that have to be resolved against the request.</p>
      * 
      * @param aComp The {@link AdvancedComponent} to retrieve the {@link SubComponent} instances for.
      * @param context The current {@link RequestContext}
-     * @return A sorted list of {@link SubComponent} instances.
+     * @return A sorted (and unmodifiable) list of {@link SubComponent} instances.
      */
-    private List<SubComponentData> getSubComponents(AdvancedComponent aComp, RequestContext context)
+    protected List<SubComponentData> getSubComponents(AdvancedComponent aComp, RequestContext context)
     {
+        // Find the extensions to the AdvancedComponent that are provided by the deployed modules...
+        List<AdvancedComponent> extensions = new ArrayList<AdvancedComponent>();
+        StringBuilder key = new StringBuilder(64).append(aComp.getId());
+        List<ExtensionModule> deployedModules = context.getEvaluatedModules();
+        for (ExtensionModule depMod: deployedModules)
+        {
+            List<AdvancedComponent> moduleExtensions = depMod.getAdvancedComponentExtensions(aComp.getId(), context);
+            if (!moduleExtensions.isEmpty())
+            {
+                extensions.addAll(moduleExtensions);
+                key.append('\u0000').append(depMod.getId());
+            }
+        }
+        
+        Map<String, MergedSubComponents> cache = this.subComponentCache;
+        MergedSubComponents merged = (cache != null ? cache.get(key.toString()) : null);
+        if (merged == null || !merged.isMergeOf(aComp, extensions))
+        {
+            merged = mergeSubComponents(aComp, extensions, context);
+            if (cache != null && !merged.tokenized)
+            {
+                cache.put(key.toString(), merged);
+            }
+        }
+        return merged.subComponents;
+    }
+    
+    /**
+     * <p>Merges the {@link SubComponent} instances of the supplied {@link AdvancedComponent} with those of its extensions.</p>
+     * 
+     * @param aComp The {@link AdvancedComponent} to merge the {@link SubComponent} instances for.
+     * @param extensions The extensions of the {@link AdvancedComponent} in the order of the modules that provide them.
+     * @param context The current {@link RequestContext}
+     * @return The {@link MergedSubComponents}
+     */
+    private MergedSubComponents mergeSubComponents(AdvancedComponent aComp, List<AdvancedComponent> extensions, RequestContext context)
+    {
+        // The SubComponents mapped by their (tokenized) id so that extensions can be matched to them without searching...
+        Map<String, SubComponentData> subComponentsById = new HashMap<String, SubComponentData>();
+        boolean tokenized = false;
+        
         // Get renderable-elements, first from the Component itself...
         List<SubComponentData> allSubComponents = new ArrayList<SubComponentData>();
         for (SubComponent s: aComp.getSubComponents())
         {
-            SubComponent clone = s.clone(); // Clone the sub-component to ensure thread safety...
+            SubComponent clone = s.clone(); // Clone the sub-component so that the original is never modified...
             SubComponentData data = new SubComponentData(clone);
             data.addContributingSourcePath(aComp.getKey().getStoragePath());
             allSubComponents.add(data);
+            tokenized |= addSubComponentById(subComponentsById, data, context);
         }
         
         // ... and the from the deployed modules...
-        List<ExtensionModule> deployedModules = context.getEvaluatedModules();
-        for (ExtensionModule depMod: deployedModules)
+        for (AdvancedComponent extComp: extensions)
         {
-            // Check to see if the module contains an extension to the AdvancedComponent and if it does 
-            // retrieve it's SubComponents and add them to the list. 
-            for (Entry<String, AdvancedComponent> currComp: depMod.getAdvancedComponents().entrySet())
+            // Retrieve the SubComponents of each extension and add them to the list. 
+            if (extComp != null)
             {
-                // Replace any tokens in the key (this is so that we can handle user dashboard extensions)...
-                String tokenizedKey = UriUtils.replaceTokens(currComp.getKey(), context, null, null, "");
-                if (tokenizedKey.equals(aComp.getId()))
+                List<SubComponent> extSubComponents = extComp.getSubComponents();
+                if (extSubComponents != null)
                 {
-                    AdvancedComponent extComp = currComp.getValue();
-                    if (extComp != null)
+                    for (SubComponent extSubComponent: extSubComponents)
                     {
-                        List<SubComponent> extSubComponents = extComp.getSubComponents();
-                        if (extSubComponents != null)
+                        String extId = extSubComponent.getId();
+                        tokenized |= (extId != null && extId.indexOf('{') != -1);
+                        SubComponentData target = (extId != null ? subComponentsById.get(UriUtils.replaceTokens(extId, context, null, null, "")) : null);
+                        if (target != null)
                         {
-                            for (SubComponent extSubComponent: extSubComponents)
-                            {
-                                SubComponentData target = findSubComponent(extSubComponent, allSubComponents, context);
-                                if (target != null)
-                                {
-                                    // If the SubComponent has already been defined then we need to merge in the 
-                                    // overrides that have been declared (adding the storage path of the extension
-                                    // that has updated the Sub-Component)
-                                    target.getSubComponent().mergeExtension(extSubComponent);
-                                    target.addContributingSourcePath(extComp.getKey().getStoragePath());
-                                }
-                                else
-                                {
-                                    // The SubComponent is new so just add it to the list (capturing storagae path of
-                                    // the extension that has provided the Sub-Component
-                                    SubComponentData subComponentData = new SubComponentData(extSubComponent);
-                                    subComponentData.addContributingSourcePath(extComp.getKey().getStoragePath());
-                                    allSubComponents.add(subComponentData);
-                                }
-                            }
+                            // If the SubComponent has already been defined then we need to merge in the 
+                            // overrides that have been declared (adding the storage path of the extension
+                            // that has updated the Sub-Component)
+                            target.getSubComponent().mergeExtension(extSubComponent);
+                            target.addContributingSourcePath(extComp.getKey().getStoragePath());
                         }
                         else
                         {
-                            if (logger.isErrorEnabled())
-                            {
-                                logger.error("The getRenderableElements() method of class " + extComp.getClass() + " returns null. This is an invalid implementation of the interface");
-                            }
+                            // The SubComponent is new so just add it to the list (capturing storagae path of
+                            // the extension that has provided the Sub-Component). It is cloned so that later
+                            // extensions merged into it do not modify the module configuration...
+                            SubComponentData subComponentData = new SubComponentData(extSubComponent.clone());
+                            subComponentData.addContributingSourcePath(extComp.getKey().getStoragePath());
+                            allSubComponents.add(subComponentData);
+                            addSubComponentById(subComponentsById, subComponentData, context);
                         }
                     }
                 }
+                else
+                {
+                    if (logger.isErrorEnabled())
+                    {
+                        logger.error("The getRenderableElements() method of class " + extComp.getClass() + " returns null. This is an invalid implementation of the interface");
+                    }
+                }
             }
         }
         
         // Sort the elements into the correct order...
         Collections.sort(allSubComponents);
-        return allSubComponents;
+        return new MergedSubComponents(aComp, extensions, Collections.unmodifiableList(allSubComponents), tokenized);
     }
     
     /**
-     * <p>Finds a {@link SubComponentData} in the supplied {@link List} with an <code>id</code> that matches that of
-     * the supplied {@link SubComponent}.
+     * <p>Maps the supplied {@link SubComponentData} by the tokenized id of its {@link SubComponent}. If more than one
+     * {@link SubComponent} has the same id then the first one added is kept.</p>
      * 
-     * @param subComponent The {@link SubComponentData} to find a match for.
-     * @param list A {@link List} of {@link SubComponentData} instances in which to find a match.
-     * @return The {@link SubComponent} in the {@link List} with a matching <code>id</code> attribute of <code>null</code>
-     * if one cannot be found.
+     * @param subComponentsById The map to add to.
+     * @param data The {@link SubComponentData} to add.
+     * @param context The current {@link RequestContext}
+     * @return <code>true</code> if the id of the {@link SubComponent} contains tokens.
+     */
+    private boolean addSubComponentById(Map<String, SubComponentData> subComponentsById, SubComponentData data, RequestContext context)
+    {
+        String id = data.getSubComponent().getId();
+        String tokenizedId = UriUtils.replaceTokens(id, context, null, null, "");
+        if (!subComponentsById.containsKey(tokenizedId))
+        {
+            subComponentsById.put(tokenizedId, data);
+        }
+        return (id != null && id.indexOf('{') != -1);
+    }
+    
+    /**
+     * <p>The merged and sorted {@link SubComponent} instances of an {@link AdvancedComponent} along with the component
+     * and extension instances that they were merged from. The {@link SubComponent} instances are shared between requests
+     * and must not be modified once merged.</p>
      */
-    private SubComponentData findSubComponent(SubComponent subComponent, List<SubComponentData> list, RequestContext context)
+    private static final class MergedSubComponents
     {
-        SubComponentData target = null;
-        String targetId = subComponent.getId();
-        String tokenizedTargetId = UriUtils.replaceTokens(targetId, context, null, null, "");
-        if (targetId != null)
+        private final AdvancedComponent component;
+        private final List<AdvancedComponent> extensions;
+        private final List<SubComponentData> subComponents;
+        private final boolean tokenized;
+        
+        private MergedSubComponents(AdvancedComponent component, List<AdvancedComponent> extensions, List<SubComponentData> subComponents, boolean tokenized)
         {
-            for (SubComponentData current: list)
+            this.component = component;
+            this.extensions = extensions;
+            this.subComponents = subComponents;
+            this.tokenized = tokenized;
+        }
+        
+        /**
+         * @return <code>true</code> if these are the merged {@link SubComponent} instances of exactly the supplied
+         * component and extension instances (they will differ if a component has been reloaded or modules redeployed).
+         */
+        private boolean isMergeOf(AdvancedComponent component, List<AdvancedComponent> extensions)
+        {
+            boolean match = (this.component == component && this.extensions.size() == extensions.size());
+            for (int i = 0; match && i < extensions.size(); i++)
             {
-                String currId = current.getSubComponent().getId();
-                String currTokenizedId = UriUtils.replaceTokens(currId, context, null, null, "");
-                if (currTokenizedId.equals(tokenizedTargetId))
-                {
-                    target = current;
-                    break;
-                }
+                match = (this.extensions.get(i) == extensions.get(i));
             }
+            return match;
+        }
+    }
+    
+    private static final String CACHE_SCOPE_GLOBAL = "global";
+    private static final String CACHE_SCOPE_PAGE = "page";
+    private static final String CACHE_SCOPE_USER = "user";
+    
+    /**
+     * <p>The maximum number of rendered component outputs to cache. Setting this to 0 disables the cache.</p>
+     */
+    private int fragmentCacheMaxSize = 512;
+    
+    /**
+     * <p>The rendered output of the components that declare a {@link Component#PROP_CACHE_SCOPE} keyed by the
+     * component, the evaluated modules and the request state that the output depends on. Concurrent requests
+     * missing the same key wait for a single rendering of the component.</p>
+     */
+    private volatile ConcurrentLoadingCache<CachedFragment> fragmentCache = createFragmentCache(512);
+    
+    public void setFragmentCacheMaxSize(int fragmentCacheMaxSize)
+    {
+        this.fragmentCacheMaxSize = fragmentCacheMaxSize;
+        this.fragmentCache = createFragmentCache(fragmentCacheMaxSize);
+    }
+    
+    private static ConcurrentLoadingCache<CachedFragment> createFragmentCache(int maxSize)
+    {
+        return (maxSize > 0 ? new ConcurrentLoadingCache<CachedFragment>("fragmentCache", maxSize) : null);
+    }
+    
+    /**
+     * <p>The output of a component held in the fragment cache until it expires.</p>
+     */
+    private static final class CachedFragment
+    {
+        private final RenderedFragment fragment;
+        private final long expires;
+        
+        private CachedFragment(RenderedFragment fragment, long expires)
+        {
+            this.fragment = fragment;
+            this.expires = expires;
+        }
+    }
+    
+    /**
+     * <p>Renders a component into a fork of the request that missed the fragment cache and joins it back into that
+     * request. Requests waiting for the same key replay the captured fragment instead.</p>
+     */
+    private final class FragmentLoader implements ConcurrentLoadingCache.Loader<CachedFragment>
+    {
+        private final RequestContext context;
+        private final RenderFocus renderFocus;
+        private final Component component;
+        private final boolean chromeless;
+        private final long ttl;
+        private boolean joined = false;
+        
+        private FragmentLoader(RequestContext context, RenderFocus renderFocus, Component component, boolean chromeless, long ttl)
+        {
+            this.context = context;
+            this.renderFocus = renderFocus;
+            this.component = component;
+            this.chromeless = chromeless;
+            this.ttl = ttl;
+        }
+        
+        public CachedFragment load(String key) throws IOException
+        {
+            ForkedRequestContext fork = ForkedRequestContext.forkForCaching((AbstractRequestContext) this.context);
+            fork.begin();
+            try
+            {
+                renderComponentOutput(fork, this.renderFocus, this.component, this.chromeless);
+            }
+            catch (RendererExecutionException e)
+            {
+                throw new FragmentRenderingException(e);
+            }
+            finally
+            {
+                fork.end();
+            }
+            CachedFragment cached = new CachedFragment(fork.capture(), System.currentTimeMillis() + this.ttl);
+            fork.join();
+            this.joined = true;
+            return cached;
+        }
+    }
+    
+    /**
+     * <p>Carries the failure to render a component out of a {@link FragmentLoader}.</p>
+     */
+    private static final class FragmentRenderingException extends IOException
+    {
+        private static final long serialVersionUID = -3218265379021854377L;
+        
+        private FragmentRenderingException(RendererExecutionException cause)
+        {
+            super(cause);
         }
-        return target;
     }
     
     /**
      * Executes the processor for the given render focus on the given component instance.
+     * 
+     * If the component declares a {@link Component#PROP_CACHE_SCOPE} then its output is cached for the number of
+     * seconds given by {@link Component#PROP_CACHE_TTL} and replayed, together with the dependencies that it
+     * requested, for subsequent requests with the same key. The key is made up of the component id, the evaluated
+     * modules, the locale, the theme, the page and user (depending on the scope) and the values of the request 
+     * tokens listed by {@link Component#PROP_CACHE_KEY_TOKENS}. Only one of the requests that miss the same key 
+     * renders the component, the others wait for its output.
      *
      * @param context RequestContext
      * @param renderFocus RenderFocus
@@ -405,6 +653,163 @@ public class RenderService implements ApplicationContextAware
                                  Component component,
                                  boolean chromeless)
         throws RendererExecutionException
+    {
+        ConcurrentLoadingCache<CachedFragment> cache = this.fragmentCache;
+        long ttl = getFragmentCacheTtl(context, renderFocus, component);
+        String key = (cache != null && ttl > 0 ? getFragmentCacheKey(context, component, chromeless) : null);
+        if (key == null)
+        {
+            renderComponentOutput(context, renderFocus, component, chromeless);
+        }
+        else
+        {
+            try
+            {
+                FragmentLoader loader = new FragmentLoader(context, renderFocus, component, chromeless, ttl);
+                CachedFragment cached = cache.get(key, loader);
+                if (cached.expires <= System.currentTimeMillis())
+                {
+                    // Only remove the expired output so that output loaded by another request in the meantime is kept...
+                    cache.remove(key, cached);
+                    cached = cache.get(key, loader);
+                }
+                if (!loader.joined)
+                {
+                    cached.fragment.replay(context);
+                }
+                writeContent(context, cached.fragment.getContent());
+            }
+            catch (FragmentRenderingException e)
+            {
+                throw (RendererExecutionException) e.getCause();
+            }
+            catch (IOException e)
+            {
+                throw new RendererExecutionException("Unable to output cached component: " + component.getId(), e);
+            }
+        }
+    }
+    
+    /**
+     * <p>Returns the number of milliseconds that the output of the supplied {@link Component} should be cached for, or
+     * 0 if it should not be cached for the current request.</p>
+     * 
+     * @param context RequestContext
+     * @param renderFocus RenderFocus
+     * @param component Component
+     * @return long
+     */
+    private long getFragmentCacheTtl(RequestContext context, RenderFocus renderFocus, Component component)
+    {
+        long ttl = 0;
+        String scope = component.getProperty(Component.PROP_CACHE_SCOPE);
+        if (scope != null && scope.length() != 0 &&
+            RenderFocus.BODY.equals(renderFocus) && 
+            !context.isPassiveMode() && 
+            context instanceof AbstractRequestContext &&
+            !this.webFrameworkConfiguration.isSurfBugEnabled() &&
+            this.webFrameworkConfiguration.isFragmentCachingEnabled())
+        {
+            String ttlStr = component.getProperty(Component.PROP_CACHE_TTL);
+            if (ttlStr != null && ttlStr.length() != 0)
+            {
+                try
+                {
+                    ttl = Long.parseLong(ttlStr.trim()) * 1000L;
+                }
+                catch (NumberFormatException e)
+                {
+                    if (logger.isWarnEnabled())
+                        logger.warn("Invalid " + Component.PROP_CACHE_TTL + " '" + ttlStr + "' defined for component '" + component.getId() + "', its output will not be cached");
+                }
+            }
+        }
+        return ttl;
+    }
+    
+    /**
+     * <p>Builds the key that the output of the supplied {@link Component} is cached against for the current request.</p>
+     * 
+     * @param context RequestContext
+     * @param component Component
+     * @param chromeless boolean
+     * @return The key or <code>null</code> if the scope of the component is not recognised.
+     */
+    protected String getFragmentCacheKey(RequestContext context, Component component, boolean chromeless)
+    {
+        String scope = component.getProperty(Component.PROP_CACHE_SCOPE).trim();
+        StringBuilder key = new StringBuilder(128).append(component.getId());
+        if (CACHE_SCOPE_PAGE.equals(scope) || CACHE_SCOPE_USER.equals(scope))
+        {
+            key.append('\u0000').append(context.getPageId());
+            if (CACHE_SCOPE_USER.equals(scope))
+            {
+                key.append('\u0000').append(context.getUserId());
+            }
+        }
+        else if (!CACHE_SCOPE_GLOBAL.equals(scope))
+        {
+            if (logger.isWarnEnabled())
+                logger.warn("Unknown " + Component.PROP_CACHE_SCOPE + " '" + scope + "' defined for component '" + component.getId() + "', its output will not be cached");
+            return null;
+        }
+        key.append('\u0000').append(chromeless)
+           .append('\u0000').append(context.getFormatId())
+           .append('\u0000').append(I18NUtil.getLocale())
+           .append('\u0000').append(context.getThemeId());
+        for (ExtensionModule module: context.getEvaluatedModules())
+        {
+            key.append('\u0000').append(module.getId());
+        }
+        String tokens = component.getProperty(Component.PROP_CACHE_KEY_TOKENS);
+        if (tokens != null)
+        {
+            Map<String, String> uriTokens = context.getUriTokens();
+            for (String token: tokens.split(","))
+            {
+                token = token.trim();
+                if (token.length() != 0)
+                {
+                    String value = (uriTokens != null ? uriTokens.get(token) : null);
+                    if (value == null)
+                    {
+                        value = context.getParameter(token);
+                    }
+                    key.append('\u0000').append(token).append('=').append(value);
+                }
+            }
+        }
+        return key.toString();
+    }
+    
+    /**
+     * Writes the given content to the current {@link ExtensibilityModel}, or to the response if there isn't one.
+     * 
+     * @param context RequestContext
+     * @param content String
+     * @throws IOException
+     */
+    private static void writeContent(RequestContext context, String content) throws IOException
+    {
+        ExtensibilityModel extModel = context.getCurrentExtensibilityModel();
+        Writer writer = (extModel != null ? extModel.getWriter() : context.getResponse().getWriter());
+        writer.write(content);
+    }
+    
+    /**
+     * Renders the given component instance for the given render focus.
+     * 
+     * @param context RequestContext
+     * @param renderFocus RenderFocus
+     * @param component Component
+     * @param chromeless boolean
+     * @throws RendererExecutionException
+     */
+    private void renderComponentOutput(RequestContext context,
+                                       RenderFocus renderFocus, 
+                                       Component component,
+                                       boolean chromeless)
+        throws RendererExecutionException
     {
         if (component instanceof AdvancedComponent)
         {
@@ -658,9 +1063,95 @@ public class RenderService implements ApplicationContextAware
     public void processTemplate(RequestContext context, RenderFocus renderFocus, TemplateInstance template)
         throws RendererExecutionException
     {
-        // special case variable for freemarker
-        String uri = null;
+        TemplateType templateType = getTemplateType(template);
+        
+        // special case variable for freemarker - a template type id that is not the id of a
+        // template type is the path of a freemarker template
+        String templateTypeId = template.getTemplateTypeId();
+        String uri = (templateTypeId != null && !templateTypeId.equals(templateType.getId()) ? templateTypeId : null);
+
+        // get the processor
+        Processor processor = getRenditionProcessor((Renderable)templateType);
+        if (processor != null)
+        {
+            // build a processor context
+            ProcessorContext processorContext = new ProcessorContext(context);
+
+            // load from renderable data
+            processorContext.load((Renderable)templateType);
+
+            // apply any overrides from special cases
+            if (uri != null)
+            {
+                ProcessorDescriptor viewDescriptor = processorContext.getDescriptor(RenderMode.VIEW);
+                viewDescriptor.put(URI, uri);
+            }
 
+            // execute the processor
+            boolean forkingRegions = startRegionForks(context, renderFocus, template.getId());
+            try
+            {
+                processor.execute(processorContext, template, renderFocus);
+            }
+            catch(RendererExecutionException ree)
+            {
+                logger.error("Unable to process template: " + template.getId());
+                throw ree;
+            }
+            finally
+            {
+                if (forkingRegions)
+                {
+                    cancelRegionForks(context, template.getId());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns whether the given template instance is rendered by the FreeMarker {@link WebTemplateProcessor}, which
+     * opens the {@link ExtensibilityModel} that the .head output of components can be collected in while the template
+     * body is rendered.
+     * 
+     * @param template TemplateInstance
+     * @return boolean
+     * @throws RendererExecutionException
+     */
+    public boolean isWebTemplate(TemplateInstance template)
+        throws RendererExecutionException
+    {
+        return getRenditionProcessor((Renderable) getTemplateType(template)) instanceof WebTemplateProcessor;
+    }
+    
+    /**
+     * Returns whether the .head templates of the components of the given template instance are rendered along with
+     * their bodies. In that case the first pass that calculates the component dependencies is skipped and
+     * <code>${head}</code> is a {@link org.springframework.extensions.directives.HeadContentPlaceholder}. This is only
+     * possible for web templates (see {@link #isWebTemplate(TemplateInstance)}), all other templates are rendered in
+     * two passes with <code>${head}</code> rendered up-front.
+     * 
+     * @param template TemplateInstance
+     * @return boolean
+     * @throws RendererExecutionException
+     */
+    public boolean isSinglePassHeadRendering(TemplateInstance template)
+        throws RendererExecutionException
+    {
+        return this.webFrameworkConfiguration.isSinglePassHeadRenderingEnabled() && 
+               this.webFrameworkConfiguration.isCalculateWebScriptDependenciesEnabled() && 
+               isWebTemplate(template);
+    }
+    
+    /**
+     * Resolves the template type of the given template instance.
+     * 
+     * @param template TemplateInstance
+     * @return TemplateType
+     * @throws RendererExecutionException if the template type cannot be resolved
+     */
+    private TemplateType getTemplateType(TemplateInstance template)
+        throws RendererExecutionException
+    {
         // the template type id
         TemplateType templateType = null;
         String templateTypeId = template.getTemplateTypeId();
@@ -671,10 +1162,7 @@ public class RenderService implements ApplicationContextAware
             templateType = this.modelObjectService.getTemplateType(templateTypeId);
             if (templateType == null)
             {
-                // assume it is a freemarker template id
-                uri = templateTypeId;
-
-                // load the template type
+                // assume it is a freemarker template id so load the template type
                 templateType = this.modelObjectService.getTemplateType(TEMPLATE_TYPE_WEBTEMPLATE);
             }
         }
@@ -701,34 +1189,7 @@ public class RenderService implements ApplicationContextAware
                     template.toString());
         }
 
-        // get the processor
-        Processor processor = getRenditionProcessor((Renderable)templateType);
-        if (processor != null)
-        {
-            // build a processor context
-            ProcessorContext processorContext = new ProcessorContext(context);
-
-            // load from renderable data
-            processorContext.load((Renderable)templateType);
-
-            // apply any overrides from special cases
-            if (uri != null)
-            {
-                ProcessorDescriptor viewDescriptor = processorContext.getDescriptor(RenderMode.VIEW);
-                viewDescriptor.put(URI, uri);
-            }
-
-            // execute the processor
-            try
-            {
-                processor.execute(processorContext, template, renderFocus);
-            }
-            catch(RendererExecutionException ree)
-            {
-                logger.error("Unable to process template: " + template.getId());
-                throw ree;
-            }
-        }
+        return templateType;
     }
 
     /**
@@ -743,8 +1204,10 @@ public class RenderService implements ApplicationContextAware
         try
         {
             // Check to see whether or not resource caching has been disabled or not. If it has then clear all the
-            // dependency caches before processing the current request...
-            if (this.webFrameworkConfiguration != null && this.webFrameworkConfiguration.isResourceCachingDisabled() == true)
+            // dependency caches before processing the current request (unless changed resources are being invalidated
+            // individually as they change)...
+            if (this.webFrameworkConfiguration != null && this.webFrameworkConfiguration.isResourceCachingDisabled() == true &&
+                this.dojoDependencyHandler.isWatchingForChanges() == false)
             {
                 this.dojoDependencyHandler.clearCaches();
             }
@@ -825,6 +1288,12 @@ public class RenderService implements ApplicationContextAware
     {
         try
         {
+            TemplateRegion region = recordTemplateRegion(templateId, regionId, regionScopeId, overrideChromeId, chromeless);
+            if (this.regionRenderingExecutor != null && renderForkedRegion(context, renderFocus, region))
+            {
+                return;
+            }
+            
             String regionSourceId = RenderUtil.getSourceId(context, regionScopeId);
             context.setValue(WebFrameworkConstants.RENDER_DATA_REGION_ID, regionId);
             context.setValue(WebFrameworkConstants.RENDER_DATA_REGION_SCOPE_ID, regionScopeId);
@@ -1038,6 +1507,326 @@ public class RenderService implements ApplicationContextAware
         return this.modelObjectService.getComponent(regionScopeId, regionId, regionSourceId);
     }
     
+    /**
+     * Records that the given region was rendered as part of the given template.
+     * 
+     * @param templateId String
+     * @param regionId String
+     * @param regionScopeId String
+     * @param overrideChromeId String
+     * @param chromeless boolean
+     * @return the recorded region or null if it could not be recorded
+     */
+    private TemplateRegion recordTemplateRegion(String templateId, String regionId, String regionScopeId, String overrideChromeId, boolean chromeless)
+    {
+        TemplateRegion region = null;
+        if (templateId != null && regionId != null && regionScopeId != null)
+        {
+            Set<TemplateRegion> regions = this.templateRegions.get(templateId);
+            if (regions == null)
+            {
+                regions = Collections.newSetFromMap(new ConcurrentHashMap<TemplateRegion, Boolean>());
+                Set<TemplateRegion> existing = this.templateRegions.putIfAbsent(templateId, regions);
+                if (existing != null)
+                {
+                    regions = existing;
+                }
+            }
+            region = new TemplateRegion(templateId, regionId, regionScopeId, overrideChromeId, chromeless);
+            regions.add(region);
+        }
+        return region;
+    }
+    
+    /**
+     * Renders the given region from the output of a fork if one was started for it, starting the forks for the
+     * regions of the template if this is the first region of the template to be rendered by the request.
+     * 
+     * @param context RequestContext
+     * @param renderFocus RenderFocus
+     * @param region TemplateRegion
+     * @return whether the region was rendered from a fork
+     * @throws RendererExecutionException
+     */
+    private boolean renderForkedRegion(RequestContext context, RenderFocus renderFocus, TemplateRegion region)
+        throws RendererExecutionException
+    {
+        boolean rendered = false;
+        RegionForks forks = (RegionForks) context.getValue(CONTEXT_VALUE_REGION_FORKS);
+        if (region != null && 
+            RenderFocus.BODY.equals(renderFocus) && 
+            !(context instanceof ForkedRequestContext) &&
+            forks != null && 
+            forks.templates.containsKey(region.templateId))
+        {
+            ForkedTasks<TemplateRegion, ForkedRequestContext> templateForks = forks.templates.get(region.templateId);
+            if (templateForks == null)
+            {
+                templateForks = new ForkedTasks<TemplateRegion, ForkedRequestContext>(this.regionRenderingExecutor);
+                forks.templates.put(region.templateId, templateForks);
+                forkTemplateRegions((AbstractRequestContext) context, region, templateForks);
+            }
+            
+            // An interrupted wait stops the fork before returning so the region can then be rendered on the request
+            // thread without the two sharing the request...
+            ForkedRequestContext fork = null;
+            try
+            {
+                fork = templateForks.claim(region);
+            }
+            catch (ExecutionException e)
+            {
+                if (logger.isWarnEnabled())
+                    logger.warn("Forked rendering of region '" + region.regionId + "' failed, rendering it on the request thread", e.getCause());
+            }
+            if (fork != null)
+            {
+                fork.join();
+                try
+                {
+                    writeContent(context, fork.getContent());
+                }
+                catch (IOException e)
+                {
+                    throw new RendererExecutionException("Unable to output forked region: " + region.regionId, e);
+                }
+                rendered = true;
+            }
+        }
+        return rendered;
+    }
+    
+    /**
+     * Allows the regions of the given template to be forked while the template is rendered. Regions are only forked
+     * within the rendering of their template so that {@link #cancelRegionForks(RequestContext, String)} can cancel the
+     * forks of any regions that the template did not reach.
+     * 
+     * @param context RequestContext
+     * @param renderFocus RenderFocus
+     * @param templateId String
+     * @return whether the regions of the template can be forked, in which case the forks must be cancelled once the
+     *         template has been rendered
+     */
+    private boolean startRegionForks(RequestContext context, RenderFocus renderFocus, String templateId)
+    {
+        boolean started = false;
+        if (this.regionRenderingExecutor != null && 
+            templateId != null && 
+            RenderFocus.BODY.equals(renderFocus) && 
+            !context.isPassiveMode() && 
+            context instanceof AbstractRequestContext && 
+            !(context instanceof ForkedRequestContext))
+        {
+            RegionForks forks = (RegionForks) context.getValue(CONTEXT_VALUE_REGION_FORKS);
+            if (forks == null)
+            {
+                forks = new RegionForks();
+                context.setValue(CONTEXT_VALUE_REGION_FORKS, forks);
+            }
+            if (!forks.templates.containsKey(templateId))
+            {
+                forks.templates.put(templateId, null);
+                started = true;
+            }
+        }
+        return started;
+    }
+    
+    /**
+     * Cancels the forks started for the regions of the given template that were not reached by the template, waiting
+     * for any that are already rendering to stop. A fork shares the request with the request thread so none of them
+     * may outlive the rendering of the template.
+     * 
+     * @param context RequestContext
+     * @param templateId String
+     */
+    private void cancelRegionForks(RequestContext context, String templateId)
+    {
+        RegionForks forks = (RegionForks) context.getValue(CONTEXT_VALUE_REGION_FORKS);
+        if (forks != null)
+        {
+            ForkedTasks<TemplateRegion, ForkedRequestContext> templateForks = forks.templates.remove(templateId);
+            if (templateForks != null)
+            {
+                int cancelled = templateForks.cancel();
+                if (cancelled != 0 && logger.isDebugEnabled())
+                    logger.debug("Cancelled " + cancelled + " forked regions that were not rendered by template: " + templateId);
+            }
+        }
+    }
+    
+    /**
+     * Submits a fork for each of the regions recorded for the template of the given region that can be rendered in
+     * parallel for the current page (see {@link #isForkableRegion(RequestContext, TemplateRegion)}), other than the
+     * given region itself which is rendered on the request thread.
+     * 
+     * @param context AbstractRequestContext
+     * @param current TemplateRegion
+     * @param forks ForkedTasks
+     */
+    private void forkTemplateRegions(AbstractRequestContext context, TemplateRegion current, ForkedTasks<TemplateRegion, ForkedRequestContext> forks)
+    {
+        Set<TemplateRegion> regions = this.templateRegions.get(current.templateId);
+        if (regions != null)
+        {
+            for (final TemplateRegion region : regions)
+            {
+                if (!region.equals(current) && isForkableRegion(context, region))
+                {
+                    final ForkedRequestContext fork = ForkedRequestContext.fork(context);
+                    boolean submitted = forks.submit(region, new Callable<ForkedRequestContext>()
+                    {
+                        public ForkedRequestContext call() throws Exception
+                        {
+                            fork.begin();
+                            try
+                            {
+                                renderRegion(fork, RenderFocus.BODY, region.templateId, region.regionId, region.regionScopeId, region.overrideChromeId, region.chromeless);
+                            }
+                            finally
+                            {
+                                fork.end();
+                            }
+                            return fork;
+                        }
+                    });
+                    if (!submitted)
+                    {
+                        // The executor is saturated so the remaining regions will be rendered on the request thread
+                        break;
+                    }
+                }
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("Forked " + forks.size() + " regions for template: " + current.templateId);
+        }
+    }
+    
+    /**
+     * Returns whether the given region can be forked for the current page. Regions are recorded across all of the
+     * requests that render a template, so a region is only forked when a component is bound to it for the current
+     * page and that component has opted in with {@link Component#PROP_RENDER_IN_PARALLEL}. The lookup is normally
+     * served by {@link #prefetchRegionComponents(RequestContext, String)}.
+     * 
+     * @param context RequestContext
+     * @param region TemplateRegion
+     * @return boolean
+     */
+    private boolean isForkableRegion(RequestContext context, TemplateRegion region)
+    {
+        boolean forkable = false;
+        String regionSourceId = RenderUtil.getSourceId(context, region.regionScopeId);
+        if (regionSourceId != null)
+        {
+            Component component = getComponentBoundToRegion(context, region.regionId, region.regionScopeId, regionSourceId);
+            forkable = (component != null && Boolean.parseBoolean(component.getProperty(Component.PROP_RENDER_IN_PARALLEL)));
+        }
+        return forkable;
+    }
+    
+    /**
+     * A region rendered by a template along with the arguments it was rendered with.
+     */
+    private static final class TemplateRegion
+    {
+        private final String templateId;
+        private final String regionId;
+        private final String regionScopeId;
+        private final String overrideChromeId;
+        private final boolean chromeless;
+        
+        private TemplateRegion(String templateId, String regionId, String regionScopeId, String overrideChromeId, boolean chromeless)
+        {
+            this.templateId = templateId;
+            this.regionId = regionId;
+            this.regionScopeId = regionScopeId;
+            this.overrideChromeId = overrideChromeId;
+            this.chromeless = chromeless;
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof TemplateRegion))
+            {
+                return false;
+            }
+            TemplateRegion other = (TemplateRegion) obj;
+            return this.templateId.equals(other.templateId) &&
+                   this.regionId.equals(other.regionId) &&
+                   this.regionScopeId.equals(other.regionScopeId) &&
+                   (this.overrideChromeId == null ? other.overrideChromeId == null : this.overrideChromeId.equals(other.overrideChromeId)) &&
+                   this.chromeless == other.chromeless;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            int hash = this.templateId.hashCode();
+            hash = 31 * hash + this.regionId.hashCode();
+            hash = 31 * hash + this.regionScopeId.hashCode();
+            hash = 31 * hash + (this.overrideChromeId == null ? 0 : this.overrideChromeId.hashCode());
+            return 31 * hash + (this.chromeless ? 1 : 0);
+        }
+    }
+    
+    /**
+     * The region forks of a request, held as a value of its {@link RequestContext}.
+     */
+    private static final class RegionForks implements Serializable
+    {
+        private static final long serialVersionUID = -6113839484707391260L;
+        
+        /**
+         * The templates being rendered by the request, by template id, with the forks of their regions once the first
+         * region of the template has been reached.
+         */
+        private final transient Map<String, ForkedTasks<TemplateRegion, ForkedRequestContext>> templates = new HashMap<String, ForkedTasks<TemplateRegion, ForkedRequestContext>>(4);
+    }
+    
+    /**
+     * Prefetches the components bound to the regions of the given template with a single batched lookup
+     * so that the region renders that follow are served from the persister caches rather than each making
+     * their own round-trip to the store. The regions are those recorded during earlier renders of the
+     * template, so nothing is prefetched the first time a template is rendered.
+     * <p>
+     * The lookup is made on the calling thread. The persisters and the remote connectors behind them read
+     * the current user and credentials from the request thread-locals ({@link ThreadLocalRequestContext}
+     * and the Spring <code>RequestContextHolder</code>), so a lookup can only be made on a thread that has
+     * the request bound - either the request thread or a worker rendering a {@link ForkedRequestContext},
+     * which binds the fork and the request attributes before it renders (see
+     * {@link #setRegionRenderingExecutor(ExecutorService)}).
+     * 
+     * @param context RequestContext
+     * @param templateId String
+     */
+    public void prefetchRegionComponents(RequestContext context, String templateId)
+    {
+        Set<TemplateRegion> regions = (templateId != null ? this.templateRegions.get(templateId) : null);
+        if (regions != null && !regions.isEmpty())
+        {
+            Set<String> componentIds = new LinkedHashSet<String>(regions.size());
+            for (TemplateRegion region : regions)
+            {
+                String regionSourceId = RenderUtil.getSourceId(context, region.regionScopeId);
+                if (regionSourceId != null)
+                {
+                    componentIds.add(RenderUtil.generateComponentId(region.regionScopeId, region.regionId, regionSourceId));
+                }
+            }
+            if (!componentIds.isEmpty())
+            {
+                Map<String, ModelObject> components = this.modelObjectService.getObjects(Component.TYPE_ID, componentIds);
+                if (logger.isDebugEnabled())
+                    logger.debug("Prefetched " + components.size() + " of " + componentIds.size() + " region components for template: " + templateId);
+            }
+        }
+    }
+    
     /**
      * Renders a default error handler page
      *
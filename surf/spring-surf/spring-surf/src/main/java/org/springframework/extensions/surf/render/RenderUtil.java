@@ -19,14 +19,19 @@
 
 package org.springframework.extensions.surf.render;
 
+import java.io.Serializable;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.ModelObject;
 import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.WebFrameworkConstants;
 import org.springframework.extensions.surf.types.Component;
+import org.springframework.extensions.surf.types.SurfBugData;
+import org.springframework.extensions.webscripts.WebScript;
 
 /**
  * Static utility methods utilized during the rendering process.  These
@@ -40,6 +45,11 @@ public final class RenderUtil
 {    
     private static Log logger = LogFactory.getLog(RenderUtil.class);
     
+    /**
+     * Prefix of the request context values that hold the {@link WebScript} resolved for a component.
+     */
+    private static final String CONTEXT_VALUE_RESOLVED_WEBSCRIPT = "resolved-webscript.";
+    
     /**
      * Renders the fully formed URL string for a link to a given page
      *
@@ -398,4 +408,49 @@ public final class RenderUtil
         
         return generatedId;
     }
+    
+    /**
+     * Stores the {@link WebScript} resolved to render the given component or sub-component for the
+     * current request. The resolved WebScript is held by the request context rather than set on the
+     * object itself (see {@link SurfBugData}) because components and merged sub-components are cached
+     * and shared by the requests that render them concurrently.
+     * 
+     * @param context RequestContext
+     * @param object the component or sub-component
+     * @param webScript the resolved WebScript
+     */
+    public static void setResolvedWebScript(RequestContext context, ModelObject object, WebScript webScript)
+    {
+        context.setValue(CONTEXT_VALUE_RESOLVED_WEBSCRIPT + object.getId(), new ResolvedWebScript(webScript));
+    }
+    
+    /**
+     * Returns the {@link WebScript} resolved to render the given component or sub-component for the
+     * current request.
+     * 
+     * @param context RequestContext
+     * @param object the component or sub-component
+     * @return the resolved WebScript or <code>null</code> if the object is not backed by a WebScript
+     *         or has not been resolved yet
+     */
+    public static WebScript getResolvedWebScript(RequestContext context, ModelObject object)
+    {
+        Serializable value = context.getValue(CONTEXT_VALUE_RESOLVED_WEBSCRIPT + object.getId());
+        return (value instanceof ResolvedWebScript ? ((ResolvedWebScript) value).webScript : null);
+    }
+    
+    /**
+     * Holds a resolved {@link WebScript} as a value of a {@link RequestContext}.
+     */
+    private static final class ResolvedWebScript implements Serializable
+    {
+        private static final long serialVersionUID = 2285612209614312735L;
+        
+        private final transient WebScript webScript;
+        
+        private ResolvedWebScript(WebScript webScript)
+        {
+            this.webScript = webScript;
+        }
+    }
 }            
\ No newline at end of file
@@ -130,9 +130,14 @@ public class TemplateInstanceRenderer extends AbstractRenderer
     {
         TemplateInstance template = (TemplateInstance) object;
 
-        if (this.webFrameworkConfigElement == null || this.webFrameworkConfigElement.isCalculateWebScriptDependenciesEnabled())
+        // look up the components bound to the regions of the template in one batch
+        getRenderService().prefetchRegionComponents(context, template.getId());
+        
+        if (this.webFrameworkConfigElement == null || 
+            (this.webFrameworkConfigElement.isCalculateWebScriptDependenciesEnabled() && !isSinglePassHeadRendering(template)))
         {
-            // FIRST PASS - calculate component dependencies - only if configured.
+            // FIRST PASS - calculate component dependencies - only if configured. This is not required when the
+            // .head templates of the components are rendered along with their bodies.
             calculateComponentDependencies(context, object);
         }
 
@@ -142,6 +147,22 @@ public class TemplateInstanceRenderer extends AbstractRenderer
         getRenderService().processTemplate(context, RenderFocus.BODY, template);
     }
 
+    /**
+     * Determines whether the .head templates of the components will be rendered along with their bodies. This
+     * is only the case for templates processed by the {@link org.springframework.extensions.webscripts.WebTemplateProcessor}
+     * as the head placeholder is written into their extensibility model - all other templates (e.g. JSP) still need
+     * the first pass. The same check decides the value of <code>${head}</code> in the template model.
+     * 
+     * @param template TemplateInstance
+     * @return <code>true</code> if the first pass can be skipped for the template.
+     * @see RenderService#isSinglePassHeadRendering(TemplateInstance)
+     */
+    protected boolean isSinglePassHeadRendering(TemplateInstance template)
+        throws RendererExecutionException
+    {
+        return getRenderService().isSinglePassHeadRendering(template);
+    }
+
     public void postHeaderProcess(RequestContext context)
         throws RendererExecutionException
     {
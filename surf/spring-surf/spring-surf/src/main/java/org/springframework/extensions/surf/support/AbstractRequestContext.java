@@ -188,6 +188,61 @@ public abstract class AbstractRequestContext extends ThreadLocalRequestContext i
         this(serviceRegistry, null);
     }
 
+    /**
+     * <p>Constructs a fork of the supplied Request Context so that part of the response can be rendered on another
+     * thread. The request level state (the request, user, page, template, etc) is shared with the parent but the values,
+     * parameters, attributes, model and dependency tracking are copied so that nothing mutable is shared between the two
+     * contexts. A subclass that renders on another thread must replace the shared request, whose attributes are not
+     * thread safe (see {@link ForkedRequestContext}). The dependency tracking must be merged back into the parent with {@link #joinForkedContext(AbstractRequestContext)}
+     * once the forked rendering has completed.</p>
+     * <p>This must be called on the thread that owns the parent context. Note that, as with all Request Contexts, the
+     * new instance will be bound to the constructing thread.</p>
+     * 
+     * @param parent The Request Context to fork.
+     */
+    protected AbstractRequestContext(AbstractRequestContext parent)
+    {
+        this(parent.getServiceRegistry(), parent.frameworkUtil);
+        
+        this.id = parent.getId();
+        this.valuesMap.putAll(parent.valuesMap);
+        this.parametersMap.putAll(parent.parametersMap);
+        this.attributesMap.putAll(parent.attributesMap);
+        this.headersMap = parent.headersMap;
+        this.uriTokens = parent.uriTokens;
+        this.rootPage = parent.rootPage;
+        this.siteConfiguration = parent.siteConfiguration;
+        this.currentPage = parent.currentPage;
+        this.currentTemplate = parent.currentTemplate;
+        this.currentResource = parent.currentResource;
+        this.currentFormatId = parent.currentFormatId;
+        this.storeId = parent.storeId;
+        this.user = parent.user;
+        this.uri = parent.uri;
+        this.viewName = parent.viewName;
+        this.theme = parent.theme;
+        this.model.putAll(parent.model);
+        this.method = parent.method;
+        this.scheme = parent.scheme;
+        this.contextPath = parent.contextPath;
+        this.object = parent.object;
+        this.request = parent.request;
+        this.mode = parent.mode;
+        this.servletContextPath = parent.servletContextPath;
+        this.evaluatedProperties.putAll(parent.evaluatedProperties);
+        this.dependencyHandler = parent.dependencyHandler;
+        this.extensibilityModuleHandler = parent.extensibilityModuleHandler;
+        this.webFrameworkConfigElement = parent.webFrameworkConfigElement;
+        this.configService = parent.configService;
+        this.evaluatedModules = parent.evaluatedModules;
+        this.requestedDependencies.addAll(parent.requestedDependencies);
+        this.fileBeingProcessed = parent.fileBeingProcessed;
+        this.extendedBundleCache.putAll(parent.extendedBundleCache);
+        this.globalConfig = parent.globalConfig;
+        this.sectionsByArea = parent.sectionsByArea;
+        this.sections = parent.sections;
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.extensions.surf.RequestContext#getId()
      */
@@ -885,10 +940,21 @@ public abstract class AbstractRequestContext extends ThreadLocalRequestContext i
     
     public ExtensibilityModel openExtensibilityModel()
     {
-        this.extensibilityModel = new ExtensibilityModelImpl(this.extensibilityModel, this);
+        this.extensibilityModel = createExtensibilityModel(this.extensibilityModel);
         return this.extensibilityModel;
     }
 
+    /**
+     * <p>Creates the {@link ExtensibilityModel} opened by {@link #openExtensibilityModel()}.</p>
+     * 
+     * @param parentModel The currently open model, or <code>null</code> if there isn't one.
+     * @return A new {@link ExtensibilityModel}
+     */
+    protected ExtensibilityModel createExtensibilityModel(ExtensibilityModel parentModel)
+    {
+        return new ExtensibilityModelImpl(parentModel, this);
+    }
+
     public void closeExtensibilityModel(ExtensibilityModel model, Writer out)
     {
         model.flushModel(out);
@@ -1280,6 +1346,69 @@ public abstract class AbstractRequestContext extends ThreadLocalRequestContext i
         this.subComponentDebugData.put(id, data);
     }
     
+    /**
+     * <p>Merges the state collected by a context created with {@link #AbstractRequestContext(AbstractRequestContext)}
+     * back into this context. The rendering components, debug data and extended bundles are added and the dependencies
+     * requested by extension modules are appended in the order the fork requested them, skipping any that this context
+     * has requested in the meantime.</p>
+     * <p>This must be called on the thread that owns this context after the forked rendering has completed.</p>
+     * 
+     * @param fork The forked context to merge.
+     */
+    protected void joinForkedContext(AbstractRequestContext fork)
+    {
+        this.components.putAll(fork.components);
+        this.subComponentDebugData.putAll(fork.subComponentDebugData);
+        for (Entry<String, WebScriptPropertyResourceBundle> entry: fork.extendedBundleCache.entrySet())
+        {
+            if (!this.extendedBundleCache.containsKey(entry.getKey()))
+            {
+                this.extendedBundleCache.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String dep: fork.extensionModuleJsDependencies)
+        {
+            addJSDependency(dep);
+        }
+        for (Entry<String, LinkedHashSet<String>> entry: fork.extensionModuleCssDependencies.entrySet())
+        {
+            for (String dep: entry.getValue())
+            {
+                addCssDependency(dep, entry.getKey());
+            }
+        }
+        this.requestedDependencies.addAll(fork.requestedDependencies);
+        if (this.evaluatedModules == null)
+        {
+            this.evaluatedModules = fork.evaluatedModules;
+        }
+    }
+    
+    /**
+     * <p>Forgets the dependencies that have been requested so that any requested from this point on are recorded again,
+     * even if they were requested before.</p>
+     */
+    protected void clearRequestedDependencies()
+    {
+        this.requestedDependencies.clear();
+    }
+    
+    /**
+     * @return The JavaScript dependencies requested by extension modules for the current request.
+     */
+    protected Set<String> getExtensionModuleJsDependencies()
+    {
+        return this.extensionModuleJsDependencies;
+    }
+    
+    /**
+     * @return The CSS dependencies requested by extension modules for the current request mapped by media.
+     */
+    protected Map<String, LinkedHashSet<String>> getExtensionModuleCssDependencies()
+    {
+        return this.extensionModuleCssDependencies;
+    }
+    
     /**
      * <p>A cache of extended {@link ResourceBundle} instances for the current request.</p>
      */
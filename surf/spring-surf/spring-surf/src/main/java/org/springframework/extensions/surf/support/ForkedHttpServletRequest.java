@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.support;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * <p>Wraps the request of a page for a {@link ForkedRequestContext} so that the fork has its own copy of the request
+ * attributes. A {@link HttpServletRequest} is not thread safe and web scripts change its attributes while they are
+ * rendered, so a fork rendering on another thread must not read or write the attributes of the request that the
+ * page is being rendered with.</p>
+ * <p>The attributes are copied when the wrapper is created. Attributes set by a fork are not visible to the page or
+ * to other forks, and attributes set by the page after the fork was created are not visible to the fork.</p>
+ *
+ * @since 6.12
+ */
+public class ForkedHttpServletRequest extends HttpServletRequestWrapper
+{
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+    /**
+     * <p>This must be called on the thread that owns the supplied request.</p>
+     *
+     * @param request The request to wrap.
+     */
+    public ForkedHttpServletRequest(HttpServletRequest request)
+    {
+        super(request);
+        Enumeration<String> names = request.getAttributeNames();
+        while (names.hasMoreElements())
+        {
+            String name = names.nextElement();
+            this.attributes.put(name, request.getAttribute(name));
+        }
+    }
+
+    @Override
+    public Object getAttribute(String name)
+    {
+        return this.attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames()
+    {
+        return Collections.enumeration(this.attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object value)
+    {
+        if (value == null)
+        {
+            this.attributes.remove(name);
+        }
+        else
+        {
+            this.attributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name)
+    {
+        this.attributes.remove(name);
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.support;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.extensions.directives.HeadContentModelElement;
+import org.springframework.extensions.directives.OutputCSSDirective;
+import org.springframework.extensions.directives.OutputJavaScriptDirective;
+import org.springframework.extensions.directives.RecordingDeferredContentTargetModelElement;
+import org.springframework.extensions.surf.LinkBuilder;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.ServletUtil;
+import org.springframework.extensions.surf.extensibility.DeferredContentTargetModelElement;
+import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
+import org.springframework.extensions.surf.extensibility.impl.ExtensibilityModelImpl;
+import org.springframework.extensions.surf.util.FakeHttpServletResponse;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+/**
+ * <p>A {@link RequestContext} forked from the context of the current request so that part of the page can be
+ * rendered on another thread. The fork writes into its own buffer and its own root {@link ExtensibilityModel}.
+ * Dependencies requested for the deferred JavaScript and CSS output of the page are recorded against stand-ins for
+ * the page's output elements and are only passed on to them by {@link #join()}. This should be called on the
+ * request thread at the point in the page where the forked output belongs so that the dependencies keep their
+ * document order.</p>
+ * <p>A fork is used as follows:</p>
+ * <ol>
+ * <li>{@link #fork(AbstractRequestContext)} on the request thread</li>
+ * <li>{@link #begin()}, the rendering and then {@link #end()} on the rendering thread</li>
+ * <li>{@link #join()} and {@link #getContent()} back on the request thread</li>
+ * </ol>
+ * <p>{@link #begin()} binds the fork, the Spring request attributes and the locale of the request to the rendering
+ * thread (see {@link ForkedThreadBindings}). The persisters and the remote connectors read the current user and
+ * credentials from these thread-locals, and the model and messages of a web script are built for the current locale,
+ * so a worker thread can only render for the request once the fork is bound.</p>
+ * <p>The fork renders with its own {@link ForkedHttpServletRequest} wrapping the request of the page, so the request
+ * attributes read and written by the fork are a copy taken when the fork is created and changes made to them by the
+ * fork are not seen by the page.</p>
+ * <p>A fork can also be rendered on the request thread itself, in which case {@link #end()} restores the bindings
+ * that {@link #begin()} replaced.</p>
+ * 
+ * @since 6.12
+ */
+public class ForkedRequestContext extends AbstractRequestContext
+{
+    private static final long serialVersionUID = 4472830791255218375L;
+
+    private final AbstractRequestContext parent;
+    
+    /**
+     * <p>The deferred content targets of the page model (by id) that the fork records dependencies for.</p>
+     */
+    private final transient Map<String, DeferredContentTargetModelElement> deferredContentTargets;
+    
+    /**
+     * <p>The stand-ins for the deferred content targets that have been requested by the fork.</p>
+     */
+    private final transient Map<String, RecordingDeferredContentTargetModelElement> recordingTargets = new HashMap<String, RecordingDeferredContentTargetModelElement>(4);
+    
+    private final transient ForkedThreadBindings threadBindings;
+    private final transient FakeHttpServletResponse buffer;
+    private transient ExtensibilityModel rootModel;
+    
+    /**
+     * <p>The Request Context of the thread that was replaced by {@link #begin()}.</p>
+     */
+    private transient RequestContext previousContext;
+    
+    private ForkedRequestContext(AbstractRequestContext parent, Map<String, DeferredContentTargetModelElement> deferredContentTargets)
+    {
+        super(parent);
+        this.parent = parent;
+        this.deferredContentTargets = deferredContentTargets;
+        
+        // Give the fork its own copy of the request attributes, using a single wrapper for each request...
+        Map<HttpServletRequest, HttpServletRequest> forkedRequests = new IdentityHashMap<HttpServletRequest, HttpServletRequest>(4);
+        WebRequest request = parent.getRequest();
+        if (request instanceof ServletWebRequest)
+        {
+            ServletWebRequest servletRequest = (ServletWebRequest) request;
+            setRequest(new ServletWebRequest(forkRequest(servletRequest.getRequest(), forkedRequests), servletRequest.getResponse()));
+        }
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes instanceof ServletRequestAttributes)
+        {
+            requestAttributes = new ServletRequestAttributes(forkRequest(((ServletRequestAttributes) requestAttributes).getRequest(), forkedRequests));
+        }
+        this.threadBindings = new ForkedThreadBindings(requestAttributes);
+        this.buffer = new FakeHttpServletResponse(parent.getResponse());
+        setResponse(this.buffer);
+    }
+    
+    /**
+     * <p>Forks the supplied context. This must be called on the thread that owns the supplied context, which remains
+     * bound to that thread.</p>
+     * 
+     * @param parent The context to fork.
+     * @return A new {@link ForkedRequestContext}
+     */
+    public static ForkedRequestContext fork(AbstractRequestContext parent)
+    {
+        Map<String, DeferredContentTargetModelElement> targets = new HashMap<String, DeferredContentTargetModelElement>(4);
+        ExtensibilityModel model = parent.getCurrentExtensibilityModel();
+        if (model != null)
+        {
+            addDeferredContentTarget(targets, model, OutputJavaScriptDirective.OUTPUT_DEPENDENCY_DIRECTIVE_ID, OutputJavaScriptDirective.OUTPUT_JS_DEPENDENCIES_DIRECTIVE_NAME);
+            addDeferredContentTarget(targets, model, OutputCSSDirective.OUTPUT_DEPENDENCY_DIRECTIVE_ID, OutputCSSDirective.OUTPUT_CSS_DEPENDENCIES_DIRECTIVE_NAME);
+            addDeferredContentTarget(targets, model, HeadContentModelElement.HEAD_CONTENT_ID, HeadContentModelElement.HEAD_CONTENT_NAME);
+        }
+        
+        // Constructing a Request Context binds it to the current thread so restore the binding afterwards...
+        RequestContext current = getRequestContext();
+        try
+        {
+            return new ForkedRequestContext(parent, targets);
+        }
+        finally
+        {
+            setRequestContext(current);
+        }
+    }
+    
+    /**
+     * <p>Forks the supplied context to render output that is cached and replayed into other requests with a
+     * {@link RenderedFragment}. Unlike {@link #fork(AbstractRequestContext)} the fork forgets the dependencies that
+     * the page has already requested so that the output records all of the dependencies that it requires.</p>
+     * 
+     * @param parent The context to fork.
+     * @return A new {@link ForkedRequestContext}
+     */
+    public static ForkedRequestContext forkForCaching(AbstractRequestContext parent)
+    {
+        ForkedRequestContext fork = fork(parent);
+        fork.clearRequestedDependencies();
+        return fork;
+    }
+    
+    /**
+     * <p>Wraps the supplied request with a {@link ForkedHttpServletRequest}. The request of the view is held as an
+     * attribute (see {@link ServletUtil#getRequest()}) so it is forked in the same way.</p>
+     * 
+     * @param request The request to fork.
+     * @param forkedRequests The requests that have already been forked.
+     * @return The forked request.
+     */
+    private static HttpServletRequest forkRequest(HttpServletRequest request, Map<HttpServletRequest, HttpServletRequest> forkedRequests)
+    {
+        HttpServletRequest forkedRequest = forkedRequests.get(request);
+        if (forkedRequest == null)
+        {
+            forkedRequest = new ForkedHttpServletRequest(request);
+            forkedRequests.put(request, forkedRequest);
+            Object viewRequest = forkedRequest.getAttribute(ServletUtil.VIEW_REQUEST_ATTRIBUTE_NAME);
+            if (viewRequest instanceof HttpServletRequest)
+            {
+                forkedRequest.setAttribute(ServletUtil.VIEW_REQUEST_ATTRIBUTE_NAME, forkRequest((HttpServletRequest) viewRequest, forkedRequests));
+            }
+        }
+        return forkedRequest;
+    }
+    
+    private static void addDeferredContentTarget(Map<String, DeferredContentTargetModelElement> targets, 
+                                                 ExtensibilityModel model, 
+                                                 String id, 
+                                                 String directiveName)
+    {
+        DeferredContentTargetModelElement target = model.getDeferredContent(id, directiveName);
+        if (target != null)
+        {
+            targets.put(id, target);
+        }
+    }
+    
+    /**
+     * <p>Binds the fork to the current thread and opens its root {@link ExtensibilityModel}.</p>
+     */
+    public void begin()
+    {
+        this.previousContext = getRequestContext();
+        setRequestContext(this);
+        this.threadBindings.bind();
+        this.rootModel = openExtensibilityModel();
+    }
+    
+    /**
+     * <p>Flushes the root {@link ExtensibilityModel} into the buffer and releases the fork from the current thread,
+     * restoring any bindings that it replaced.</p>
+     * 
+     * @throws IOException
+     */
+    public void end() throws IOException
+    {
+        try
+        {
+            if (this.rootModel != null)
+            {
+                closeExtensibilityModel(this.rootModel, getResponse().getWriter());
+                this.rootModel = null;
+            }
+        }
+        finally
+        {
+            this.threadBindings.restore();
+            release();
+            if (this.previousContext != null)
+            {
+                setRequestContext(this.previousContext);
+            }
+            this.previousContext = null;
+        }
+    }
+    
+    /**
+     * <p>Captures the output and the requests for dependencies of the fork so that they can be replayed into other
+     * requests. This must be called after {@link #end()} and before {@link #join()}.</p>
+     * 
+     * @return A new {@link RenderedFragment}
+     * @throws UnsupportedEncodingException
+     */
+    public RenderedFragment capture() throws UnsupportedEncodingException
+    {
+        return new RenderedFragment(getContent(), 
+                                    this.recordingTargets.values(), 
+                                    getExtensionModuleJsDependencies(), 
+                                    getExtensionModuleCssDependencies(), 
+                                    getRenderingComponents());
+    }
+    
+    /**
+     * <p>Merges the state collected by the fork back into the context it was forked from and passes the recorded
+     * dependency requests on to the page model. This must be called on the thread that owns that context.</p>
+     */
+    public void join()
+    {
+        this.parent.joinForkedContext(this);
+        for (RecordingDeferredContentTargetModelElement target: this.recordingTargets.values())
+        {
+            target.replay();
+        }
+    }
+    
+    /**
+     * @return The output rendered by the fork.
+     * @throws UnsupportedEncodingException
+     */
+    public String getContent() throws UnsupportedEncodingException
+    {
+        return this.buffer.getContentAsString();
+    }
+    
+    @Override
+    protected ExtensibilityModel createExtensibilityModel(ExtensibilityModel parentModel)
+    {
+        ExtensibilityModel model;
+        if (parentModel == null)
+        {
+            model = new ForkedExtensibilityModel();
+        }
+        else
+        {
+            model = super.createExtensibilityModel(parentModel);
+        }
+        return model;
+    }
+    
+    public LinkBuilder getLinkBuilder()
+    {
+        return this.parent.getLinkBuilder();
+    }
+
+    public boolean isExtensibilitySuppressed()
+    {
+        return this.parent.isExtensibilitySuppressed();
+    }
+    
+    /**
+     * <p>The root model of the fork. It returns the recording stand-ins for the deferred content targets of the 
+     * page model so that dependency directives behave as they would when rendering directly into the page.</p>
+     */
+    private class ForkedExtensibilityModel extends ExtensibilityModelImpl
+    {
+        private ForkedExtensibilityModel()
+        {
+            super(null, ForkedRequestContext.this);
+        }
+        
+        @Override
+        public DeferredContentTargetModelElement getDeferredContent(String id, String directiveName)
+        {
+            DeferredContentTargetModelElement target = recordingTargets.get(id);
+            if (target == null)
+            {
+                DeferredContentTargetModelElement pageTarget = deferredContentTargets.get(id);
+                if (pageTarget != null)
+                {
+                    RecordingDeferredContentTargetModelElement recordingTarget = new RecordingDeferredContentTargetModelElement(id, directiveName, pageTarget);
+                    recordingTargets.put(id, recordingTarget);
+                    target = recordingTarget;
+                }
+                else
+                {
+                    target = super.getDeferredContent(id, directiveName);
+                }
+            }
+            return target;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.support;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>The tasks forked by a request, by key. Each task is either claimed by the request with {@link #claim(Object)}
+ * or cancelled with {@link #cancel()}, so that no task outlives the part of the request that forked it. This matters
+ * because a forked rendering shares the request level state (the user, page, connectors, etc) with the request thread.</p>
+ * <p>A task that is cancelled before it starts is never run. A task that is cancelled or abandoned while it is
+ * running is interrupted and waited for, so once {@link #claim(Object)} or {@link #cancel()} returns the task is no
+ * longer running.</p>
+ * <p>Instances are not thread safe and should only be used by the thread that owns the request.</p>
+ * 
+ * @since 6.12
+ */
+public class ForkedTasks<K, V>
+{
+    private final ExecutorService executor;
+    private final Map<K, ForkedTask> tasks = new HashMap<K, ForkedTask>(8);
+    
+    /**
+     * @param executor The executor to run the tasks on.
+     */
+    public ForkedTasks(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+    
+    /**
+     * <p>Submits a task to the executor.</p>
+     * 
+     * @param key The key of the task.
+     * @param task The task.
+     * @return <code>true</code> if the task was submitted or <code>false</code> if a task has already been submitted
+     *         for the key or the executor rejected the task.
+     */
+    public boolean submit(K key, Callable<V> task)
+    {
+        boolean submitted = false;
+        if (!this.tasks.containsKey(key))
+        {
+            ForkedTask forkedTask = new ForkedTask(task);
+            try
+            {
+                forkedTask.future = this.executor.submit(forkedTask);
+                this.tasks.put(key, forkedTask);
+                submitted = true;
+            }
+            catch (RejectedExecutionException e)
+            {
+                // The executor is saturated so the caller should run the task itself
+            }
+        }
+        return submitted;
+    }
+    
+    /**
+     * @return The number of tasks that have been submitted but not yet claimed or cancelled.
+     */
+    public int size()
+    {
+        return this.tasks.size();
+    }
+    
+    /**
+     * <p>Waits for the task submitted for the supplied key to complete and returns its result. If the current thread
+     * is interrupted while waiting then the task is cancelled, the interrupt is restored and <code>null</code> is
+     * returned once the task has stopped.</p>
+     * 
+     * @param key The key of the task.
+     * @return The result of the task or <code>null</code> if no task was submitted for the key or the wait was interrupted.
+     * @throws ExecutionException If the task failed.
+     */
+    public V claim(K key) throws ExecutionException
+    {
+        V result = null;
+        ForkedTask task = this.tasks.remove(key);
+        if (task != null)
+        {
+            try
+            {
+                result = task.future.get();
+            }
+            catch (InterruptedException e)
+            {
+                task.cancel();
+                task.awaitFinished();
+                Thread.currentThread().interrupt();
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * <p>Cancels all of the tasks that have not been claimed, waiting for any that are running to stop.</p>
+     * 
+     * @return The number of tasks that were cancelled.
+     */
+    public int cancel()
+    {
+        // Every task is cancelled before waiting for any of them so that a task waiting for a thread does not start
+        // when a cancelled task releases one...
+        int cancelled = this.tasks.size();
+        for (ForkedTask task: this.tasks.values())
+        {
+            task.cancel();
+        }
+        for (ForkedTask task: this.tasks.values())
+        {
+            task.awaitFinished();
+        }
+        this.tasks.clear();
+        return cancelled;
+    }
+    
+    /**
+     * <p>Runs a task unless it has been cancelled first and signals when it has finished.</p>
+     */
+    private class ForkedTask implements Callable<V>
+    {
+        private final Callable<V> task;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private Future<V> future;
+        
+        private ForkedTask(Callable<V> task)
+        {
+            this.task = task;
+        }
+        
+        public V call() throws Exception
+        {
+            V result = null;
+            if (this.started.compareAndSet(false, true))
+            {
+                try
+                {
+                    result = this.task.call();
+                }
+                finally
+                {
+                    this.finished.countDown();
+                }
+            }
+            return result;
+        }
+        
+        /**
+         * <p>Cancels the task. A task that has not started will never run and a running task is interrupted.</p>
+         */
+        private void cancel()
+        {
+            if (this.started.compareAndSet(false, true))
+            {
+                this.future.cancel(false);
+                this.finished.countDown();
+            }
+            else
+            {
+                this.future.cancel(true);
+            }
+        }
+        
+        /**
+         * <p>Waits for a started task to finish, without giving up if the current thread is interrupted.</p>
+         */
+        private void awaitFinished()
+        {
+            boolean interrupted = false;
+            while (this.finished.getCount() != 0)
+            {
+                try
+                {
+                    this.finished.await();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
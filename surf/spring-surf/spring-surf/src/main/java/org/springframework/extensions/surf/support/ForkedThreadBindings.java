@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.support;
+
+import java.util.Locale;
+
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.extensions.surf.util.I18NUtil;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * <p>The thread-local state of a request, other than its {@link org.springframework.extensions.surf.RequestContext},
+ * that a fork needs on the thread that renders it: the Spring request attributes, the Spring locale context and the
+ * {@link I18NUtil} locale. The locale and the locale context are captured when the bindings are created, which must
+ * be on the thread that owns the request.</p>
+ * <p>{@link #bind()} binds the captured state to the current thread and {@link #restore()} puts back whatever it
+ * replaced, so the bindings can be used on a pooled thread as well as on the request thread itself.</p>
+ *
+ * @since 6.12
+ */
+public class ForkedThreadBindings
+{
+    private final RequestAttributes requestAttributes;
+    private final LocaleContext localeContext;
+    private final Locale locale;
+
+    private RequestAttributes previousAttributes;
+    private LocaleContext previousLocaleContext;
+    private Locale previousLocale;
+
+    /**
+     * <p>Captures the request attributes, locale context and locale of the current thread.</p>
+     */
+    public ForkedThreadBindings()
+    {
+        this(RequestContextHolder.getRequestAttributes());
+    }
+
+    /**
+     * <p>Captures the locale context and locale of the current thread.</p>
+     *
+     * @param requestAttributes The request attributes to bind in place of those of the current thread.
+     */
+    public ForkedThreadBindings(RequestAttributes requestAttributes)
+    {
+        this.requestAttributes = requestAttributes;
+        this.localeContext = LocaleContextHolder.getLocaleContext();
+        this.locale = I18NUtil.getLocale();
+    }
+
+    /**
+     * <p>Binds the captured state to the current thread.</p>
+     */
+    public void bind()
+    {
+        this.previousAttributes = RequestContextHolder.getRequestAttributes();
+        this.previousLocaleContext = LocaleContextHolder.getLocaleContext();
+        this.previousLocale = I18NUtil.getLocale();
+        RequestContextHolder.setRequestAttributes(this.requestAttributes);
+        LocaleContextHolder.setLocaleContext(this.localeContext);
+        I18NUtil.setLocale(this.locale);
+    }
+
+    /**
+     * <p>Restores the state that {@link #bind()} replaced on the current thread.</p>
+     */
+    public void restore()
+    {
+        if (this.previousAttributes != null)
+        {
+            RequestContextHolder.setRequestAttributes(this.previousAttributes);
+        }
+        else
+        {
+            RequestContextHolder.resetRequestAttributes();
+        }
+        LocaleContextHolder.setLocaleContext(this.previousLocaleContext);
+        I18NUtil.setLocale(this.previousLocale);
+        this.previousAttributes = null;
+        this.previousLocaleContext = null;
+        this.previousLocale = null;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.springframework.extensions.directives.DependencyDeferredContentSourceModelElement;
+import org.springframework.extensions.directives.RecordingDeferredContentTargetModelElement;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.extensibility.DeferredContentSourceModelElement;
+import org.springframework.extensions.surf.extensibility.DeferredContentTargetModelElement;
+import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
+import org.springframework.extensions.surf.types.Component;
+
+/**
+ * <p>The output of part of a page captured from a {@link ForkedRequestContext} together with the dependencies that
+ * were requested whilst rendering it. Replaying the fragment into a request registers the dependencies with the
+ * deferred content targets of the page being rendered so that the aggregated JavaScript and CSS output of the page
+ * is the same as if the fragment had been rendered again. Instances are immutable and can be shared between 
+ * requests: the recorded {@link DependencyDeferredContentSourceModelElement} instances are copied when the fragment is
+ * captured and again for each replay, because the model of a request marks its elements as removed when they are
+ * edited.</p>
+ * 
+ * @since 6.12
+ */
+public class RenderedFragment
+{
+    private final String content;
+    
+    /**
+     * <p>The recorded {@link DeferredContentSourceModelElement} instances for each target that they were registered with.</p>
+     */
+    private final List<RecordedTarget> recordedTargets;
+    
+    private final List<String> jsDependencies;
+    private final Map<String, List<String>> cssDependencies;
+    private final List<Component> components;
+    
+    protected RenderedFragment(String content, 
+                     Collection<RecordingDeferredContentTargetModelElement> recordingTargets,
+                     Set<String> jsDependencies,
+                     Map<String, ? extends Set<String>> cssDependencies,
+                     Component[] components)
+    {
+        this.content = content;
+        this.recordedTargets = new ArrayList<RecordedTarget>(recordingTargets.size());
+        for (RecordingDeferredContentTargetModelElement target: recordingTargets)
+        {
+            if (!target.getSourceElements().isEmpty())
+            {
+                this.recordedTargets.add(new RecordedTarget(target));
+            }
+        }
+        this.jsDependencies = new ArrayList<String>(jsDependencies);
+        this.cssDependencies = new LinkedHashMap<String, List<String>>(4);
+        for (Entry<String, ? extends Set<String>> entry: cssDependencies.entrySet())
+        {
+            this.cssDependencies.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+        }
+        if (components != null)
+        {
+            List<Component> list = new ArrayList<Component>(components.length);
+            Collections.addAll(list, components);
+            this.components = list;
+        }
+        else
+        {
+            this.components = Collections.emptyList();
+        }
+    }
+    
+    /**
+     * @return The captured output.
+     */
+    public String getContent()
+    {
+        return this.content;
+    }
+    
+    /**
+     * <p>Requests the dependencies of the fragment for the supplied {@link RequestContext} and records the components
+     * that it rendered. The content itself should be written at the point in the page where the fragment belongs.</p>
+     * 
+     * @param context The current {@link RequestContext}
+     */
+    public void replay(RequestContext context)
+    {
+        ExtensibilityModel model = context.getCurrentExtensibilityModel();
+        if (model != null)
+        {
+            for (RecordedTarget recordedTarget: this.recordedTargets)
+            {
+                DeferredContentTargetModelElement target = model.getDeferredContent(recordedTarget.id, recordedTarget.directiveName);
+                if (target != null)
+                {
+                    for (DeferredContentSourceModelElement sourceElement: recordedTarget.sourceElements)
+                    {
+                        target.registerDeferredSourceElement(copy(sourceElement, target));
+                    }
+                }
+            }
+        }
+        for (String dep: this.jsDependencies)
+        {
+            context.addJSDependency(dep);
+        }
+        for (Entry<String, List<String>> entry: this.cssDependencies.entrySet())
+        {
+            for (String dep: entry.getValue())
+            {
+                context.addCssDependency(dep, entry.getKey());
+            }
+        }
+        for (Component component: this.components)
+        {
+            context.setRenderingComponent(component);
+        }
+    }
+    
+    /**
+     * <p>The {@link DeferredContentSourceModelElement} instances recorded for a single target.</p>
+     */
+    private static final class RecordedTarget
+    {
+        private final String id;
+        private final String directiveName;
+        private final List<DeferredContentSourceModelElement> sourceElements;
+        
+        private RecordedTarget(RecordingDeferredContentTargetModelElement target)
+        {
+            this.id = target.getId();
+            this.directiveName = target.getDirectiveName();
+            this.sourceElements = new ArrayList<DeferredContentSourceModelElement>(target.getSourceElements().size());
+            for (DeferredContentSourceModelElement sourceElement: target.getSourceElements())
+            {
+                // The recorded elements are also registered with the page being rendered when the fork is joined...
+                this.sourceElements.add(copy(sourceElement, null));
+            }
+        }
+    }
+    
+    /**
+     * <p>Copies the supplied {@link DeferredContentSourceModelElement} for the supplied target. Elements that cannot be
+     * copied are shared as they are.</p>
+     */
+    private static DeferredContentSourceModelElement copy(DeferredContentSourceModelElement sourceElement, DeferredContentTargetModelElement target)
+    {
+        if (sourceElement instanceof DependencyDeferredContentSourceModelElement)
+        {
+            sourceElement = ((DependencyDeferredContentSourceModelElement) sourceElement).copy(target);
+        }
+        return sourceElement;
+    }
+}
@@ -62,6 +62,19 @@ public abstract class ThreadLocalRequestContext extends BaseFactoryBean implemen
         return instance.get();
     }
 
+    /**
+     * Binds the given RequestContext to the current thread, or clears the binding if it is null
+     *
+     * @param context RequestContext
+     */
+    protected static void setRequestContext(RequestContext context)
+    {
+        if (context == null)
+            instance.remove();
+        else
+            instance.set(context);
+    }
+
     /**
      * Release resources
      */
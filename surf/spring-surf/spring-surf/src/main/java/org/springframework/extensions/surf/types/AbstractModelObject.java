@@ -20,6 +20,7 @@
 package org.springframework.extensions.surf.types;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,7 @@ import org.dom4j.Element;
 import org.springframework.extensions.surf.FrameworkBean;
 import org.springframework.extensions.surf.ModelHelper;
 import org.springframework.extensions.surf.ModelObject;
+import org.springframework.extensions.surf.ModelObjectPropertyListener;
 import org.springframework.extensions.surf.ModelPersisterInfo;
 import org.springframework.extensions.surf.resource.ModelObjectResourceProvider;
 import org.springframework.extensions.surf.resource.Resource;
@@ -57,8 +59,14 @@ public abstract class AbstractModelObject implements ModelObject, ResourceProvid
     private static final String CONTAINER_PROPERTIES = "properties";
     private static final String CONTAINER_RESOURCES = "resources";
     
-    /** internal serialised version of the ModelObject as XML */
-    private String documentXML;
+    /** whether new model objects use the compact storage mode - see setCompactStorageEnabled() */
+    private static volatile boolean compactStorageEnabled = false;
+    
+    /** internal serialised version of the ModelObject as XML - null in the compact storage mode */
+    private volatile String documentXML;
+    
+    /** compact storage mode only - serialised XML of the elements that are not held in the property maps */
+    private volatile String structureXML;
     
     protected final ModelPersisterInfo info;
     protected String id;
@@ -80,6 +88,9 @@ public abstract class AbstractModelObject implements ModelObject, ResourceProvid
     /** Lock object for property map construction */
     private ReadWriteLock propertyLock = new ReentrantReadWriteLock();
     
+    /** notified of property changes - see setPropertyListener() */
+    private transient volatile ModelObjectPropertyListener propertyListener;
+    
     
     /**
      * Constructs a new model object
@@ -103,17 +114,257 @@ public abstract class AbstractModelObject implements ModelObject, ResourceProvid
         this.id = null;
     }
     
+    /**
+     * Sets whether model objects created from now on use the compact storage mode. The mode is
+     * disabled by default.
+     * <p>
+     * In the compact storage mode the properties of an object are read into compact maps with
+     * interned keys when the object is created and the serialised XML is released. The object
+     * retains only the XML of any elements that are not simple properties (such as the resources
+     * of the object) and the full XML is built from the property maps each time it is requested,
+     * for example when the object is persisted. Setting a property no longer parses and rewrites
+     * the XML. The simple properties are written after the remaining elements, so the element
+     * order of the XML may differ from the document the object was created from.
+     * 
+     * @param enabled       true to enable the compact storage mode
+     */
+    public static void setCompactStorageEnabled(boolean enabled)
+    {
+        compactStorageEnabled = enabled;
+    }
+    
+    /**
+     * @return true if new model objects use the compact storage mode
+     */
+    public static boolean isCompactStorageEnabled()
+    {
+        return compactStorageEnabled;
+    }
+    
     /**
      * Method to be used by sub-classes to update the internal serialised representation
      * of the ModelObject from a given XML DOM. The ModelObject itself only ever maintains
      * a serialised XML representation to reduce memory usage as many 10000's of ModelObject
      * instances are stored in the various persister caches.
+     * <p>
+     * In the compact storage mode the property maps are rebuilt from the given document.
      * 
      * @param document      Document for XML serialisation
      */
     protected void updateXML(Document document)
     {
-        this.documentXML = XMLUtil.toXML(document);
+        // an object keeps the storage mode it was created with
+        if (this.structureXML != null || (this.documentXML == null && compactStorageEnabled))
+        {
+            updateCompact((Document)document.clone());
+        }
+        else
+        {
+            String xml = XMLUtil.toXML(document);
+            this.propertyLock.writeLock().lock();
+            try
+            {
+                this.documentXML = xml;
+            }
+            finally
+            {
+                this.propertyLock.writeLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Reads the properties of the given document into compact property maps and retains the
+     * XML of the elements that remain once the simple properties have been removed. A simple
+     * property has no attributes and no child elements and is the only element of its name.
+     */
+    private void updateCompact(Document document)
+    {
+        Map<String, Serializable> modelProperties = new CompactPropertyMap();
+        Map<String, Serializable> customProperties = new CompactPropertyMap();
+        
+        Element root = document.getRootElement();
+        List<Element> elements = new ArrayList<Element>(root.elements());
+        for (int i = 0; i < elements.size(); i++)
+        {
+            Element el = elements.get(i);
+            String elementName = el.getName();
+            if (CONTAINER_PROPERTIES.equals(elementName))
+            {
+                List<Element> properties = new ArrayList<Element>(el.elements());
+                for (int j = 0; j < properties.size(); j++)
+                {
+                    Element property = properties.get(j);
+                    customProperties.put(property.getName(), property.getTextTrim());
+                    if (isSimpleProperty(el, property))
+                    {
+                        el.remove(property);
+                    }
+                }
+                if (el.elements().isEmpty() && el.attributeCount() == 0)
+                {
+                    root.remove(el);
+                }
+            }
+            else if (!CONTAINER_RESOURCES.equals(elementName))
+            {
+                modelProperties.put(elementName, el.getStringValue());
+                if (isSimpleProperty(root, el))
+                {
+                    root.remove(el);
+                }
+            }
+        }
+        
+        String xml = XMLUtil.toXML(document);
+        this.propertyLock.writeLock().lock();
+        try
+        {
+            this.modelProperties = modelProperties;
+            this.customProperties = customProperties;
+            this.structureXML = xml;
+            this.documentXML = null;
+        }
+        finally
+        {
+            this.propertyLock.writeLock().unlock();
+        }
+    }
+    
+    private static boolean isSimpleProperty(Element parent, Element el)
+    {
+        return el.elements().isEmpty() && el.attributeCount() == 0 && parent.elements(el.getName()).size() == 1;
+    }
+    
+    /**
+     * Builds the XML of an object in the compact storage mode from the retained structure and
+     * the property maps. The caller must hold the property read or write lock.
+     */
+    private String buildXML()
+    {
+        Document document = parseXML(this.structureXML);
+        Element root = document.getRootElement();
+        for (Map.Entry<String, Serializable> property : this.modelProperties.entrySet())
+        {
+            // an element that was not a simple property is already part of the structure
+            if (root.element(property.getKey()) == null)
+            {
+                root.addElement(property.getKey()).setText(String.valueOf(property.getValue()));
+            }
+        }
+        if (!this.customProperties.isEmpty())
+        {
+            Element properties = root.element(CONTAINER_PROPERTIES);
+            if (properties == null)
+            {
+                properties = root.addElement(CONTAINER_PROPERTIES);
+            }
+            for (Map.Entry<String, Serializable> property : this.customProperties.entrySet())
+            {
+                if (properties.element(property.getKey()) == null)
+                {
+                    properties.addElement(property.getKey()).setText(String.valueOf(property.getValue()));
+                }
+            }
+        }
+        return XMLUtil.toXML(document);
+    }
+    
+    /**
+     * Writes a property change to the serialised XML. A <code>null</code> value removes the property.
+     * The caller must hold the property write lock and have updated the property maps.
+     */
+    private void applyChange(boolean custom, String propertyName, String propertyValue)
+    {
+        String structure = this.structureXML;
+        if (structure == null)
+        {
+            Document document = parseXML(this.documentXML);
+            Element root = document.getRootElement();
+            Element parent = root;
+            if (custom)
+            {
+                parent = root.element(CONTAINER_PROPERTIES);
+                if (parent == null)
+                {
+                    if (propertyValue == null)
+                    {
+                        return;
+                    }
+                    parent = root.addElement(CONTAINER_PROPERTIES);
+                }
+            }
+            
+            Element el = parent.element(propertyName);
+            if (propertyValue != null)
+            {
+                if (el == null)
+                {
+                    el = parent.addElement(propertyName);
+                }
+                el.setText(propertyValue);
+            }
+            else if (el != null)
+            {
+                parent.remove(el);
+            }
+            this.documentXML = XMLUtil.toXML(document);
+        }
+        else if (structure.indexOf('<' + propertyName) != -1)
+        {
+            // compact storage - the property maps now hold the property so remove any element
+            // of the same name that was retained in the structure
+            Document document = parseXML(structure);
+            Element parent = document.getRootElement();
+            if (custom)
+            {
+                parent = parent.element(CONTAINER_PROPERTIES);
+            }
+            if (parent != null)
+            {
+                List<Element> elements = new ArrayList<Element>(parent.elements(propertyName));
+                for (int i = 0; i < elements.size(); i++)
+                {
+                    parent.remove(elements.get(i));
+                }
+                this.structureXML = XMLUtil.toXML(document);
+            }
+        }
+    }
+    
+    private static Document parseXML(String xml)
+    {
+        try
+        {
+            return XMLUtil.parse(xml);
+        }
+        catch (DocumentException err)
+        {
+            throw new IllegalStateException("Unable to parse ModelObject XML content: " + xml);
+        }
+    }
+
+    /**
+     * Sets the listener to notify when a property of this object is changed in place. An object is
+     * held by a single persister cache, so only one listener is supported - a later call replaces it.
+     * 
+     * @param listener      the listener (may be <code>null</code>)
+     */
+    public final void setPropertyListener(ModelObjectPropertyListener listener)
+    {
+        this.propertyListener = listener;
+    }
+    
+    /**
+     * Notifies the listener of a property change. Called after the property lock has been released.
+     */
+    private void firePropertyChanged(String propertyName)
+    {
+        ModelObjectPropertyListener listener = this.propertyListener;
+        if (listener != null)
+        {
+            listener.propertyChanged(this, propertyName);
+        }
     }
 
     /**
@@ -244,14 +495,7 @@ public abstract class AbstractModelObject implements ModelObject, ResourceProvid
      */
     public final Document getDocument()
     {
-        try
-        {
-            return XMLUtil.parse(this.documentXML);
-        }
-        catch (DocumentException err)
-        {
-            throw new IllegalStateException("Unable to parse ModelObject XML content: " + this.documentXML);
-        }
+        return parseXML(toXML());
     }
 
     /* (non-Javadoc)
@@ -259,7 +503,20 @@ public abstract class AbstractModelObject implements ModelObject, ResourceProvid
      */
     public final String toXML()
     {
-        return this.documentXML;
+        if (this.structureXML == null)
+        {
+            return this.documentXML;
+        }
+        
+        this.propertyLock.readLock().lock();
+        try
+        {
+            return buildXML();
+        }
+        finally
+        {
+            this.propertyLock.readLock().unlock();
+        }
     }
     
     
@@ -399,24 +656,15 @@ public abstract class AbstractModelObject implements ModelObject, ResourceProvid
         this.propertyLock.writeLock().lock();
         try
         {
-            Document document = getDocument();
-            Element el = document.getRootElement().element(propertyName);
-            if (el == null)
-            {
-                el = document.getRootElement().addElement(propertyName);
-            }
-            
-            // put value
-            el.setText(propertyValue);
-            
             // update caches
             properties.put(propertyName, propertyValue);
-            updateXML(document);
+            applyChange(false, propertyName, propertyValue);
         }
         finally
         {
             this.propertyLock.writeLock().unlock();
         }
+        firePropertyChanged(propertyName);
     }
 
     /* (non-Javadoc)
@@ -430,25 +678,26 @@ public abstract class AbstractModelObject implements ModelObject, ResourceProvid
         }
         
         // do the remove
+        boolean removed = false;
         Map<String, Serializable> properties = getModelProperties();
         this.propertyLock.writeLock().lock();
         try
         {
-            Document document = getDocument();
-            Element el = document.getRootElement().element(propertyName);
-            if (el != null)
+            // update the caches
+            if (properties.remove(propertyName) != null)
             {
-                document.getRootElement().remove(el);
-                
-                // update the caches
-                properties.remove(propertyName);
-                updateXML(document);
+                applyChange(false, propertyName, null);
+                removed = true;
             }
         }
         finally
         {
             this.propertyLock.writeLock().unlock();
         }
+        if (removed)
+        {
+            firePropertyChanged(propertyName);
+        }
     }
 
     
@@ -500,30 +749,15 @@ public abstract class AbstractModelObject implements ModelObject, ResourceProvid
         this.propertyLock.writeLock().lock();
         try
         {
-            Document document = getDocument();
-            Element properties = document.getRootElement().element(CONTAINER_PROPERTIES);
-            if (properties == null)
-            {
-                properties = document.getRootElement().addElement(CONTAINER_PROPERTIES);
-            }
-            
-            Element el = properties.element(propertyName);
-            if (el == null)
-            {
-                el = properties.addElement(propertyName);
-            }
-            
-            // put value
-            el.setText(propertyValue);
-            
             // update the caches
             props.put(propertyName, propertyValue);
-            updateXML(document);
+            applyChange(true, propertyName, propertyValue);
         }
         finally
         {
             this.propertyLock.writeLock().unlock();
         }
+        firePropertyChanged(propertyName);
     }
 
     /* (non-Javadoc)
@@ -536,30 +770,26 @@ public abstract class AbstractModelObject implements ModelObject, ResourceProvid
             throw new IllegalArgumentException("Property Name is mandatory.");
         }
         
+        boolean removed = false;
         Map<String, Serializable> props = getCustomProperties();
         this.propertyLock.writeLock().lock();
         try
         {
             // do the remove
-            Document document = getDocument();
-            Element properties = document.getRootElement().element(CONTAINER_PROPERTIES);
-            if (properties != null)
+            if (props.remove(propertyName) != null)
             {
-                Element el = properties.element(propertyName);
-                if (el != null)
-                {
-                    properties.remove(el);
-                    
-                    // update the caches
-                    props.remove(propertyName);
-                    updateXML(document);
-                }
+                applyChange(true, propertyName, null);
+                removed = true;
             }
         }
         finally
         {
             this.propertyLock.writeLock().unlock();
         }
+        if (removed)
+        {
+            firePropertyChanged(propertyName);
+        }
     }
     
     /* (non-Javadoc)
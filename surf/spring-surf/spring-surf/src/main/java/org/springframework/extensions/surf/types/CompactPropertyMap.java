@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.springframework.extensions.surf.types;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact copy-on-write property map used by {@link AbstractModelObject} to hold its model and custom properties
+ * in the compact storage mode.
+ * <p>
+ * Keys and values are stored in a single array of alternating entries rather than in hash buckets, which is smaller
+ * than a HashMap for the handful of properties a model object carries. Keys are interned so that the property names
+ * of many thousands of cached model objects share the same String instances.
+ * <p>
+ * Every update replaces the backing array, so readers and iterators always see a consistent snapshot and never
+ * throw a ConcurrentModificationException. Updates are expected to be rare compared to reads.
+ * 
+ * @since 6.12
+ */
+final class CompactPropertyMap extends AbstractMap<String, Serializable> implements Serializable
+{
+    private static final long serialVersionUID = 6254927601128455375L;
+    
+    private static final Object[] EMPTY = new Object[0];
+    
+    /** alternating key and value entries - replaced on every update */
+    private volatile Object[] table = EMPTY;
+    
+    
+    /**
+     * @return the index of the key in the given table, or -1 if it is not present
+     */
+    private static int indexOf(Object[] table, Object key)
+    {
+        for (int i = 0; i < table.length; i += 2)
+        {
+            if (table[i] == key || table[i].equals(key))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public int size()
+    {
+        return this.table.length >> 1;
+    }
+    
+    @Override
+    public boolean isEmpty()
+    {
+        return this.table.length == 0;
+    }
+    
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key != null && indexOf(this.table, key) != -1;
+    }
+    
+    @Override
+    public Serializable get(Object key)
+    {
+        if (key == null)
+        {
+            return null;
+        }
+        Object[] table = this.table;
+        int i = indexOf(table, key);
+        return i != -1 ? (Serializable)table[i + 1] : null;
+    }
+    
+    @Override
+    public synchronized Serializable put(String key, Serializable value)
+    {
+        if (key == null)
+        {
+            throw new IllegalArgumentException("Property Name is mandatory.");
+        }
+        Object[] table = this.table;
+        int i = indexOf(table, key);
+        Object[] copy;
+        if (i != -1)
+        {
+            copy = table.clone();
+            copy[i + 1] = value;
+        }
+        else
+        {
+            copy = new Object[table.length + 2];
+            System.arraycopy(table, 0, copy, 0, table.length);
+            copy[table.length] = key.intern();
+            copy[table.length + 1] = value;
+        }
+        this.table = copy;
+        return i != -1 ? (Serializable)table[i + 1] : null;
+    }
+    
+    @Override
+    public synchronized Serializable remove(Object key)
+    {
+        if (key == null)
+        {
+            return null;
+        }
+        Object[] table = this.table;
+        int i = indexOf(table, key);
+        if (i == -1)
+        {
+            return null;
+        }
+        Object[] copy = EMPTY;
+        if (table.length > 2)
+        {
+            copy = new Object[table.length - 2];
+            System.arraycopy(table, 0, copy, 0, i);
+            System.arraycopy(table, i + 2, copy, i, table.length - i - 2);
+        }
+        this.table = copy;
+        return (Serializable)table[i + 1];
+    }
+    
+    @Override
+    public synchronized void clear()
+    {
+        this.table = EMPTY;
+    }
+    
+    @Override
+    public Set<Map.Entry<String, Serializable>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String, Serializable>>()
+        {
+            @Override
+            public Iterator<Map.Entry<String, Serializable>> iterator()
+            {
+                return new EntryIterator(CompactPropertyMap.this.table);
+            }
+            
+            @Override
+            public int size()
+            {
+                return CompactPropertyMap.this.size();
+            }
+        };
+    }
+    
+    /**
+     * Iterates over a snapshot of the backing array. Removal is applied to the map rather than the snapshot.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, Serializable>>
+    {
+        private final Object[] snapshot;
+        private int next = 0;
+        private String last = null;
+        
+        EntryIterator(Object[] snapshot)
+        {
+            this.snapshot = snapshot;
+        }
+        
+        public boolean hasNext()
+        {
+            return this.next < this.snapshot.length;
+        }
+        
+        public Map.Entry<String, Serializable> next()
+        {
+            if (this.next >= this.snapshot.length)
+            {
+                throw new NoSuchElementException();
+            }
+            this.last = (String)this.snapshot[this.next];
+            Map.Entry<String, Serializable> entry = new SimpleImmutableEntry<String, Serializable>(
+                    this.last, (Serializable)this.snapshot[this.next + 1]);
+            this.next += 2;
+            return entry;
+        }
+        
+        public void remove()
+        {
+            if (this.last == null)
+            {
+                throw new IllegalStateException();
+            }
+            CompactPropertyMap.this.remove(this.last);
+            this.last = null;
+        }
+    }
+}
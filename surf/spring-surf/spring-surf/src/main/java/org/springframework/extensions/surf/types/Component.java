@@ -43,6 +43,10 @@ public interface Component extends ModelObject, Comparable<Component>, SurfBugDa
     public static String PROP_URI = "uri";
     public static String PROP_GUID = "guid";
     public static String PROP_INDEX = "index"; // Index only comes into play when a component is assigned to a component group
+    public static String PROP_CACHE_SCOPE = "cache-scope"; // The output is cached when this is "global", "page" or "user"
+    public static String PROP_CACHE_TTL = "cache-ttl"; // The number of seconds that cached output is used for
+    public static String PROP_CACHE_KEY_TOKENS = "cache-key-tokens"; // Comma separated request tokens the output depends on
+    public static String PROP_RENDER_IN_PARALLEL = "render-in-parallel"; // The bound region can be rendered ahead of the template when this is "true"
     
     
     /**
@@ -18,8 +18,11 @@
  */
 package org.springframework.extensions.surf.types;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -27,11 +30,13 @@ import org.dom4j.Element;
 import org.dom4j.tree.BaseElement;
 import org.dom4j.tree.DefaultDocument;
 import org.springframework.extensions.surf.ModelPersisterInfo;
+import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.extensibility.BasicExtensionModule;
 import org.springframework.extensions.surf.extensibility.Customization;
 import org.springframework.extensions.surf.extensibility.ExtensionModuleEvaluator;
 import org.springframework.extensions.surf.extensibility.XMLHelper;
 import org.springframework.extensions.surf.render.RenderUtil;
+import org.springframework.extensions.surf.uri.UriUtils;
 
 /**
  * <p>Representation of the configuration of a module that provides an extension. Modules consist
@@ -51,7 +56,14 @@ public class ExtensionModule extends BasicExtensionModule
         return key;
     }
 
-    public HashMap<String, AdvancedComponent> advancedComponents = new HashMap<String, AdvancedComponent>();
+    public HashMap<String, AdvancedComponent> advancedComponents = new AdvancedComponentMap();
+    
+    /**
+     * The index of the {@link AdvancedComponent} extensions that contain tokens (e.g. for user dashboards). These can
+     * only be matched to a component once the tokens have been replaced for the current request, all other extensions
+     * are looked up directly by component id. The index is built on demand and rebuilt whenever the extensions change.
+     */
+    private volatile TokenizedIndex tokenizedIndex = null;
     
     @SuppressWarnings("unchecked")
     public ExtensionModule(Element element, ModelPersisterInfo key)
@@ -110,4 +122,141 @@ public class ExtensionModule extends BasicExtensionModule
     {
         return this.advancedComponents;
     }
+    
+    /**
+     * <p>Returns the {@link AdvancedComponent} extensions in this module for the component with the supplied id. Extensions
+     * with plain ids are looked up directly and only those with tokenized ids have their tokens replaced for the request.</p>
+     * 
+     * @param componentId The id of the component being extended
+     * @param context The current {@link RequestContext}
+     * @return The list of {@link AdvancedComponent} extensions for the component (empty if there are none)
+     */
+    public List<AdvancedComponent> getAdvancedComponentExtensions(String componentId, RequestContext context)
+    {
+        List<AdvancedComponent> extensions = Collections.emptyList();
+        AdvancedComponent extComp = this.advancedComponents.get(componentId);
+        if (extComp != null)
+        {
+            extensions = new ArrayList<AdvancedComponent>(1);
+            extensions.add(extComp);
+        }
+        for (String tokenizedId: getTokenizedComponentIds())
+        {
+            // Replace any tokens in the key (this is so that we can handle user dashboard extensions)...
+            if (!tokenizedId.equals(componentId) &&
+                UriUtils.replaceTokens(tokenizedId, context, null, null, "").equals(componentId))
+            {
+                AdvancedComponent tokenizedComp = this.advancedComponents.get(tokenizedId);
+                if (tokenizedComp != null)
+                {
+                    if (extensions.isEmpty())
+                    {
+                        extensions = new ArrayList<AdvancedComponent>(1);
+                    }
+                    extensions.add(tokenizedComp);
+                }
+            }
+        }
+        return extensions;
+    }
+    
+    /**
+     * <p>Returns the ids of the {@link AdvancedComponent} extensions that contain tokens, rebuilding the index if the
+     * extensions have changed since it was last built.</p>
+     * 
+     * @return The ids of the tokenized extensions
+     */
+    private List<String> getTokenizedComponentIds()
+    {
+        // The map itself can be replaced as well as modified as it is a public field. Only the index of a map
+        // that counts its changes can be kept, the version is read before the keys so a change made while the
+        // index is being built will cause it to be built again...
+        HashMap<String, AdvancedComponent> components = this.advancedComponents;
+        int version = (components instanceof AdvancedComponentMap ? ((AdvancedComponentMap) components).version : -1);
+        TokenizedIndex index = this.tokenizedIndex;
+        if (index == null || index.components != components || index.version != version || version == -1)
+        {
+            List<String> ids = new ArrayList<String>();
+            for (String componentId: components.keySet())
+            {
+                if (componentId.indexOf('{') != -1)
+                {
+                    ids.add(componentId);
+                }
+            }
+            index = new TokenizedIndex(components, version, ids);
+            this.tokenizedIndex = index;
+        }
+        return index.ids;
+    }
+    
+    /**
+     * <p>The ids of the tokenized {@link AdvancedComponent} extensions and the version of the map they were found in.</p>
+     */
+    private static final class TokenizedIndex
+    {
+        private final HashMap<String, AdvancedComponent> components;
+        private final int version;
+        private final List<String> ids;
+        
+        private TokenizedIndex(HashMap<String, AdvancedComponent> components, int version, List<String> ids)
+        {
+            this.components = components;
+            this.version = version;
+            this.ids = ids;
+        }
+    }
+    
+    /**
+     * <p>The map of {@link AdvancedComponent} extensions, which counts the extensions added with <code>put</code>,
+     * <code>putAll</code> or <code>putIfAbsent</code> and removed with <code>remove</code> or <code>clear</code> so that
+     * the index of tokenized extensions is rebuilt. Extensions removed through the key, value or entry views are not
+     * counted but are skipped when the index is used.</p>
+     */
+    private static final class AdvancedComponentMap extends HashMap<String, AdvancedComponent>
+    {
+        private static final long serialVersionUID = -2486123503619412857L;
+        
+        private volatile int version = 0;
+        
+        @Override
+        public AdvancedComponent put(String key, AdvancedComponent value)
+        {
+            AdvancedComponent previous = super.put(key, value);
+            this.version++;
+            return previous;
+        }
+        
+        @Override
+        public void putAll(Map<? extends String, ? extends AdvancedComponent> m)
+        {
+            super.putAll(m);
+            this.version++;
+        }
+        
+        public AdvancedComponent putIfAbsent(String key, AdvancedComponent value)
+        {
+            AdvancedComponent previous = get(key);
+            if (previous == null)
+            {
+                put(key, value);
+            }
+            return previous;
+        }
+        
+        @Override
+        public AdvancedComponent remove(Object key)
+        {
+            AdvancedComponent previous = super.remove(key);
+            this.version++;
+            return previous;
+        }
+        
+        @Override
+        public void clear()
+        {
+            super.clear();
+            this.version++;
+        }
+    }
 }
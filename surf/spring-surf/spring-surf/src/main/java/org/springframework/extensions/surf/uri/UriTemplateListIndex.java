@@ -48,6 +48,7 @@ import org.springframework.extensions.webscripts.UriTemplate;
 public class UriTemplateListIndex
 {
     private List<UriTemplate> uriTemplates;
+    private UriTemplateTrie uriTemplateTrie;
 
     /**
      * Instantiates a new <code>UriTemplateListIndex</code> object using the list of <code>UriTemplates</code>
@@ -56,6 +57,7 @@ public class UriTemplateListIndex
     public UriTemplateListIndex(List<UriTemplate> uriTemplates)
     {
         this.uriTemplates = uriTemplates;
+        this.uriTemplateTrie = new UriTemplateTrie(uriTemplates);
     }
 
     /**
@@ -93,6 +95,7 @@ public class UriTemplateListIndex
         {
             this.uriTemplates = Collections.<UriTemplate>emptyList();
         }
+        this.uriTemplateTrie = new UriTemplateTrie(this.uriTemplates);
     }
 
     /**
@@ -106,16 +109,7 @@ public class UriTemplateListIndex
      */
     public Map<String, String> findMatch(String uri)
     {
-        Map<String, String> match = null;
-        for (UriTemplate template : this.uriTemplates)
-        {
-            match = template.match(uri);
-            if (match != null)
-            {
-                break;
-            }
-        }
-
-        return match;
+        UriTemplateTrie.Match match = this.uriTemplateTrie.findMatch(uri);
+        return (match != null ? match.getArgs() : null);
     }
 }
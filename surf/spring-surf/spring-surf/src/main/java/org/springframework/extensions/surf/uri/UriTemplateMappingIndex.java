@@ -19,6 +19,7 @@
 
 package org.springframework.extensions.surf.uri;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -58,6 +59,8 @@ import org.springframework.extensions.webscripts.UriTemplate;
 public class UriTemplateMappingIndex
 {
     private Map<UriTemplate, String> mappings;
+    private List<String> entries;
+    private UriTemplateTrie uriTemplateTrie;
 
     /**
      * Constructor
@@ -104,6 +107,10 @@ public class UriTemplateMappingIndex
         {
             this.mappings = Collections.<UriTemplate, String>emptyMap();
         }
+        
+        // index the templates - the url entries are held in the same order
+        this.entries = new ArrayList<String>(this.mappings.values());
+        this.uriTemplateTrie = new UriTemplateTrie(new ArrayList<UriTemplate>(this.mappings.keySet()));
     }
 
     /**
@@ -118,15 +125,12 @@ public class UriTemplateMappingIndex
      */
     public String findMatchAndReplace(String uri)
     {
-        for (UriTemplate template : this.mappings.keySet())
+        UriTemplateTrie.Match match = this.uriTemplateTrie.findMatch(uri);
+        if (match != null)
         {
-            Map<String, String> match = template.match(uri);
-            if (match != null)
-            {
-                // found a uri template match
-                // so replace the tokens in the matched page with those from the uri
-                return UriUtils.replaceUriTokens(this.mappings.get(template), match);
-            }
+            // found a uri template match
+            // so replace the tokens in the matched page with those from the uri
+            return UriUtils.replaceUriTokens(this.entries.get(match.getIndex()), match.getArgs());
         }
         
         // if we get here, no match was found
@@ -144,13 +148,10 @@ public class UriTemplateMappingIndex
      */
     public Map<String, String> findMatch(String uri)
     {
-        for (UriTemplate template : this.mappings.keySet())
+        UriTemplateTrie.Match match = this.uriTemplateTrie.findMatch(uri);
+        if (match != null)
         {
-            Map<String, String> match = template.match(uri);
-            if (match != null)
-            {
-                return match;
-            }
+            return match.getArgs();
         }
         
         // if we get here, no match was found
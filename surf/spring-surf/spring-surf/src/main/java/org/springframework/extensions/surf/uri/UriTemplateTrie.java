@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.uri;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.extensions.webscripts.UriTemplate;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weighers;
+
+/**
+ * Index of an ordered list of URI templates that finds the first template matching a URI without
+ * trying the regular expression of every template in turn.
+ * 
+ * The literal prefix of each template (the text up to its first variable) is stored in a character trie.
+ * A template can only match a URI that starts with its literal prefix, so walking the URI down the trie
+ * yields the candidate templates, which are then matched in their original order to preserve the
+ * first-match-wins semantics of a linear scan. Templates that start with a variable are held at the
+ * root of the trie and are therefore candidates for every URI.
+ * 
+ * The results for recently matched URIs (including misses) are cached.
+ * 
+ * @since 6.12
+ */
+final class UriTemplateTrie
+{
+    private static final int MATCH_CACHE_SIZE = 512;
+    private static final int MAX_CACHED_URI_LENGTH = 1024;
+    
+    private static final Match NO_MATCH = new Match(-1, null);
+    
+    private final List<UriTemplate> templates;
+    private final Node root = new Node();
+    private final Map<String, Match> matches = new ConcurrentLinkedHashMap.Builder<String, Match>()
+            .maximumWeightedCapacity(MATCH_CACHE_SIZE)
+            .weigher(Weighers.singleton())
+            .build();
+    
+    /**
+     * Constructor
+     * 
+     * @param templates     the URI templates in the order in which they should be matched
+     */
+    UriTemplateTrie(List<UriTemplate> templates)
+    {
+        this.templates = new ArrayList<UriTemplate>(templates);
+        for (int i = 0; i < this.templates.size(); i++)
+        {
+            String prefix = getLiteralPrefix(this.templates.get(i).getTemplate());
+            Node node = this.root;
+            for (int c = 0; c < prefix.length(); c++)
+            {
+                Character key = Character.valueOf(prefix.charAt(c));
+                Node child = node.children.get(key);
+                if (child == null)
+                {
+                    child = new Node();
+                    node.children.put(key, child);
+                }
+                node = child;
+            }
+            if (node.templates == null)
+            {
+                node.templates = new BitSet();
+            }
+            node.templates.set(i);
+        }
+    }
+    
+    /**
+     * Finds the first template that matches the specified URI.
+     * 
+     * @param uri  URI to match against the URI templates
+     * 
+     * @return the match or null if no template matched
+     */
+    Match findMatch(String uri)
+    {
+        Match match = null;
+        if (uri != null)
+        {
+            match = this.matches.get(uri);
+            if (match == null)
+            {
+                match = NO_MATCH;
+                
+                // collect the templates whose literal prefix is a prefix of the uri
+                BitSet candidates = new BitSet(this.templates.size());
+                Node node = this.root;
+                for (int i = 0; node != null; i++)
+                {
+                    if (node.templates != null)
+                    {
+                        candidates.or(node.templates);
+                    }
+                    node = (i < uri.length() ? node.children.get(Character.valueOf(uri.charAt(i))) : null);
+                }
+                
+                // and match them in the original order
+                for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+                {
+                    Map<String, String> args = this.templates.get(i).match(uri);
+                    if (args != null)
+                    {
+                        match = new Match(i, args);
+                        break;
+                    }
+                }
+                
+                if (uri.length() <= MAX_CACHED_URI_LENGTH)
+                {
+                    this.matches.put(uri, match);
+                }
+            }
+            if (match == NO_MATCH)
+            {
+                match = null;
+            }
+        }
+        return match;
+    }
+    
+    /**
+     * Returns the part of a URI template before the first character that is not matched literally
+     * (which is normally the start of the first variable).
+     * 
+     * @param template  the URI template
+     * 
+     * @return the literal prefix
+     */
+    private static String getLiteralPrefix(String template)
+    {
+        int i = 0;
+        while (i < template.length())
+        {
+            char c = template.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '/' || c == '_' || c == '-' || c == ';')
+            {
+                i++;
+            }
+            else
+            {
+                break;
+            }
+        }
+        return template.substring(0, i);
+    }
+    
+    /**
+     * A node of the trie, holding the templates whose literal prefix ends at this node.
+     */
+    private static final class Node
+    {
+        private final Map<Character, Node> children = new HashMap<Character, Node>(4);
+        private BitSet templates = null;
+    }
+    
+    /**
+     * The result of matching a URI against the templates.
+     */
+    static final class Match
+    {
+        private final int index;
+        private final Map<String, String> args;
+        
+        private Match(int index, Map<String, String> args)
+        {
+            this.index = index;
+            this.args = args;
+        }
+        
+        /**
+         * @return the index of the matching template
+         */
+        int getIndex()
+        {
+            return this.index;
+        }
+        
+        /**
+         * @return a copy of the token args to values for the matched URI
+         */
+        Map<String, String> getArgs()
+        {
+            return new HashMap<String, String>(this.args);
+        }
+    }
+}
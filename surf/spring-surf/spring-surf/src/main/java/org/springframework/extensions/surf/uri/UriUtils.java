@@ -22,7 +22,6 @@ package org.springframework.extensions.surf.uri;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -37,6 +36,9 @@ import org.springframework.extensions.surf.types.TemplateInstance;
 import org.springframework.extensions.webscripts.ProcessorModelHelper;
 import org.springframework.extensions.webscripts.URLHelper;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weighers;
+
 /**
  * Utility functions for dealing with URI and token replacement.
  * 
@@ -144,71 +146,314 @@ public final class UriUtils
     
     public static Pattern pattern = Pattern.compile("\\{([A-Za-z0-9_\\-]*)\\}");
     
+    /**
+     * <p>The maximum length of a String whose compiled {@link TokenTemplate} will be cached.</p>
+     */
+    private static final int MAX_CACHED_TEMPLATE_LENGTH = 2048;
+    
+    /**
+     * <p>The compiled {@link TokenTemplate} instances for the Strings that have been processed by <code>replaceTokens</code>
+     * with the default token pattern.</p>
+     */
+    private static final Map<String, TokenTemplate> tokenTemplates = new ConcurrentLinkedHashMap.Builder<String, TokenTemplate>()
+            .maximumWeightedCapacity(4096)
+            .weigher(Weighers.singleton())
+            .build();
+    
     /**
      * <p>Replaces tokens in using all available properties built from the <code>getTokenMaps()</code> method.</p>
+     * <p>When the default token pattern and group are used the String is compiled into a {@link TokenTemplate} (which
+     * is cached) and the tokens are resolved directly from the {@link RequestContext} rather than by copying the token
+     * maps and matching a regular expression each time. The result is the same as matching the regular expression.</p>
      * 
      * @param s The String to replace the tokens in.
      * @param context The current {@link RequestContext}
      * @param tokenPattern An alternative token pattern to process (if null, uses the default)
      * @param groupNumber The group number to use as the token key (if null, defaults to 1)
-     * @param missingTokenString TODO
+     * @param missingTokenString The replacement for tokens that cannot be resolved. As with 
+     *        {@link Matcher#appendReplacement(StringBuffer, String)} any group references and escapes that it
+     *        contains are processed.
      * @return The String with all tokens replaced.
      */
     public static String replaceTokens(String s, RequestContext context, Pattern tokenPattern, Integer groupNumber, String missingTokenString)
     {
-        StringBuffer result = new StringBuffer();
+        String result = null;
         if (s != null && context != null)
         {
             if (logger.isDebugEnabled())
             {
                 logger.debug("Replacing tokens in: '" + s + "'");
             }
-            List<Map<String,String>> tokenMaps = getTokenMaps(context);
-            if (tokenMaps.isEmpty())
+            boolean defaultPattern = (tokenPattern == null || tokenPattern == pattern);
+            if (defaultPattern && s.indexOf('{') == -1)
+            {
+                // No tokens to replace...
+                result = s;
+            }
+            else if (defaultPattern && 
+                     (groupNumber == null || groupNumber.intValue() == 1) && 
+                     isLiteralReplacement(missingTokenString))
+            {
+                result = getTokenTemplate(s).replace(context, missingTokenString);
+            }
+            else if (!hasTokenSources(context))
             {
                 // No token maps to search through...
-                result.append(s);
+                result = s;
             }
             else
             {
-                Pattern p = (tokenPattern != null) ? tokenPattern : pattern;
+                StringBuffer buffer = new StringBuffer();
                 int gNum = (groupNumber != null) ? groupNumber.intValue() : 1;
-                Matcher m = p.matcher(s);
+                Matcher m = (defaultPattern ? pattern : tokenPattern).matcher(s);
                 while (m.find())
                 {
-                    String key = m.group(gNum);
-                    String token = null;
-                    Iterator<Map<String, String>> i = tokenMaps.iterator();
-                    while (token == null && i.hasNext())
+                    String token = resolveToken(context, m.group(gNum));
+                    m.appendReplacement(buffer, (token == null ? missingTokenString : Matcher.quoteReplacement(token)));
+                }
+                m.appendTail(buffer);
+                result = buffer.toString();
+            }
+        }
+        else
+        {
+            result = String.valueOf(s);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * <p>Determines whether the supplied replacement String is output as it is by
+     * {@link Matcher#appendReplacement(StringBuffer, String)}, which is the case when it contains no group references
+     * or escapes. Otherwise tokens are replaced with the regular expression so that they are processed as before.</p>
+     * 
+     * @param replacement The replacement String
+     * @return <code>true</code> if the String can be appended as it is.
+     */
+    private static boolean isLiteralReplacement(String replacement)
+    {
+        return replacement != null && replacement.indexOf('$') == -1 && replacement.indexOf('\\') == -1;
+    }
+    
+    /**
+     * <p>Returns the compiled {@link TokenTemplate} for the supplied String.</p>
+     * 
+     * @param s The String to compile
+     * @return TokenTemplate
+     */
+    private static TokenTemplate getTokenTemplate(String s)
+    {
+        TokenTemplate template = tokenTemplates.get(s);
+        if (template == null)
+        {
+            template = new TokenTemplate(s);
+            if (s.length() <= MAX_CACHED_TEMPLATE_LENGTH)
+            {
+                tokenTemplates.put(s, template);
+            }
+        }
+        return template;
+    }
+    
+    /**
+     * <p>Determines whether any of the token maps that would be returned by <code>getTokenMaps()</code> are available.</p>
+     * 
+     * @param context The current {@link RequestContext}.
+     * @return <code>true</code> if there is at least one source of tokens.
+     */
+    private static boolean hasTokenSources(RequestContext context)
+    {
+        boolean available = (context.getUriTokens() != null || context.getParameters() != null || context.getAttributes() != null);
+        if (!available)
+        {
+            Page page = context.getPage();
+            TemplateInstance template = context.getTemplate();
+            available = (page != null && page.getCustomProperties() != null) ||
+                        (template != null && template.getCustomProperties() != null);
+        }
+        if (!available)
+        {
+            Map<String, Object> model = context.getModel();
+            Object o = (model != null ? model.get(ProcessorModelHelper.MODEL_URL) : null);
+            available = (o instanceof URLHelper &&
+                         (((URLHelper) o).getArgs() != null || ((URLHelper) o).getTemplateArgs() != null));
+        }
+        return available;
+    }
+    
+    /**
+     * <p>Resolves a single token by looking it up in each of the sources used by <code>getTokenMaps()</code> (in the
+     * same order) without copying them.</p>
+     * 
+     * @param context The current {@link RequestContext}.
+     * @param key The name of the token
+     * @return The value of the token or <code>null</code> if it could not be found.
+     */
+    private static String resolveToken(RequestContext context, String key)
+    {
+        String token = null;
+        Map<String, String> uriTokens = context.getUriTokens();
+        if (uriTokens != null)
+        {
+            token = uriTokens.get(key);
+        }
+        if (token == null)
+        {
+            Map<String, String> contextParams = context.getParameters();
+            if (contextParams != null)
+            {
+                token = contextParams.get(key);
+            }
+        }
+        if (token == null)
+        {
+            Map<String, Object> model = context.getModel();
+            if (model != null)
+            {
+                Object o = model.get(ProcessorModelHelper.MODEL_URL);
+                if (o instanceof URLHelper)
+                {
+                    URLHelper urlHelper = (URLHelper) o;
+                    Map<String, String> urlArgs = urlHelper.getArgs();
+                    if (urlArgs != null)
+                    {
+                        token = urlArgs.get(key);
+                    }
+                    Map<String, String> templateArgs = urlHelper.getTemplateArgs();
+                    if (token == null && templateArgs != null)
                     {
-                        token = i.next().get(key);
+                        token = templateArgs.get(key);
                     }
+                }
+            }
+        }
+        if (token == null)
+        {
+            token = resolveModelObjectProp(context.getAttributes(), key);
+        }
+        if (token == null)
+        {
+            Page page = context.getPage();
+            if (page != null)
+            {
+                token = resolveModelObjectProp(page.getCustomProperties(), key);
+            }
+        }
+        if (token == null)
+        {
+            TemplateInstance template = context.getTemplate();
+            if (template != null)
+            {
+                token = resolveModelObjectProp(template.getCustomProperties(), key);
+            }
+        }
+        return token;
+    }
+    
+    /**
+     * <p>Returns the String value of a property in a {@link Map} of String to Serializable object.</p>
+     * 
+     * @param modelProps Map<String, Serializable> (may be <code>null</code>)
+     * @param key The name of the property
+     * @return The String value or <code>null</code> if the property is not set.
+     */
+    private static String resolveModelObjectProp(Map<String, Serializable> modelProps, String key)
+    {
+        Serializable value = (modelProps != null ? modelProps.get(key) : null);
+        return (value != null ? value.toString() : null);
+    }
+    
+    /**
+     * <p>A String that has been split into its literal and token segments for the default token pattern so that
+     * tokens can be replaced without matching a regular expression. The literal segments always number one
+     * more than the tokens and a String without tokens has a single literal segment.</p>
+     */
+    private static final class TokenTemplate
+    {
+        private final String source;
+        private final String[] literals;
+        private final String[] tokens;
+        
+        private TokenTemplate(String s)
+        {
+            List<String> literals = new ArrayList<String>(4);
+            List<String> tokens = new ArrayList<String>(4);
+            int start = 0;
+            int open = s.indexOf('{');
+            while (open != -1)
+            {
+                int close = open + 1;
+                while (close < s.length() && isTokenChar(s.charAt(close)))
+                {
+                    close++;
+                }
+                if (close < s.length() && s.charAt(close) == '}')
+                {
+                    literals.add(s.substring(start, open));
+                    tokens.add(s.substring(open + 1, close));
+                    start = close + 1;
+                    open = s.indexOf('{', start);
+                }
+                else
+                {
+                    // Not a valid token - carry on looking from the next character...
+                    open = s.indexOf('{', open + 1);
+                }
+            }
+            literals.add(s.substring(start));
+            this.source = s;
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.tokens = tokens.toArray(new String[tokens.size()]);
+        }
+        
+        /**
+         * @return <code>true</code> if the character is allowed in a token name by the default pattern.
+         */
+        private static boolean isTokenChar(char c)
+        {
+            return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+        }
+        
+        /**
+         * <p>Replaces the tokens in the template with the values resolved from the supplied {@link RequestContext}.</p>
+         * 
+         * @param context The current {@link RequestContext}
+         * @param missingTokenString The String to use for tokens that cannot be resolved
+         * @return The String with all tokens replaced.
+         */
+        private String replace(RequestContext context, String missingTokenString)
+        {
+            String result = this.source;
+            if (this.tokens.length != 0 && hasTokenSources(context))
+            {
+                StringBuilder sb = new StringBuilder(this.source.length() + 32);
+                for (int i = 0; i < this.tokens.length; i++)
+                {
+                    sb.append(this.literals[i]);
+                    String token = resolveToken(context, this.tokens[i]);
                     if (token == null)
                     {
                         if (logger.isDebugEnabled())
                         {
-                            logger.debug("Could not find token for: '" + key + "'");
+                            logger.debug("Could not find token for: '" + this.tokens[i] + "'");
                         }
-                        m.appendReplacement(result, missingTokenString);
+                        sb.append(missingTokenString);
                     }
                     else
                     {
                         if (logger.isDebugEnabled())
                         {
-                            logger.debug("Replacing token: '" + key + "' with: '" + token + "'");
+                            logger.debug("Replacing token: '" + this.tokens[i] + "' with: '" + token + "'");
                         }
-                        m.appendReplacement(result, Matcher.quoteReplacement(token));
+                        sb.append(token);
                     }
                 }
-                m.appendTail(result);
+                sb.append(this.literals[this.tokens.length]);
+                result = sb.toString();
             }
+            return result;
         }
-        else
-        {
-            result.append(s);
-        }
-        
-        return result.toString();
     }
     
     /**
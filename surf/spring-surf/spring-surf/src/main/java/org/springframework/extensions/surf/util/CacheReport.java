@@ -28,15 +28,45 @@ public class CacheReport
     private final String name;
     private final int count;
     private final long size;
+    private final long hits;
+    private final long misses;
+    private final long loads;
+    private final long loadTime;
     
     public CacheReport(final String cacheName, final int entryCount, final long valueSizeEstimate)
+    {
+        this(cacheName, entryCount, valueSizeEstimate, -1L, -1L, -1L, -1L);
+    }
+    
+    /**
+     * Constructor for caches that record access statistics.
+     * 
+     * @param cacheName             the name of the cache
+     * @param entryCount            the number of entries
+     * @param valueSizeEstimate     the estimated size of the entries in bytes
+     * @param hitCount              the number of cache hits
+     * @param missCount             the number of cache misses
+     * @param loadCount             the number of values loaded into the cache
+     * @param totalLoadTime         the total time spent loading values in nanoseconds
+     */
+    public CacheReport(final String cacheName, final int entryCount, final long valueSizeEstimate,
+                       final long hitCount, final long missCount, final long loadCount, final long totalLoadTime)
     {
         this.name = cacheName;
         this.count = entryCount;
         this.size = valueSizeEstimate;
+        this.hits = hitCount;
+        this.misses = missCount;
+        this.loads = loadCount;
+        this.loadTime = totalLoadTime;
     }
     
     public String getCacheName() {return this.name;}
     public int getEntryCount() {return this.count;}
     public long getValueSizeEstimate() {return this.size;}
+    public boolean hasStatistics() {return this.hits != -1L;}
+    public long getHitCount() {return this.hits;}
+    public long getMissCount() {return this.misses;}
+    public long getLoadCount() {return this.loads;}
+    public long getTotalLoadTime() {return this.loadTime;}
 }
@@ -67,6 +67,12 @@ public class ClearDependencyCaches extends DeclarativeWebScript
         this.dependencyAggregator.clearCaches();
         this.dojoDependencyHandler.clearCaches();
         this.i18nDependencyHandler.clearCaches();
+        
+        // The persistent cache tier is only cleared on request as its entries remain valid...
+        if (Boolean.parseBoolean(req.getParameter("persistent")))
+        {
+            this.dependencyAggregator.clearPersistentCache();
+        }
         return model;
     }
 }
@@ -85,6 +85,15 @@ public class GetCacheReport extends DeclarativeWebScript
                 long entrySize = report.getValueSizeEstimate();
                 modelBeanReporterReport.put("size", entrySize);
                 totalSize += entrySize;
+                if (report.hasStatistics())
+                {
+                    modelBeanReporterReport.put("hits", report.getHitCount());
+                    modelBeanReporterReport.put("misses", report.getMissCount());
+                    modelBeanReporterReport.put("loads", report.getLoadCount());
+                    // average load time in milliseconds
+                    long loads = report.getLoadCount();
+                    modelBeanReporterReport.put("loadtime", loads != 0 ? (report.getTotalLoadTime() / loads) / 1000000L : 0L);
+                }
                 modelBeanReporter.add(modelBeanReporterReport);
             }
             modelBeans.put(bean, modelBeanReporter);
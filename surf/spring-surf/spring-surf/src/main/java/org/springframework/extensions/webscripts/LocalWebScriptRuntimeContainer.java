@@ -45,6 +45,9 @@ import org.springframework.extensions.surf.extensibility.HandlesExtensibility;
 import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
 import org.springframework.extensions.webscripts.servlet.WebScriptServletRuntime;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weighers;
+
 /**
  * <p>WebScript Runtime Container for a Surf WebScript based component.
  * </p><p>
@@ -127,6 +130,95 @@ public class LocalWebScriptRuntimeContainer extends PresentationContainer implem
             this.getScriptProcessorRegistry().reset();
             this.getTemplateProcessorRegistry().reset();
         }
+        
+        // discard the lookups made against the previous registry state...
+        this.matchCache = createLookupCache(this.lookupCacheMaxSize);
+        this.templatePathCache = createLookupCache(this.lookupCacheMaxSize);
+    }
+    
+    /**
+     * Marks a lookup that found nothing so that the negative result can be cached.
+     */
+    private static final Object NOT_FOUND = new Object();
+    
+    /**
+     * The maximum number of lookups of each type to cache. Setting this to 0 disables the caches.
+     */
+    private int lookupCacheMaxSize = 4096;
+    
+    /**
+     * The {@link Match} found by the {@link Registry} for each method and URL.
+     */
+    private volatile Map<String, Object> matchCache = createLookupCache(4096);
+    
+    /**
+     * The valid template path found by the {@link TemplateProcessorRegistry} for each path.
+     */
+    private volatile Map<String, Object> templatePathCache = createLookupCache(4096);
+    
+    public void setLookupCacheMaxSize(int lookupCacheMaxSize)
+    {
+        this.lookupCacheMaxSize = lookupCacheMaxSize;
+        this.matchCache = createLookupCache(lookupCacheMaxSize);
+        this.templatePathCache = createLookupCache(lookupCacheMaxSize);
+    }
+    
+    private static Map<String, Object> createLookupCache(int maxSize)
+    {
+        return (maxSize > 0 ? new ConcurrentLinkedHashMap.Builder<String, Object>()
+                                      .maximumWeightedCapacity(maxSize)
+                                      .weigher(Weighers.singleton())
+                                      .build() : null);
+    }
+    
+    /**
+     * Finds the web script for the given method and URL. The result of the {@link Registry} lookup (including when
+     * nothing is found) is cached until the container is reset.
+     * 
+     * @param method the HTTP method
+     * @param url the URL with any tokens already replaced
+     * @return the {@link Match} or <code>null</code> if there isn't one
+     */
+    public Match findWebScript(String method, String url)
+    {
+        Map<String, Object> cache = this.matchCache;
+        if (cache == null)
+        {
+            return getRegistry().findWebScript(method, url);
+        }
+        
+        String key = method + '\u0000' + url;
+        Object match = cache.get(key);
+        if (match == null)
+        {
+            match = getRegistry().findWebScript(method, url);
+            cache.put(key, (match != null ? match : NOT_FOUND));
+        }
+        return (match != NOT_FOUND ? (Match) match : null);
+    }
+    
+    /**
+     * Finds the valid template path for the given path. The result of the {@link TemplateProcessorRegistry} lookup 
+     * (including when nothing is found) is cached until the container is reset.
+     * 
+     * @param path the template path without an extension
+     * @return the valid template path or <code>null</code> if there isn't one
+     */
+    public String findValidTemplatePath(String path)
+    {
+        Map<String, Object> cache = this.templatePathCache;
+        if (cache == null)
+        {
+            return getTemplateProcessorRegistry().findValidTemplatePath(path);
+        }
+        
+        Object validPath = cache.get(path);
+        if (validPath == null)
+        {
+            validPath = getTemplateProcessorRegistry().findValidTemplatePath(path);
+            cache.put(path, (validPath != null ? validPath : NOT_FOUND));
+        }
+        return (validPath != NOT_FOUND ? (String) validPath : null);
     }
 
     @Override
@@ -42,6 +42,7 @@ import org.springframework.extensions.directives.ChromeIncludeFreeMarkerDirectiv
 import org.springframework.extensions.directives.ComponentFreemarkerTagDirective;
 import org.springframework.extensions.directives.CreateComponentDirective;
 import org.springframework.extensions.directives.DirectiveFactory;
+import org.springframework.extensions.directives.HeadContentPlaceholder;
 import org.springframework.extensions.directives.LinkFreeMarkerDirective;
 import org.springframework.extensions.directives.MessagesDependencyDirective;
 import org.springframework.extensions.directives.OutputCSSDirective;
@@ -61,6 +62,7 @@ import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
 import org.springframework.extensions.surf.extensibility.impl.MarkupDirective;
 import org.springframework.extensions.surf.render.RenderService;
 import org.springframework.extensions.surf.render.RenderService.SubComponentData;
+import org.springframework.extensions.surf.render.RenderUtil;
 import org.springframework.extensions.surf.types.Chrome;
 import org.springframework.extensions.surf.types.Component;
 import org.springframework.extensions.surf.types.Page;
@@ -337,7 +339,7 @@ public final class ProcessorModelHelper implements ApplicationContextAware
                 model.put("componentDebug", component.getModelProperties());
                 model.put("componentCustomPropsDebug", component.getCustomProperties());
                 
-                WebScript webscript = component.getResolvedWebScript();
+                WebScript webscript = RenderUtil.getResolvedWebScript(context, component);
                 if (webscript != null)
                 {
                     String storePath = webscript.getDescription().getStorePath();
@@ -456,7 +458,7 @@ public final class ProcessorModelHelper implements ApplicationContextAware
         model.put("subComponent_paths", s.toString());
         
         // Get the WebScript data for the SubComponent.
-        WebScript scWebscript = subComponent.getResolvedWebScript();
+        WebScript scWebscript = RenderUtil.getResolvedWebScript(context, subComponent);
         if (scWebscript != null)
         {
             String storePath = scWebscript.getDescription().getStorePath();
@@ -485,7 +487,7 @@ public final class ProcessorModelHelper implements ApplicationContextAware
             model.put("componentDebug", component.getModelProperties());
             model.put("componentCustomPropsDebug", component.getCustomProperties());
             
-            WebScript webscript = component.getResolvedWebScript();
+            WebScript webscript = RenderUtil.getResolvedWebScript(context, component);
             if (webscript != null)
             {
                 String storePath = webscript.getDescription().getStorePath();
@@ -668,20 +670,33 @@ public final class ProcessorModelHelper implements ApplicationContextAware
                 model.put(MODEL_URL, urlHelper);
             }
 
-            // TODO: Update the head to include the debug info (if debug info is enabled)...
-            StringBuilder head = new StringBuilder(webFrameworkRenderService.renderTemplateHeaderAsString(context, object));
+            StringBuilder surfBugHead = new StringBuilder();
             if (this.webFrameworkConfigElement.isSurfBugEnabled())
             {
                 // If SurfBug is enabled then add in the CSS and JS libraries...
-                head.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"" + context.getContextPath() + "/res/css/surfbug.css" + "\"/>");
-                head.append("<script type=\"text/javascript\" src=\"" + context.getContextPath() + "/res/js/surfbug.js" + "\"></script>");
+                surfBugHead.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"" + context.getContextPath() + "/res/css/surfbug.css" + "\"/>");
+                surfBugHead.append("<script type=\"text/javascript\" src=\"" + context.getContextPath() + "/res/js/surfbug.js" + "\"></script>");
             }
             
-            // Append the dependencies generated from component WebScripts...
-            head.append(context.getExtensionDependencies());
+            ExtensibilityModel templateModel = context.getCurrentExtensibilityModel();
+            if (templateModel != null && webFrameworkRenderService.isSinglePassHeadRendering((TemplateInstance) object))
+            {
+                // The .head templates of the components are rendered along with their bodies so the ${head} tag
+                // is a placeholder in the model that is only written once the template has been rendered...
+                model.put(MODEL_HEAD, new HeadContentPlaceholder(templateModel, context, surfBugHead.toString()));
+            }
+            else
+            {
+                // TODO: Update the head to include the debug info (if debug info is enabled)...
+                StringBuilder head = new StringBuilder(webFrameworkRenderService.renderTemplateHeaderAsString(context, object));
+                head.append(surfBugHead);
             
-            // add in the ${head} tag
-            model.put(MODEL_HEAD, head.toString());
+                // Append the dependencies generated from component WebScripts...
+                head.append(context.getExtensionDependencies());
+                
+                // add in the ${head} tag
+                model.put(MODEL_HEAD, head.toString());
+            }
             
             // Attempt to create a template model configuration object that includes configuration provided by extension 
             // modules. If this is not possible then defer to the default static configuration.
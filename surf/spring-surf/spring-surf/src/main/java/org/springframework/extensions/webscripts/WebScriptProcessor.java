@@ -25,20 +25,26 @@ import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.extensions.config.Config;
 import org.springframework.extensions.config.ConfigService;
 import org.springframework.extensions.config.ServerConfigElement;
 import org.springframework.extensions.config.ServerProperties;
+import org.springframework.extensions.directives.HeadContentModelElement;
+import org.springframework.extensions.directives.HeadContentSourceModelElement;
 import org.springframework.extensions.surf.ModelObject;
 import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.exception.RendererExecutionException;
+import org.springframework.extensions.surf.extensibility.DeferredContentTargetModelElement;
 import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
 import org.springframework.extensions.surf.render.AbstractProcessor;
 import org.springframework.extensions.surf.render.ProcessorContext;
+import org.springframework.extensions.surf.render.RenderUtil;
 import org.springframework.extensions.surf.types.Component;
 import org.springframework.extensions.surf.types.SubComponent;
-import org.springframework.extensions.surf.types.SurfBugData;
 import org.springframework.extensions.surf.uri.UriUtils;
+import org.springframework.extensions.surf.util.FakeHttpServletResponse;
 
 /**
  * The WebScriptRenderer is an implementation of Renderable which describes
@@ -129,85 +135,98 @@ public class WebScriptProcessor extends AbstractProcessor
          */
         if (object instanceof Component || object instanceof SubComponent)
         {
-            // Get the component and its URL.  Do a token replacement
-            // on the URL right away and remove the query string
-            SurfBugData component = (SurfBugData) object;
-            
-            url = UriUtils.replaceTokens(url, context, null, null, "");
+            renderHeadTemplate(context, object, url, context.getResponse());
+        }
+    }
             
-            if (url.indexOf('?') != -1)
+    /**
+     * Renders the .head template of the web script of the given component (if it has one) onto the given response.
+     * 
+     * @param context the request context
+     * @param object the component or sub-component
+     * @param url the url of the web script
+     * @param response the response to render onto
+     * @throws RendererExecutionException
+     */
+    private void renderHeadTemplate(RequestContext context, ModelObject object, String url, HttpServletResponse response)
+        throws RendererExecutionException
+    {
+        // Do a token replacement on the URL right away and remove the query string
+        url = UriUtils.replaceTokens(url, context, null, null, "");
+        
+        if (url.indexOf('?') != -1)
+        {
+            url = url.substring(0, url.indexOf('?'));
+        }
+        
+        // Find the web script
+        Match match = getContainer().findWebScript(context.getRequestMethod(), url);
+        if (match != null)
+        {
+            if (match.getKind() == Match.Kind.URI)
             {
-                url = url.substring(0, url.indexOf('?'));
+                match = getContainer().findWebScript(LocalWebScriptRuntime.DEFAULT_METHOD_GET, url);
             }
-            
-            // Find the web script
-            Match match = getRegistry().findWebScript(context.getRequestMethod(), url);
             if (match != null)
             {
-                if (match.getKind() == Match.Kind.URI)
+                WebScript webScript = match.getWebScript();
+                if (webScript != null)
                 {
-                    match = getRegistry().findWebScript(LocalWebScriptRuntime.DEFAULT_METHOD_GET, url);
-                }
-                if (match != null)
-                {
-                    WebScript webScript = match.getWebScript();
-                    if (webScript != null)
+                    // Modify the path to resolve the .head.<extension> file
+                    String path = webScript.getDescription().getId() + ".head";
+                    
+                    // Store the WebScript that was resolved for the component against the request. Merged
+                    // sub-components and components are shared between requests so it can't be set on them...
+                    RenderUtil.setResolvedWebScript(context, object, webScript);
+                    /**
+                     * If the .head template file exists, we can execute
+                     * it against a template model.
+                     * 
+                     * We then trap the results and append them into the
+                     * request context "tags" buffer for output later.
+                     */
+                    String validTemplatePath = getContainer().findValidTemplatePath(path);
+                    if (validTemplatePath != null)
                     {
-                        // Modify the path to resolve the .head.<extension> file
-                        String path = webScript.getDescription().getId() + ".head";
+                        ExtensibilityModel extModel = context.openExtensibilityModel();
+                        extModel.addUnboundContent();
+                        Writer writer = null;
     
-                        // Store the WebScript that was resolved for the component...
-                        component.setResolvedWebScript(webScript);
-                        /**
-                         * If the .head template file exists, we can execute
-                         * it against a template model.
-                         * 
-                         * We then trap the results and append them into the
-                         * request context "tags" buffer for output later.
-                         */
-                        String validTemplatePath = getContainer().getTemplateProcessorRegistry().findValidTemplatePath(path);
-                        if (validTemplatePath != null)
+                        try
                         {
-                            ExtensibilityModel extModel = context.openExtensibilityModel();
-                            extModel.addUnboundContent();
-                            Writer writer = null;
+                            writer = response.getWriter();
+                            
+                            Map<String, Object> model = new HashMap<String, Object>(32);
+                            processorModelHelper.populateTemplateModel(context, model, object);
                             
-                            try
+                            // commit to output stream
+                            TemplateProcessor templateProcessor = getContainer().getTemplateProcessorRegistry().getTemplateProcessor(validTemplatePath);
+                            templateProcessor.process(validTemplatePath, model, writer);
+                            
+                            context.updateExtendingModuleDependencies(webScript.getDescription().getId(), model);
+                            
+                            // Get the module handler from the container and retrieve any templates that provide extensions to the
+                            // the current WebScript...
+                            for (String moduleTemplatePath: context.getExtendingModuleFiles(validTemplatePath))
                             {
-                                writer = context.getResponse().getWriter();
-                                
-                                Map<String, Object> model = new HashMap<String, Object>(32);
-                                processorModelHelper.populateTemplateModel(context, model, object);
-
-                                // commit to output stream
-                                TemplateProcessor templateProcessor = getContainer().getTemplateProcessorRegistry().getTemplateProcessor(validTemplatePath);
-                                templateProcessor.process(validTemplatePath, model, writer);
-                                
-                                context.updateExtendingModuleDependencies(webScript.getDescription().getId(), model);
-
-                                // Get the module handler from the container and retrieve any templates that provide extensions to the
-                                // the current WebScript...
-                                for (String moduleTemplatePath: context.getExtendingModuleFiles(validTemplatePath))
+                                String modulePath = getContainer().findValidTemplatePath(moduleTemplatePath);
+                                if (modulePath != null)
                                 {
-                                    String modulePath = getContainer().getTemplateProcessorRegistry().findValidTemplatePath(moduleTemplatePath);
-                                    if (modulePath != null)
-                                    {
-                                        templateProcessor.process(modulePath, model, writer);
-                                    }
+                                    templateProcessor.process(modulePath, model, writer);
                                 }
                             }
-                            catch (UnsupportedEncodingException uee)
-                            {
-                                throw new RendererExecutionException(uee);
-                            }
-                            catch (IOException ioe)
-                            {
-                                throw new RendererExecutionException(ioe);
-                            }
-                            finally
-                            {
-                                context.closeExtensibilityModel(extModel, writer);
-                            }
+                        }
+                        catch (UnsupportedEncodingException uee)
+                        {
+                            throw new RendererExecutionException(uee);
+                        }
+                        catch (IOException ioe)
+                        {
+                            throw new RendererExecutionException(ioe);
+                        }
+                        finally
+                        {
+                            context.closeExtensibilityModel(extModel, writer);
                         }
                     }
                 }
@@ -225,6 +244,31 @@ public class WebScriptProcessor extends AbstractProcessor
         RequestContext context = pc.getRequestContext();
         String uri = this.getProperty(pc, "uri");
         
+        // When the template renders its head in a single pass the .head template of a component is rendered along
+        // with its body and added to the head of the template
+        if (object instanceof Component || object instanceof SubComponent)
+        {
+            ExtensibilityModel extModel = context.getCurrentExtensibilityModel();
+            DeferredContentTargetModelElement headElement = (extModel != null ? extModel.getDeferredContent(HeadContentModelElement.HEAD_CONTENT_ID, HeadContentModelElement.HEAD_CONTENT_NAME) : null);
+            if (headElement != null)
+            {
+                FakeHttpServletResponse headResponse = new FakeHttpServletResponse(context.getResponse());
+                renderHeadTemplate(context, object, uri, headResponse);
+                try
+                {
+                    String head = headResponse.getContentAsString();
+                    if (head.length() != 0)
+                    {
+                        headElement.registerDeferredSourceElement(new HeadContentSourceModelElement(object.getId(), HeadContentModelElement.HEAD_CONTENT_NAME, head, headElement));
+                    }
+                }
+                catch (UnsupportedEncodingException uee)
+                {
+                    throw new RendererExecutionException(uee);
+                }
+            }
+        }
+        
         // Construct a "context" object that the Web Script engine will utilise
         LocalWebScriptContext webScriptContext = new LocalWebScriptContext();
         
@@ -280,7 +324,7 @@ public class WebScriptProcessor extends AbstractProcessor
                 // to it do not need to implement it, and can fall back to GET.
                 if (!LocalWebScriptRuntime.DEFAULT_METHOD_GET.equals(method))
                 {
-                    Match match = getRegistry().findWebScript(method, runtime.getScriptUrl());
+                    Match match = getContainer().findWebScript(method, runtime.getScriptUrl());
                     if (match != null && match.getKind() == Match.Kind.URI)
                     {
                         // found a match - but not to this method - fall back
@@ -331,7 +375,7 @@ public class WebScriptProcessor extends AbstractProcessor
         RequestContext context = pc.getRequestContext();
         String uri = this.getProperty(pc, "uri");
         
-        Match match = webScriptContainer.getRegistry().findWebScript(context.getRequestMethod(), uri);
+        Match match = webScriptContainer.findWebScript(context.getRequestMethod(), uri);
         
         return (match != null);
     }
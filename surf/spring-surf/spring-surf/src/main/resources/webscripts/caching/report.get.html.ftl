@@ -12,17 +12,29 @@
                <th><b>Cache Bean</b></th>
                <th><b>Entries</b></th>
                <th><b>Size (bytes, approx)</b></th>
+               <th><b>Hits</b></th>
+               <th><b>Misses</b></th>
+               <th><b>Loads</b></th>
+               <th><b>Avg Load (ms)</b></th>
             </tr>
          <#list reports?keys as cache>
-            <tr><td colspan="3"><b>${cache?html}</b></td></tr>
+            <tr><td colspan="7"><b>${cache?html}</b></td></tr>
             <#list reports[cache] as report>
             <tr>
                <td>&nbsp;&nbsp;&nbsp;${report.name?html}</td>
                <td>${report.count}</td>
                <td>${report.size}</td>
+               <#if report.hits??>
+               <td>${report.hits}</td>
+               <td>${report.misses}</td>
+               <td>${report.loads}</td>
+               <td>${report.loadtime}</td>
+               <#else>
+               <td colspan="4"></td>
+               </#if>
             </tr>
             </#list>
-            <tr><td colspan="3"></td></tr>
+            <tr><td colspan="7"></td></tr>
          </#list>
          </table>
       </div>
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.springframework.extensions.surf.DependencyAggregator;
+import org.springframework.extensions.surf.DependencyHandler;
+import org.springframework.extensions.surf.JavaScriptCompressionHandler;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
+import org.springframework.extensions.surf.cache.PersistentResourceCache;
+import org.springframework.extensions.surf.support.ServletRequestContext;
+import org.springframework.extensions.surf.util.CacheReport;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that compressing the files of an aggregated JavaScript resource on the compression thread pool gives the
+ * same result as compressing them one at a time: the files are aggregated in the requested order, missing files are
+ * left out and files that cannot be compressed are included uncompressed.
+ */
+public class DependencyAggregatorTest
+{
+    private static final String INLINE = DependencyAggregator.INLINE_AGGREGATION_MARKER + "var inline = 0;";
+
+    /**
+     * Prefixes the source with a marker and records the threads that it has compressed files on. Sources that
+     * contain "FAIL" cannot be compressed.
+     */
+    private static class MarkerCompressor implements JavaScriptCompressionHandler
+    {
+        private final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        public void compress(Reader reader, Writer writer) throws IOException
+        {
+            this.threads.add(Thread.currentThread().getName());
+            String source = IOUtils.toString(reader);
+            if (source.contains("FAIL"))
+            {
+                throw new IOException("Cannot compress: " + source);
+            }
+            writer.write("/*c*/" + source);
+        }
+    }
+
+    /**
+     * Serves resources from a map rather than from the classpath or servlet context.
+     */
+    private static class MapDependencyHandler extends DependencyHandler
+    {
+        private final Map<String, String> files = new HashMap<String, String>();
+
+        private MapDependencyHandler()
+        {
+            setCharset("UTF-8");
+            setDigest("MD5");
+            this.files.put("js/a.js", "var a = 1;");
+            this.files.put("js/m.js", "var m = 13;");
+            this.files.put("js/z.js", "var z = 26;");
+            this.files.put("js/fail.js", "var FAIL = true;");
+        }
+
+        @Override
+        public InputStream getResourceInputStream(String path) throws IOException
+        {
+            String contents = this.files.get(path);
+            return (contents != null ? new ByteArrayInputStream(contents.getBytes("UTF-8")) : null);
+        }
+    }
+
+    /**
+     * An in-memory {@link PersistentResourceCache}.
+     */
+    private static class MapCache implements PersistentResourceCache
+    {
+        private final Map<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+
+        public byte[] get(String key)
+        {
+            return this.entries.get(key);
+        }
+
+        public void put(String key, byte[] content)
+        {
+            this.entries.put(key, content);
+        }
+
+        public void clear()
+        {
+            this.entries.clear();
+        }
+    }
+
+    private static DependencyAggregator createAggregator(int threadPoolSize, MarkerCompressor compressor, PersistentResourceCache cache)
+    {
+        DependencyAggregator dependencyAggregator = new DependencyAggregator();
+        dependencyAggregator.setDependencyHandler(new MapDependencyHandler());
+        dependencyAggregator.setJavaScriptCompressionHandler(compressor);
+        dependencyAggregator.setCompressionThreadPoolSize(threadPoolSize);
+        dependencyAggregator.setPersistentCache(cache);
+        dependencyAggregator.setMissingFileWarningSuppressionList(Collections.<String>emptyList());
+        return dependencyAggregator;
+    }
+
+    /**
+     * Aggregates the supplied paths (with a request context bound to the current thread) and returns the content.
+     */
+    private static String aggregate(DependencyAggregator dependencyAggregator, String... paths) throws IOException
+    {
+        ServletRequestContext context = new ServletRequestContext(TestCaseSetup.getServiceRegistry(), null, null);
+        try
+        {
+            String checksum = dependencyAggregator.generateJavaScriptDependencies(new LinkedHashSet<String>(Arrays.asList(paths)));
+            return new String(dependencyAggregator.getCachedDependencyResource(checksum).getContent(), "UTF-8");
+        }
+        finally
+        {
+            context.release();
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception
+    {
+        String[] paths = { "js/z.js", "js/missing.js", "js/a.js", INLINE, "js/fail.js", "js/m.js" };
+        String expected = "/*c*/var z = 26;/*c*/var a = 1;\n/*Path=Inline insert...*/\n\nvar inline = 0;\n\nvar FAIL = true;/*c*/var m = 13;";
+
+        MarkerCompressor sequentialCompressor = new MarkerCompressor();
+        DependencyAggregator sequential = createAggregator(0, sequentialCompressor, new MapCache());
+        Assert.assertEquals(expected, aggregate(sequential, paths));
+        Assert.assertEquals(0L, sequential.getParallelCompressionCount());
+        Assert.assertEquals(4, sequentialCompressor.threads.size());
+
+        MarkerCompressor parallelCompressor = new MarkerCompressor();
+        DependencyAggregator parallel = createAggregator(2, parallelCompressor, new MapCache());
+        try
+        {
+            Assert.assertEquals(expected, aggregate(parallel, paths));
+
+            // Every file other than the inline JavaScript was submitted to the pool and the missing file was then
+            // looked up again on the request thread, but no file was compressed twice...
+            Assert.assertEquals(5L, parallel.getParallelCompressionCount());
+            Assert.assertEquals(4, parallelCompressor.threads.size());
+            for (String thread: parallelCompressor.threads)
+            {
+                Assert.assertTrue(thread, thread.startsWith("DependencyAggregator-"));
+            }
+        }
+        finally
+        {
+            parallel.destroy();
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequentialWithoutPersistentCache() throws Exception
+    {
+        String[] paths = { "js/m.js", "js/missing.js", "js/fail.js", "js/z.js", "js/a.js" };
+        String sequential = aggregate(createAggregator(0, new MarkerCompressor(), null), paths);
+        DependencyAggregator parallel = createAggregator(2, new MarkerCompressor(), null);
+        try
+        {
+            Assert.assertEquals(sequential, aggregate(parallel, paths));
+            Assert.assertEquals(5L, parallel.getParallelCompressionCount());
+        }
+        finally
+        {
+            parallel.destroy();
+        }
+        Assert.assertTrue(sequential, sequential.startsWith("/*c*/var m = 13;"));
+        Assert.assertTrue(sequential, sequential.endsWith("/*c*/var z = 26;/*c*/var a = 1;"));
+    }
+
+    @Test
+    public void testCompressedFilesNotResubmitted() throws Exception
+    {
+        MarkerCompressor compressor = new MarkerCompressor();
+        DependencyAggregator dependencyAggregator = createAggregator(2, compressor, null);
+        try
+        {
+            // A single file is compressed on the request thread...
+            Assert.assertEquals("/*c*/var a = 1;", aggregate(dependencyAggregator, "js/a.js"));
+            Assert.assertEquals(0L, dependencyAggregator.getParallelCompressionCount());
+            Assert.assertEquals(Arrays.asList(Thread.currentThread().getName()), compressor.threads);
+
+            // ...and is not compressed again when it is aggregated with other files...
+            Assert.assertEquals("/*c*/var m = 13;/*c*/var a = 1;/*c*/var z = 26;", aggregate(dependencyAggregator, "js/m.js", "js/a.js", "js/z.js"));
+            Assert.assertEquals(2L, dependencyAggregator.getParallelCompressionCount());
+            Assert.assertEquals(3, compressor.threads.size());
+
+            // ...which leaves only one file to compress so the pool is not used...
+            Assert.assertEquals("/*c*/var z = 26;/*c*/var a = 1;", aggregate(dependencyAggregator, "js/missing.js", "js/z.js", "js/a.js"));
+            Assert.assertEquals(2L, dependencyAggregator.getParallelCompressionCount());
+            Assert.assertEquals(3, compressor.threads.size());
+        }
+        finally
+        {
+            dependencyAggregator.destroy();
+        }
+    }
+
+    private static CacheReport getReport(DependencyAggregator dependencyAggregator, String name)
+    {
+        for (CacheReport report: dependencyAggregator.report())
+        {
+            if (report.getCacheName().equals(name))
+            {
+                return report;
+            }
+        }
+        Assert.fail("No report for: " + name);
+        return null;
+    }
+
+    @Test
+    public void testReport() throws Exception
+    {
+        DependencyAggregator dependencyAggregator = createAggregator(2, new MarkerCompressor(), null);
+        try
+        {
+            // The second request for the same files re-uses the aggregated resource...
+            aggregate(dependencyAggregator, "js/m.js", "js/a.js", "js/z.js");
+            aggregate(dependencyAggregator, "js/m.js", "js/a.js", "js/z.js");
+            CacheReport aggregation = getReport(dependencyAggregator, "aggregatedResources");
+            Assert.assertEquals(1L, aggregation.getHitCount());
+            Assert.assertEquals(1L, aggregation.getMissCount());
+            Assert.assertEquals(1L, aggregation.getLoadCount());
+            Assert.assertTrue(aggregation.getTotalLoadTime() > 0L);
+
+            // ...and all of its files were compressed by the pool (or by the request thread when the pool was busy)...
+            CacheReport pool = getReport(dependencyAggregator, "compressionThreadPool");
+            Assert.assertEquals(2, pool.getEntryCount());
+            Assert.assertEquals(3L, pool.getLoadCount());
+            Assert.assertEquals(3L, pool.getHitCount() + pool.getMissCount());
+            Assert.assertTrue(pool.getTotalLoadTime() > 0L);
+        }
+        finally
+        {
+            dependencyAggregator.destroy();
+        }
+    }
+
+    private static ConcurrentLoadingCache<?> getCache(DependencyAggregator dependencyAggregator, String name)
+    {
+        for (ConcurrentLoadingCache<?> cache: dependencyAggregator.getSizeBoundedCaches())
+        {
+            if (cache.getName().equals(name))
+            {
+                return cache;
+            }
+        }
+        Assert.fail("No cache named: " + name);
+        return null;
+    }
+
+    @Test
+    public void testAggregatedResourceEviction() throws Exception
+    {
+        DependencyAggregator dependencyAggregator = createAggregator(0, new MarkerCompressor(), null);
+        ConcurrentLoadingCache<?> fileSets = getCache(dependencyAggregator, DependencyAggregator.FILE_SET_CACHE_NAME);
+        ConcurrentLoadingCache<?> resources = getCache(dependencyAggregator, DependencyAggregator.AGGREGATED_RESOURCE_CACHE_NAME);
+        String expected = "/*c*/var m = 13;/*c*/var a = 1;";
+        Assert.assertEquals(expected, aggregate(dependencyAggregator, "js/m.js", "js/a.js"));
+        Assert.assertEquals(1, fileSets.size());
+        Assert.assertEquals(1, resources.size());
+
+        // The caches are weighed by the size of their entries rather than the number of entries...
+        Assert.assertTrue(resources.weightedSize() > expected.length());
+        Assert.assertTrue(fileSets.weightedSize() > "js/m.js".length() + "js/a.js".length());
+
+        // ...and the file set is not used once the aggregated resource generated from it has been evicted...
+        resources.setCapacity(1);
+        Assert.assertEquals(0, resources.size());
+        resources.setCapacity(DependencyAggregator.DEFAULT_AGGREGATED_RESOURCE_CACHE_MAX_SIZE);
+        Assert.assertEquals(expected, aggregate(dependencyAggregator, "js/m.js", "js/a.js"));
+        Assert.assertEquals(2L, dependencyAggregator.getAggregatedResourceCount());
+        Assert.assertEquals(expected, aggregate(dependencyAggregator, "js/m.js", "js/a.js"));
+        Assert.assertEquals(2L, dependencyAggregator.getAggregatedResourceCount());
+
+        // ...or one of its files has changed
+        Set<String> changed = Collections.singleton("js/a.js");
+        dependencyAggregator.invalidateDependencies(changed);
+        Assert.assertEquals(0, fileSets.size());
+        Assert.assertEquals(0, resources.size());
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.springframework.core.io.FileSystemResourceLoader;
+import org.springframework.extensions.surf.DependencyHandler;
+import org.springframework.extensions.surf.DependencyInvalidationListener;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
+import org.springframework.extensions.surf.util.CacheReport;
+import org.springframework.extensions.surf.util.CacheReporter;
+import org.springframework.extensions.webscripts.ScriptConfigModel;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.support.StaticWebApplicationContext;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the checksum paths generated by the {@link DependencyHandler} can always be resolved, even once the
+ * resource they were generated from has been evicted from its cache.
+ */
+public class DependencyHandlerTest
+{
+    private static final String A = "var a = 1;\n";
+    private static final String B = "var b = 2;\n";
+
+    private static void write(File webapp, String path, String contents) throws IOException
+    {
+        FileUtils.writeStringToFile(new File(webapp, path), contents, "UTF-8");
+    }
+
+    private static String read(DependencyHandler dependencyHandler, String path) throws IOException
+    {
+        InputStream in = dependencyHandler.getResourceInputStream(path);
+        return (in != null ? IOUtils.toString(in, "UTF-8") : null);
+    }
+
+    private static File createWebapp(String name) throws IOException
+    {
+        File webapp = new File(new File("target", "test-data"), name);
+        TestCaseSetup.deleteDirectory(webapp);
+        write(webapp, "js/a.js", A);
+        write(webapp, "js/b.js", B);
+        return webapp;
+    }
+
+    /**
+     * Records the invalidations it is notified of.
+     */
+    private static class RecordingListener implements DependencyInvalidationListener, CacheReporter
+    {
+        private int invalidations = 0;
+        private int clears = 0;
+
+        @Override
+        public void invalidateDependencies(Set<String> paths)
+        {
+            this.invalidations++;
+        }
+
+        @Override
+        public void clearCaches()
+        {
+            this.clears++;
+        }
+
+        @Override
+        public List<CacheReport> report()
+        {
+            return Collections.emptyList();
+        }
+    }
+
+    private static DependencyHandler createDependencyHandler(File webapp)
+    {
+        return createDependencyHandler(webapp, null);
+    }
+
+    /**
+     * Creates a {@link DependencyHandler} that resolves the resources of the web application from the servlet context.
+     */
+    private static DependencyHandler createDependencyHandler(File webapp, RecordingListener listener)
+    {
+        MockServletContext servletContext = new MockServletContext("file:" + webapp.getAbsolutePath(), new FileSystemResourceLoader());
+        StaticWebApplicationContext applicationContext = new StaticWebApplicationContext();
+        applicationContext.setServletContext(servletContext);
+        if (listener != null)
+        {
+            applicationContext.getBeanFactory().registerSingleton("listener", listener);
+        }
+        applicationContext.refresh();
+
+        DependencyHandler dependencyHandler = new DependencyHandler();
+        dependencyHandler.setCharset("UTF-8");
+        dependencyHandler.setDigest("MD5");
+        dependencyHandler.setScriptConfigModel(TestCaseSetup.getApplicationContext().getBean("script.config.model.instance", ScriptConfigModel.class));
+        dependencyHandler.setWebFrameworkConfigElement(TestCaseSetup.getServiceRegistry().getWebFrameworkConfiguration());
+        dependencyHandler.setApplicationContext(applicationContext);
+        return dependencyHandler;
+    }
+
+    @Test
+    public void testOneEntryPerResource() throws Exception
+    {
+        DependencyHandler dependencyHandler = createDependencyHandler(createWebapp("handler-entries"));
+        String checksumPath = dependencyHandler.getChecksumPath("js/a.js");
+        Assert.assertEquals(DependencyHandler.generateCheckSumPath("js/a.js", dependencyHandler.generateCheckSum(A)), checksumPath);
+        Assert.assertEquals(A, read(dependencyHandler, checksumPath));
+        Assert.assertTrue(dependencyHandler.resourceInCache("js/a.js"));
+        Assert.assertTrue(dependencyHandler.resourceInCache(checksumPath));
+
+        // The checksum path is resolved from the entry for the resource rather than having an entry of its own...
+        ConcurrentLoadingCache<?> cache = dependencyHandler.getSizeBoundedCaches().get(0);
+        Assert.assertEquals(1, cache.size());
+
+        // ...so both are invalidated together...
+        dependencyHandler.invalidate("js/a.js");
+        Assert.assertEquals(0, cache.size());
+        Assert.assertFalse(dependencyHandler.resourceInCache(checksumPath));
+        Assert.assertEquals(A, read(dependencyHandler, checksumPath));
+    }
+
+    @Test
+    public void testChecksumPathsResolvedAfterEviction() throws Exception
+    {
+        DependencyHandler dependencyHandler = createDependencyHandler(createWebapp("handler-eviction"));
+
+        // The cache is too small to hold any resource so every entry is evicted as soon as it is added...
+        dependencyHandler.setResourceCacheMaxSize(1);
+        ConcurrentLoadingCache<?> cache = dependencyHandler.getSizeBoundedCaches().get(0);
+
+        String checksumPathA = dependencyHandler.getChecksumPath("js/a.js");
+        String checksumPathB = dependencyHandler.getChecksumPath("js/b.js");
+        Assert.assertEquals(DependencyHandler.generateCheckSumPath("js/a.js", dependencyHandler.generateCheckSum(A)), checksumPathA);
+        Assert.assertEquals(DependencyHandler.generateCheckSumPath("js/b.js", dependencyHandler.generateCheckSum(B)), checksumPathB);
+        Assert.assertEquals(0, cache.size());
+
+        for (int i = 0; i < 3; i++)
+        {
+            Assert.assertEquals(A, read(dependencyHandler, checksumPathA));
+            Assert.assertEquals(B, read(dependencyHandler, "/" + checksumPathB));
+            Assert.assertEquals(checksumPathA, dependencyHandler.getChecksumPath("js/a.js"));
+            Assert.assertEquals(dependencyHandler.generateCheckSum(B), dependencyHandler.getChecksum("js/b.js", null));
+            Assert.assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void testUnknownChecksumPathNotCached() throws Exception
+    {
+        File webapp = createWebapp("handler-unknown");
+        DependencyHandler dependencyHandler = createDependencyHandler(webapp);
+        String checksumPath = dependencyHandler.getChecksumPath("js/a.js");
+
+        // A checksum path for a different version of the resource is not found...
+        String stalePath = DependencyHandler.generateCheckSumPath("js/a.js", dependencyHandler.generateCheckSum("var a = 0;\n"));
+        Assert.assertNull(read(dependencyHandler, stalePath));
+        Assert.assertFalse(dependencyHandler.resourceInCache(stalePath));
+        Assert.assertEquals(A, read(dependencyHandler, checksumPath));
+
+        // ...but is not remembered as not found, a resource with that name is found once it exists...
+        write(webapp, stalePath, "var stale;\n");
+        Assert.assertEquals("var stale;\n", read(dependencyHandler, stalePath));
+
+        // A missing resource is remembered as not found until it is invalidated...
+        Assert.assertNull(read(dependencyHandler, "js/c.js"));
+        write(webapp, "js/c.js", "var c;\n");
+        Assert.assertNull(read(dependencyHandler, "js/c.js"));
+        dependencyHandler.invalidate("js/c.js");
+        Assert.assertEquals("var c;\n", read(dependencyHandler, "js/c.js"));
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        DependencyHandler dependencyHandler = createDependencyHandler(createWebapp("handler-invalidate-all"), listener);
+        String checksumPath = dependencyHandler.getChecksumPath("js/a.js");
+        dependencyHandler.getChecksumPath("js/b.js");
+        ConcurrentLoadingCache<?> cache = dependencyHandler.getSizeBoundedCaches().get(0);
+        Assert.assertEquals(2, cache.size());
+
+        dependencyHandler.invalidate("js/a.js");
+        Assert.assertEquals(1, listener.invalidations);
+        Assert.assertEquals(0, listener.clears);
+
+        // When changes have been missed every cache is cleared rather than just the entries for a single path...
+        dependencyHandler.invalidateAll();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(1, listener.invalidations);
+        Assert.assertEquals(1, listener.clears);
+        Assert.assertEquals(A, read(dependencyHandler, checksumPath));
+    }
+}
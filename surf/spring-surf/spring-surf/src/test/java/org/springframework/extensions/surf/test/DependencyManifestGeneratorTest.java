@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.springframework.core.io.FileSystemResourceLoader;
+import org.springframework.extensions.surf.CSSCompressionHandler;
+import org.springframework.extensions.surf.DependencyAggregator;
+import org.springframework.extensions.surf.DependencyAggregator.CompressionType;
+import org.springframework.extensions.surf.DependencyHandler;
+import org.springframework.extensions.surf.DependencyManifestGenerator;
+import org.springframework.extensions.surf.JavaScriptCompressionHandler;
+import org.springframework.extensions.surf.cache.PersistentResourceCache;
+import org.springframework.extensions.surf.support.ServletRequestContext;
+import org.springframework.extensions.webscripts.ScriptConfigModel;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.support.StaticWebApplicationContext;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the dependency manifest and the persistent cache entries written by the {@link DependencyManifestGenerator}
+ * are found by the {@link DependencyHandler} and {@link DependencyAggregator} at runtime, so that a server configured with
+ * them neither reads resources to generate their checksums nor compresses them again.
+ */
+public class DependencyManifestGeneratorTest
+{
+    private static final String MANIFEST = "/WEB-INF/" + DependencyManifestGenerator.MANIFEST_FILE_NAME;
+
+    /**
+     * Prefixes the source with a marker and counts the files that it has compressed.
+     */
+    public static class MarkerCompressor implements JavaScriptCompressionHandler, CSSCompressionHandler
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public void compress(Reader reader, Writer writer) throws IOException
+        {
+            this.count.incrementAndGet();
+            writer.write("/*c*/" + IOUtils.toString(reader).trim());
+        }
+    }
+
+    /**
+     * An in-memory {@link PersistentResourceCache} that records the keys that have been looked up.
+     */
+    private static class MapCache implements PersistentResourceCache
+    {
+        private final Map<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+        private final Set<String> requested = Collections.synchronizedSet(new HashSet<String>());
+
+        public byte[] get(String key)
+        {
+            this.requested.add(key);
+            return this.entries.get(key);
+        }
+
+        public void put(String key, byte[] content)
+        {
+            this.entries.put(key, content);
+        }
+
+        public void clear()
+        {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Counts the resources that have been read to generate their checksums.
+     */
+    private static class CountingDependencyHandler extends DependencyHandler
+    {
+        private final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public String convertResourceToString(InputStream in) throws IOException
+        {
+            this.reads.incrementAndGet();
+            return super.convertResourceToString(in);
+        }
+    }
+
+    /**
+     * Exposes the key that the aggregator looks up in the persistent cache.
+     */
+    private static class RuntimeAggregator extends DependencyAggregator
+    {
+        public String getKey(String source, CompressionType type)
+        {
+            return getPersistentCacheKey(source, type);
+        }
+    }
+
+    private static void write(File webapp, String path, String contents) throws IOException
+    {
+        FileUtils.writeStringToFile(new File(webapp, path), contents, "UTF-8");
+    }
+
+    private static String read(File webapp, String path) throws IOException
+    {
+        return FileUtils.readFileToString(new File(webapp, path), "UTF-8");
+    }
+
+    private static File createWebapp(String name) throws IOException
+    {
+        File webapp = new File(new File("target", "test-data"), name);
+        TestCaseSetup.deleteDirectory(webapp);
+        write(webapp, "js/a.js", "var a = 1;\n");
+        write(webapp, "js/lib/d.js", "var d = 4;\n");
+        write(webapp, "css/b.css", ".b { color: red; }\n");
+        write(webapp, "excluded/e.js", "var e = 5;\n");
+        write(webapp, "index.html", "<html></html>\n");
+        write(webapp, "WEB-INF/x.js", "var x;\n");
+        write(webapp, "META-INF/y.js", "var y;\n");
+        return webapp;
+    }
+
+    /**
+     * Generates the manifest and the persistent cache entries for the web application in the same way as
+     * {@link DependencyManifestGenerator#main(String[])} does.
+     */
+    private static void generate(File webapp, PersistentResourceCache cache, MarkerCompressor compressor) throws IOException
+    {
+        DependencyHandler dependencyHandler = new DependencyHandler();
+        dependencyHandler.setCharset("UTF-8");
+        dependencyHandler.setDigest("MD5");
+
+        DependencyAggregator dependencyAggregator = new DependencyAggregator();
+        dependencyAggregator.setDependencyHandler(dependencyHandler);
+        dependencyAggregator.setPersistentCache(cache);
+        dependencyAggregator.setJavaScriptCompressionHandler(compressor);
+        dependencyAggregator.setCssCompressionHandler(compressor);
+        dependencyAggregator.setCompressionExclusions(Arrays.asList("excluded/*.js"));
+
+        DependencyManifestGenerator generator = new DependencyManifestGenerator(dependencyHandler, dependencyAggregator);
+        generator.process(webapp);
+        generator.writeManifest(new File(webapp, MANIFEST));
+    }
+
+    /**
+     * Creates a {@link DependencyHandler} configured as it would be at runtime to resolve the resources of the web
+     * application from the servlet context and to load the manifest.
+     */
+    private static CountingDependencyHandler createRuntimeHandler(File webapp)
+    {
+        MockServletContext servletContext = new MockServletContext("file:" + webapp.getAbsolutePath(), new FileSystemResourceLoader());
+        StaticWebApplicationContext applicationContext = new StaticWebApplicationContext();
+        applicationContext.setServletContext(servletContext);
+
+        CountingDependencyHandler dependencyHandler = new CountingDependencyHandler();
+        dependencyHandler.setCharset("UTF-8");
+        dependencyHandler.setDigest("MD5");
+        dependencyHandler.setScriptConfigModel(TestCaseSetup.getApplicationContext().getBean("script.config.model.instance", ScriptConfigModel.class));
+        dependencyHandler.setWebFrameworkConfigElement(TestCaseSetup.getServiceRegistry().getWebFrameworkConfiguration());
+        dependencyHandler.setManifest(MANIFEST);
+        dependencyHandler.setApplicationContext(applicationContext);
+        return dependencyHandler;
+    }
+
+    @Test
+    public void testManifestChecksums() throws Exception
+    {
+        File webapp = createWebapp("manifest-checksums");
+        generate(webapp, new MapCache(), new MarkerCompressor());
+
+        Properties manifest = new Properties();
+        InputStream in = new FileInputStream(new File(webapp, MANIFEST));
+        try
+        {
+            manifest.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        // Every resource outside of WEB-INF and META-INF is keyed by its path relative to the web application...
+        Set<String> paths = new HashSet<String>(Arrays.asList("js/a.js", "js/lib/d.js", "css/b.css", "excluded/e.js", "index.html"));
+        Assert.assertEquals(paths, manifest.stringPropertyNames());
+
+        CountingDependencyHandler dependencyHandler = createRuntimeHandler(webapp);
+        for (String path: paths)
+        {
+            String checksum = manifest.getProperty(path);
+            Assert.assertEquals(path, dependencyHandler.generateCheckSum(read(webapp, path)), checksum);
+            Assert.assertEquals(path, checksum, dependencyHandler.getChecksum(path, null));
+        }
+
+        // ...and found whether or not the requested path starts with a slash...
+        Assert.assertEquals(manifest.getProperty("css/b.css"), dependencyHandler.getChecksum("/css/b.css", null));
+        Assert.assertEquals(0, dependencyHandler.reads.get());
+
+        // A resource that is not in the manifest is read to generate its checksum...
+        write(webapp, "js/new.js", "var n;\n");
+        Assert.assertEquals(dependencyHandler.generateCheckSum("var n;\n"), dependencyHandler.getChecksum("js/new.js", null));
+        Assert.assertEquals(1, dependencyHandler.reads.get());
+    }
+
+    @Test
+    public void testPersistentCacheKeys() throws Exception
+    {
+        File webapp = createWebapp("manifest-cache-keys");
+        MapCache cache = new MapCache();
+        MarkerCompressor buildCompressor = new MarkerCompressor();
+        generate(webapp, cache, buildCompressor);
+
+        // Only the JavaScript and CSS files that are not excluded from compression are cached...
+        Assert.assertEquals(3, buildCompressor.count.get());
+        Assert.assertEquals(3, cache.entries.size());
+
+        // The runtime aggregator is configured with new instances of the same compression handlers...
+        MarkerCompressor runtimeCompressor = new MarkerCompressor();
+        RuntimeAggregator dependencyAggregator = new RuntimeAggregator();
+        dependencyAggregator.setDependencyHandler(createRuntimeHandler(webapp));
+        dependencyAggregator.setPersistentCache(cache);
+        dependencyAggregator.setJavaScriptCompressionHandler(runtimeCompressor);
+        dependencyAggregator.setCssCompressionHandler(runtimeCompressor);
+        dependencyAggregator.setCompressionExclusions(Arrays.asList("excluded/*.js"));
+
+        Set<String> keys = new HashSet<String>();
+        keys.add(dependencyAggregator.getKey(read(webapp, "js/a.js"), CompressionType.JAVASCRIPT));
+        keys.add(dependencyAggregator.getKey(read(webapp, "js/lib/d.js"), CompressionType.JAVASCRIPT));
+        keys.add(dependencyAggregator.getKey(read(webapp, "css/b.css"), CompressionType.CSS));
+        Assert.assertEquals(cache.entries.keySet(), keys);
+
+        // Aggregating the files uses the cached output rather than compressing them again...
+        ServletRequestContext context = new ServletRequestContext(TestCaseSetup.getServiceRegistry(), null, null);
+        try
+        {
+            LinkedHashSet<String> paths = new LinkedHashSet<String>(Arrays.asList("js/lib/d.js", "js/a.js", "excluded/e.js"));
+            String checksum = dependencyAggregator.generateJavaScriptDependencies(paths);
+            String content = new String(dependencyAggregator.getCachedDependencyResource(checksum).getContent(), "UTF-8");
+            Assert.assertEquals("/*c*/var d = 4;/*c*/var a = 1;var e = 5;\n", content);
+        }
+        finally
+        {
+            context.release();
+        }
+        Assert.assertEquals(0, runtimeCompressor.count.get());
+        Assert.assertTrue(cache.requested.containsAll(Arrays.asList(
+                dependencyAggregator.getKey(read(webapp, "js/a.js"), CompressionType.JAVASCRIPT),
+                dependencyAggregator.getKey(read(webapp, "js/lib/d.js"), CompressionType.JAVASCRIPT))));
+    }
+}
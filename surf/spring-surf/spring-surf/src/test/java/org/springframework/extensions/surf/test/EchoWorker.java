@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A reference worker for the {@link org.springframework.extensions.surf.ExternalProcessPool} that echoes the content
+ * of each request. Some requests make it misbehave so that the pool can be tested against a worker that reports an
+ * error, hangs, exits or sends a response that is too long:
+ * <ul>
+ * <li><code>error</code> - answers with an <code>ERROR</code> response</li>
+ * <li><code>hang</code> - never answers</li>
+ * <li><code>exit</code> - exits without answering</li>
+ * <li><code>oversize</code> - announces a response of {@link Integer#MAX_VALUE} bytes</li>
+ * <li><code>longheader</code> - sends a header line that never ends</li>
+ * </ul>
+ */
+public class EchoWorker
+{
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        InputStream in = new BufferedInputStream(System.in);
+        OutputStream out = System.out;
+        String header;
+        while ((header = readLine(in)) != null)
+        {
+            byte[] request = new byte[Integer.parseInt(header.trim())];
+            new DataInputStream(in).readFully(request);
+            String content = new String(request, "UTF-8");
+            if ("error".equals(content))
+            {
+                write(out, "ERROR", "Worker error".getBytes("UTF-8"));
+            }
+            else if ("hang".equals(content))
+            {
+                Thread.sleep(Long.MAX_VALUE);
+            }
+            else if ("exit".equals(content))
+            {
+                System.exit(1);
+            }
+            else if ("oversize".equals(content))
+            {
+                out.write(("OK " + Integer.MAX_VALUE + "\n").getBytes("UTF-8"));
+                out.flush();
+            }
+            else if ("longheader".equals(content))
+            {
+                while (true)
+                {
+                    out.write('0');
+                    out.flush();
+                    Thread.sleep(1);
+                }
+            }
+            else
+            {
+                write(out, "OK", request);
+            }
+        }
+    }
+
+    private static void write(OutputStream out, String status, byte[] content) throws IOException
+    {
+        out.write((status + " " + content.length + "\n").getBytes("UTF-8"));
+        out.write(content);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n')
+        {
+            if (b == -1)
+            {
+                return null;
+            }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.ExternalJavaScriptCompressionHandler;
+import org.springframework.extensions.surf.ExternalProcessPool;
+import org.testng.annotations.Test;
+
+/**
+ * Drives the {@link ExternalProcessPool} with the {@link EchoWorker} to test the framing of requests and responses,
+ * the timeout watchdog, the replacement of failed workers and the limit on the length of a response.
+ */
+public class ExternalProcessPoolTest
+{
+    private static final long TIMEOUT = 5000L;
+
+    private static String getWorkerCmd() throws Exception
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classes = new File(EchoWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        return java + " -cp " + classes + " " + EchoWorker.class.getName();
+    }
+
+    private static ExternalProcessPool createPool(int maxResponseLength) throws Exception
+    {
+        return new ExternalProcessPool(getWorkerCmd(), 1, TIMEOUT, 30000L, maxResponseLength);
+    }
+
+    private static IOException assertFails(ExternalProcessPool pool, String content)
+    {
+        try
+        {
+            pool.process(content);
+        }
+        catch (IOException e)
+        {
+            return e;
+        }
+        Assert.fail("Expected request to fail: " + content);
+        return null;
+    }
+
+    @Test
+    public void testExchange() throws Exception
+    {
+        ExternalProcessPool pool = createPool(ExternalProcessPool.DEFAULT_MAX_RESPONSE_LENGTH);
+        try
+        {
+            Assert.assertEquals("hello", pool.process("hello"));
+            Assert.assertEquals("", pool.process(""));
+            String multiLine = "caf\u00e9\n\u20ac\r\n\ud83d\ude00";
+            Assert.assertEquals(multiLine, pool.process(multiLine));
+            Assert.assertEquals(1, pool.getWorkerCount());
+            Assert.assertEquals(3, pool.getRequestCount());
+            Assert.assertEquals(0, pool.getRestartCount());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        Assert.assertEquals(0, pool.getWorkerCount());
+    }
+
+    @Test
+    public void testWorkerErrorKeepsWorker() throws Exception
+    {
+        ExternalProcessPool pool = createPool(ExternalProcessPool.DEFAULT_MAX_RESPONSE_LENGTH);
+        try
+        {
+            Assert.assertEquals("Worker error", assertFails(pool, "error").getMessage());
+            Assert.assertEquals("after", pool.process("after"));
+            Assert.assertEquals(1, pool.getWorkerCount());
+            Assert.assertEquals(0, pool.getRestartCount());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception
+    {
+        ExternalProcessPool pool = createPool(ExternalProcessPool.DEFAULT_MAX_RESPONSE_LENGTH);
+        try
+        {
+            Assert.assertEquals("before", pool.process("before"));
+            long start = System.currentTimeMillis();
+            assertFails(pool, "hang");
+            Assert.assertTrue(System.currentTimeMillis() - start >= TIMEOUT);
+            Assert.assertEquals(1, pool.getRestartCount());
+            Assert.assertEquals(0, pool.getWorkerCount());
+            Assert.assertEquals("after", pool.process("after"));
+            Assert.assertEquals(1, pool.getWorkerCount());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCrashRestartsWorker() throws Exception
+    {
+        ExternalProcessPool pool = createPool(ExternalProcessPool.DEFAULT_MAX_RESPONSE_LENGTH);
+        try
+        {
+            assertFails(pool, "exit");
+            Assert.assertEquals(1, pool.getRestartCount());
+            Assert.assertEquals(0, pool.getWorkerCount());
+            Assert.assertEquals("after", pool.process("after"));
+            Assert.assertEquals(1, pool.getWorkerCount());
+            Assert.assertEquals(1, pool.getRestartCount());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testOversizedFrameDestroysWorker() throws Exception
+    {
+        ExternalProcessPool pool = createPool(16);
+        try
+        {
+            // The announced length is rejected without waiting for the content...
+            Assert.assertTrue(assertFails(pool, "oversize").getMessage().contains("exceeds the maximum of 16 bytes"));
+            Assert.assertEquals(1, pool.getRestartCount());
+            Assert.assertEquals(0, pool.getWorkerCount());
+
+            // A response of exactly the maximum length is accepted but one byte more is not...
+            Assert.assertEquals("0123456789abcdef", pool.process("0123456789abcdef"));
+            Assert.assertTrue(assertFails(pool, "0123456789abcdefg").getMessage().contains("exceeds the maximum"));
+            Assert.assertEquals(2, pool.getRestartCount());
+
+            // A header line that never ends is rejected before the timeout...
+            Assert.assertTrue(assertFails(pool, "longheader").getMessage().contains("header too long"));
+            Assert.assertEquals(3, pool.getRestartCount());
+
+            Assert.assertEquals("after", pool.process("after"));
+            Assert.assertEquals(1, pool.getWorkerCount());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testHealthCheck() throws Exception
+    {
+        // Every idle worker is health checked before it is used again...
+        ExternalProcessPool pool = new ExternalProcessPool(getWorkerCmd(), 1, TIMEOUT, 0L);
+        try
+        {
+            Assert.assertEquals("first", pool.process("first"));
+            Thread.sleep(10);
+            Assert.assertEquals("second", pool.process("second"));
+            Assert.assertEquals(1, pool.getWorkerCount());
+            Assert.assertEquals(0, pool.getRestartCount());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPoolNotRecreatedAfterDestroy() throws Exception
+    {
+        ExternalJavaScriptCompressionHandler handler = new ExternalJavaScriptCompressionHandler();
+        handler.setWorkerCmd(getWorkerCmd());
+        handler.setPoolSize(1);
+        StringWriter writer = new StringWriter();
+        handler.compress(new StringReader("before"), writer);
+        Assert.assertEquals("before", writer.toString());
+
+        // a handler that has been destroyed must not start new worker processes...
+        handler.destroy();
+        try
+        {
+            handler.compress(new StringReader("after"), new StringWriter());
+            Assert.fail("Expected compression to fail once the handler has been destroyed");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        // ...even when the pool was never created
+        handler = new ExternalJavaScriptCompressionHandler();
+        handler.setWorkerCmd(getWorkerCmd());
+        handler.destroy();
+        try
+        {
+            handler.compress(new StringReader("after"), new StringWriter());
+            Assert.fail("Expected compression to fail once the handler has been destroyed");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.ModuleDeploymentService;
+import org.springframework.extensions.surf.types.ModuleDeployment;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that readers of the deployed module snapshot published by the {@link ModuleDeploymentService} always see
+ * a complete list while the snapshot is invalidated and rebuilt concurrently.
+ */
+public class ModuleDeploymentServiceTest
+{
+    private static final int READERS = 64;
+
+    private static final int READS = 2000;
+
+    private static final int INVALIDATIONS = 200;
+
+    private static List<String> getIds(List<ModuleDeployment> modules)
+    {
+        List<String> ids = new ArrayList<String>(modules.size());
+        for (ModuleDeployment module : modules)
+        {
+            ids.add(module.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testSnapshotIsUnmodifiable()
+    {
+        ModuleDeploymentService service = (ModuleDeploymentService) TestCaseSetup.getApplicationContext().getBean("module.deployment.service");
+        try
+        {
+            service.getDeployedModules().add(null);
+            Assert.fail("The deployed modules snapshot must not be modifiable");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsDuringInvalidation() throws Exception
+    {
+        final ModuleDeploymentService service = (ModuleDeploymentService) TestCaseSetup.getApplicationContext().getBean("module.deployment.service");
+        final List<String> expected = getIds(service.getDeployedModules());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<Thread>(READERS + 1);
+        for (int i = 0; i < READERS; i++)
+        {
+            threads.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int j = 0; j < READS && failure.get() == null; j++)
+                        {
+                            List<ModuleDeployment> modules = service.getDeployedModules();
+                            Assert.assertNotNull(modules);
+                            Assert.assertEquals(expected, getIds(modules));
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+        threads.add(new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    start.await();
+                    for (int j = 0; j < INVALIDATIONS && failure.get() == null; j++)
+                    {
+                        service.onClusterMessage(Collections.<String, Serializable>emptyMap());
+                        Thread.yield();
+                    }
+                }
+                catch (Throwable t)
+                {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        });
+
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        if (failure.get() != null)
+        {
+            throw new AssertionError(failure.get());
+        }
+        Assert.assertEquals(expected, getIds(service.getDeployedModules()));
+    }
+}
@@ -19,10 +19,16 @@
 
 package org.springframework.extensions.surf.test.api;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dom4j.DocumentHelper;
 import org.junit.Assert;
 import org.testng.annotations.Test;
 import org.springframework.extensions.surf.ModelObject;
+import org.springframework.extensions.surf.ModelPersisterInfo;
 import org.springframework.extensions.surf.test.TestCaseSetup;
+import org.springframework.extensions.surf.types.AbstractModelObject;
+import org.springframework.extensions.surf.types.ChromeImpl;
 
 /**
  * Tests the Surf API directly using mock objects
@@ -31,6 +37,27 @@ import org.springframework.extensions.surf.test.TestCaseSetup;
  */
 public class ModelObjectTest
 {
+    private static final Log logger = LogFactory.getLog(ModelObjectTest.class);
+    
+    private static final String CHROME_XML =
+        "<chrome><title>Title</title><description>Description</description><chrome-type>box</chrome-type>" +
+        "<resources><resource id=\"image\"><endpoint>alfresco</endpoint></resource></resources>" +
+        "<properties><colour>blue</colour><size>large</size></properties></chrome>";
+    
+    private static ChromeImpl newChrome(String id, boolean compact) throws Exception
+    {
+        boolean enabled = AbstractModelObject.isCompactStorageEnabled();
+        AbstractModelObject.setCompactStorageEnabled(compact);
+        try
+        {
+            return new ChromeImpl(id, new ModelPersisterInfo("test", "chrome/" + id + ".xml", false), DocumentHelper.parseText(CHROME_XML));
+        }
+        finally
+        {
+            AbstractModelObject.setCompactStorageEnabled(enabled);
+        }
+    }
+    
 	@Test
     public void testProperties() throws Exception
     {
@@ -55,4 +82,76 @@ public class ModelObjectTest
     	o.setProperty("customProperty2", "customPropertyValue2");
     	Assert.assertEquals("customPropertyValue2", o.getProperty("customProperty2"));
     }
+    
+    @Test
+    public void testCompactStorage() throws Exception
+    {
+        ChromeImpl chrome = newChrome("compact", true);
+        Assert.assertEquals("Title", chrome.getTitle());
+        Assert.assertEquals("box", chrome.getChromeType());
+        Assert.assertEquals("blue", chrome.getProperty("colour"));
+        Assert.assertNotNull(chrome.getDocument().getRootElement().element("resources").element("resource"));
+        
+        chrome.setTitle("Changed");
+        chrome.setProperty("colour", "red");
+        chrome.removeProperty("size");
+        chrome.setProperty("weight", "heavy");
+        
+        // the XML is built from the properties and must match an object in the default mode...
+        ChromeImpl copy = new ChromeImpl("copy", new ModelPersisterInfo("test", "chrome/copy.xml", false), chrome.getDocument());
+        Assert.assertEquals("Changed", copy.getTitle());
+        Assert.assertEquals("Description", copy.getDescription());
+        Assert.assertEquals("box", copy.getChromeType());
+        Assert.assertEquals("red", copy.getProperty("colour"));
+        Assert.assertNull(copy.getProperty("size"));
+        Assert.assertEquals("heavy", copy.getProperty("weight"));
+        Assert.assertEquals("alfresco", copy.getDocument().getRootElement().element("resources").element("resource").elementText("endpoint"));
+        Assert.assertEquals(copy.getProperties(), chrome.getProperties());
+        
+        ChromeImpl defaultChrome = newChrome("default", false);
+        defaultChrome.setTitle("Changed");
+        defaultChrome.setProperty("colour", "red");
+        defaultChrome.removeProperty("size");
+        defaultChrome.setProperty("weight", "heavy");
+        Assert.assertEquals(defaultChrome.getProperties(), chrome.getProperties());
+    }
+    
+    @Test
+    public void testCompactStorageMemory() throws Exception
+    {
+        final int count = 20000;
+        long defaultSize = measure(count, false);
+        long compactSize = measure(count, true);
+        if (logger.isInfoEnabled())
+            logger.info("Retained heap for " + count + " model objects - default: " + defaultSize / 1024 + "KB, compact: " + compactSize / 1024 + "KB");
+        Assert.assertTrue("Compact storage retained " + compactSize + " bytes, default " + defaultSize, compactSize < defaultSize);
+    }
+    
+    /**
+     * Returns the approximate heap retained by the given number of model objects with their properties read.
+     */
+    private static long measure(int count, boolean compact) throws Exception
+    {
+        ChromeImpl[] objects = new ChromeImpl[count];
+        long before = usedMemory();
+        for (int i = 0; i < count; i++)
+        {
+            objects[i] = newChrome("chrome" + i, compact);
+            objects[i].getProperties();
+        }
+        long after = usedMemory();
+        Assert.assertEquals("Title", objects[count - 1].getTitle());
+        return after - before;
+    }
+    
+    private static long usedMemory() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++)
+        {
+            System.gc();
+            Thread.sleep(50L);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
 }
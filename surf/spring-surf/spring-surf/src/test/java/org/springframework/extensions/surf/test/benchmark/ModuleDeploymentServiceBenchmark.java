@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.extensions.surf.ModuleDeploymentService;
+import org.springframework.extensions.surf.test.TestCaseSetup;
+import org.springframework.extensions.surf.types.ModuleDeployment;
+
+/**
+ * Measures the throughput of {@link ModuleDeploymentService#getDeployedModules()} with 64 threads reading at once,
+ * as every request does through the extensibility module handler. The <code>synchronizedRead</code> benchmark holds
+ * the service monitor around each read, which is how the method behaved before the deployed modules were published
+ * as a snapshot, so the two results show the cost of the contention that the snapshot removes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+public class ModuleDeploymentServiceBenchmark
+{
+    static final String CONFIG_LOCATIONS = "classpath*:org/springframework/extensions/webscripts/*-context.xml," +
+                                           "classpath*:org/springframework/extensions/surf/*-context.xml," +
+                                           "classpath*:org/springframework/extensions/surf/surf-test-context.xml," +
+                                           "classpath*:org/springframework/extensions/surf/local-context.xml";
+
+    private ModuleDeploymentService service;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        TestCaseSetup.setUp(CONFIG_LOCATIONS);
+        this.service = (ModuleDeploymentService) TestCaseSetup.getApplicationContext().getBean("module.deployment.service");
+        this.service.getDeployedModules();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        TestCaseSetup.tearDown();
+    }
+
+    @Benchmark
+    public List<ModuleDeployment> snapshotRead()
+    {
+        return this.service.getDeployedModules();
+    }
+
+    @Benchmark
+    public List<ModuleDeployment> synchronizedRead()
+    {
+        synchronized (this.service)
+        {
+            return this.service.getDeployedModules();
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder().include(ModuleDeploymentServiceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
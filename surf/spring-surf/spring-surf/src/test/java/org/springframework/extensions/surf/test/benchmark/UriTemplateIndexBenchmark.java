@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.extensions.surf.uri.UriTemplateListIndex;
+import org.springframework.extensions.webscripts.UriTemplate;
+
+/**
+ * Measures the time taken to match a URI against a list of 48 URI templates, which is the size of the page
+ * URI templates of a typical Share installation. The <code>linearScan</code> benchmark tries the regular
+ * expression of each template in turn, which is how {@link UriTemplateListIndex} matched URIs before the
+ * templates were indexed by their literal prefix. The URIs cycle through far more distinct values than the
+ * index caches so that most lookups walk the prefix index rather than being answered from its cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UriTemplateIndexBenchmark
+{
+    private static final String[] SECTIONS = { "site", "user", "page", "admin", "search", "repository", "people", "console" };
+    
+    private static final int URI_COUNT = 4096;
+    
+    private List<UriTemplate> templates;
+    private UriTemplateListIndex index;
+    private String[] uris;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        this.templates = new ArrayList<UriTemplate>();
+        for (String section : SECTIONS)
+        {
+            this.templates.add(new UriTemplate("/" + section + "/{id}/dashboard"));
+            this.templates.add(new UriTemplate("/" + section + "/{id}/{pageid}"));
+            this.templates.add(new UriTemplate("/" + section + "/{id}/{pageid}/{pageArg}"));
+            this.templates.add(new UriTemplate("/" + section + "/{id}/{pageid}/{pageArg}/{pageArg2}"));
+            this.templates.add(new UriTemplate("/" + section + "/{pageid}"));
+            this.templates.add(new UriTemplate("/" + section));
+        }
+        this.index = new UriTemplateListIndex(this.templates);
+        
+        // distinct uris spread over the sections, with the last sections being matched by the last templates
+        this.uris = new String[URI_COUNT];
+        for (int i = 0; i < URI_COUNT; i++)
+        {
+            this.uris[i] = "/" + SECTIONS[i % SECTIONS.length] + "/id" + i + "/documentlibrary";
+        }
+    }
+
+    private String nextUri()
+    {
+        String uri = this.uris[this.next];
+        this.next = (this.next + 1) % URI_COUNT;
+        return uri;
+    }
+
+    @Benchmark
+    public Map<String, String> linearScan()
+    {
+        String uri = nextUri();
+        for (UriTemplate template : this.templates)
+        {
+            Map<String, String> match = template.match(uri);
+            if (match != null)
+            {
+                return match;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Map<String, String> prefixIndex()
+    {
+        return this.index.findMatch(nextUri());
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder().include(UriTemplateIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.extensions.surf.cache.CacheBudgetService;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
+import org.springframework.extensions.surf.cache.SizeBoundedCacheProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the allocation of a heap budget by the {@link CacheBudgetService}.
+ */
+public class CacheBudgetServiceTest
+{
+    private static final long MB = 1024L * 1024L;
+
+    @Test
+    public void testRepeatedApplyDoesNotDrift()
+    {
+        final ConcurrentLoadingCache<String> small = new ConcurrentLoadingCache<String>("small", (int)MB);
+        final ConcurrentLoadingCache<String> large = new ConcurrentLoadingCache<String>("large", (int)(3 * MB));
+        final ConcurrentLoadingCache<String> fixed = new ConcurrentLoadingCache<String>("fixed", (int)MB);
+
+        StaticApplicationContext context = new StaticApplicationContext();
+        context.getBeanFactory().registerSingleton("provider", new SizeBoundedCacheProvider()
+        {
+            public List<ConcurrentLoadingCache<?>> getSizeBoundedCaches()
+            {
+                return Arrays.<ConcurrentLoadingCache<?>>asList(small, large, fixed);
+            }
+        });
+
+        CacheBudgetService service = new CacheBudgetService();
+        service.setApplicationContext(context);
+        service.setHeapBudget(10);
+        service.setCacheSizes(Collections.singletonMap("fixed", 2));
+
+        service.applyBudget();
+        Map<String, Long> first = service.getAllocations();
+        Assert.assertEquals(2 * MB, first.get("fixed").longValue());
+        Assert.assertEquals(2 * MB, first.get("small").longValue());
+        Assert.assertEquals(6 * MB, first.get("large").longValue());
+
+        // Exhaust the budget so that the other caches are shrunk to nothing...
+        service.setHeapBudget(2);
+        service.applyBudget();
+        Assert.assertEquals(1, small.capacity());
+        Assert.assertEquals(1, large.capacity());
+
+        // ...the budget is split by the configured sizes so restoring it must give the original result
+        service.setHeapBudget(10);
+        service.applyBudget();
+        Assert.assertEquals(first, service.getAllocations());
+        Assert.assertEquals(2 * MB, small.capacity());
+        Assert.assertEquals(6 * MB, large.capacity());
+    }
+}
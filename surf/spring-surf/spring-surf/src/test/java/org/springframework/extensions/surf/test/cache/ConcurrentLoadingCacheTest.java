@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the single flight loading of the {@link ConcurrentLoadingCache} and its interaction with removals.
+ */
+public class ConcurrentLoadingCacheTest
+{
+    /**
+     * A {@link ConcurrentLoadingCache.Loader} that counts its loads and blocks until it is released.
+     */
+    private static class BlockingLoader implements ConcurrentLoadingCache.Loader<String>
+    {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger loads = new AtomicInteger();
+
+        public String load(String key) throws IOException
+        {
+            int load = this.loads.incrementAndGet();
+            this.started.countDown();
+            try
+            {
+                this.release.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+            return key + load;
+        }
+    }
+
+    private static Future<String> getAsync(ExecutorService executor, final ConcurrentLoadingCache<String> cache, final String key,
+                                           final ConcurrentLoadingCache.Loader<String> loader)
+    {
+        return executor.submit(new Callable<String>()
+        {
+            public String call() throws Exception
+            {
+                return cache.get(key, loader);
+            }
+        });
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception
+    {
+        ConcurrentLoadingCache<String> cache = new ConcurrentLoadingCache<String>("test", 100);
+        BlockingLoader loader = new BlockingLoader();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i=0; i<8; i++)
+            {
+                results.add(getAsync(executor, cache, "key", loader));
+            }
+            Assert.assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            loader.release.countDown();
+            for (Future<String> result: results)
+            {
+                Assert.assertEquals("key1", result.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, loader.loads.get());
+            Assert.assertEquals(1L, cache.getLoadCount());
+
+            // Later requests are answered from the cache...
+            Assert.assertEquals("key1", cache.get("key", loader));
+            Assert.assertEquals(1, loader.loads.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRemoveDuringLoad() throws Exception
+    {
+        ConcurrentLoadingCache<String> cache = new ConcurrentLoadingCache<String>("test", 100);
+        BlockingLoader loader = new BlockingLoader();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<String> result = getAsync(executor, cache, "key", loader);
+            Assert.assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+
+            // The key is removed (e.g. because the source changed) while the load is still in progress...
+            cache.remove("key");
+            loader.release.countDown();
+
+            // ...the caller of the load still gets its value but the value must not be left in the cache...
+            Assert.assertEquals("key1", result.get(10, TimeUnit.SECONDS));
+            Assert.assertNull(cache.get("key"));
+
+            // ...so the next request loads it again
+            Assert.assertEquals("key2", cache.get("key", loader));
+            Assert.assertEquals("key2", cache.get("key"));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClearDuringLoad() throws Exception
+    {
+        ConcurrentLoadingCache<String> cache = new ConcurrentLoadingCache<String>("test", 100);
+        BlockingLoader loader = new BlockingLoader();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<String> result = getAsync(executor, cache, "key", loader);
+            Assert.assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+            cache.clear();
+            loader.release.countDown();
+            Assert.assertEquals("key1", result.get(10, TimeUnit.SECONDS));
+            Assert.assertNull(cache.get("key"));
+            Assert.assertEquals(0, cache.size());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.extensions.surf.CssImageDataHandler;
+import org.springframework.extensions.surf.DependencyHandler;
+import org.springframework.extensions.surf.cache.CacheBudgetService;
+import org.springframework.extensions.surf.cache.ConcurrentLoadingCache;
+import org.springframework.extensions.surf.cache.RetainedSizeWeighers;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the encoded images cached by the {@link CssImageDataHandler} are bounded by their total size, that images
+ * cached off-heap are returned unchanged and that an off-heap cache is not sized against the heap budget.
+ */
+public class CssImageDataHandlerTest
+{
+    private static final int IMAGES = 8;
+
+    /**
+     * The number of bytes in each image, which encode to 400 Base64 characters.
+     */
+    private static final int IMAGE_SIZE = 300;
+
+    private static final int ENCODED_SIZE = 400;
+
+    /**
+     * A dependency handler that serves the images from a map and counts how many times each is loaded.
+     */
+    private static class ImageDependencyHandler extends DependencyHandler
+    {
+        private final Map<String, byte[]> images = new HashMap<String, byte[]>();
+        private int loads = 0;
+
+        private ImageDependencyHandler()
+        {
+            Random random = new Random(42L);
+            for (int i = 0; i < IMAGES; i++)
+            {
+                byte[] image = new byte[IMAGE_SIZE];
+                random.nextBytes(image);
+                this.images.put("images/" + i + ".png", image);
+            }
+        }
+
+        @Override
+        public InputStream getResourceInputStream(String path) throws IOException
+        {
+            this.loads++;
+            byte[] image = this.images.get(path);
+            return (image != null ? new ByteArrayInputStream(image) : null);
+        }
+    }
+
+    /**
+     * Exposes the encoding of an image without the cache.
+     */
+    private static class TestCssImageDataHandler extends CssImageDataHandler
+    {
+        private String encode(byte[] image) throws IOException
+        {
+            return encodeImage(new ByteArrayInputStream(image));
+        }
+    }
+
+    private static TestCssImageDataHandler createHandler(ImageDependencyHandler dependencyHandler, boolean offHeap, int maxSize)
+    {
+        TestCssImageDataHandler handler = new TestCssImageDataHandler();
+        handler.setDependencyHandler(dependencyHandler);
+        handler.setMaximumImageSize(IMAGE_SIZE);
+        handler.setEncodedImageCacheOffHeap(offHeap);
+        handler.setEncodedImageCacheMaxSize(maxSize);
+        return handler;
+    }
+
+    @Test
+    public void testOffHeapImagesRoundTrip() throws Exception
+    {
+        ImageDependencyHandler dependencyHandler = new ImageDependencyHandler();
+        TestCssImageDataHandler handler = createHandler(dependencyHandler, true, CssImageDataHandler.DEFAULT_ENCODED_IMAGE_CACHE_MAX_SIZE);
+        for (int i = 0; i < IMAGES; i++)
+        {
+            String path = "images/" + i + ".png";
+            String expected = handler.encode(dependencyHandler.images.get(path));
+            Assert.assertEquals(ENCODED_SIZE, expected.length());
+            Assert.assertEquals(expected, handler.getEncodedImage(path));
+
+            // ...and the cached copy is decoded again each time it is used...
+            Assert.assertEquals(expected, handler.getEncodedImage(path));
+        }
+        Assert.assertEquals(IMAGES, dependencyHandler.loads);
+
+        // Missing images are still remembered...
+        Assert.assertNull(handler.getEncodedImage("images/missing.png"));
+        Assert.assertNull(handler.getEncodedImage("images/missing.png"));
+        Assert.assertEquals(IMAGES + 1, dependencyHandler.loads);
+
+        // ...and the images held in direct buffers are not reported as using the heap...
+        Assert.assertEquals((IMAGES + 1) * RetainedSizeWeighers.ENTRY_OVERHEAD, handler.report().get(0).getValueSizeEstimate());
+    }
+
+    @Test
+    public void testImagesLargerThanMaximumAreNotEncoded() throws Exception
+    {
+        ImageDependencyHandler dependencyHandler = new ImageDependencyHandler();
+        TestCssImageDataHandler handler = createHandler(dependencyHandler, true, CssImageDataHandler.DEFAULT_ENCODED_IMAGE_CACHE_MAX_SIZE);
+        handler.setMaximumImageSize(IMAGE_SIZE - 1);
+        Assert.assertNull(handler.getEncodedImage("images/0.png"));
+    }
+
+    @Test
+    public void testCacheIsBoundedBySize() throws Exception
+    {
+        // The cache has room for five images on the heap, where each character takes two bytes...
+        int onHeapWeight = RetainedSizeWeighers.ENTRY_OVERHEAD + ENCODED_SIZE * 2;
+        int maxSize = onHeapWeight * 5;
+        ImageDependencyHandler dependencyHandler = new ImageDependencyHandler();
+        TestCssImageDataHandler handler = createHandler(dependencyHandler, false, maxSize);
+        for (int i = 0; i < IMAGES; i++)
+        {
+            Assert.assertNotNull(handler.getEncodedImage("images/" + i + ".png"));
+        }
+        ConcurrentLoadingCache<?> cache = handler.getSizeBoundedCaches().get(0);
+        Assert.assertEquals(maxSize, cache.capacity());
+        Assert.assertEquals(5, cache.size());
+        Assert.assertTrue(cache.weightedSize() <= maxSize);
+        Assert.assertEquals(cache.weightedSize(), handler.report().get(0).getValueSizeEstimate());
+
+        // The least recently used images were evicted...
+        Assert.assertNotNull(handler.getEncodedImage("images/7.png"));
+        Assert.assertEquals(IMAGES, dependencyHandler.loads);
+        Assert.assertNotNull(handler.getEncodedImage("images/0.png"));
+        Assert.assertEquals(IMAGES + 1, dependencyHandler.loads);
+
+        // ...but the same limit holds all of the images when they are stored off-heap as one byte per character...
+        dependencyHandler = new ImageDependencyHandler();
+        handler = createHandler(dependencyHandler, true, maxSize);
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (int i = 0; i < IMAGES; i++)
+            {
+                Assert.assertNotNull(handler.getEncodedImage("images/" + i + ".png"));
+            }
+        }
+        Assert.assertEquals(IMAGES, dependencyHandler.loads);
+    }
+
+    @Test
+    public void testOffHeapCacheIsNotPartOfHeapBudget() throws Exception
+    {
+        TestCssImageDataHandler onHeap = createHandler(new ImageDependencyHandler(), false, CssImageDataHandler.DEFAULT_ENCODED_IMAGE_CACHE_MAX_SIZE);
+        TestCssImageDataHandler offHeap = createHandler(new ImageDependencyHandler(), true, CssImageDataHandler.DEFAULT_ENCODED_IMAGE_CACHE_MAX_SIZE);
+        Assert.assertEquals(1, onHeap.getSizeBoundedCaches().size());
+        Assert.assertTrue(offHeap.getSizeBoundedCaches().isEmpty());
+
+        StaticApplicationContext context = new StaticApplicationContext();
+        context.getBeanFactory().registerSingleton("offHeap", offHeap);
+        CacheBudgetService service = new CacheBudgetService();
+        service.setApplicationContext(context);
+        service.setHeapBudget(1);
+        service.applyBudget();
+        Assert.assertTrue(service.getAllocations().isEmpty());
+
+        // The off-heap cache keeps its own limit...
+        for (int i = 0; i < IMAGES; i++)
+        {
+            Assert.assertNotNull(offHeap.getEncodedImage("images/" + i + ".png"));
+        }
+        Assert.assertNotNull(offHeap.getEncodedImage("images/0.png"));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.cache;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.DependencyHandler;
+import org.springframework.extensions.surf.cache.DependencyGraph;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link DependencyGraph} and the paths invalidated by the {@link DependencyHandler}.
+ */
+public class DependencyGraphTest
+{
+    @Test
+    public void testTransitiveDependents()
+    {
+        DependencyGraph graph = new DependencyGraph();
+        graph.addDependency("a.css", "b.css");
+        graph.addDependency("b.css", "c.css");
+        graph.addDependency("image.png", "b.css");
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a.css", "b.css", "c.css")), graph.getDependents("a.css"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("image.png", "b.css", "c.css")), graph.getDependents("image.png"));
+    }
+
+    @Test
+    public void testRebuildDependencies()
+    {
+        DependencyGraph graph = new DependencyGraph();
+        graph.addDependency("old.png", "test.css");
+        graph.addDependency("shared.png", "test.css");
+        graph.addDependency("shared.png", "other.css");
+
+        // test.css is processed again and no longer uses old.png...
+        graph.removeDependencies("test.css");
+        graph.addDependency("shared.png", "test.css");
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("old.png")), graph.getDependents("old.png"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("shared.png", "test.css", "other.css")), graph.getDependents("shared.png"));
+
+        graph.clear();
+        Assert.assertEquals(0, graph.size());
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("shared.png")), graph.getDependents("shared.png"));
+    }
+
+    @Test
+    public void testSuffixVariants()
+    {
+        TestDependencyHandler handler = new TestDependencyHandler();
+        handler.setDebugSuffices(Arrays.asList("", "-debug"));
+        handler.setProductionSuffices(Arrays.asList("-min", ""));
+
+        Set<String> expected = new HashSet<String>(Arrays.asList("js/foo.js", "js/foo-min.js", "js/foo-debug.js"));
+        Assert.assertEquals(expected, handler.getSuffixVariants("js/foo-min.js"));
+        Assert.assertEquals(expected, handler.getSuffixVariants("js/foo.js"));
+
+        // Paths without an extension have no variants...
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("js.dir/foo")), handler.getSuffixVariants("js.dir/foo"));
+    }
+
+    /**
+     * Exposes the suffix variants for testing.
+     */
+    private static class TestDependencyHandler extends DependencyHandler
+    {
+        @Override
+        public Set<String> getSuffixVariants(String path)
+        {
+            return super.getSuffixVariants(path);
+        }
+    }
+}
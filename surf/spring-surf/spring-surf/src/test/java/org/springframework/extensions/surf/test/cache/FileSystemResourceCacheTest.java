@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.DependencyResource;
+import org.springframework.extensions.surf.cache.FileSystemResourceCache;
+import org.springframework.extensions.surf.test.TestCaseSetup;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link FileSystemResourceCache} and the serialized form of a {@link DependencyResource}.
+ */
+public class FileSystemResourceCacheTest
+{
+    private FileSystemResourceCache createCache(String name, long maxSize)
+    {
+        File directory = new File(new File("target", "test-data"), name);
+        TestCaseSetup.deleteDirectory(directory);
+        FileSystemResourceCache cache = new FileSystemResourceCache();
+        cache.setDirectory(directory.getAbsolutePath());
+        cache.setMaxSize(maxSize);
+        cache.init();
+        return cache;
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception
+    {
+        FileSystemResourceCache cache = createCache("persistent-cache-get", 1024L);
+        cache.put("key1", "content1".getBytes("UTF-8"));
+        Assert.assertEquals("content1", new String(cache.get("key1"), "UTF-8"));
+        Assert.assertNull(cache.get("key2"));
+        Assert.assertEquals(8L, cache.getSize());
+
+        cache.clear();
+        Assert.assertNull(cache.get("key1"));
+        Assert.assertEquals(0L, cache.getSize());
+    }
+
+    @Test
+    public void testSizeBound() throws Exception
+    {
+        FileSystemResourceCache cache = createCache("persistent-cache-bound", 1000L);
+        byte[] content = new byte[100];
+        for (int i=0; i<20; i++)
+        {
+            cache.put("key" + i, content);
+            Assert.assertTrue(cache.getSize() <= 1000L);
+        }
+
+        // The most recently written entry must survive the eviction...
+        Assert.assertNotNull(cache.get("key19"));
+    }
+
+    @Test
+    public void testUnrelatedFilesIgnored() throws Exception
+    {
+        // Files that the cache did not write, e.g. when the directory is shared with another application...
+        File directory = new File(new File("target", "test-data"), "persistent-cache-shared");
+        TestCaseSetup.deleteDirectory(directory);
+        File[] unrelated = {
+                new File(directory, "notes.txt"),
+                new File(new File(directory, "logs"), "server.log"),
+                new File(new File(directory, "ab"), "notes.txt"),
+                new File(new File(directory, "ab"), "ab00000000000000000000000000000000000000.bak"),
+                new File(new File(directory, "cd"), "ab00000000000000000000000000000000000000") };
+        for (File file: unrelated)
+        {
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), new byte[600]);
+        }
+
+        FileSystemResourceCache cache = new FileSystemResourceCache();
+        cache.setDirectory(directory.getAbsolutePath());
+        cache.setMaxSize(1000L);
+        cache.init();
+        Assert.assertEquals(0L, cache.getSize());
+
+        // Eviction only counts and deletes the entries of the cache...
+        for (int i=0; i<20; i++)
+        {
+            cache.put("key" + i, new byte[100]);
+            Assert.assertTrue(cache.getSize() <= 1000L);
+        }
+        Assert.assertNotNull(cache.get("key19"));
+        for (File file: unrelated)
+        {
+            Assert.assertTrue(file.getPath(), file.exists());
+        }
+
+        // ...as does clearing the cache, which also leaves the directories in place...
+        cache.clear();
+        Assert.assertNull(cache.get("key19"));
+        Assert.assertEquals(0L, cache.getSize());
+        for (File file: unrelated)
+        {
+            Assert.assertTrue(file.getPath(), file.exists());
+        }
+        cache.put("key0", new byte[100]);
+        Assert.assertNotNull(cache.get("key0"));
+    }
+
+    @Test
+    public void testInvalidDependencyResource() throws Exception
+    {
+        DependencyResource resource = new DependencyResource("text/javascript", "alert('test');", "UTF-8");
+        byte[] bytes = resource.toBytes();
+        Assert.assertEquals("alert('test');", new String(DependencyResource.fromBytes(bytes).getContent(), "UTF-8"));
+
+        // A truncated entry must be rejected rather than allocating the declared length...
+        try
+        {
+            DependencyResource.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+            Assert.fail("A truncated entry should not be restored");
+        }
+        catch (IOException e)
+        {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.junit.Assert;
+import org.springframework.extensions.surf.ModelObject;
+import org.springframework.extensions.surf.ModelPersisterInfo;
+import org.springframework.extensions.surf.cache.IndexedModelObjectCache;
+import org.springframework.extensions.surf.types.Chrome;
+import org.springframework.extensions.surf.types.ChromeImpl;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the indexes of the {@link IndexedModelObjectCache} follow objects that are changed in place.
+ */
+public class IndexedModelObjectCacheTest
+{
+    private static ChromeImpl newChrome(String id, String chromeType) throws DocumentException
+    {
+        ChromeImpl chrome = new ChromeImpl(id, new ModelPersisterInfo("test", "chrome/" + id + ".xml", false),
+                DocumentHelper.parseText("<chrome />"));
+        chrome.setChromeType(chromeType);
+        return chrome;
+    }
+
+    private static Map<String, Object> chromeType(String chromeType)
+    {
+        Map<String, Object> constraints = new HashMap<String, Object>(4);
+        constraints.put(Chrome.PROP_CHROME_TYPE, chromeType);
+        return constraints;
+    }
+
+    @Test
+    public void testReindexOnPropertyChange() throws Exception
+    {
+        IndexedModelObjectCache cache = new IndexedModelObjectCache(null, 100, -1L);
+        ChromeImpl one = newChrome("one", "box");
+        ChromeImpl two = newChrome("two", "title");
+        cache.put("one", one);
+        cache.put("two", two);
+        Assert.assertEquals(Collections.singleton("one"), cache.find(chromeType("box")).keySet());
+
+        // changes made after the index has been built must be visible to the next query...
+        two.setChromeType("box");
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("one", "two")), cache.find(chromeType("box")).keySet());
+        Assert.assertTrue(cache.find(chromeType("title")).isEmpty());
+
+        one.setChromeType(null);
+        Assert.assertEquals(Collections.singleton("two"), cache.find(chromeType("box")).keySet());
+    }
+
+    @Test
+    public void testReindexOnSave() throws Exception
+    {
+        IndexedModelObjectCache cache = new IndexedModelObjectCache(null, 100, -1L);
+        cache.put("one", newChrome("one", "box"));
+        Assert.assertEquals(1, cache.find(chromeType("box")).size());
+
+        // a saved object replaces the cached object under the same key...
+        cache.put("one", newChrome("one", "title"));
+        Assert.assertTrue(cache.find(chromeType("box")).isEmpty());
+        Assert.assertEquals(1, cache.find(chromeType("title")).size());
+    }
+
+    @Test
+    public void testRemovedObjectNotReindexed() throws Exception
+    {
+        IndexedModelObjectCache cache = new IndexedModelObjectCache(null, 100, -1L);
+        ChromeImpl one = newChrome("one", "box");
+        cache.put("one", one);
+        Assert.assertEquals(1, cache.find(chromeType("box")).size());
+
+        cache.remove("one");
+        one.setChromeType("title");
+        Assert.assertTrue(cache.find(chromeType("title")).isEmpty());
+    }
+
+    @Test
+    public void testConcurrentPutsIndexCurrentObject() throws Exception
+    {
+        final IndexedModelObjectCache cache = new IndexedModelObjectCache(null, 100, -1L);
+        cache.put("one", newChrome("one", "box"));
+        Assert.assertEquals(1, cache.find(chromeType("box")).size());
+
+        // objects saved under the same key at the same time must leave the index pointing at the object that won...
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final ChromeImpl[] chromes = new ChromeImpl[500];
+            for (int j = 0; j < chromes.length; j++)
+            {
+                chromes[j] = newChrome("one", "type" + (i % 2));
+            }
+            threads[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    for (ChromeImpl chrome : chromes)
+                    {
+                        cache.put("one", chrome);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        ModelObject current = cache.get("one");
+        Assert.assertEquals(Collections.singleton("one"), cache.find(chromeType(((Chrome) current).getChromeType())).keySet());
+        Assert.assertTrue(cache.find(chromeType("box")).isEmpty());
+    }
+}
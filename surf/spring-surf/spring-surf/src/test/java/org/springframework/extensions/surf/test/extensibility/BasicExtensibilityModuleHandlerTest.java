@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.extensibility;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.DocumentHelper;
+import org.junit.Assert;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.extensions.surf.ModuleDeploymentService;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.extensibility.CacheableExtensionModuleEvaluator;
+import org.springframework.extensions.surf.extensibility.ExtensionModuleEvaluator;
+import org.springframework.extensions.surf.extensibility.impl.BasicExtensibilityModuleHandler;
+import org.springframework.extensions.surf.types.ExtensionModule;
+import org.springframework.extensions.surf.types.ModuleDeployment;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the evaluation of the deployed modules by the {@link BasicExtensibilityModuleHandler}: the results are memoized
+ * when every evaluator is a {@link CacheableExtensionModuleEvaluator}, the memo is bypassed otherwise, and approvals
+ * that depend on the request are never shared between requests with different inputs.
+ */
+public class BasicExtensibilityModuleHandlerTest
+{
+    /**
+     * Applies a module when the "site" request parameter matches the "site" evaluation property.
+     */
+    static class SiteEvaluator implements ExtensionModuleEvaluator
+    {
+        private int evaluations = 0;
+
+        public boolean applyModule(RequestContext context, Map<String, String> evaluationProperties)
+        {
+            this.evaluations++;
+            String site = context.getParameter("site");
+            return site != null && site.equals(evaluationProperties.get("site"));
+        }
+
+        public String[] getRequiredProperties()
+        {
+            return new String[] { "site" };
+        }
+
+        int getEvaluations()
+        {
+            return this.evaluations;
+        }
+    }
+
+    /**
+     * A {@link SiteEvaluator} that declares the "site" request parameter as the input of its evaluation. Requests
+     * without the parameter are not cached.
+     */
+    static class CacheableSiteEvaluator extends SiteEvaluator implements CacheableExtensionModuleEvaluator
+    {
+        public String getEvaluationKey(RequestContext context, Map<String, String> evaluationProperties)
+        {
+            String site = context.getParameter("site");
+            return (site != null ? "site=" + site : null);
+        }
+    }
+
+    /**
+     * Serves a fixed list of deployed modules.
+     */
+    static class TestModuleDeploymentService extends ModuleDeploymentService
+    {
+        private List<ModuleDeployment> deployedModules;
+
+        TestModuleDeploymentService(ModuleDeployment... deployedModules)
+        {
+            deploy(deployedModules);
+        }
+
+        void deploy(ModuleDeployment... deployedModules)
+        {
+            this.deployedModules = Collections.unmodifiableList(Arrays.asList(deployedModules));
+        }
+
+        @Override
+        public List<ModuleDeployment> getDeployedModules()
+        {
+            return this.deployedModules;
+        }
+    }
+
+    private static ClassLoader getClassLoader()
+    {
+        return BasicExtensibilityModuleHandlerTest.class.getClassLoader();
+    }
+
+    private static ModuleDeployment createDeployment(final String id, final String evaluator, String site) throws Exception
+    {
+        final ExtensionModule module = new ExtensionModule(DocumentHelper.parseText("<module><id>" + id + "</id></module>").getRootElement(), null);
+        final Map<String, String> properties = Collections.singletonMap("site", site);
+        return (ModuleDeployment) Proxy.newProxyInstance(getClassLoader(), new Class<?>[] { ModuleDeployment.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String name = method.getName();
+                Object result = null;
+                if ("getId".equals(name) || "toString".equals(name))
+                {
+                    result = id;
+                }
+                else if ("getEvaluator".equals(name))
+                {
+                    result = evaluator;
+                }
+                else if ("getEvaluatorProperties".equals(name))
+                {
+                    result = properties;
+                }
+                else if ("getExtensionModule".equals(name))
+                {
+                    result = module;
+                }
+                else if ("equals".equals(name))
+                {
+                    result = (proxy == args[0]);
+                }
+                else if ("hashCode".equals(name))
+                {
+                    result = System.identityHashCode(proxy);
+                }
+                else if (method.getReturnType() == boolean.class)
+                {
+                    result = Boolean.FALSE;
+                }
+                return result;
+            }
+        });
+    }
+
+    private static RequestContext createContext(String site)
+    {
+        final Map<String, String> parameters = new HashMap<String, String>();
+        if (site != null)
+        {
+            parameters.put("site", site);
+        }
+        return (RequestContext) Proxy.newProxyInstance(getClassLoader(), new Class<?>[] { RequestContext.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                Object result = null;
+                if ("getParameter".equals(method.getName()))
+                {
+                    result = parameters.get(args[0]);
+                }
+                else if ("getUri".equals(method.getName()))
+                {
+                    result = "/test";
+                }
+                else if (method.getReturnType() == boolean.class)
+                {
+                    result = Boolean.FALSE;
+                }
+                return result;
+            }
+        });
+    }
+
+    private static BasicExtensibilityModuleHandler createHandler(ModuleDeploymentService service, Map<String, ExtensionModuleEvaluator> evaluators)
+    {
+        StaticApplicationContext context = new StaticApplicationContext();
+        for (Map.Entry<String, ExtensionModuleEvaluator> evaluator : evaluators.entrySet())
+        {
+            context.getBeanFactory().registerSingleton(evaluator.getKey(), evaluator.getValue());
+        }
+        context.refresh();
+        BasicExtensibilityModuleHandler handler = new BasicExtensibilityModuleHandler();
+        handler.setApplicationContext(context);
+        handler.setModuleDeploymentService(service);
+        return handler;
+    }
+
+    private static List<String> getIds(List<ExtensionModule> modules)
+    {
+        List<String> ids = new ArrayList<String>(modules.size());
+        for (ExtensionModule module : modules)
+        {
+            ids.add(module.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testMemoHits() throws Exception
+    {
+        CacheableSiteEvaluator evaluator = new CacheableSiteEvaluator();
+        TestModuleDeploymentService service = new TestModuleDeploymentService(
+                createDeployment("siteA", "evaluator", "a"),
+                createDeployment("siteB", "evaluator", "b"));
+        BasicExtensibilityModuleHandler handler = createHandler(service, Collections.<String, ExtensionModuleEvaluator>singletonMap("evaluator", evaluator));
+
+        Assert.assertEquals(Arrays.asList("siteA"), getIds(handler.evaluateModules(createContext("a"))));
+        Assert.assertEquals(2, evaluator.getEvaluations());
+
+        // Another request with the same inputs reuses the result...
+        List<ExtensionModule> modules = handler.evaluateModules(createContext("a"));
+        Assert.assertEquals(Arrays.asList("siteA"), getIds(modules));
+        Assert.assertEquals(2, evaluator.getEvaluations());
+
+        // ...which is copied so that changing it does not affect later requests...
+        modules.clear();
+        Assert.assertEquals(Arrays.asList("siteA"), getIds(handler.evaluateModules(createContext("a"))));
+
+        // ...but a request with different inputs is evaluated...
+        Assert.assertEquals(Arrays.asList("siteB"), getIds(handler.evaluateModules(createContext("b"))));
+        Assert.assertEquals(4, evaluator.getEvaluations());
+        Assert.assertEquals(Arrays.asList("siteA"), getIds(handler.evaluateModules(createContext("a"))));
+        Assert.assertEquals(4, evaluator.getEvaluations());
+    }
+
+    @Test
+    public void testMemoBypassedForNonCacheableEvaluator() throws Exception
+    {
+        CacheableSiteEvaluator cacheable = new CacheableSiteEvaluator();
+        SiteEvaluator plain = new SiteEvaluator();
+        TestModuleDeploymentService service = new TestModuleDeploymentService(
+                createDeployment("siteA", "cacheable", "a"),
+                createDeployment("alsoSiteA", "plain", "a"));
+        Map<String, ExtensionModuleEvaluator> evaluators = new HashMap<String, ExtensionModuleEvaluator>();
+        evaluators.put("cacheable", cacheable);
+        evaluators.put("plain", plain);
+        BasicExtensibilityModuleHandler handler = createHandler(service, evaluators);
+
+        for (int i = 1; i <= 3; i++)
+        {
+            Assert.assertEquals(Arrays.asList("siteA", "alsoSiteA"), getIds(handler.evaluateModules(createContext("a"))));
+            Assert.assertEquals(i, cacheable.getEvaluations());
+            Assert.assertEquals(i, plain.getEvaluations());
+        }
+        Assert.assertTrue(handler.evaluateModules(createContext("b")).isEmpty());
+    }
+
+    @Test
+    public void testMemoBypassedWithoutEvaluationKey() throws Exception
+    {
+        CacheableSiteEvaluator evaluator = new CacheableSiteEvaluator();
+        TestModuleDeploymentService service = new TestModuleDeploymentService(createDeployment("siteA", "evaluator", "a"));
+        BasicExtensibilityModuleHandler handler = createHandler(service, Collections.<String, ExtensionModuleEvaluator>singletonMap("evaluator", evaluator));
+
+        Assert.assertTrue(handler.evaluateModules(createContext(null)).isEmpty());
+        Assert.assertTrue(handler.evaluateModules(createContext(null)).isEmpty());
+        Assert.assertEquals(2, evaluator.getEvaluations());
+    }
+
+    @Test
+    public void testMemoDisabled() throws Exception
+    {
+        CacheableSiteEvaluator evaluator = new CacheableSiteEvaluator();
+        TestModuleDeploymentService service = new TestModuleDeploymentService(createDeployment("siteA", "evaluator", "a"));
+        BasicExtensibilityModuleHandler handler = createHandler(service, Collections.<String, ExtensionModuleEvaluator>singletonMap("evaluator", evaluator));
+        handler.setEvaluationCacheMaxSize(0);
+
+        Assert.assertEquals(Arrays.asList("siteA"), getIds(handler.evaluateModules(createContext("a"))));
+        Assert.assertEquals(Arrays.asList("siteA"), getIds(handler.evaluateModules(createContext("a"))));
+        Assert.assertEquals(2, evaluator.getEvaluations());
+    }
+
+    @Test
+    public void testPlanRecompiledForNewDeployment() throws Exception
+    {
+        CacheableSiteEvaluator evaluator = new CacheableSiteEvaluator();
+        TestModuleDeploymentService service = new TestModuleDeploymentService(createDeployment("siteA", "evaluator", "a"));
+        BasicExtensibilityModuleHandler handler = createHandler(service, Collections.<String, ExtensionModuleEvaluator>singletonMap("evaluator", evaluator));
+        Assert.assertEquals(Arrays.asList("siteA"), getIds(handler.evaluateModules(createContext("a"))));
+
+        // A new deployment must not be answered from the memo of the previous one...
+        service.deploy(createDeployment("siteA", "evaluator", "a"), createDeployment("alsoSiteA", "evaluator", "a"));
+        Assert.assertEquals(Arrays.asList("siteA", "alsoSiteA"), getIds(handler.evaluateModules(createContext("a"))));
+        Assert.assertEquals(3, evaluator.getEvaluations());
+    }
+}
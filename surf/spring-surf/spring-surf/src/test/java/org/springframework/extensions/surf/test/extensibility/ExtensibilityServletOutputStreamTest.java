@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.extensibility;
+
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletOutputStream;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
+import org.springframework.extensions.surf.extensibility.impl.ExtensibilityHttpResponse;
+import org.springframework.extensions.surf.extensibility.impl.ExtensibilityServletOutputStream;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that bytes written into the {@link ExtensibilityServletOutputStream} are decoded into the model writer in bulk
+ * and that multi-byte characters split across writes are decoded correctly.
+ */
+public class ExtensibilityServletOutputStreamTest
+{
+    /**
+     * Two, three and four byte UTF-8 characters.
+     */
+    private static final String TEXT = "caf\u00e9 \u20ac \ud83d\ude00 done";
+
+    @Test
+    public void testBulkWrite() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        ExtensibilityServletOutputStream os = new ExtensibilityServletOutputStream(out, "UTF-8");
+        byte[] bytes = TEXT.getBytes("UTF-8");
+        os.write(bytes, 0, bytes.length);
+        os.close();
+        Assert.assertEquals(TEXT, out.toString());
+    }
+
+    @Test
+    public void testMultiByteCharactersSplitAcrossWrites() throws Exception
+    {
+        byte[] bytes = TEXT.getBytes("UTF-8");
+        for (int chunk = 1; chunk <= 4; chunk++)
+        {
+            StringWriter out = new StringWriter();
+            ExtensibilityServletOutputStream os = new ExtensibilityServletOutputStream(out, "UTF-8");
+            for (int off = 0; off < bytes.length; off += chunk)
+            {
+                os.write(bytes, off, Math.min(chunk, bytes.length - off));
+            }
+            os.close();
+            Assert.assertEquals("Chunk size " + chunk, TEXT, out.toString());
+        }
+    }
+
+    @Test
+    public void testSingleByteWrites() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        ExtensibilityServletOutputStream os = new ExtensibilityServletOutputStream(out, "UTF-8");
+        for (byte b : TEXT.getBytes("UTF-8"))
+        {
+            os.write(b);
+        }
+        os.close();
+        Assert.assertEquals(TEXT, out.toString());
+    }
+
+    @Test
+    public void testWriteLargerThanBuffer() throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 10000)
+        {
+            sb.append(TEXT);
+        }
+        String text = sb.toString();
+        StringWriter out = new StringWriter();
+        ExtensibilityServletOutputStream os = new ExtensibilityServletOutputStream(out, "UTF-8");
+        byte[] bytes = text.getBytes("UTF-8");
+        os.write(bytes, 0, bytes.length);
+        os.close();
+        Assert.assertEquals(text, out.toString());
+    }
+
+    @Test
+    public void testIncompleteCharacterReplacedOnClose() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        ExtensibilityServletOutputStream os = new ExtensibilityServletOutputStream(out, "UTF-8");
+        byte[] euro = "\u20ac".getBytes("UTF-8");
+        os.write('a');
+        os.write(euro, 0, 2);
+        Assert.assertEquals("a", out.toString());
+        os.close();
+        Assert.assertEquals("a\ufffd", out.toString());
+    }
+
+    @Test
+    public void testDefaultEncodingIsBytePerChar() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        ExtensibilityServletOutputStream os = new ExtensibilityServletOutputStream(out);
+        os.write(new byte[] { 'a', (byte) 0xe9, 'b' });
+        os.close();
+        Assert.assertEquals("a\u00e9b", out.toString());
+    }
+
+    @Test
+    public void testResponseReusesWriterAndStream() throws Exception
+    {
+        final StringWriter out = new StringWriter();
+        ExtensibilityModel model = (ExtensibilityModel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ExtensibilityModel.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                return ("getWriter".equals(method.getName()) ? out : null);
+            }
+        });
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setCharacterEncoding("UTF-8");
+        ExtensibilityHttpResponse extResponse = new ExtensibilityHttpResponse(response, model);
+        Assert.assertSame(extResponse.getWriter(), extResponse.getWriter());
+
+        ServletOutputStream os = extResponse.getOutputStream();
+        Assert.assertSame(os, extResponse.getOutputStream());
+        byte[] bytes = TEXT.getBytes("UTF-8");
+        os.write(bytes, 0, 5);
+        extResponse.getOutputStream().write(bytes, 5, bytes.length - 5);
+        os.close();
+        Assert.assertEquals(TEXT, out.toString());
+    }
+}
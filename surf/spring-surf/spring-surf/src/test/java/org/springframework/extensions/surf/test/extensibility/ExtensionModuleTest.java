@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.extensibility;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.tree.BaseElement;
+import org.dom4j.tree.DefaultDocument;
+import org.junit.Assert;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.types.AdvancedComponent;
+import org.springframework.extensions.surf.types.AdvancedComponentImpl;
+import org.springframework.extensions.surf.types.ExtensionModule;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the {@link AdvancedComponent} extensions of an {@link ExtensionModule} are found by component id, that
+ * tokenized ids are matched for the current request, and that the index of tokenized ids follows changes to the
+ * extensions.
+ */
+public class ExtensionModuleTest
+{
+    private static final String HOME = "page.title.home";
+
+    private static final String DASHBOARD = "page.title.user~{userid}~dashboard";
+
+    private static final String NAV = "page.nav.user~{userid}~dashboard";
+
+    private static ExtensionModule createModule() throws Exception
+    {
+        String xml = "<module><id>test</id><components>" +
+                     "<component id=\"" + HOME + "\"><sub-components /></component>" +
+                     "<component id=\"" + DASHBOARD + "\"><sub-components /></component>" +
+                     "</components></module>";
+        return new ExtensionModule(DocumentHelper.parseText(xml).getRootElement(), null);
+    }
+
+    private static AdvancedComponent createComponent(String id)
+    {
+        return new AdvancedComponentImpl(id, null, new DefaultDocument(new BaseElement("dummy")));
+    }
+
+    /**
+     * Creates a request for the supplied user, whose id is available as the "userid" token.
+     */
+    private static RequestContext createContext(String userId)
+    {
+        final Map<String, String> uriTokens = Collections.singletonMap("userid", userId);
+        return (RequestContext) Proxy.newProxyInstance(getClassLoader(), new Class<?>[] { RequestContext.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                Object result = null;
+                if ("getUriTokens".equals(method.getName()))
+                {
+                    result = uriTokens;
+                }
+                else if (method.getReturnType() == boolean.class)
+                {
+                    result = Boolean.FALSE;
+                }
+                return result;
+            }
+        });
+    }
+
+    private static ClassLoader getClassLoader()
+    {
+        return ExtensionModuleTest.class.getClassLoader();
+    }
+
+    private static List<AdvancedComponent> getExtensions(ExtensionModule module, String componentId)
+    {
+        return module.getAdvancedComponentExtensions(componentId, createContext("admin"));
+    }
+
+    @Test
+    public void testLookup() throws Exception
+    {
+        ExtensionModule module = createModule();
+        Assert.assertEquals(2, module.getAdvancedComponents().size());
+
+        List<AdvancedComponent> extensions = getExtensions(module, HOME);
+        Assert.assertEquals(1, extensions.size());
+        Assert.assertSame(module.getAdvancedComponents().get(HOME), extensions.get(0));
+
+        extensions = getExtensions(module, "page.title.user~admin~dashboard");
+        Assert.assertEquals(1, extensions.size());
+        Assert.assertSame(module.getAdvancedComponents().get(DASHBOARD), extensions.get(0));
+
+        Assert.assertTrue(getExtensions(module, "page.title.user~guest~dashboard").isEmpty());
+        Assert.assertTrue(getExtensions(module, "page.title.unknown").isEmpty());
+
+        // The tokenized id itself is found directly rather than by replacing its tokens...
+        Assert.assertEquals(1, getExtensions(module, DASHBOARD).size());
+    }
+
+    @Test
+    public void testIndexFollowsChanges() throws Exception
+    {
+        ExtensionModule module = createModule();
+        String navId = "page.nav.user~admin~dashboard";
+        Assert.assertTrue(getExtensions(module, navId).isEmpty());
+
+        AdvancedComponent nav = createComponent(NAV);
+        module.getAdvancedComponents().put(NAV, nav);
+        List<AdvancedComponent> extensions = getExtensions(module, navId);
+        Assert.assertEquals(1, extensions.size());
+        Assert.assertSame(nav, extensions.get(0));
+
+        module.getAdvancedComponents().remove(NAV);
+        Assert.assertTrue(getExtensions(module, navId).isEmpty());
+
+        module.getAdvancedComponents().putAll(Collections.singletonMap(NAV, nav));
+        Assert.assertEquals(1, getExtensions(module, navId).size());
+
+        // Extensions removed through a view are skipped...
+        module.getAdvancedComponents().keySet().remove(NAV);
+        Assert.assertTrue(getExtensions(module, navId).isEmpty());
+
+        module.getAdvancedComponents().clear();
+        Assert.assertTrue(getExtensions(module, "page.title.user~admin~dashboard").isEmpty());
+        Assert.assertTrue(getExtensions(module, HOME).isEmpty());
+    }
+
+    @Test
+    public void testIndexFollowsReplacedMap() throws Exception
+    {
+        ExtensionModule module = createModule();
+        Assert.assertEquals(1, getExtensions(module, "page.title.user~admin~dashboard").size());
+
+        HashMap<String, AdvancedComponent> components = new HashMap<String, AdvancedComponent>();
+        AdvancedComponent nav = createComponent(NAV);
+        components.put(NAV, nav);
+        module.advancedComponents = components;
+        Assert.assertTrue(getExtensions(module, "page.title.user~admin~dashboard").isEmpty());
+        Assert.assertSame(nav, getExtensions(module, "page.nav.user~admin~dashboard").get(0));
+
+        // A plain map does not report its changes so the index is not kept...
+        components.remove(NAV);
+        Assert.assertTrue(getExtensions(module, "page.nav.user~admin~dashboard").isEmpty());
+        components.put(DASHBOARD, createComponent(DASHBOARD));
+        Assert.assertEquals(1, getExtensions(module, "page.title.user~admin~dashboard").size());
+    }
+}
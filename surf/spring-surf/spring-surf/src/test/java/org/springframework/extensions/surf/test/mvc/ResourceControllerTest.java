@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.mvc;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.extensions.surf.DependencyHandler;
+import org.springframework.extensions.surf.DependencyHandlerProcessingCallback;
+import org.springframework.extensions.surf.mvc.ResourceController;
+import org.springframework.extensions.surf.test.TestCaseSetup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the conditional request handling of the {@link ResourceController} for checksum paths.
+ */
+public class ResourceControllerTest
+{
+    private static final String CHECKSUM = "0123456789abcdef0123456789abcdef";
+
+    /**
+     * A resource that exists, found by the {@link DependencyHandler} in the META-INF folder of the Surf JAR.
+     */
+    private static final String RESOURCE = "js/surfbug.js";
+
+    private ResourceController getController()
+    {
+        return (ResourceController) TestCaseSetup.getApplicationContext().getBean("resourceController");
+    }
+
+    /**
+     * @return The checksum path of the resource, which is known to the {@link DependencyHandler} once generated.
+     */
+    private String getChecksumPath()
+    {
+        DependencyHandler dependencyHandler = (DependencyHandler) TestCaseSetup.getApplicationContext().getBean("dependency.handler");
+        String checksumPath = dependencyHandler.getChecksumPath(RESOURCE);
+        Assert.assertNotNull(checksumPath);
+        Assert.assertNotNull(DependencyHandler.getChecksumFromPath(checksumPath));
+        return checksumPath;
+    }
+
+    private MockHttpServletResponse dispatch(String path, MockHttpServletRequest request) throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        getController().dispatchResource(path, request, response);
+        return response;
+    }
+
+    @Test
+    public void testNotModifiedEchoesGzipVariant() throws Exception
+    {
+        String path = getChecksumPath();
+        String checksum = DependencyHandler.getChecksumFromPath(path);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.addHeader(ResourceController.HTTP_HEADER_IF_NONE_MATCH, "\"" + checksum + "-gzip\"");
+        request.addHeader(ResourceController.HTTP_HEADER_ACCEPT_ENCODING, "gzip");
+
+        MockHttpServletResponse response = dispatch(path, request);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        Assert.assertEquals("\"" + checksum + "-gzip\"", response.getHeader(ResourceController.HTTP_HEADER_ETAG));
+        Assert.assertEquals(ResourceController.HTTP_HEADER_ACCEPT_ENCODING, response.getHeader(ResourceController.HTTP_HEADER_VARY));
+    }
+
+    @Test
+    public void testNotModifiedEchoesIdentityVariant() throws Exception
+    {
+        String path = getChecksumPath();
+        String checksum = DependencyHandler.getChecksumFromPath(path);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.addHeader(ResourceController.HTTP_HEADER_IF_NONE_MATCH, "\"other\", W/\"" + checksum + "\"");
+
+        MockHttpServletResponse response = dispatch(path, request);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        Assert.assertEquals("\"" + checksum + "\"", response.getHeader(ResourceController.HTTP_HEADER_ETAG));
+        Assert.assertEquals(ResourceController.HTTP_HEADER_ACCEPT_ENCODING, response.getHeader(ResourceController.HTTP_HEADER_VARY));
+    }
+
+    @Test
+    public void testIfModifiedSinceOnChecksumPath() throws Exception
+    {
+        // Any date is accepted because the content of a checksum path never changes...
+        String path = getChecksumPath();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.addHeader(ResourceController.HTTP_HEADER_IF_MODIFIED_SINCE, "Thu, 01 Jan 1970 00:00:00 GMT");
+
+        MockHttpServletResponse response = dispatch(path, request);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        Assert.assertNull(response.getHeader(ResourceController.HTTP_HEADER_ETAG));
+        Assert.assertEquals(ResourceController.HTTP_HEADER_ACCEPT_ENCODING, response.getHeader(ResourceController.HTTP_HEADER_VARY));
+    }
+
+    @Test
+    public void testUnknownChecksumNotAnsweredWithNotModified() throws Exception
+    {
+        // A checksum path that does not address a known resource must not be confirmed as current...
+        String path = DependencyHandler.generateCheckSumPath("js/surf/missing.js", CHECKSUM);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.addHeader(ResourceController.HTTP_HEADER_IF_NONE_MATCH, "\"" + CHECKSUM + "\"");
+        request.addHeader(ResourceController.HTTP_HEADER_IF_MODIFIED_SINCE, "Thu, 01 Jan 1970 00:00:00 GMT");
+
+        MockHttpServletResponse response = dispatch(path, request);
+        Assert.assertFalse(response.getStatus() == HttpServletResponse.SC_NOT_MODIFIED);
+        Assert.assertNull(response.getHeader(ResourceController.HTTP_HEADER_ETAG));
+
+        // ...even when the checksum is that of a resource that does exist...
+        String checksum = DependencyHandler.getChecksumFromPath(getChecksumPath());
+        path = DependencyHandler.generateCheckSumPath("js/surf/missing.js", checksum);
+        request = new MockHttpServletRequest("GET", path);
+        request.addHeader(ResourceController.HTTP_HEADER_IF_NONE_MATCH, "\"" + checksum + "\"");
+
+        response = dispatch(path, request);
+        Assert.assertFalse(response.getStatus() == HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void testUnconditionalRequestServesContent() throws Exception
+    {
+        String path = getChecksumPath();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+
+        MockHttpServletResponse response = dispatch(path, request);
+        Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertTrue(response.getContentAsByteArray().length > 0);
+        Assert.assertEquals("\"" + DependencyHandler.getChecksumFromPath(path) + "\"", response.getHeader(ResourceController.HTTP_HEADER_ETAG));
+    }
+
+    @Test
+    public void testNotModifiedDoesNotOpenResource() throws Exception
+    {
+        // A DependencyHandler that has not cached the resource yet...
+        OpenCountingDependencyHandler dependencyHandler = new OpenCountingDependencyHandler();
+        AutowireCapableBeanFactory beanFactory = TestCaseSetup.getApplicationContext().getAutowireCapableBeanFactory();
+        beanFactory.applyBeanPropertyValues(dependencyHandler, "dependency.handler.abstract");
+        beanFactory.initializeBean(dependencyHandler, "open.counting.dependency.handler");
+
+        String path = getChecksumPath();
+        String checksum = DependencyHandler.getChecksumFromPath(path);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.addHeader(ResourceController.HTTP_HEADER_IF_NONE_MATCH, "\"" + checksum + "\"");
+
+        ResourceController controller = getController();
+        DependencyHandler original = (DependencyHandler) TestCaseSetup.getApplicationContext().getBean("dependency.handler");
+        controller.setDependencyHandler(dependencyHandler);
+        try
+        {
+            // ...answers the conditional request from the checksum, without opening the resource...
+            MockHttpServletResponse response = dispatch(path, request);
+            Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+            Assert.assertEquals(0, dependencyHandler.opened);
+
+            // ...but does open it to serve an unconditional request...
+            response = dispatch(path, new MockHttpServletRequest("GET", path));
+            Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+            Assert.assertEquals(1, dependencyHandler.opened);
+        }
+        finally
+        {
+            controller.setDependencyHandler(original);
+        }
+    }
+
+    @Test
+    public void testIfModifiedSinceIgnoredWithIfNoneMatch() throws Exception
+    {
+        // "If-Modified-Since" must not be evaluated when a non-matching "If-None-Match" is present...
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/js/surf/test_" + CHECKSUM + ".js");
+        request.addHeader(ResourceController.HTTP_HEADER_IF_NONE_MATCH, "\"fedcba9876543210fedcba9876543210\"");
+        request.addHeader(ResourceController.HTTP_HEADER_IF_MODIFIED_SINCE, "Thu, 01 Jan 1970 00:00:00 GMT");
+
+        TestResourceController controller = new TestResourceController();
+        Assert.assertFalse(controller.isNotModified(CHECKSUM, request));
+        Assert.assertNull(controller.getMatchingETag(CHECKSUM, request));
+    }
+
+    /**
+     * Counts the resources opened to be written to a response.
+     */
+    private static class OpenCountingDependencyHandler extends DependencyHandler
+    {
+        private int opened = 0;
+
+        @Override
+        public InputStream getResourceInputStream(String path, DependencyHandlerProcessingCallback callback) throws IOException
+        {
+            this.opened++;
+            return super.getResourceInputStream(path, callback);
+        }
+    }
+
+    /**
+     * Exposes the conditional request checks for testing.
+     */
+    private static class TestResourceController extends ResourceController
+    {
+        @Override
+        public boolean isNotModified(String checksum, HttpServletRequest request)
+        {
+            return super.isNotModified(checksum, request);
+        }
+
+        @Override
+        public String getMatchingETag(String checksum, HttpServletRequest request)
+        {
+            return super.getMatchingETag(checksum, request);
+        }
+    }
+}
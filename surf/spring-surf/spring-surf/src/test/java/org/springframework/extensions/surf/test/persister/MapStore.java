@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.persister;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.springframework.extensions.webscripts.Store;
+
+/**
+ * A read only {@link Store} that holds its documents in a map and counts the calls made to it. Document patterns
+ * are matched against the whole path with <code>*</code> matching any characters.
+ */
+class MapStore implements InvocationHandler
+{
+    private final Map<String, String> documents = new ConcurrentHashMap<String, String>();
+    private final Map<String, Integer> calls = new HashMap<String, Integer>();
+    private final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+    private volatile boolean failQueries = false;
+
+    void put(String path, String xml)
+    {
+        this.documents.put(path, xml);
+    }
+
+    /**
+     * Makes the queries for documents matching a pattern fail with an {@link IOException}.
+     */
+    void setFailQueries(boolean failQueries)
+    {
+        this.failQueries = failQueries;
+    }
+
+    synchronized int getCalls(String methodName)
+    {
+        Integer count = this.calls.get(methodName);
+        return (count == null ? 0 : count.intValue());
+    }
+
+    /**
+     * @return the names of the threads that have read documents
+     */
+    Set<String> getThreadNames()
+    {
+        return this.threadNames;
+    }
+
+    Store createStore()
+    {
+        return (Store) Proxy.newProxyInstance(MapStore.class.getClassLoader(), new Class<?>[] { Store.class }, this);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws IOException
+    {
+        String name = method.getName();
+        synchronized (this)
+        {
+            this.calls.put(name, getCalls(name) + 1);
+        }
+
+        Object result = null;
+        if ("exists".equals(name) || "isReadOnly".equals(name))
+        {
+            result = Boolean.TRUE;
+        }
+        else if ("hasDocument".equals(name))
+        {
+            result = this.documents.containsKey(args[0]);
+        }
+        else if ("getDocument".equals(name))
+        {
+            String xml = this.documents.get(args[0]);
+            if (xml == null)
+            {
+                throw new IOException("No document at: " + args[0]);
+            }
+            this.threadNames.add(Thread.currentThread().getName());
+            result = new ByteArrayInputStream(xml.getBytes("UTF-8"));
+        }
+        else if ("getAllDocumentPaths".equals(name))
+        {
+            result = this.documents.keySet().toArray(new String[0]);
+        }
+        else if ("getDocumentPaths".equals(name) && args.length == 3)
+        {
+            if (this.failQueries)
+            {
+                throw new IOException("The store cannot be queried");
+            }
+            result = getDocumentPaths((String) args[2]);
+        }
+        else if ("getBasePath".equals(name) || "toString".equals(name))
+        {
+            result = "map";
+        }
+        else if (method.getReturnType() == boolean.class)
+        {
+            result = Boolean.FALSE;
+        }
+        else if (method.getReturnType() == long.class)
+        {
+            result = Long.valueOf(0L);
+        }
+        else if (method.getReturnType() == int.class)
+        {
+            result = Integer.valueOf(System.identityHashCode(proxy));
+        }
+        return result;
+    }
+
+    private String[] getDocumentPaths(String documentPattern)
+    {
+        StringBuilder regex = new StringBuilder();
+        for (String part : documentPattern.split("\\*", -1))
+        {
+            if (regex.length() != 0)
+            {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(part));
+        }
+        Pattern pattern = Pattern.compile(regex.toString());
+        List<String> paths = new ArrayList<String>();
+        for (String path : this.documents.keySet())
+        {
+            if (pattern.matcher(path).matches())
+            {
+                paths.add(path);
+            }
+        }
+        return paths.toArray(new String[paths.size()]);
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.persister;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.ClusterService;
+import org.springframework.extensions.surf.ModelObject;
+import org.springframework.extensions.surf.ModelObjectPersister;
+import org.springframework.extensions.surf.ModelPersistenceContext;
+import org.springframework.extensions.surf.persister.BatchObjectPersister;
+import org.springframework.extensions.surf.persister.MultiObjectPersister;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the routing index of the {@link MultiObjectPersister}: lookups go to the persister that owns an object,
+ * objects that could not be found are remembered, and both are forgotten when an object is saved or removed. Also
+ * tests that a batch lookup finds the same objects as looking each object up in turn.
+ */
+public class MultiObjectPersisterTest
+{
+    private static final String TYPE = "page";
+
+    /**
+     * A persister that holds its objects in a map and counts the lookups made against it.
+     */
+    static class MapPersister implements ModelObjectPersister
+    {
+        private final String id;
+        private final Map<String, ModelObject> objects = new HashMap<String, ModelObject>();
+        private int lookups = 0;
+
+        MapPersister(String id)
+        {
+            this.id = id;
+        }
+
+        void put(ModelObject object)
+        {
+            this.objects.put(object.getId(), object);
+        }
+
+        int getLookups()
+        {
+            return this.lookups;
+        }
+
+        public void init(ModelPersistenceContext context)
+        {
+        }
+
+        public void reset()
+        {
+        }
+
+        public String getId()
+        {
+            return this.id;
+        }
+
+        public ModelObject getObject(ModelPersistenceContext context, String objectTypeId, String objectId)
+        {
+            this.lookups++;
+            return this.objects.get(objectId);
+        }
+
+        public boolean saveObject(ModelPersistenceContext context, ModelObject object)
+        {
+            put(object);
+            return true;
+        }
+
+        public boolean saveObjects(ModelPersistenceContext context, List<ModelObject> objects)
+        {
+            for (ModelObject object : objects)
+            {
+                put(object);
+            }
+            return true;
+        }
+
+        public boolean removeObject(ModelPersistenceContext context, ModelObject object)
+        {
+            return removeObject(context, object.getTypeId(), object.getId());
+        }
+
+        public boolean removeObject(ModelPersistenceContext context, String objectTypeId, String objectId)
+        {
+            return this.objects.remove(objectId) != null;
+        }
+
+        public boolean hasObject(ModelPersistenceContext context, ModelObject object)
+        {
+            return hasObject(context, object.getTypeId(), object.getId());
+        }
+
+        public boolean hasObject(ModelPersistenceContext context, String objectTypeId, String objectId)
+        {
+            return this.objects.containsKey(objectId);
+        }
+
+        public ModelObject newObject(ModelPersistenceContext context, String objectTypeId, String objectId)
+        {
+            return createObject(objectId);
+        }
+
+        public Map<String, ModelObject> getAllObjects(ModelPersistenceContext context, String objectTypeId)
+        {
+            return new HashMap<String, ModelObject>(this.objects);
+        }
+
+        public Map<String, ModelObject> getAllObjectsByFilter(ModelPersistenceContext context, String objectTypeId, String objectIdPattern)
+        {
+            return getAllObjects(context, objectTypeId);
+        }
+
+        public long getTimestamp(ModelPersistenceContext context, String objectTypeId, String objectId)
+        {
+            return 0L;
+        }
+
+        public boolean isEnabled()
+        {
+            return true;
+        }
+
+        public boolean hasReadOnlyStore()
+        {
+            return false;
+        }
+    }
+
+    /**
+     * A persister that can look up a number of objects at once and counts the batches asked of it.
+     */
+    static class BatchMapPersister extends MapPersister implements BatchObjectPersister
+    {
+        private int batches = 0;
+
+        BatchMapPersister(String id)
+        {
+            super(id);
+        }
+
+        int getBatches()
+        {
+            return this.batches;
+        }
+
+        public Map<String, ModelObject> getObjects(ModelPersistenceContext context, String objectTypeId, Collection<String> objectIds)
+        {
+            this.batches++;
+            Map<String, ModelObject> objects = new HashMap<String, ModelObject>();
+            for (String objectId : objectIds)
+            {
+                ModelObject object = getObject(context, objectTypeId, objectId);
+                if (object != null)
+                {
+                    objects.put(objectId, object);
+                }
+            }
+            return objects;
+        }
+    }
+
+    /**
+     * Creates a model object that only has an id and a type (and so is saved to the default persister).
+     */
+    static ModelObject createObject(final String id)
+    {
+        return (ModelObject) Proxy.newProxyInstance(MultiObjectPersisterTest.class.getClassLoader(), new Class<?>[] { ModelObject.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String name = method.getName();
+                Object result = null;
+                if ("getId".equals(name) || "toString".equals(name))
+                {
+                    result = id;
+                }
+                else if ("getTypeId".equals(name))
+                {
+                    result = TYPE;
+                }
+                else if ("equals".equals(name))
+                {
+                    result = (proxy == args[0]);
+                }
+                else if ("hashCode".equals(name))
+                {
+                    result = id.hashCode();
+                }
+                else if (method.getReturnType() == boolean.class)
+                {
+                    result = Boolean.FALSE;
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Creates a persister that searches the first persister before the second, saving to the second.
+     */
+    static MultiObjectPersister createPersister(ModelPersistenceContext context, MapPersister first, MapPersister second)
+    {
+        MultiObjectPersister persister = new MultiObjectPersister();
+        List<ModelObjectPersister> persisters = new ArrayList<ModelObjectPersister>();
+        persisters.add(first);
+        persisters.add(second);
+        persister.setPersisters(persisters);
+        persister.setDefaultPersister(second);
+        persister.init(context);
+        return persister;
+    }
+
+    @Test
+    public void testRoutesToOwningPersister() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        MapPersister first = new MapPersister("first");
+        MapPersister second = new MapPersister("second");
+        ModelObject object = createObject("b");
+        second.put(object);
+        MultiObjectPersister persister = createPersister(context, first, second);
+
+        Assert.assertSame(object, persister.getObject(context, TYPE, "b"));
+        Assert.assertEquals(1, first.getLookups());
+        Assert.assertEquals(1, second.getLookups());
+
+        // The owning persister is asked directly once it is known...
+        Assert.assertSame(object, persister.getObject(context, TYPE, "b"));
+        Assert.assertSame(object, persister.getObject(context, TYPE, "b"));
+        Assert.assertEquals(1, first.getLookups());
+        Assert.assertEquals(3, second.getLookups());
+
+        // ...and the persisters are searched in order again when it no longer has the object...
+        ModelObject moved = createObject("b");
+        second.removeObject(context, TYPE, "b");
+        first.put(moved);
+        Assert.assertSame(moved, persister.getObject(context, TYPE, "b"));
+        Assert.assertSame(moved, persister.getObject(context, TYPE, "b"));
+        Assert.assertEquals(3, first.getLookups());
+        Assert.assertEquals(4, second.getLookups());
+    }
+
+    @Test
+    public void testRoutesArePartitionedByStore() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        ModelPersistenceContext otherStore = new ModelPersistenceContext("admin");
+        otherStore.setStoreId("other");
+        MapPersister first = new MapPersister("first");
+        MapPersister second = new MapPersister("second");
+        second.put(createObject("b"));
+        MultiObjectPersister persister = createPersister(context, first, second);
+
+        Assert.assertNotNull(persister.getObject(context, TYPE, "b"));
+        Assert.assertNotNull(persister.getObject(otherStore, TYPE, "b"));
+        Assert.assertEquals(2, first.getLookups());
+    }
+
+    @Test
+    public void testNegativeLookupsAreRemembered() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        MapPersister first = new MapPersister("first");
+        MapPersister second = new MapPersister("second");
+        MultiObjectPersister persister = createPersister(context, first, second);
+
+        Assert.assertNull(persister.getObject(context, TYPE, "missing"));
+        Assert.assertNull(persister.getObject(context, TYPE, "missing"));
+        Assert.assertEquals(1, first.getLookups());
+        Assert.assertEquals(1, second.getLookups());
+
+        // An object added behind the back of the persister is found once the cache is invalidated...
+        first.put(createObject("missing"));
+        Assert.assertNull(persister.getObject(context, TYPE, "missing"));
+        persister.invalidateCache();
+        Assert.assertNotNull(persister.getObject(context, TYPE, "missing"));
+    }
+
+    @Test
+    public void testNegativeLookupsCanBeDisabled() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        MapPersister first = new MapPersister("first");
+        MapPersister second = new MapPersister("second");
+        MultiObjectPersister persister = new MultiObjectPersister();
+        List<ModelObjectPersister> persisters = new ArrayList<ModelObjectPersister>();
+        persisters.add(first);
+        persisters.add(second);
+        persister.setPersisters(persisters);
+        persister.setDefaultPersister(second);
+        persister.setNegativeLookupTimeout(0);
+        persister.init(context);
+
+        Assert.assertNull(persister.getObject(context, TYPE, "missing"));
+        Assert.assertNull(persister.getObject(context, TYPE, "missing"));
+        Assert.assertEquals(2, first.getLookups());
+        Assert.assertEquals(2, second.getLookups());
+    }
+
+    @Test
+    public void testSaveClearsNegativeLookup() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        MapPersister first = new MapPersister("first");
+        MapPersister second = new MapPersister("second");
+        MultiObjectPersister persister = createPersister(context, first, second);
+
+        Assert.assertNull(persister.getObject(context, TYPE, "c"));
+
+        // The object is saved to the default persister, which is not the first one searched...
+        ModelObject object = createObject("c");
+        Assert.assertTrue(persister.saveObject(context, object));
+        Assert.assertTrue(second.hasObject(context, TYPE, "c"));
+        Assert.assertSame(object, persister.getObject(context, TYPE, "c"));
+
+        List<ModelObject> objects = new ArrayList<ModelObject>();
+        objects.add(createObject("d"));
+        Assert.assertNull(persister.getObject(context, TYPE, "d"));
+        Assert.assertTrue(persister.saveObjects(context, objects));
+        Assert.assertSame(objects.get(0), persister.getObject(context, TYPE, "d"));
+    }
+
+    @Test
+    public void testRemoveClearsRoute() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        MapPersister first = new MapPersister("first");
+        MapPersister second = new MapPersister("second");
+        first.put(createObject("e"));
+        MultiObjectPersister persister = createPersister(context, first, second);
+
+        Assert.assertNotNull(persister.getObject(context, TYPE, "e"));
+        Assert.assertTrue(persister.removeObject(context, TYPE, "e"));
+        Assert.assertNull(persister.getObject(context, TYPE, "e"));
+
+        // ...and the negative lookup recorded after the removal is cleared when the object is saved again...
+        ModelObject object = createObject("e");
+        Assert.assertTrue(persister.saveObject(context, object));
+        Assert.assertSame(object, persister.getObject(context, TYPE, "e"));
+    }
+
+    @Test
+    public void testSaveClearsNegativeLookupOnOtherNodes() throws Exception
+    {
+        // Two nodes share the same persisters...
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        MapPersister first = new MapPersister("first");
+        MapPersister second = new MapPersister("second");
+        final MultiObjectPersister node1 = createPersister(context, first, second);
+        final List<Map<String, Serializable>> messages = new ArrayList<Map<String, Serializable>>();
+        node1.setClusterService(new ClusterService()
+        {
+            public void publishClusterMessage(String messageType, Map<String, Serializable> payload)
+            {
+                Assert.assertEquals(node1.getClusterMessageType(), messageType);
+                messages.add(payload);
+            }
+        });
+        MultiObjectPersister node2 = createPersister(context, first, second);
+
+        Assert.assertNull(node2.getObject(context, TYPE, "f"));
+        Assert.assertTrue(node1.saveObject(context, createObject("f")));
+        Assert.assertEquals(1, messages.size());
+        Assert.assertNull(node2.getObject(context, TYPE, "f"));
+
+        node2.onClusterMessage(messages.get(0));
+        Assert.assertNotNull(node2.getObject(context, TYPE, "f"));
+    }
+
+    /**
+     * Looks up each of the objects in turn.
+     */
+    private static Map<String, ModelObject> getEach(MultiObjectPersister persister, ModelPersistenceContext context, List<String> objectIds) throws Exception
+    {
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>();
+        for (String objectId : objectIds)
+        {
+            ModelObject object = persister.getObject(context, TYPE, objectId);
+            if (object != null)
+            {
+                objects.put(objectId, object);
+            }
+        }
+        return objects;
+    }
+
+    @Test
+    public void testGetObjectsMatchesGetObject() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        BatchMapPersister first = new BatchMapPersister("first");
+        MapPersister second = new MapPersister("second");
+        first.put(createObject("a"));
+        first.put(createObject("d"));
+        second.put(createObject("b"));
+        second.put(createObject("c"));
+        MultiObjectPersister batched = createPersister(context, first, second);
+        MultiObjectPersister single = createPersister(context, first, second);
+        List<String> ids = Arrays.asList("a", "b", "c", "missing", "d");
+
+        // Some of the objects have a route, or are known to be missing, before the batch...
+        Assert.assertNotNull(batched.getObject(context, TYPE, "b"));
+        Assert.assertNull(batched.getObject(context, TYPE, "missing"));
+        Map<String, ModelObject> expected = getEach(single, context, ids);
+        Assert.assertEquals(4, expected.size());
+        Assert.assertEquals(expected, batched.getObjects(context, TYPE, ids));
+        Assert.assertEquals(1, first.getBatches());
+
+        // ...and the batch routes the rest so they are asked of their owners...
+        int lookups = second.getLookups();
+        Assert.assertEquals(expected, batched.getObjects(context, TYPE, ids));
+        Assert.assertEquals(2, first.getBatches());
+        Assert.assertEquals(lookups + 2, second.getLookups());
+
+        // An object that has moved is found by searching the persisters again...
+        ModelObject moved = createObject("c");
+        second.removeObject(context, TYPE, "c");
+        first.put(moved);
+        expected = getEach(single, context, ids);
+        Assert.assertSame(moved, expected.get("c"));
+        Assert.assertEquals(expected, batched.getObjects(context, TYPE, ids));
+
+        // ...and one that has been removed is no longer returned...
+        first.removeObject(context, TYPE, "a");
+        expected = getEach(single, context, ids);
+        Assert.assertFalse(expected.containsKey("a"));
+        Assert.assertEquals(expected, batched.getObjects(context, TYPE, ids));
+        Assert.assertEquals(expected, batched.getObjects(context, TYPE, ids));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.persister;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.ModelObject;
+import org.springframework.extensions.surf.ModelPersistenceContext;
+import org.springframework.extensions.surf.persister.PathStoreObjectPersister;
+import org.springframework.extensions.surf.test.TestCaseSetup;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that a batch lookup of the {@link PathStoreObjectPersister} finds the same objects as looking each object up
+ * in turn, including the objects that are missing or cannot be parsed, and that it queries the store once.
+ */
+public class PathStoreObjectPersisterTest
+{
+    private static final String TYPE = "component";
+
+    private static final List<String> IDS = Arrays.asList("page.title.home", "page.nav.home", "page.missing.home", "page.broken.home", "page.footer.home");
+
+    private static MapStore createStore()
+    {
+        MapStore store = new MapStore();
+        for (String region : new String[] { "title", "nav", "footer", "other" })
+        {
+            store.put("components/page." + region + ".home.xml",
+                      "<component><scope>page</scope><region-id>" + region + "</region-id><source-id>home</source-id>" +
+                      "<url>/components/" + region + "</url></component>");
+        }
+        store.put("components/page.broken.home.xml", "<component><scope>page</scope>");
+        return store;
+    }
+
+    private static PathStoreObjectPersister createPersister(MapStore store, ModelPersistenceContext context)
+    {
+        PathStoreObjectPersister persister = new PathStoreObjectPersister();
+        persister.setBeanName("test");
+        persister.setStore(store.createStore());
+        persister.setPathPrefix("${objectTypeIds}");
+        persister.setServiceRegistry(TestCaseSetup.getServiceRegistry());
+        persister.setTenantObjectCache(false);
+        persister.init(context);
+        return persister;
+    }
+
+    /**
+     * Looks up each of the objects in turn and describes the objects that were found.
+     */
+    private static Map<String, String> getEach(PathStoreObjectPersister persister, ModelPersistenceContext context, List<String> objectIds) throws Exception
+    {
+        Map<String, ModelObject> objects = new HashMap<String, ModelObject>();
+        for (String objectId : objectIds)
+        {
+            ModelObject object = persister.getObject(context, TYPE, objectId);
+            if (object != null)
+            {
+                objects.put(objectId, object);
+            }
+        }
+        return describe(objects);
+    }
+
+    private static Map<String, String> describe(Map<String, ModelObject> objects)
+    {
+        Map<String, String> descriptions = new HashMap<String, String>();
+        for (Map.Entry<String, ModelObject> entry : objects.entrySet())
+        {
+            ModelObject object = entry.getValue();
+            Assert.assertEquals(entry.getKey(), object.getId());
+            descriptions.put(entry.getKey(), object.getStoragePath() + " " + object.toXML());
+        }
+        return descriptions;
+    }
+
+    @Test
+    public void testGetObjectsMatchesGetObject() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        Map<String, String> expected = getEach(createPersister(createStore(), context), context, IDS);
+        Assert.assertEquals(3, expected.size());
+        Assert.assertFalse(expected.containsKey("page.missing.home"));
+        Assert.assertFalse(expected.containsKey("page.broken.home"));
+
+        // The batch finds the documents that are present with a single query...
+        MapStore store = createStore();
+        PathStoreObjectPersister persister = createPersister(store, context);
+        Assert.assertEquals(expected, describe(persister.getObjects(context, TYPE, IDS)));
+        Assert.assertEquals(1, store.getCalls("getDocumentPaths"));
+        Assert.assertEquals(0, store.getCalls("hasDocument"));
+        Assert.assertEquals(4, store.getCalls("getDocument"));
+
+        // ...and the objects that were found, missing or broken are all cached...
+        Assert.assertEquals(expected, describe(persister.getObjects(context, TYPE, IDS)));
+        Assert.assertEquals(expected, getEach(persister, context, IDS));
+        Assert.assertEquals(1, store.getCalls("getDocumentPaths"));
+        Assert.assertEquals(0, store.getCalls("hasDocument"));
+        Assert.assertEquals(4, store.getCalls("getDocument"));
+    }
+
+    @Test
+    public void testIdsWithLittleInCommonAreLookedUpInTurn() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        List<String> ids = Arrays.asList("page.title.home", "missing", "page.nav.home");
+        Map<String, String> expected = getEach(createPersister(createStore(), context), context, ids);
+        Assert.assertEquals(2, expected.size());
+
+        MapStore store = createStore();
+        PathStoreObjectPersister persister = createPersister(store, context);
+        Assert.assertEquals(expected, describe(persister.getObjects(context, TYPE, ids)));
+        Assert.assertEquals(0, store.getCalls("getDocumentPaths"));
+        Assert.assertEquals(3, store.getCalls("hasDocument"));
+    }
+
+    @Test
+    public void testFailedQueryFallsBackToGetObject() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        Map<String, String> expected = getEach(createPersister(createStore(), context), context, IDS);
+
+        MapStore store = createStore();
+        store.setFailQueries(true);
+        PathStoreObjectPersister persister = createPersister(store, context);
+        Assert.assertEquals(expected, describe(persister.getObjects(context, TYPE, IDS)));
+        Assert.assertEquals(1, store.getCalls("getDocumentPaths"));
+        Assert.assertEquals(IDS.size(), store.getCalls("hasDocument"));
+    }
+
+    @Test
+    public void testSingleUncachedObject() throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext("admin");
+        MapStore store = createStore();
+        PathStoreObjectPersister persister = createPersister(store, context);
+        Assert.assertNotNull(persister.getObject(context, TYPE, "page.title.home"));
+
+        // Only one of the objects is not cached so it is looked up without a query...
+        List<String> ids = Arrays.asList("page.title.home", "page.nav.home");
+        Assert.assertEquals(2, persister.getObjects(context, TYPE, ids).size());
+        Assert.assertEquals(0, store.getCalls("getDocumentPaths"));
+        Assert.assertEquals(2, store.getCalls("hasDocument"));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.persister;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.ModelObject;
+import org.springframework.extensions.surf.ModelPersistenceContext;
+import org.springframework.extensions.surf.persister.ReadOnlyStoreObjectPersister;
+import org.springframework.extensions.surf.persister.ReadOnlyStoreObjectPersister.PreloadStatistics;
+import org.springframework.extensions.surf.test.TestCaseSetup;
+import org.springframework.extensions.surf.types.Component;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that preloading the model objects of a {@link ReadOnlyStoreObjectPersister} in parallel loads the same objects
+ * as preloading them in turn, and that documents that are not model objects or cannot be parsed are counted but do
+ * not stop the rest of the store from loading.
+ */
+public class ReadOnlyStoreObjectPersisterTest
+{
+    private static final int PAGES = 100;
+
+    private static final int TEMPLATES = 5;
+
+    private static MapStore createStore()
+    {
+        MapStore store = new MapStore();
+        for (int i = 0; i < PAGES; i++)
+        {
+            // Some of the pages have a declaration and a comment before the root element...
+            String prolog = (i % 3 == 0 ? "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- page " + i + " -->\n" : "");
+            store.put("pages/p" + i + ".xml", prolog +
+                      "<page><id>p" + i + "</id><title>Page " + i + "</title><template-instance>t" + (i % TEMPLATES) + "</template-instance>" +
+                      "<components>" +
+                      "<component><region-id>title</region-id><url>/components/title</url></component>" +
+                      "<component><region-id>body</region-id><url>/components/body</url></component>" +
+                      "</components></page>");
+        }
+        for (int i = 0; i < TEMPLATES; i++)
+        {
+            store.put("template-instances/t" + i + ".xml", "<template-instance><id>t" + i + "</id><template-type>layout</template-type></template-instance>");
+        }
+
+        // A namespaced root element and a document type declaration with an internal subset...
+        store.put("pages/ns.xml", "<surf:page xmlns:surf=\"http://www.alfresco.org/surf\"><id>ns</id></surf:page>");
+        store.put("pages/doctype.xml", "<!DOCTYPE page [<!ELEMENT page ANY>]><page><id>doctype</id><title>Doctype</title></page>");
+
+        // Documents that are not model objects...
+        for (int i = 0; i < 5; i++)
+        {
+            store.put("config/c" + i + ".xml", "<alfresco-config><config evaluator=\"string-compare\" condition=\"c" + i + "\"/></alfresco-config>");
+        }
+        store.put("config/broken.xml", "<alfresco-config><config>");
+        store.put("webscripts/test.get.desc.xml", "<webscript><shortname>test</shortname></webscript>");
+        store.put("readme.txt", "not xml");
+
+        // ...and model objects that cannot be parsed...
+        for (int i = 0; i < 3; i++)
+        {
+            store.put("pages/broken" + i + ".xml", "<page><id>broken" + i + "</id>");
+        }
+        return store;
+    }
+
+    private static ReadOnlyStoreObjectPersister createPersister(MapStore store, int preloadThreadCount)
+    {
+        ReadOnlyStoreObjectPersister persister = new ReadOnlyStoreObjectPersister();
+        persister.setBeanName("test");
+        persister.setStore(store.createStore());
+        persister.setServiceRegistry(TestCaseSetup.getServiceRegistry());
+        persister.setPreloadThreadCount(preloadThreadCount);
+        persister.init(new ModelPersistenceContext(null));
+        return persister;
+    }
+
+    /**
+     * Describes the preloaded objects. The components bound to the pages have generated ids so they are described by
+     * the page and region that they are bound to.
+     */
+    private static Set<String> describe(ReadOnlyStoreObjectPersister persister) throws Exception
+    {
+        ModelPersistenceContext context = new ModelPersistenceContext(null);
+        Set<String> descriptions = new HashSet<String>();
+        for (String typeId : new String[] { "page", "template-instance" })
+        {
+            for (ModelObject object : persister.getAllObjects(context, typeId).values())
+            {
+                descriptions.add(typeId + " " + object.getId() + " " + object.getStoragePath() + " " + object.getTitle());
+            }
+        }
+        for (ModelObject object : persister.getAllObjects(context, "component").values())
+        {
+            Component component = (Component) object;
+            descriptions.add("component " + component.getSourceId() + " " + component.getRegionId() + " " + component.getURL());
+        }
+        return descriptions;
+    }
+
+    private static void assertStatistics(PreloadStatistics stats)
+    {
+        Assert.assertEquals(PAGES + TEMPLATES + 2 + 5 + 1 + 3, stats.getScanned());
+        Assert.assertEquals(PAGES + TEMPLATES + 2, stats.getLoaded());
+        Assert.assertEquals(5 + 1, stats.getRejected());
+        Assert.assertEquals(3, stats.getFailed());
+    }
+
+    @Test
+    public void testParallelPreloadMatchesSequential() throws Exception
+    {
+        ReadOnlyStoreObjectPersister sequential = createPersister(createStore(), 0);
+        Set<String> expected = describe(sequential);
+        Assert.assertEquals(PAGES + TEMPLATES + 2 + PAGES * 2, expected.size());
+        Assert.assertTrue(expected.contains("page ns pages/ns.xml null"));
+        Assert.assertTrue(expected.contains("page doctype pages/doctype.xml Doctype"));
+        Assert.assertTrue(expected.contains("component p7 body /components/body"));
+        assertStatistics(sequential.getPreloadStatistics());
+
+        MapStore store = createStore();
+        ReadOnlyStoreObjectPersister parallel = createPersister(store, 4);
+        Assert.assertEquals(expected, describe(parallel));
+        assertStatistics(parallel.getPreloadStatistics());
+
+        // The documents were read by the preload threads...
+        boolean preloadThread = false;
+        for (String threadName : store.getThreadNames())
+        {
+            preloadThread |= threadName.startsWith("ReadOnlyStoreObjectPersister-test-");
+        }
+        Assert.assertTrue(preloadThread);
+    }
+
+    @Test
+    public void testSmallStoreIsPreloadedInTurn() throws Exception
+    {
+        MapStore store = new MapStore();
+        store.put("pages/home.xml", "<page><id>home</id></page>");
+        store.put("pages/broken.xml", "<page><id>broken");
+        store.put("config/other.xml", "<other/>");
+        ReadOnlyStoreObjectPersister persister = createPersister(store, 4);
+        Assert.assertNotNull(persister.getObject(new ModelPersistenceContext(null), "page", "home"));
+        Assert.assertEquals(Thread.currentThread().getName(), store.getThreadNames().iterator().next());
+        Assert.assertEquals(1, store.getThreadNames().size());
+
+        PreloadStatistics stats = persister.getPreloadStatistics();
+        Assert.assertEquals(3, stats.getScanned());
+        Assert.assertEquals(1, stats.getLoaded());
+        Assert.assertEquals(1, stats.getRejected());
+        Assert.assertEquals(1, stats.getFailed());
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.render;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.render.RenderService;
+import org.springframework.extensions.surf.types.Component;
+import org.springframework.extensions.surf.util.I18NUtil;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the keys that the output of components declaring a {@link Component#PROP_CACHE_SCOPE} is cached against.
+ */
+public class FragmentCacheKeyTest
+{
+    /**
+     * The request state that a key is built from.
+     */
+    private static class Request implements InvocationHandler
+    {
+        private String pageId = "page1";
+        private String userId = "user1";
+        private String formatId = "default";
+        private String themeId = "default";
+        private Map<String, String> uriTokens = new HashMap<String, String>();
+        private Map<String, String> parameters = new HashMap<String, String>();
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            Object result = null;
+            if ("getPageId".equals(name))
+            {
+                result = this.pageId;
+            }
+            else if ("getUserId".equals(name))
+            {
+                result = this.userId;
+            }
+            else if ("getFormatId".equals(name))
+            {
+                result = this.formatId;
+            }
+            else if ("getThemeId".equals(name))
+            {
+                result = this.themeId;
+            }
+            else if ("getEvaluatedModules".equals(name))
+            {
+                result = Collections.emptyList();
+            }
+            else if ("getUriTokens".equals(name))
+            {
+                result = this.uriTokens;
+            }
+            else if ("getParameter".equals(name))
+            {
+                result = this.parameters.get(args[0]);
+            }
+            return result;
+        }
+
+        private RequestContext getContext()
+        {
+            return (RequestContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RequestContext.class }, this);
+        }
+    }
+
+    /**
+     * Exposes the key for testing.
+     */
+    private static class TestRenderService extends RenderService
+    {
+        @Override
+        public String getFragmentCacheKey(RequestContext context, Component component, boolean chromeless)
+        {
+            return super.getFragmentCacheKey(context, component, chromeless);
+        }
+    }
+
+    private static Component getComponent(String id, final String scope, final String keyTokens)
+    {
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put("id", id);
+        properties.put(Component.PROP_CACHE_SCOPE, scope);
+        properties.put(Component.PROP_CACHE_KEY_TOKENS, keyTokens);
+        return (Component) Proxy.newProxyInstance(FragmentCacheKeyTest.class.getClassLoader(), new Class<?>[] { Component.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                return ("getId".equals(method.getName()) ? properties.get("id") : 
+                        "getProperty".equals(method.getName()) ? properties.get(args[0]) : null);
+            }
+        });
+    }
+
+    private final TestRenderService renderService = new TestRenderService();
+
+    private String getKey(Request request, Component component)
+    {
+        return this.renderService.getFragmentCacheKey(request.getContext(), component, false);
+    }
+
+    @Test
+    public void testScope() throws Exception
+    {
+        Component global = getComponent("global.nav", "global", null);
+        Component page = getComponent("page.nav", "page", null);
+        Component user = getComponent("user.nav", "user", null);
+
+        Request request1 = new Request();
+        Request request2 = new Request();
+        request2.pageId = "page2";
+        Request request3 = new Request();
+        request3.userId = "user2";
+
+        // A global key ignores the page and the user...
+        Assert.assertEquals(getKey(request1, global), getKey(request2, global));
+        Assert.assertEquals(getKey(request1, global), getKey(request3, global));
+
+        // ...a page key ignores the user...
+        Assert.assertFalse(getKey(request1, page).equals(getKey(request2, page)));
+        Assert.assertEquals(getKey(request1, page), getKey(request3, page));
+
+        // ...and a user key depends on both
+        Assert.assertFalse(getKey(request1, user).equals(getKey(request2, user)));
+        Assert.assertFalse(getKey(request1, user).equals(getKey(request3, user)));
+
+        // Different components never share a key
+        Assert.assertFalse(getKey(request1, global).equals(getKey(request1, getComponent("global.footer", "global", null))));
+
+        // An unknown scope isn't cached at all
+        Assert.assertNull(getKey(request1, getComponent("global.nav", "session", null)));
+    }
+
+    @Test
+    public void testRequestState() throws Exception
+    {
+        Component component = getComponent("global.nav", "global", null);
+        Request request = new Request();
+        String key = getKey(request, component);
+
+        Assert.assertFalse(key.equals(this.renderService.getFragmentCacheKey(request.getContext(), component, true)));
+
+        request.formatId = "print";
+        Assert.assertFalse(key.equals(getKey(request, component)));
+        request.formatId = "default";
+
+        request.themeId = "dark";
+        Assert.assertFalse(key.equals(getKey(request, component)));
+        request.themeId = "default";
+
+        Locale locale = I18NUtil.getLocale();
+        try
+        {
+            I18NUtil.setLocale(Locale.GERMAN.equals(locale) ? Locale.FRENCH : Locale.GERMAN);
+            Assert.assertFalse(key.equals(getKey(request, component)));
+        }
+        finally
+        {
+            I18NUtil.setLocale(locale);
+        }
+
+        // Parameters that aren't key tokens are ignored
+        request.parameters.put("site", "site1");
+        Assert.assertEquals(key, getKey(request, component));
+    }
+
+    @Test
+    public void testKeyTokens() throws Exception
+    {
+        Component component = getComponent("global.nav", "global", "site, nodeRef");
+        Request request1 = new Request();
+        request1.uriTokens.put("site", "site1");
+        Request request2 = new Request();
+        request2.uriTokens.put("site", "site2");
+        Assert.assertFalse(getKey(request1, component).equals(getKey(request2, component)));
+
+        // A token missing from the URI is read from the request parameters...
+        request2.uriTokens.remove("site");
+        request2.parameters.put("site", "site1");
+        Assert.assertEquals(getKey(request1, component), getKey(request2, component));
+
+        // ...but the URI token takes precedence
+        request1.parameters.put("site", "site2");
+        Assert.assertEquals(getKey(request1, component), getKey(request2, component));
+
+        request1.parameters.put("nodeRef", "workspace://SpacesStore/1");
+        Assert.assertFalse(getKey(request1, component).equals(getKey(request2, component)));
+    }
+}
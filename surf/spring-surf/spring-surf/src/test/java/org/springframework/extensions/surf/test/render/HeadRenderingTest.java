@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.render;
+
+import org.junit.Assert;
+import org.springframework.extensions.config.WebFrameworkConfigElement;
+import org.springframework.extensions.surf.test.TestCaseSetup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the <code>${head}</code> of a FreeMarker template is the same whether the .head templates of its
+ * components are rendered in a first pass or along with their bodies, and that templates that are not rendered by
+ * the WebTemplateProcessor keep rendering their head in a first pass when single pass head rendering is enabled.
+ */
+public class HeadRenderingTest
+{
+    private static final String PAGE = "/headtest";
+    private static final String WEBSCRIPT_TEMPLATE_PAGE = "/headtestwebscript";
+
+    private String renderHead(String page, boolean singlePass) throws Exception
+    {
+        WebFrameworkConfigElement config = TestCaseSetup.getServiceRegistry().getWebFrameworkConfiguration();
+        boolean enabled = config.isSinglePassHeadRenderingEnabled();
+        config.setSinglePassHeadRendering(singlePass);
+        try
+        {
+            MockHttpServletRequest req = new MockHttpServletRequest(TestCaseSetup.getServletContext(), "GET", page);
+            MockHttpServletResponse res = new MockHttpServletResponse();
+            TestCaseSetup.getDispatcherServlet().service(req, res);
+
+            String result = res.getContentAsString();
+            Assert.assertTrue(result, result.contains("BODY 1") && result.contains("BODY 2"));
+            int start = result.indexOf("<head>");
+            int end = result.indexOf("</head>");
+            Assert.assertTrue(result, start != -1 && end > start);
+
+            // Only the content is compared, the lines separating it may differ...
+            StringBuilder head = new StringBuilder();
+            for (String line: result.substring(start + 6, end).split("\n"))
+            {
+                if (line.trim().length() != 0)
+                {
+                    head.append(line.trim()).append('\n');
+                }
+            }
+            return head.toString();
+        }
+        finally
+        {
+            config.setSinglePassHeadRendering(enabled);
+        }
+    }
+
+    @Test
+    public void testSinglePassMatchesTwoPass() throws Exception
+    {
+        String twoPass = renderHead(PAGE, false);
+        Assert.assertTrue(twoPass, twoPass.contains("<meta name=\"component1\" content=\"HEAD 1\"/>"));
+        Assert.assertTrue(twoPass, twoPass.contains("<meta name=\"component2\" content=\"HEAD 2\"/>"));
+        Assert.assertEquals(twoPass, renderHead(PAGE, true));
+    }
+
+    @Test
+    public void testNonWebTemplateRendersHeadInFirstPass() throws Exception
+    {
+        // The template is rendered by a WebScript so the ${head} placeholder cannot be used for it...
+        String twoPass = renderHead(WEBSCRIPT_TEMPLATE_PAGE, false);
+        Assert.assertTrue(twoPass, twoPass.contains("<meta name=\"component1\" content=\"HEAD 1\"/>"));
+        Assert.assertTrue(twoPass, twoPass.contains("<meta name=\"component2\" content=\"HEAD 2\"/>"));
+        Assert.assertEquals(twoPass, renderHead(WEBSCRIPT_TEMPLATE_PAGE, true));
+    }
+}
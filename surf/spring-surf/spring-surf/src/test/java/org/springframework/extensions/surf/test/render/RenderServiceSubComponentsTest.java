@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.render;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.DocumentHelper;
+import org.junit.Assert;
+import org.springframework.extensions.surf.ModelPersisterInfo;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.render.RenderService;
+import org.springframework.extensions.surf.types.AdvancedComponent;
+import org.springframework.extensions.surf.types.AdvancedComponentImpl;
+import org.springframework.extensions.surf.types.ExtensionModule;
+import org.springframework.extensions.surf.types.SubComponent;
+import org.springframework.extensions.surf.types.SubComponentEvaluation;
+import org.springframework.extensions.surf.uri.UriUtils;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the merged {@link SubComponent} lists cached by the {@link RenderService} are the same as those merged
+ * for each request before they were cached, that they are cached against the modules that extend the component and
+ * that a cached list is not changed by later requests.
+ */
+public class RenderServiceSubComponentsTest
+{
+    private static final String COMPONENT_PATH = "components/comp.xml";
+
+    /**
+     * Exposes the merged {@link SubComponent} lists of the {@link RenderService}.
+     */
+    private static class TestRenderService extends RenderService
+    {
+        private List<SubComponentData> get(AdvancedComponent component, RequestContext context)
+        {
+            return getSubComponents(component, context);
+        }
+    }
+
+    /**
+     * A component and the modules that extend it, created from configuration so that each instance can be merged
+     * without being affected by merges of another instance.
+     */
+    private static class Fixture
+    {
+        private final AdvancedComponent component;
+        private final ExtensionModule m1;
+        private final ExtensionModule m2;
+        private final ExtensionModule m3;
+
+        private Fixture() throws Exception
+        {
+            this.component = createComponent("comp",
+                    "<sub-component id=\"a\" index=\"10\"><evaluations><evaluation id=\"base-a\"/></evaluations></sub-component>" +
+                    "<sub-component id=\"b\" index=\"20\"/>");
+
+            // Overrides "a" and adds "c"...
+            this.m1 = createModule("m1", "comp",
+                    "<sub-component id=\"a\" index=\"30\"><evaluations><evaluation id=\"m1-a\"/></evaluations></sub-component>" +
+                    "<sub-component id=\"c\" index=\"5\"><evaluations><evaluation id=\"m1-c\"/></evaluations></sub-component>");
+
+            // Overrides "b" and the "c" that is added by the first module...
+            this.m2 = createModule("m2", "comp",
+                    "<sub-component id=\"b\" index=\"1\"/>" +
+                    "<sub-component id=\"c\" index=\"40\"><evaluations><evaluation id=\"m2-c\"/></evaluations></sub-component>");
+
+            // Extends another component...
+            this.m3 = createModule("m3", "other", "<sub-component id=\"a\" index=\"99\"/>");
+        }
+    }
+
+    private static AdvancedComponent createComponent(String id, String subComponents) throws Exception
+    {
+        String xml = "<component><sub-components>" + subComponents + "</sub-components></component>";
+        return new AdvancedComponentImpl(id, new ModelPersisterInfo("test", COMPONENT_PATH, false), DocumentHelper.parseText(xml));
+    }
+
+    private static ExtensionModule createModule(String id, String componentId, String subComponents) throws Exception
+    {
+        String xml = "<module><id>" + id + "</id><components><component id=\"" + componentId + "\"><sub-components>" +
+                     subComponents + "</sub-components></component></components></module>";
+        return new ExtensionModule(DocumentHelper.parseText(xml).getRootElement(), new ModelPersisterInfo("test", "extensions/" + id + ".xml", false));
+    }
+
+    /**
+     * Creates a request that has evaluated the supplied modules and whose "userid" token is the supplied user.
+     */
+    private static RequestContext createContext(String userId, ExtensionModule... modules)
+    {
+        final List<ExtensionModule> evaluatedModules = Arrays.asList(modules);
+        final Map<String, String> uriTokens = Collections.singletonMap("userid", userId);
+        return (RequestContext) Proxy.newProxyInstance(RenderServiceSubComponentsTest.class.getClassLoader(), new Class<?>[] { RequestContext.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                Object result = null;
+                if ("getEvaluatedModules".equals(method.getName()))
+                {
+                    result = evaluatedModules;
+                }
+                else if ("getUriTokens".equals(method.getName()))
+                {
+                    result = uriTokens;
+                }
+                else if (method.getReturnType() == boolean.class)
+                {
+                    result = Boolean.FALSE;
+                }
+                return result;
+            }
+        });
+    }
+
+    private static RequestContext createContext(ExtensionModule... modules)
+    {
+        return createContext("admin", modules);
+    }
+
+    private static String describe(SubComponent subComponent, List<String> contributingSourcePaths)
+    {
+        List<String> evaluations = new ArrayList<String>();
+        for (SubComponentEvaluation evaluation: subComponent.getEvaluations())
+        {
+            evaluations.add(evaluation.getId());
+        }
+        return subComponent.getId() + "@" + subComponent.getIndex() + evaluations + contributingSourcePaths;
+    }
+
+    private static List<String> describe(List<RenderService.SubComponentData> subComponents)
+    {
+        List<String> descriptions = new ArrayList<String>();
+        for (RenderService.SubComponentData data: subComponents)
+        {
+            descriptions.add(describe(data.getSubComponent(), data.getContributingSourcePaths()));
+        }
+        return descriptions;
+    }
+
+    private static List<String> describeConfiguration(AdvancedComponent component)
+    {
+        List<String> descriptions = new ArrayList<String>();
+        for (SubComponent subComponent: component.getSubComponents())
+        {
+            descriptions.add(describe(subComponent, Collections.<String>emptyList()));
+        }
+        return descriptions;
+    }
+
+    /**
+     * A merged {@link SubComponent} and the paths of the configuration that contributed to it.
+     */
+    private static class Merged implements Comparable<Merged>
+    {
+        private final SubComponent subComponent;
+        private final List<String> paths = new ArrayList<String>();
+
+        private Merged(SubComponent subComponent, String path)
+        {
+            this.subComponent = subComponent;
+            this.paths.add(path);
+        }
+
+        public int compareTo(Merged o)
+        {
+            return this.subComponent.compareTo(o.subComponent);
+        }
+    }
+
+    /**
+     * Merges the {@link SubComponent} instances of the component with those of the modules that extend it in the way
+     * that they were merged for each request before the merged lists were cached.
+     */
+    private static List<String> cloneAndMerge(AdvancedComponent component, RequestContext context)
+    {
+        List<Merged> all = new ArrayList<Merged>();
+        for (SubComponent s: component.getSubComponents())
+        {
+            all.add(new Merged(s.clone(), component.getKey().getStoragePath()));
+        }
+        for (ExtensionModule module: context.getEvaluatedModules())
+        {
+            for (AdvancedComponent extComp: module.getAdvancedComponentExtensions(component.getId(), context))
+            {
+                for (SubComponent extSubComponent: extComp.getSubComponents())
+                {
+                    Merged target = null;
+                    String extId = UriUtils.replaceTokens(extSubComponent.getId(), context, null, null, "");
+                    for (int i = 0; target == null && i < all.size(); i++)
+                    {
+                        if (UriUtils.replaceTokens(all.get(i).subComponent.getId(), context, null, null, "").equals(extId))
+                        {
+                            target = all.get(i);
+                        }
+                    }
+                    if (target != null)
+                    {
+                        target.subComponent.mergeExtension(extSubComponent);
+                        target.paths.add(extComp.getKey().getStoragePath());
+                    }
+                    else
+                    {
+                        all.add(new Merged(extSubComponent, extComp.getKey().getStoragePath()));
+                    }
+                }
+            }
+        }
+        Collections.sort(all);
+        List<String> descriptions = new ArrayList<String>();
+        for (Merged merged: all)
+        {
+            descriptions.add(describe(merged.subComponent, merged.paths));
+        }
+        return descriptions;
+    }
+
+    @Test
+    public void testMatchesCloneAndMerge() throws Exception
+    {
+        TestRenderService service = new TestRenderService();
+        int[][] moduleSets = { {}, { 1 }, { 2 }, { 3 }, { 1, 2 }, { 2, 1 }, { 1, 3, 2 } };
+        for (int[] moduleSet: moduleSets)
+        {
+            // Each way of merging gets its own configuration so that neither can affect the other...
+            Fixture expected = new Fixture();
+            Fixture actual = new Fixture();
+            List<String> merged = cloneAndMerge(expected.component, createContext(select(expected, moduleSet)));
+            RequestContext context = createContext(select(actual, moduleSet));
+            Assert.assertEquals(Arrays.toString(moduleSet), merged, describe(service.get(actual.component, context)));
+
+            // ...and the cached list is still the same...
+            Assert.assertEquals(Arrays.toString(moduleSet), merged, describe(service.get(actual.component, context)));
+        }
+
+        // The base sub-component is overridden by the first module and the second module overrides the sub-component
+        // that the first added...
+        Fixture fixture = new Fixture();
+        Assert.assertEquals(Arrays.asList("comp#b@1[][components/comp.xml, extensions/m2.xml]",
+                                          "comp#a@30[m1-a, base-a][components/comp.xml, extensions/m1.xml]",
+                                          "comp#c@40[m2-c, m1-c][extensions/m1.xml, extensions/m2.xml]"),
+                            describe(service.get(fixture.component, createContext(fixture.m1, fixture.m2))));
+    }
+
+    private static ExtensionModule[] select(Fixture fixture, int[] moduleSet)
+    {
+        ExtensionModule[] modules = new ExtensionModule[moduleSet.length];
+        for (int i = 0; i < moduleSet.length; i++)
+        {
+            modules[i] = (moduleSet[i] == 1 ? fixture.m1 : (moduleSet[i] == 2 ? fixture.m2 : fixture.m3));
+        }
+        return modules;
+    }
+
+    @Test
+    public void testCacheKeyFollowsModules() throws Exception
+    {
+        TestRenderService service = new TestRenderService();
+        Fixture fixture = new Fixture();
+        List<RenderService.SubComponentData> first = service.get(fixture.component, createContext(fixture.m1));
+        Assert.assertSame(first, service.get(fixture.component, createContext(fixture.m1)));
+
+        // A module that does not extend the component does not change the key...
+        Assert.assertSame(first, service.get(fixture.component, createContext(fixture.m3, fixture.m1)));
+
+        // ...but adding a module that does, or changing the order of the modules, does...
+        List<RenderService.SubComponentData> both = service.get(fixture.component, createContext(fixture.m1, fixture.m2));
+        Assert.assertNotSame(first, both);
+        Assert.assertFalse(describe(first).equals(describe(both)));
+        Assert.assertSame(both, service.get(fixture.component, createContext(fixture.m1, fixture.m2)));
+        List<RenderService.SubComponentData> reversed = service.get(fixture.component, createContext(fixture.m2, fixture.m1));
+        Assert.assertNotSame(both, reversed);
+        Assert.assertFalse(describe(both).equals(describe(reversed)));
+        List<RenderService.SubComponentData> none = service.get(fixture.component, createContext());
+        Assert.assertNotSame(first, none);
+        Assert.assertEquals(2, none.size());
+
+        // The earlier lists are still cached...
+        Assert.assertSame(first, service.get(fixture.component, createContext(fixture.m1)));
+
+        // A module that has been redeployed with the same id replaces the cached list...
+        Fixture redeployed = new Fixture();
+        List<RenderService.SubComponentData> replaced = service.get(fixture.component, createContext(redeployed.m1));
+        Assert.assertNotSame(first, replaced);
+        Assert.assertEquals(describe(first), describe(replaced));
+
+        // ...as does a component that has been reloaded...
+        List<RenderService.SubComponentData> reloaded = service.get(redeployed.component, createContext(redeployed.m1));
+        Assert.assertNotSame(replaced, reloaded);
+        Assert.assertSame(reloaded, service.get(redeployed.component, createContext(redeployed.m1)));
+    }
+
+    @Test
+    public void testCachedListsNotModified() throws Exception
+    {
+        TestRenderService service = new TestRenderService();
+        Fixture fixture = new Fixture();
+        List<String> component = describeConfiguration(fixture.component);
+        List<String> m1 = describeConfiguration(fixture.m1.getAdvancedComponentExtensions("comp", createContext()).get(0));
+        List<String> m2 = describeConfiguration(fixture.m2.getAdvancedComponentExtensions("comp", createContext()).get(0));
+
+        List<RenderService.SubComponentData> first = service.get(fixture.component, createContext(fixture.m1));
+        List<String> merged = describe(first);
+        for (int i = 0; i < 3; i++)
+        {
+            service.get(fixture.component, createContext(fixture.m1, fixture.m2));
+            service.get(fixture.component, createContext(fixture.m2, fixture.m1));
+            service.get(fixture.component, createContext(fixture.m2));
+        }
+        Assert.assertSame(first, service.get(fixture.component, createContext(fixture.m1)));
+        Assert.assertEquals(merged, describe(first));
+
+        // Merging never changes the configuration of the component or the modules...
+        Assert.assertEquals(component, describeConfiguration(fixture.component));
+        Assert.assertEquals(m1, describeConfiguration(fixture.m1.getAdvancedComponentExtensions("comp", createContext()).get(0)));
+        Assert.assertEquals(m2, describeConfiguration(fixture.m2.getAdvancedComponentExtensions("comp", createContext()).get(0)));
+
+        // ...and the shared lists cannot be changed by the requests that use them...
+        try
+        {
+            first.remove(0);
+            Assert.fail("The cached list can be modified");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // Expected...
+        }
+    }
+
+    @Test
+    public void testTokenizedIdsNotCached() throws Exception
+    {
+        TestRenderService service = new TestRenderService();
+        AdvancedComponent dashboard = createComponent("dashboard", "<sub-component id=\"{userid}-panel\" index=\"10\"/>");
+        ExtensionModule module = createModule("m1", "dashboard", "<sub-component id=\"alice-panel\" index=\"20\"/>");
+
+        // The extension is merged into the sub-component of the user that it names...
+        List<RenderService.SubComponentData> alice = service.get(dashboard, createContext("alice", module));
+        Assert.assertEquals(Arrays.asList("dashboard#{userid}-panel@20[][components/comp.xml, extensions/m1.xml]"), describe(alice));
+        Assert.assertNotSame(alice, service.get(dashboard, createContext("alice", module)));
+
+        // ...and added for any other user...
+        List<RenderService.SubComponentData> bob = service.get(dashboard, createContext("bob", module));
+        Assert.assertEquals(Arrays.asList("dashboard#{userid}-panel@10[][components/comp.xml]", "dashboard#alice-panel@20[][extensions/m1.xml]"), describe(bob));
+        Assert.assertEquals(Arrays.asList("dashboard#{userid}-panel@20[][components/comp.xml, extensions/m1.xml]"), describe(service.get(dashboard, createContext("alice", module))));
+    }
+
+    @Test
+    public void testCacheDisabled() throws Exception
+    {
+        TestRenderService service = new TestRenderService();
+        service.setSubComponentCacheMaxSize(0);
+        Fixture fixture = new Fixture();
+        List<RenderService.SubComponentData> first = service.get(fixture.component, createContext(fixture.m1, fixture.m2));
+        List<RenderService.SubComponentData> second = service.get(fixture.component, createContext(fixture.m1, fixture.m2));
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(describe(first), describe(second));
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.support;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.extensions.surf.support.ForkedHttpServletRequest;
+import org.springframework.extensions.surf.support.ForkedTasks;
+import org.springframework.extensions.surf.support.ForkedThreadBindings;
+import org.springframework.extensions.surf.util.I18NUtil;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the tasks forked to render the regions of a template are either claimed or cancelled and that none of
+ * them is left running, and that a fork renders with the locale and its own copy of the attributes of the request.
+ */
+public class ForkedTasksTest
+{
+    /**
+     * A task that blocks until it is released or interrupted, recording whether it is running.
+     */
+    private static class BlockingTask implements Callable<String>
+    {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final AtomicBoolean interrupted = new AtomicBoolean();
+
+        public String call() throws Exception
+        {
+            this.running.set(true);
+            this.started.countDown();
+            try
+            {
+                this.release.await();
+                return "released";
+            }
+            catch (InterruptedException e)
+            {
+                this.interrupted.set(true);
+                throw e;
+            }
+            finally
+            {
+                this.running.set(false);
+            }
+        }
+    }
+
+    /**
+     * A task that counts the number of times it has been run.
+     */
+    private static class CountingTask implements Callable<String>
+    {
+        private final AtomicInteger runs = new AtomicInteger();
+        private final String result;
+
+        private CountingTask(String result)
+        {
+            this.result = result;
+        }
+
+        public String call() throws Exception
+        {
+            this.runs.incrementAndGet();
+            return this.result;
+        }
+    }
+
+    @Test
+    public void testClaim() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            ForkedTasks<String, String> tasks = new ForkedTasks<String, String>(executor);
+            CountingTask header = new CountingTask("header output");
+            Assert.assertTrue(tasks.submit("header", header));
+            Assert.assertTrue(tasks.submit("footer", new CountingTask("footer output")));
+            Assert.assertFalse("A key can only be forked once", tasks.submit("header", new CountingTask("again")));
+            Assert.assertEquals(2, tasks.size());
+
+            Assert.assertEquals("header output", tasks.claim("header"));
+            Assert.assertEquals("footer output", tasks.claim("footer"));
+            Assert.assertNull("A task can only be claimed once", tasks.claim("header"));
+            Assert.assertNull(tasks.claim("unknown"));
+            Assert.assertEquals(0, tasks.size());
+            Assert.assertEquals(0, tasks.cancel());
+            Assert.assertEquals(1, header.runs.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClaimFailure() throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            ForkedTasks<String, String> tasks = new ForkedTasks<String, String>(executor);
+            tasks.submit("region", new Callable<String>()
+            {
+                public String call() throws Exception
+                {
+                    throw new IllegalStateException("render failed");
+                }
+            });
+            try
+            {
+                tasks.claim("region");
+                Assert.fail("The failure of the task should be thrown");
+            }
+            catch (ExecutionException e)
+            {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelUnclaimed() throws Exception
+    {
+        // A single thread so that the second task is still queued when the tasks are cancelled...
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            ForkedTasks<String, String> tasks = new ForkedTasks<String, String>(executor);
+            BlockingTask running = new BlockingTask();
+            CountingTask queued = new CountingTask("queued");
+            Assert.assertTrue(tasks.submit("running", running));
+            Assert.assertTrue(tasks.submit("queued", queued));
+            Assert.assertTrue(running.started.await(10, TimeUnit.SECONDS));
+
+            Assert.assertEquals(2, tasks.cancel());
+            Assert.assertEquals(0, tasks.size());
+
+            // The running task has been interrupted and has stopped by the time cancel returns...
+            Assert.assertTrue(running.interrupted.get());
+            Assert.assertFalse(running.running.get());
+
+            // ...and the queued task is never run
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, queued.runs.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInterruptedClaim() throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            ForkedTasks<String, String> tasks = new ForkedTasks<String, String>(executor);
+            BlockingTask running = new BlockingTask();
+            tasks.submit("region", running);
+            Assert.assertTrue(running.started.await(10, TimeUnit.SECONDS));
+
+            Thread.currentThread().interrupt();
+            Assert.assertNull(tasks.claim("region"));
+            Assert.assertTrue("The interrupt should be restored", Thread.interrupted());
+
+            // The task must have stopped so that the region can be rendered on the request thread instead...
+            Assert.assertTrue(running.interrupted.get());
+            Assert.assertFalse(running.running.get());
+            Assert.assertEquals(0, tasks.size());
+        }
+        finally
+        {
+            Thread.interrupted();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRejected() throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        ForkedTasks<String, String> tasks = new ForkedTasks<String, String>(executor);
+        Assert.assertFalse(tasks.submit("region", new CountingTask("rejected")));
+        Assert.assertEquals(0, tasks.size());
+    }
+
+    /**
+     * A task that returns the locales bound to the thread that runs it.
+     */
+    private static class LocaleTask implements Callable<String>
+    {
+        public String call() throws Exception
+        {
+            return I18NUtil.getLocale() + "/" + LocaleContextHolder.getLocale();
+        }
+    }
+
+    @Test
+    public void testLocaleBoundInFork() throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            // The worker thread is left with the locale of an earlier request...
+            executor.submit(new Callable<Object>()
+            {
+                public Object call() throws Exception
+                {
+                    I18NUtil.setLocale(Locale.GERMAN);
+                    LocaleContextHolder.setLocale(Locale.GERMAN);
+                    return null;
+                }
+            }).get();
+
+            I18NUtil.setLocale(Locale.FRENCH);
+            LocaleContextHolder.setLocale(Locale.FRENCH);
+            final ForkedThreadBindings bindings = new ForkedThreadBindings();
+            ForkedTasks<String, String> tasks = new ForkedTasks<String, String>(executor);
+            tasks.submit("region", new Callable<String>()
+            {
+                public String call() throws Exception
+                {
+                    bindings.bind();
+                    try
+                    {
+                        return new LocaleTask().call();
+                    }
+                    finally
+                    {
+                        bindings.restore();
+                    }
+                }
+            });
+            Assert.assertEquals("The fork should render with the locale of the request", "fr/fr", tasks.claim("region"));
+
+            // ...which is restored once the fork has finished
+            Assert.assertEquals("de/de", executor.submit(new LocaleTask()).get());
+
+            // A fork rendered on the request thread restores the locale of the request...
+            I18NUtil.setLocale(Locale.ITALIAN);
+            LocaleContextHolder.setLocale(Locale.ITALIAN);
+            bindings.bind();
+            Assert.assertEquals("fr/fr", new LocaleTask().call());
+            bindings.restore();
+            Assert.assertEquals("it/it", new LocaleTask().call());
+        }
+        finally
+        {
+            I18NUtil.setLocale(null);
+            LocaleContextHolder.resetLocaleContext();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testForkedRequestAttributes() throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            final MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setAttribute("shared", "page");
+            final ForkedHttpServletRequest forkedRequest = new ForkedHttpServletRequest(request);
+            request.setAttribute("later", "page");
+
+            ForkedTasks<String, String> tasks = new ForkedTasks<String, String>(executor);
+            tasks.submit("region", new Callable<String>()
+            {
+                public String call() throws Exception
+                {
+                    String shared = (String) forkedRequest.getAttribute("shared");
+                    forkedRequest.setAttribute("shared", "fork");
+                    forkedRequest.setAttribute("forked", "fork");
+                    return shared + "/" + forkedRequest.getAttribute("later");
+                }
+            });
+            Assert.assertEquals("The fork should see a copy of the attributes taken when it was created", "page/null", tasks.claim("region"));
+
+            // Changes made by the fork are not seen by the page...
+            Assert.assertEquals("page", request.getAttribute("shared"));
+            Assert.assertNull(request.getAttribute("forked"));
+            Assert.assertEquals("fork", forkedRequest.getAttribute("shared"));
+
+            forkedRequest.removeAttribute("shared");
+            forkedRequest.setAttribute("forked", null);
+            Assert.assertFalse(forkedRequest.getAttributeNames().hasMoreElements());
+            Assert.assertEquals("page", request.getAttribute("shared"));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
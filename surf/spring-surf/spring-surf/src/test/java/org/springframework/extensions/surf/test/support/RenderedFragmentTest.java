@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.support;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.springframework.extensions.directives.CssDependencyContentModelElement;
+import org.springframework.extensions.directives.DependencyDeferredContentSourceModelElement;
+import org.springframework.extensions.directives.RecordingDeferredContentTargetModelElement;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.extensibility.DeferredContentSourceModelElement;
+import org.springframework.extensions.surf.extensibility.ExtensibilityDirective;
+import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
+import org.springframework.extensions.surf.support.RenderedFragment;
+import org.springframework.extensions.surf.types.Component;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that replaying a {@link RenderedFragment} registers its recorded dependencies with each request without
+ * sharing them between requests.
+ */
+public class RenderedFragmentTest
+{
+    private static final String JS_TARGET = "outputJavaScript";
+    private static final String CSS_TARGET = "outputCss";
+
+    /**
+     * A request with its own deferred content targets that records the dependencies requested from it.
+     */
+    private static class Request implements InvocationHandler
+    {
+        private final RecordingDeferredContentTargetModelElement jsTarget = new RecordingDeferredContentTargetModelElement(JS_TARGET, JS_TARGET, null);
+        private final RecordingDeferredContentTargetModelElement cssTarget = new RecordingDeferredContentTargetModelElement(CSS_TARGET, CSS_TARGET, null);
+        private final List<String> requested = new ArrayList<String>();
+        
+        private final ExtensibilityModel model = (ExtensibilityModel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ExtensibilityModel.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                Object result = null;
+                if ("getDeferredContent".equals(method.getName()))
+                {
+                    result = (JS_TARGET.equals(args[0]) ? jsTarget : CSS_TARGET.equals(args[0]) ? cssTarget : null);
+                }
+                return result;
+            }
+        });
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            Object result = null;
+            if ("getCurrentExtensibilityModel".equals(name))
+            {
+                result = this.model;
+            }
+            else if ("addJSDependency".equals(name))
+            {
+                this.requested.add((String) args[0]);
+            }
+            else if ("addCssDependency".equals(name))
+            {
+                this.requested.add(args[1] + ":" + args[0]);
+            }
+            return result;
+        }
+
+        private void replay(RenderedFragment fragment)
+        {
+            fragment.replay((RequestContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RequestContext.class }, this));
+        }
+        
+        private DependencyDeferredContentSourceModelElement get(RecordingDeferredContentTargetModelElement target, int index)
+        {
+            return (DependencyDeferredContentSourceModelElement) target.getSourceElements().get(index);
+        }
+    }
+
+    /**
+     * Captures the content and dependencies of a fork.
+     */
+    private static class TestFragment extends RenderedFragment
+    {
+        private TestFragment(String content, RecordingDeferredContentTargetModelElement... targets)
+        {
+            super(content, 
+                  Arrays.asList(targets), 
+                  Collections.singleton("js/module.js"), 
+                  Collections.singletonMap("screen", new LinkedHashSet<String>(Collections.singleton("css/module.css"))), 
+                  new Component[0]);
+        }
+    }
+
+    @Test
+    public void testReplay() throws Exception
+    {
+        RecordingDeferredContentTargetModelElement js = new RecordingDeferredContentTargetModelElement(JS_TARGET, JS_TARGET, null);
+        DependencyDeferredContentSourceModelElement script = new DependencyDeferredContentSourceModelElement("script", "script", "js/nav.js", "nav", true, js);
+        js.registerDeferredSourceElement(script);
+        RecordingDeferredContentTargetModelElement css = new RecordingDeferredContentTargetModelElement(CSS_TARGET, CSS_TARGET, null);
+        css.registerDeferredSourceElement(new CssDependencyContentModelElement("link", "link", "css/nav.css", "nav", "print", false, css));
+        RenderedFragment fragment = new TestFragment("<div>nav</div>", js, css);
+        Assert.assertEquals("<div>nav</div>", fragment.getContent());
+
+        Request request = new Request();
+        request.replay(fragment);
+        Assert.assertEquals(1, request.jsTarget.getSourceElements().size());
+        DependencyDeferredContentSourceModelElement replayed = request.get(request.jsTarget, 0);
+        Assert.assertNotSame(script, replayed);
+        Assert.assertSame(request.jsTarget, replayed.getTargetElement());
+        Assert.assertEquals("js/nav.js", replayed.getDependency());
+        Assert.assertEquals("nav", replayed.getGroup());
+        Assert.assertTrue(replayed.isAggregate());
+        
+        Assert.assertEquals(1, request.cssTarget.getSourceElements().size());
+        CssDependencyContentModelElement link = (CssDependencyContentModelElement) request.get(request.cssTarget, 0);
+        Assert.assertSame(request.cssTarget, link.getTargetElement());
+        Assert.assertEquals("css/nav.css", link.getDependency());
+        Assert.assertEquals("print", link.getMedia());
+        Assert.assertFalse(link.isAggregate());
+        
+        // The dependencies requested by extension modules are requested again
+        Assert.assertEquals(Arrays.asList("js/module.js", "screen:css/module.css"), request.requested);
+    }
+
+    @Test
+    public void testReplayIsNotShared() throws Exception
+    {
+        RecordingDeferredContentTargetModelElement js = new RecordingDeferredContentTargetModelElement(JS_TARGET, JS_TARGET, null);
+        DependencyDeferredContentSourceModelElement script = new DependencyDeferredContentSourceModelElement("script", "script", "js/nav.js", null, false, js);
+        js.registerDeferredSourceElement(script);
+        RenderedFragment fragment = new TestFragment("", js);
+        
+        // The recorded elements are passed on to the page of the request that rendered the fragment...
+        script.markAsRemoved();
+        js.getSourceElements().clear();
+
+        Request request1 = new Request();
+        request1.replay(fragment);
+        Request request2 = new Request();
+        request2.replay(fragment);
+        DependencyDeferredContentSourceModelElement replayed1 = request1.get(request1.jsTarget, 0);
+        DependencyDeferredContentSourceModelElement replayed2 = request2.get(request2.jsTarget, 0);
+        Assert.assertNotSame(replayed1, replayed2);
+        Assert.assertFalse(replayed1.hasBeenRemoved());
+        
+        // ...and an extension removing a dependency from one request doesn't remove it from the others
+        replayed1.enterEditMode(ExtensibilityDirective.ACTION_REMOVE);
+        Assert.assertTrue(replayed1.hasBeenRemoved());
+        Assert.assertFalse(replayed2.hasBeenRemoved());
+        
+        Request request3 = new Request();
+        request3.replay(fragment);
+        Assert.assertFalse(request3.get(request3.jsTarget, 0).hasBeenRemoved());
+    }
+
+    @Test
+    public void testRemovedElementsStayRemoved() throws Exception
+    {
+        RecordingDeferredContentTargetModelElement js = new RecordingDeferredContentTargetModelElement(JS_TARGET, JS_TARGET, null);
+        DependencyDeferredContentSourceModelElement script = new DependencyDeferredContentSourceModelElement("script", "script", "js/nav.js", null, false, js);
+        js.registerDeferredSourceElement(script);
+        
+        // An extension rendered within the fragment removed the dependency before it was captured...
+        script.markAsRemoved();
+        RenderedFragment fragment = new TestFragment("", js);
+        
+        Request request = new Request();
+        request.replay(fragment);
+        Assert.assertTrue(request.get(request.jsTarget, 0).hasBeenRemoved());
+        
+        for (DeferredContentSourceModelElement sourceElement: request.jsTarget.getSourceElements())
+        {
+            Assert.assertNotSame(script, sourceElement);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.uri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.springframework.extensions.config.element.GenericConfigElement;
+import org.springframework.extensions.surf.uri.UriTemplateListIndex;
+import org.springframework.extensions.surf.uri.UriTemplateMappingIndex;
+import org.springframework.extensions.surf.uri.UriUtils;
+import org.springframework.extensions.webscripts.UriTemplate;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the prefix indexed {@link UriTemplateListIndex} and {@link UriTemplateMappingIndex} find the same
+ * match for a URI as trying every {@link UriTemplate} in turn, which is how both indexes matched URIs before the
+ * templates were indexed.
+ */
+public class UriTemplateIndexTest
+{
+    /**
+     * Templates in match order. Several templates overlap so the order decides which of them matches.
+     */
+    private static final List<String> TEMPLATES = Arrays.asList(
+            "/site/{site}/dashboard",
+            "/site/{site}/{pageid}",
+            "/site/{site}/{pageid}/{pageArg}",
+            "/user/{userid}/dashboard",
+            "/user/{userid}/{pageid}",
+            "/page/{pageid}",
+            "/pageid/{pageid}/arg1/{arg1}/arg2/{arg2}",
+            "/arg1/{arg1}/arg2/{arg2}",
+            "/regionId/{regionId}",
+            "/scope/{scopeId}/regionId/{regionId}/sourceId/{sourceId}",
+            "/mode/{mode}/focus/{focus}/scope/{scopeId}/regionId/{regionId}/sourceId/{sourceId}",
+            "/focus/{focus}/scope/{scopeId}/regionId/{regionId}/sourceId/{sourceId}",
+            "/mode/{mode}/scope/{scopeId}/regionId/{regionId}/sourceId/{sourceId}",
+            "/{pageid}",
+            "/{pageid}/{arg}");
+
+    private static final List<String> URIS = Arrays.asList(
+            "/site/swsdp/dashboard",
+            "/site/swsdp/documentlibrary",
+            "/site/swsdp/wiki-page/Main_Page",
+            "/site/swsdp",
+            "/site/swsdp/a/b/c",
+            "/user/admin/dashboard",
+            "/user/admin/profile",
+            "/user/admin",
+            "/page/home",
+            "/page",
+            "/pageid/home/arg1/a/arg2/b",
+            "/pageid/home/arg1/a",
+            "/arg1/a/arg2/b",
+            "/regionId/title",
+            "/scope/page/regionId/title/sourceId/home",
+            "/mode/edit/focus/all/scope/page/regionId/title/sourceId/home",
+            "/focus/all/scope/page/regionId/title/sourceId/home",
+            "/mode/edit/scope/page/regionId/title/sourceId/home",
+            "/mode/edit/scope/page/regionId/title",
+            "/home",
+            "/home/arg",
+            "/Site/swsdp/dashboard",
+            "/site/sw.sdp/dashboard",
+            "/site/sw%20sdp/dashboard",
+            "/site//dashboard",
+            "/site/swsdp/dashboard/",
+            "/unknown/a/b/c",
+            "/",
+            "");
+
+    private static List<UriTemplate> getTemplates()
+    {
+        List<UriTemplate> templates = new ArrayList<UriTemplate>(TEMPLATES.size());
+        for (String template : TEMPLATES)
+        {
+            templates.add(new UriTemplate(template));
+        }
+        return templates;
+    }
+
+    private static Map<String, String> findLinearMatch(List<UriTemplate> templates, String uri)
+    {
+        for (UriTemplate template : templates)
+        {
+            Map<String, String> match = template.match(uri);
+            if (match != null)
+            {
+                return match;
+            }
+        }
+        return null;
+    }
+
+    private static String getEntry(int index)
+    {
+        return "/page?p=" + index + "&pageid={pageid}&site={site}";
+    }
+
+    @Test
+    public void testListIndexMatchesLinearScan()
+    {
+        List<UriTemplate> templates = getTemplates();
+        UriTemplateListIndex index = new UriTemplateListIndex(templates);
+
+        // the second lookup of each uri is answered from the match cache
+        for (int i = 0; i < 2; i++)
+        {
+            for (String uri : URIS)
+            {
+                Assert.assertEquals(uri, findLinearMatch(templates, uri), index.findMatch(uri));
+            }
+        }
+    }
+
+    @Test
+    public void testMappingIndexMatchesLinearScan()
+    {
+        List<UriTemplate> templates = getTemplates();
+        GenericConfigElement config = new GenericConfigElement("uri-mappings");
+        for (int i = 0; i < TEMPLATES.size(); i++)
+        {
+            GenericConfigElement template = new GenericConfigElement("uri-template");
+            template.setValue(TEMPLATES.get(i));
+            GenericConfigElement entry = new GenericConfigElement("url-entry");
+            entry.setValue(getEntry(i));
+            GenericConfigElement mapping = new GenericConfigElement("uri-mapping");
+            mapping.addChild(template);
+            mapping.addChild(entry);
+            config.addChild(mapping);
+        }
+        UriTemplateMappingIndex index = new UriTemplateMappingIndex(config);
+
+        for (int i = 0; i < 2; i++)
+        {
+            for (String uri : URIS)
+            {
+                Map<String, String> expected = null;
+                String expectedEntry = null;
+                for (int t = 0; t < templates.size() && expected == null; t++)
+                {
+                    expected = templates.get(t).match(uri);
+                    if (expected != null)
+                    {
+                        expectedEntry = UriUtils.replaceUriTokens(getEntry(t), expected);
+                    }
+                }
+                Assert.assertEquals(uri, expected, index.findMatch(uri));
+                Assert.assertEquals(uri, expectedEntry, index.findMatchAndReplace(uri));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchIsNotShared()
+    {
+        UriTemplateListIndex index = new UriTemplateListIndex(getTemplates());
+        Map<String, String> match = index.findMatch("/site/swsdp/dashboard");
+        Assert.assertEquals("swsdp", match.get("site"));
+
+        // changing a returned match must not change the cached match...
+        match.put("site", "changed");
+        Assert.assertEquals("swsdp", index.findMatch("/site/swsdp/dashboard").get("site"));
+    }
+}
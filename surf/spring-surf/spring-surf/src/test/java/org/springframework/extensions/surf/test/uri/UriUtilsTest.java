@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.uri;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.springframework.extensions.directives.ProcessJsonModelDirective;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.types.Page;
+import org.springframework.extensions.surf.types.TemplateInstance;
+import org.springframework.extensions.surf.uri.UriUtils;
+import org.springframework.extensions.webscripts.ProcessorModelHelper;
+import org.springframework.extensions.webscripts.URLHelper;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link UriUtils#replaceTokens(String, RequestContext, Pattern, Integer, String)} gives the same result
+ * as matching the token pattern against the maps returned by {@link UriUtils#getTokenMaps(RequestContext)}, which is
+ * how tokens were replaced before the compiled token templates were introduced.
+ */
+public class UriUtilsTest
+{
+    /**
+     * The sources of tokens for a {@link RequestContext} in the order that they are searched.
+     */
+    private static class TokenSources
+    {
+        private Map<String, String> uriTokens = new HashMap<String, String>();
+        private Map<String, String> parameters = new HashMap<String, String>();
+        private Map<String, String> urlArgs = new HashMap<String, String>();
+        private Map<String, String> templateArgs = new HashMap<String, String>();
+        private Map<String, Serializable> attributes = new HashMap<String, Serializable>();
+        private Map<String, Serializable> pageProperties = new HashMap<String, Serializable>();
+        private Map<String, Serializable> templateProperties = new HashMap<String, Serializable>();
+    }
+
+    /**
+     * Creates a proxy for the supplied interface that answers the named methods and returns <code>null</code> (or
+     * <code>false</code>) for all others.
+     */
+    private static <T> T proxy(Class<T> type, final Map<String, Object> answers)
+    {
+        return type.cast(Proxy.newProxyInstance(UriUtilsTest.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                Object result = answers.get(method.getName());
+                if (result == null && method.getReturnType() == boolean.class)
+                {
+                    result = Boolean.FALSE;
+                }
+                return result;
+            }
+        }));
+    }
+
+    private static RequestContext createContext(TokenSources sources)
+    {
+        Map<String, Object> urlHelper = new HashMap<String, Object>();
+        urlHelper.put("getArgs", sources.urlArgs);
+        urlHelper.put("getTemplateArgs", sources.templateArgs);
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put(ProcessorModelHelper.MODEL_URL, proxy(URLHelper.class, urlHelper));
+
+        Map<String, Object> page = new HashMap<String, Object>();
+        page.put("getCustomProperties", sources.pageProperties);
+        Map<String, Object> template = new HashMap<String, Object>();
+        template.put("getCustomProperties", sources.templateProperties);
+
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("getUriTokens", sources.uriTokens);
+        context.put("getParameters", sources.parameters);
+        context.put("getModel", model);
+        context.put("getAttributes", sources.attributes);
+        context.put("getPage", proxy(Page.class, page));
+        context.put("getTemplate", proxy(TemplateInstance.class, template));
+        return proxy(RequestContext.class, context);
+    }
+
+    /**
+     * Replaces the tokens by matching the token pattern against the token maps, as <code>replaceTokens</code> did
+     * before the compiled token templates were introduced.
+     */
+    private static String replaceWithTokenMaps(String s, RequestContext context, Pattern tokenPattern, Integer groupNumber, String missingTokenString)
+    {
+        StringBuffer result = new StringBuffer();
+        if (s != null && context != null)
+        {
+            List<Map<String, String>> tokenMaps = UriUtils.getTokenMaps(context);
+            if (tokenMaps.isEmpty())
+            {
+                result.append(s);
+            }
+            else
+            {
+                Pattern p = (tokenPattern != null) ? tokenPattern : UriUtils.pattern;
+                int gNum = (groupNumber != null) ? groupNumber.intValue() : 1;
+                Matcher m = p.matcher(s);
+                while (m.find())
+                {
+                    String key = m.group(gNum);
+                    String token = null;
+                    Iterator<Map<String, String>> i = tokenMaps.iterator();
+                    while (token == null && i.hasNext())
+                    {
+                        token = i.next().get(key);
+                    }
+                    m.appendReplacement(result, (token == null ? missingTokenString : Matcher.quoteReplacement(token)));
+                }
+                m.appendTail(result);
+            }
+        }
+        else
+        {
+            result.append(s);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Asserts that both ways of replacing the tokens give the expected result.
+     */
+    private static void assertReplaced(String expected, String s, RequestContext context, Pattern tokenPattern, Integer groupNumber, String missingTokenString)
+    {
+        Assert.assertEquals(s, expected, replaceWithTokenMaps(s, context, tokenPattern, groupNumber, missingTokenString));
+        Assert.assertEquals(s, expected, UriUtils.replaceTokens(s, context, tokenPattern, groupNumber, missingTokenString));
+    }
+
+    private static void assertReplaced(String expected, String s, RequestContext context)
+    {
+        assertReplaced(expected, s, context, null, null, "");
+    }
+
+    @Test
+    public void testLookupOrder()
+    {
+        TokenSources sources = new TokenSources();
+        String[] keys = { "a", "b", "c", "d", "e", "f", "g" };
+        String[] names = { "uri", "param", "arg", "templateArg", "attribute", "page", "template" };
+        for (int i = 0; i < keys.length; i++)
+        {
+            // Each source has the key that it should resolve and the keys already resolved by the sources before it...
+            for (int j = 0; j <= i; j++)
+            {
+                String value = names[i];
+                switch (i)
+                {
+                    case 0: sources.uriTokens.put(keys[j], value); break;
+                    case 1: sources.parameters.put(keys[j], value); break;
+                    case 2: sources.urlArgs.put(keys[j], value); break;
+                    case 3: sources.templateArgs.put(keys[j], value); break;
+                    case 4: sources.attributes.put(keys[j], value); break;
+                    case 5: sources.pageProperties.put(keys[j], value); break;
+                    default: sources.templateProperties.put(keys[j], value); break;
+                }
+            }
+        }
+        RequestContext context = createContext(sources);
+        assertReplaced("/uri/param/arg/templateArg/attribute/page/template/", "/{a}/{b}/{c}/{d}/{e}/{f}/{g}/{h}", context);
+
+        // A null property value is skipped in favour of a later source...
+        sources.attributes.put("f", null);
+        assertReplaced("page", "{f}", context);
+
+        // Non-String property values are converted to Strings...
+        sources.pageProperties.put("number", Integer.valueOf(42));
+        assertReplaced("42", "{number}", context);
+    }
+
+    @Test
+    public void testMissingTokens()
+    {
+        TokenSources sources = new TokenSources();
+        sources.uriTokens.put("site", "swsdp");
+        RequestContext context = createContext(sources);
+        assertReplaced("/swsdp//", "/{site}/{page}/", context);
+        assertReplaced("/swsdp/MISSING/", "/{site}/{page}/", context, null, null, "MISSING");
+        assertReplaced("{}", "{}", context, null, null, "{}");
+    }
+
+    @Test
+    public void testSpecialCharacters()
+    {
+        TokenSources sources = new TokenSources();
+        sources.uriTokens.put("dollar", "$1 costs $2");
+        sources.parameters.put("slash", "C:\\temp\\$");
+        RequestContext context = createContext(sources);
+        assertReplaced("[$1 costs $2][C:\\temp\\$]", "[{dollar}][{slash}]", context);
+
+        // The missing token String is a replacement so group references and escapes in it are processed...
+        assertReplaced("[missing][$1 costs $2]", "[{missing}][{dollar}]", context, null, null, "$1");
+        assertReplaced("[{missing}]", "[{missing}]", context, null, null, "$0");
+        assertReplaced("[$][$]", "[{missing}][{other}]", context, null, null, "\\$");
+        assertReplaced("[\\][\\]", "[{missing}][{other}]", context, null, null, "\\\\");
+    }
+
+    @Test
+    public void testInvalidTokens()
+    {
+        TokenSources sources = new TokenSources();
+        sources.uriTokens.put("a", "A");
+        sources.uriTokens.put("", "EMPTY");
+        RequestContext context = createContext(sources);
+        assertReplaced("{a b} { } }A{ {A} EMPTY {", "{a b} { } }{a}{ {{a}} {} {", context);
+        assertReplaced("no tokens", "no tokens", context);
+        assertReplaced("", "", context);
+    }
+
+    @Test
+    public void testCustomPattern()
+    {
+        TokenSources sources = new TokenSources();
+        sources.uriTokens.put("site", "swsdp");
+        RequestContext context = createContext(sources);
+        assertReplaced("/swsdp/{site}/", "/$$site$$/{site}/", context, ProcessJsonModelDirective.pattern, 1, "");
+        assertReplaced("/swsdp/-/", "/$$site$$/$$page$$/", context, ProcessJsonModelDirective.pattern, null, "-");
+
+        // The group number selects the key from a pattern with several groups...
+        Pattern twoGroups = Pattern.compile("<(\\w+):(\\w+)>");
+        assertReplaced("swsdp", "<ignored:site>", context, twoGroups, 2, "");
+    }
+
+    @Test
+    public void testGroupNumberWithDefaultPattern()
+    {
+        TokenSources sources = new TokenSources();
+        sources.uriTokens.put("site", "swsdp");
+        sources.uriTokens.put("{site}", "whole");
+        RequestContext context = createContext(sources);
+
+        // Group 0 is the whole match, including the braces...
+        assertReplaced("/whole/", "/{site}/", context, null, 0, "");
+        assertReplaced("/whole/", "/{site}/", context, UriUtils.pattern, 0, "");
+        assertReplaced("/swsdp/", "/{site}/", context, UriUtils.pattern, 1, "");
+    }
+
+    @Test
+    public void testNoTokenSources()
+    {
+        RequestContext context = proxy(RequestContext.class, new HashMap<String, Object>());
+        assertReplaced("/{site}/", "/{site}/", context);
+        assertReplaced("/$$site$$/", "/$$site$$/", context, ProcessJsonModelDirective.pattern, 1, "");
+        assertReplaced("null", null, context);
+        assertReplaced("/{site}/", "/{site}/", null);
+    }
+
+    @Test
+    public void testCachedTemplateResolvesPerContext()
+    {
+        TokenSources first = new TokenSources();
+        first.uriTokens.put("site", "first");
+        TokenSources second = new TokenSources();
+        second.pageProperties.put("site", "second");
+        assertReplaced("/first/", "/{site}/", createContext(first));
+        assertReplaced("/second/", "/{site}/", createContext(second));
+        assertReplaced("/first/", "/{site}/", createContext(first));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.springframework.extensions.surf.test.webscripts;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Assert;
+import org.springframework.extensions.surf.test.TestCaseSetup;
+import org.springframework.extensions.webscripts.LocalWebScriptRuntimeContainer;
+import org.springframework.extensions.webscripts.Registry;
+import org.springframework.extensions.webscripts.TemplateProcessorRegistry;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the web script and template lookups of the {@link LocalWebScriptRuntimeContainer} are cached, including
+ * the lookups that find nothing, and that resetting the container discards them.
+ */
+public class LookupCacheTest
+{
+    private static final String METHOD = "GET";
+    private static final String URL = "/test/head/component1";
+    private static final String MISSING_URL = "/test/head/missing";
+    private static final String TEMPLATE_PATH = "test/head/component1.get.head";
+    private static final String MISSING_TEMPLATE_PATH = "test/head/missing.get.head";
+
+    /**
+     * Counts the lookups made against the {@link Registry} of the container.
+     */
+    private static class CountingRegistry implements InvocationHandler
+    {
+        private final Registry registry;
+        private int lookups = 0;
+
+        private CountingRegistry(Registry registry)
+        {
+            this.registry = registry;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            if ("findWebScript".equals(method.getName()))
+            {
+                this.lookups++;
+            }
+            try
+            {
+                return method.invoke(this.registry, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Counts the lookups made against the {@link TemplateProcessorRegistry} of the container.
+     */
+    private static class CountingTemplateProcessorRegistry extends TemplateProcessorRegistry
+    {
+        private final TemplateProcessorRegistry registry;
+        private int lookups = 0;
+
+        private CountingTemplateProcessorRegistry(TemplateProcessorRegistry registry)
+        {
+            this.registry = registry;
+        }
+
+        @Override
+        public String findValidTemplatePath(String path)
+        {
+            this.lookups++;
+            return this.registry.findValidTemplatePath(path);
+        }
+    }
+
+    private LocalWebScriptRuntimeContainer getContainer()
+    {
+        return (LocalWebScriptRuntimeContainer) TestCaseSetup.getApplicationContext().getBean("webscripts.container");
+    }
+
+    /**
+     * Looks up the web scripts twice with counting registries and returns the number of lookups that reached the
+     * {@link Registry}.
+     */
+    private int findWebScripts(LocalWebScriptRuntimeContainer container)
+    {
+        Registry registry = container.getRegistry();
+        CountingRegistry counter = new CountingRegistry(registry);
+        container.setRegistry((Registry) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Registry.class }, counter));
+        try
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                Assert.assertNotNull(container.findWebScript(METHOD, URL));
+                Assert.assertNull(container.findWebScript(METHOD, MISSING_URL));
+            }
+        }
+        finally
+        {
+            container.setRegistry(registry);
+        }
+        return counter.lookups;
+    }
+
+    /**
+     * Looks up the templates twice with counting registries and returns the number of lookups that reached the
+     * {@link TemplateProcessorRegistry}.
+     */
+    private int findTemplatePaths(LocalWebScriptRuntimeContainer container)
+    {
+        TemplateProcessorRegistry registry = container.getTemplateProcessorRegistry();
+        CountingTemplateProcessorRegistry counter = new CountingTemplateProcessorRegistry(registry);
+        container.setTemplateProcessorRegistry(counter);
+        try
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                Assert.assertNotNull(container.findValidTemplatePath(TEMPLATE_PATH));
+                Assert.assertNull(container.findValidTemplatePath(MISSING_TEMPLATE_PATH));
+            }
+        }
+        finally
+        {
+            container.setTemplateProcessorRegistry(registry);
+        }
+        return counter.lookups;
+    }
+
+    @Test
+    public void testLookupsAreCached() throws Exception
+    {
+        LocalWebScriptRuntimeContainer container = getContainer();
+        container.reset();
+
+        // Only the first lookup of each URL and path reaches the registries, whether or not it finds anything...
+        Assert.assertEquals(2, findWebScripts(container));
+        Assert.assertEquals(2, findTemplatePaths(container));
+
+        // ...until the container is reset
+        Assert.assertEquals(0, findWebScripts(container));
+        Assert.assertEquals(0, findTemplatePaths(container));
+        container.reset();
+        Assert.assertEquals(2, findWebScripts(container));
+        Assert.assertEquals(2, findTemplatePaths(container));
+    }
+
+    @Test
+    public void testDisabledLookupCache() throws Exception
+    {
+        LocalWebScriptRuntimeContainer container = getContainer();
+        container.setLookupCacheMaxSize(0);
+        try
+        {
+            Assert.assertEquals(4, findWebScripts(container));
+            Assert.assertEquals(4, findTemplatePaths(container));
+        }
+        finally
+        {
+            container.setLookupCacheMaxSize(4096);
+        }
+    }
+}
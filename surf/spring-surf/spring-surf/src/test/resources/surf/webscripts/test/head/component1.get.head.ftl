@@ -0,0 +1 @@
+<meta name="component1" content="HEAD 1"/>
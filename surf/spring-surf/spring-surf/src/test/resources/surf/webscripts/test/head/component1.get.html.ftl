@@ -0,0 +1 @@
+<div>BODY 1</div>
@@ -0,0 +1 @@
+<meta name="component2" content="HEAD 2"/>
@@ -0,0 +1 @@
+<div>BODY 2</div>
@@ -0,0 +1,9 @@
+<html>
+<head>
+${head}
+</head>
+<body>
+<@region id="head1" scope="template"/>
+<@region id="head2" scope="template"/>
+</body>
+</html>